@@ -0,0 +1,238 @@
+package assignment;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a crawl saw of each page it parsed: when the page's file was last modified, its size,
+ * a hash of its contents and the links on it. A later crawl can skip any page whose file hasn't
+ * changed, following the links it had last time, and only parse the pages that have.
+ *
+ * Pages without any words are kept here too, even though they aren't in the index, since the
+ * crawl still has to go through them.
+ *
+ * The segments of an IndexDirectory each keep the state of the pages crawled into them, and
+ * a later segment can mark a page from an earlier one as gone. The state of the whole index is
+ * every segment's put together in order, with the gone pages taken out.
+ */
+class CrawlState implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final HashMap<String, Source> sources = new HashMap<String, Source>();
+    // a rough count of the bytes the sources take up in memory
+    private transient long memoryEstimate;
+
+    /**
+     * One page as it was when it was last crawled.
+     */
+    static class Source implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        // the modification time of the page's file in milliseconds, or -1 if it isn't a file
+        final long modified;
+        final long size;
+        final long hash;
+        // the links on the page, as they were written in it
+        final String[] links;
+
+        Source(long modified, long size, long hash, String[] links) {
+            this.modified = modified;
+            this.size = size;
+            this.hash = hash;
+            this.links = links;
+        }
+
+        /**
+         * Returns the same page, with its file modified at a different time.
+         */
+        Source touched(long modified) {
+            return new Source(modified, size, hash, links);
+        }
+
+        boolean isGone() {
+            return links == null;
+        }
+    }
+
+    // marks a page crawled before that isn't there any more
+    private static final Source GONE = new Source(-1, -1, 0, null);
+
+    /**
+     * Returns what was seen of the page at url, or null if it wasn't crawled.
+     */
+    Source get(URL url) {
+        return sources.get(url.toString());
+    }
+
+    void put(URL url, Source source) {
+        String key = url.toString();
+        sources.put(key, source);
+        // the entry, the key and every link, each a String of UTF-16 chars
+        memoryEstimate += 150 + 2 * key.length();
+        if (source.links != null) {
+            for (String link : source.links)
+                memoryEstimate += 50 + 2 * link.length();
+        }
+    }
+
+    /**
+     * Returns roughly how many bytes of memory the pages take up.
+     */
+    long memoryEstimate() {
+        return memoryEstimate;
+    }
+
+    /**
+     * Marks a page as gone, so it's taken out of the state of any earlier
+     * segment this one is put together with.
+     */
+    void putGone(String url) {
+        sources.put(url, GONE);
+    }
+
+    /**
+     * Adds every page crawled in other, replacing what was seen of them here,
+     * including the pages it marks as gone.
+     */
+    void putAll(CrawlState other) {
+        sources.putAll(other.sources);
+    }
+
+    /**
+     * Takes out the pages marked as gone, once there's nothing earlier left
+     * for them to be taken out of.
+     */
+    void removeGone() {
+        sources.values().removeIf(Source::isGone);
+    }
+
+    boolean contains(String url) {
+        return sources.containsKey(url);
+    }
+
+    Iterable<String> urls() {
+        return sources.keySet();
+    }
+
+    int size() {
+        return sources.size();
+    }
+
+    /**
+     * Writes every page as its URL, modification time, size, hash and links.
+     */
+    void write(IndexFile.Output out) throws IOException {
+        out.putInt(sources.size());
+        for (Map.Entry<String, Source> entry : sources.entrySet()) {
+            Source source = entry.getValue();
+            out.putString(entry.getKey().getBytes(StandardCharsets.UTF_8));
+            out.putLong(source.modified);
+            out.putLong(source.size);
+            out.putLong(source.hash);
+            if (source.isGone()) {
+                out.putInt(-1);
+                continue;
+            }
+            out.putInt(source.links.length);
+            for (String link : source.links)
+                out.putString(link.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Reads a crawl written by write from the given offset of buffer.
+     */
+    static CrawlState read(ByteBuffer buffer, int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        CrawlState state = new CrawlState();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            String url = readString(in);
+            long modified = in.getLong();
+            long size = in.getLong();
+            long hash = in.getLong();
+            int linkCount = in.getInt();
+            if (linkCount < 0) {
+                state.sources.put(url, GONE);
+                continue;
+            }
+            String[] links = new String[linkCount];
+            for (int j = 0; j < links.length; j++)
+                links[j] = readString(in);
+            state.sources.put(url, new Source(modified, size, hash, links));
+        }
+        return state;
+    }
+
+    /**
+     * Writes the states written by write at the given buffers, put together in order as by
+     * putAll, without reading them into memory. Only the URLs are kept while working out which
+     * state each page's entry comes from, and the entries are then copied across as they are.
+     * If removeGone is true the pages marked as gone are left out, as by removeGone.
+     */
+    static void writeMerged(ByteBuffer[] states, boolean removeGone, IndexFile.Output out)
+            throws IOException {
+        // the entries of each state that aren't replaced by a later one, found going backwards
+        BitSet[] kept = new BitSet[states.length];
+        Set<String> seen = new HashSet<String>();
+        int count = 0;
+        for (int i = states.length - 1; i >= 0; i--) {
+            kept[i] = new BitSet();
+            ByteBuffer in = states[i].duplicate();
+            int entries = in.getInt();
+            for (int entry = 0; entry < entries; entry++) {
+                String url = readString(in);
+                boolean gone = skipSource(in);
+                if (seen.add(url) && !(gone && removeGone)) {
+                    kept[i].set(entry);
+                    count++;
+                }
+            }
+        }
+
+        out.putInt(count);
+        byte[] bytes = new byte[1024];
+        for (int i = 0; i < states.length; i++) {
+            ByteBuffer in = states[i].duplicate();
+            int entries = in.getInt();
+            for (int entry = 0; entry < entries; entry++) {
+                int start = in.position();
+                in.position(start + 4 + in.getInt(start));
+                skipSource(in);
+                if (!kept[i].get(entry))
+                    continue;
+                int length = in.position() - start;
+                if (length > bytes.length)
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                in.get(start, bytes, 0, length);
+                out.putBytes(bytes, 0, length);
+            }
+        }
+    }
+
+    /**
+     * Skips over the rest of an entry after its URL, returning whether it marks a page as gone.
+     */
+    private static boolean skipSource(ByteBuffer in) {
+        in.position(in.position() + 24);
+        int linkCount = in.getInt();
+        for (int i = 0; i < linkCount; i++)
+            in.position(in.position() + 4 + in.getInt(in.position()));
+        return linkCount < 0;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -15,6 +15,10 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
 	URL currentURL;
 	Page currentPage;
 	String currentTag;
+	WordTokenizer tokenizer;
+	// the pages kept so far and the current page's fingerprint, if near duplicates are dropped
+	NearDuplicates duplicates;
+	NearDuplicates.Fingerprint fingerprint;
 
 	/**
 	 * Initializes the WebIndex and set of found URLs.
@@ -22,6 +26,11 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
     public CrawlingMarkupHandler() {
     		index = new WebIndex();
     		urls = new HashSet<String>();
+    		tokenizer = new WordTokenizer((word, prev) -> {
+    			index.add(word, prev, currentPage);
+    			if (fingerprint != null)
+    				fingerprint.add(word, prev);
+    		});
     }
     
     /**
@@ -30,6 +39,37 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
     public void updateCurrentURL(URL currentURL) {
     		this.currentURL = currentURL;
     		this.currentPage = new Page(currentURL);
+    		// don't let the last tag of the previous page leak into this one
+    		this.currentTag = null;
+    		tokenizer.endText();
+    		if (fingerprint != null)
+    			fingerprint.reset();
+    }
+
+    /**
+     * Makes this handler fingerprint each page it parses, so dropIfDuplicate can
+     * drop the ones that are near duplicates of a page in duplicates, which the
+     * handlers of a parallel crawl share.
+     */
+    public void dedupe(NearDuplicates duplicates) {
+    		this.duplicates = duplicates;
+    		this.fingerprint = new NearDuplicates.Fingerprint();
+    }
+
+    /**
+     * Deletes the current page from the index if it's a near duplicate of a page
+     * parsed before it, returning that page's URL, or null if the page is kept.
+     * Its crawl state and links stay, so a re-crawl doesn't take it for a new page.
+     * Does nothing if dedupe hasn't been called, or the page has no words.
+     */
+    public String dropIfDuplicate() {
+    		assert currentURL != null : "Current URL must be set via updateCurrentURL!";
+    		if (fingerprint == null || fingerprint.isEmpty())
+    			return null;
+    		String canonical = duplicates.find(fingerprint.value(), currentURL.toString());
+    		if (canonical != null)
+    			index.delete(currentPage);
+    		return canonical;
     }
 
     /**
@@ -39,6 +79,26 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
         return index;
     }
 
+    /**
+     * Returns the index crawled since the last flush, and starts a new one
+     * for the pages parsed from now on.
+     */
+    public WebIndex flush() {
+    		WebIndex flushed = index;
+    		index = new WebIndex();
+    		return flushed;
+    }
+
+    /**
+     * Records the file the current page was parsed from, and the links found on it,
+     * in the index's CrawlState. Has to be called before newURLs clears the links.
+     */
+    public void recordSource(long modified, long size, long hash) {
+    		assert currentURL != null : "Current URL must be set via updateCurrentURL!";
+    		index.crawlState().put(currentURL,
+    				new CrawlState.Source(modified, size, hash, urls.toArray(new String[0])));
+    }
+
     /**
     * This method returns any new URLs found to the Crawler; upon being called, the set of new URLs
     * should be cleared.
@@ -92,7 +152,7 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
     * @param col             the column of the document where the parsing ends
     */
     public void handleDocumentEnd(long endTimeNanos, long totalTimeNanos, int line, int col) {
-    		// do nothing
+    		tokenizer.endText();
     }
 
     /**
@@ -105,6 +165,7 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
     */
     public void handleOpenElement(String elementName, Map<String, String> attributes, int line, int col) {
     		assert currentURL != null : "Current URL must be set via updateCurrentURL!";
+    		tokenizer.endText();
     		currentTag = elementName.toLowerCase();
 
         if (attributes == null)
@@ -137,7 +198,50 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
     * @param col         the column in the document where this element appears.
     */
     public void handleCloseElement(String elementName, int line, int col) {
-    		// do nothing
+    		tokenizer.endText();
+    }
+
+    /*
+     * Any other markup also ends the current block of text, so words on either
+     * side of it are never treated as part of the same phrase.
+     */
+
+    public void handleStandaloneElement(String elementName, Map<String, String> attributes,
+    		boolean minimized, int line, int col) {
+    		tokenizer.endText();
+    }
+
+    public void handleAutoOpenElement(String elementName, Map<String, String> attributes, int line, int col) {
+    		tokenizer.endText();
+    }
+
+    public void handleAutoCloseElement(String elementName, int line, int col) {
+    		tokenizer.endText();
+    }
+
+    public void handleUnmatchedCloseElement(String elementName, int line, int col) {
+    		tokenizer.endText();
+    }
+
+    public void handleComment(char[] buffer, int offset, int len, int line, int col) {
+    		tokenizer.endText();
+    }
+
+    public void handleCDATASection(char[] buffer, int offset, int len, int line, int col) {
+    		tokenizer.endText();
+    }
+
+    public void handleDocType(String elementName, String publicId, String systemId,
+    		String internalSubset, int line, int col) {
+    		tokenizer.endText();
+    }
+
+    public void handleXmlDeclaration(String version, String encoding, String standalone, int line, int col) {
+    		tokenizer.endText();
+    }
+
+    public void handleProcessingInstruction(String target, String content, int line, int col) {
+    		tokenizer.endText();
     }
 
     /**
@@ -153,36 +257,13 @@ public class CrawlingMarkupHandler extends AbstractSimpleMarkupHandler {
     * @param length  number of characters in ch
     */
     public void handleText(char ch[], int start, int length, int line, int col) {
-    		String words = "";
-    		
     		// the style/script tags always have irrelevant text, don't 
     		// want to index it
-    		if (currentTag.equals("style") || currentTag.equals("script"))
+    		if ("style".equals(currentTag) || "script".equals(currentTag))
     			return;
-    		
-    		
-        for(int i = start; i < start + length; i++) {
-        		// only add letters and apostrophes to String, separate
-        		if (Character.isLetter(ch[i]) || ch[i] == '\'')
-        			words += ch[i];
-        		else
-        			words += " ";
-        }
-
-        // get rid of nbsp
-        words = words.replaceAll("nbsp", "");
 
-        // get rid of extra whitespace; lowercase string
-        words = words.replaceAll("\\s+", " ").trim().toLowerCase();
-
-        String prev = "";
-        // sometimes empty string will end up as ' ', so ignore those strings as well
-        if (!words.isEmpty() && !words.equals(" ")) {
-        		for (String word : words.split(" ")) {
-        			// Add to index!!
-        			index.add(word, prev, currentPage);
-        			prev = word;
-        		}
-        }
+    		// words are split on anything other than letters and apostrophes,
+    		// and words cut off by the end of this chunk are finished by the next
+    		tokenizer.text(ch, start, length);
     }
 }
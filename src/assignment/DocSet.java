@@ -0,0 +1,594 @@
+package assignment;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of doc IDs, laid out like a roaring bitmap. IDs are grouped by their top 16
+ * bits, and each group keeps its low 16 bits either as a sorted char array, while it holds at
+ * most 4096 IDs, or as a 65536 bit bitmap once it holds more. Sparse sets stay small, and dense
+ * ones are combined a 64 bit word at a time.
+ *
+ * The and, or and andNot operations never change either set; they return a new one. And
+ * gallops through the bigger of two sorted arrays, of groups or of IDs, when one is much
+ * smaller than the other: each of the smaller one's entries is found by doubling a step until
+ * it's passed, then searching back, so the cost follows the smaller one rather than both.
+ */
+public class DocSet implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // groups with more IDs than this are stored as bitmaps
+    static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+    // arrays at least this many times longer than the other are galloped through, not merged
+    static final int GALLOP_RATIO = 4;
+
+    // the top 16 bits of each group, in increasing order
+    private char[] keys;
+    // each group's IDs, as a char[] (sorted, maybe with unused space at the end) or a long[]
+    private Object[] containers;
+    private int[] cardinalities;
+    private int groups;
+
+    /**
+     * Creates an empty set.
+     */
+    public DocSet() {
+        this(4);
+    }
+
+    private DocSet(int capacity) {
+        keys = new char[capacity];
+        containers = new Object[capacity];
+        cardinalities = new int[capacity];
+    }
+
+    /**
+     * Returns the set of every doc ID from 0 up to (but not including) n.
+     */
+    public static DocSet range(int n) {
+        return range(0, n);
+    }
+
+    /**
+     * Returns the set of every doc ID from from up to (but not including) to.
+     */
+    public static DocSet range(int from, int to) {
+        if (from >= to)
+            return new DocSet();
+        DocSet set = new DocSet(((to - 1) >>> 16) - (from >>> 16) + 1);
+        for (int start = from & ~0xFFFF; start < to; start += 1 << 16) {
+            // the group's first and last IDs, less its start
+            int lo = Math.max(from, start) - start;
+            int hi = Math.min(to - start, 1 << 16);
+            int count = hi - lo;
+            if (count <= ARRAY_LIMIT) {
+                char[] array = new char[count];
+                for (int i = 0; i < count; i++)
+                    array[i] = (char) (lo + i);
+                set.append((char) (start >>> 16), array, count);
+            } else {
+                long[] bitmap = new long[BITMAP_WORDS];
+                int first = lo >>> 6, last = (hi - 1) >>> 6;
+                Arrays.fill(bitmap, first, last + 1, -1L);
+                bitmap[first] &= -1L << lo;
+                bitmap[last] &= -1L >>> (63 - ((hi - 1) & 63));
+                set.append((char) (start >>> 16), bitmap, count);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Adds a doc ID to the set. Adding IDs in increasing order is the fast case.
+     */
+    public void add(int doc) {
+        assert doc >= 0 : "DocSet: doc IDs can't be negative!";
+        char key = (char) (doc >>> 16);
+        char low = (char) doc;
+
+        int g;
+        if (groups > 0 && keys[groups - 1] == key) {
+            g = groups - 1;
+        } else {
+            g = findGroup(key);
+            if (g < 0) {
+                g = -g - 1;
+                insertGroup(g, key, new char[4], 0);
+            }
+        }
+
+        Object container = containers[g];
+        int cardinality = cardinalities[g];
+        if (container instanceof long[]) {
+            long[] bitmap = (long[]) container;
+            long bit = 1L << low;
+            if ((bitmap[low >>> 6] & bit) == 0) {
+                bitmap[low >>> 6] |= bit;
+                cardinalities[g]++;
+            }
+            return;
+        }
+
+        char[] array = (char[]) container;
+        int at;
+        if (cardinality == 0 || array[cardinality - 1] < low) {
+            at = cardinality;
+        } else {
+            at = Arrays.binarySearch(array, 0, cardinality, low);
+            if (at >= 0)
+                return;
+            at = -at - 1;
+        }
+
+        if (cardinality == ARRAY_LIMIT) {
+            long[] bitmap = toBitmap(array, cardinality);
+            bitmap[low >>> 6] |= 1L << low;
+            containers[g] = bitmap;
+        } else {
+            if (cardinality == array.length)
+                containers[g] = array = Arrays.copyOf(array, Math.min(ARRAY_LIMIT, cardinality * 2));
+            System.arraycopy(array, at, array, at + 1, cardinality - at);
+            array[at] = low;
+        }
+        cardinalities[g]++;
+    }
+
+    /**
+     * Returns whether the given doc ID is in the set.
+     */
+    public boolean contains(int doc) {
+        int g = findGroup((char) (doc >>> 16));
+        if (g < 0)
+            return false;
+        char low = (char) doc;
+        Object container = containers[g];
+        if (container instanceof long[])
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        return Arrays.binarySearch((char[]) container, 0, cardinalities[g], low) >= 0;
+    }
+
+    /**
+     * Returns the number of doc IDs in the set.
+     */
+    public int cardinality() {
+        int total = 0;
+        for (int g = 0; g < groups; g++)
+            total += cardinalities[g];
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return groups == 0;
+    }
+
+    /**
+     * Returns a rough count of the bytes used by the set.
+     */
+    public long byteSize() {
+        long bytes = 16 + keys.length * 2L + containers.length * 4L + cardinalities.length * 4L;
+        for (int g = 0; g < groups; g++) {
+            Object container = containers[g];
+            bytes += 16 + (container instanceof long[] ? BITMAP_WORDS * 8L : ((char[]) container).length * 2L);
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the doc IDs in both this set and other.
+     */
+    public DocSet and(DocSet other) {
+        DocSet result = new DocSet(Math.max(1, Math.min(groups, other.groups)));
+        int a = 0, b = 0;
+        while (a < groups && b < other.groups) {
+            if (keys[a] < other.keys[b]) {
+                a = gallop(keys, a + 1, groups, other.keys[b]);
+            } else if (keys[a] > other.keys[b]) {
+                b = gallop(other.keys, b + 1, other.groups, keys[a]);
+            } else {
+                result.appendAnd(keys[a], containers[a], cardinalities[a],
+                        other.containers[b], other.cardinalities[b]);
+                a++;
+                b++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the doc IDs in either this set or other.
+     */
+    public DocSet or(DocSet other) {
+        DocSet result = new DocSet(Math.max(1, groups + other.groups));
+        int a = 0, b = 0;
+        while (a < groups || b < other.groups) {
+            if (b == other.groups || (a < groups && keys[a] < other.keys[b])) {
+                result.append(keys[a], copy(containers[a]), cardinalities[a]);
+                a++;
+            } else if (a == groups || keys[a] > other.keys[b]) {
+                result.append(other.keys[b], copy(other.containers[b]), other.cardinalities[b]);
+                b++;
+            } else {
+                result.appendOr(keys[a], containers[a], cardinalities[a],
+                        other.containers[b], other.cardinalities[b]);
+                a++;
+                b++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the doc IDs in this set but not in other.
+     */
+    public DocSet andNot(DocSet other) {
+        DocSet result = new DocSet(Math.max(1, groups));
+        int b = 0;
+        for (int a = 0; a < groups; a++) {
+            while (b < other.groups && other.keys[b] < keys[a])
+                b++;
+            if (b < other.groups && other.keys[b] == keys[a])
+                result.appendAndNot(keys[a], containers[a], cardinalities[a],
+                        other.containers[b], other.cardinalities[b]);
+            else
+                result.append(keys[a], copy(containers[a]), cardinalities[a]);
+        }
+        return result;
+    }
+
+    /**
+     * Calls action with every doc ID in the set, in increasing order.
+     */
+    public void forEach(IntConsumer action) {
+        for (PrimitiveIterator.OfInt it = iterator(); it.hasNext(); )
+            action.accept(it.nextInt());
+    }
+
+    /**
+     * Returns an iterator over the doc IDs in the set, in increasing order.
+     */
+    public PrimitiveIterator.OfInt iterator() {
+        return new PrimitiveIterator.OfInt() {
+            int g = 0;
+            int index = 0;  // the next index of an array group, or bit of a bitmap group
+            int next = advance();
+
+            private int advance() {
+                while (g < groups) {
+                    int high = keys[g] << 16;
+                    Object container = containers[g];
+                    if (container instanceof char[]) {
+                        if (index < cardinalities[g])
+                            return high | ((char[]) container)[index++];
+                    } else {
+                        long[] bitmap = (long[]) container;
+                        int word = index >>> 6;
+                        if (word < BITMAP_WORDS) {
+                            long bits = bitmap[word] & (-1L << index);
+                            while (bits == 0 && ++word < BITMAP_WORDS)
+                                bits = bitmap[word];
+                            if (bits != 0) {
+                                int low = (word << 6) + Long.numberOfTrailingZeros(bits);
+                                index = low + 1;
+                                return high | low;
+                            }
+                        }
+                    }
+                    g++;
+                    index = 0;
+                }
+                return -1;
+            }
+
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            public int nextInt() {
+                if (next < 0)
+                    throw new NoSuchElementException();
+                int doc = next;
+                next = advance();
+                return doc;
+            }
+        };
+    }
+
+    /**
+     * Returns the doc IDs in the set as a sorted array.
+     */
+    public int[] toArray() {
+        int[] docs = new int[cardinality()];
+        int n = 0;
+        for (PrimitiveIterator.OfInt it = iterator(); it.hasNext(); )
+            docs[n++] = it.nextInt();
+        return docs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DocSet))
+            return false;
+        return Arrays.equals(toArray(), ((DocSet) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    /**
+     * Returns the index of the first of array[from, to) at or above target, or to
+     * if there's none, doubling the step from from until target is passed and then
+     * searching back, so a target k entries on is found in about 2 log k steps.
+     */
+    static int gallop(char[] array, int from, int to, char target) {
+        if (from >= to || array[from] >= target)
+            return from;
+        // array[low] < target, and array[high] >= target if high < to
+        int low = from, step = 1;
+        int high = low + step;
+        while (high < to && array[high] < target) {
+            low = high;
+            step <<= 1;
+            high = low + step;
+        }
+        high = Math.min(high, to);
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (array[middle] < target)
+                low = middle;
+            else
+                high = middle;
+        }
+        return high;
+    }
+
+    private int findGroup(char key) {
+        return Arrays.binarySearch(keys, 0, groups, key);
+    }
+
+    private void insertGroup(int at, char key, Object container, int cardinality) {
+        if (groups == keys.length) {
+            int capacity = Math.max(4, groups * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+            cardinalities = Arrays.copyOf(cardinalities, capacity);
+        }
+        System.arraycopy(keys, at, keys, at + 1, groups - at);
+        System.arraycopy(containers, at, containers, at + 1, groups - at);
+        System.arraycopy(cardinalities, at, cardinalities, at + 1, groups - at);
+        keys[at] = key;
+        containers[at] = container;
+        cardinalities[at] = cardinality;
+        groups++;
+    }
+
+    /**
+     * Adds a group after every existing group, dropping it if it's empty.
+     */
+    private void append(char key, Object container, int cardinality) {
+        if (cardinality > 0)
+            insertGroup(groups, key, container, cardinality);
+    }
+
+    /**
+     * Appends the group holding the given array, or the given bitmap shrunk down to
+     * an array if it no longer holds enough IDs to need one.
+     */
+    private void appendBitmap(char key, long[] bitmap, int cardinality) {
+        if (cardinality > ARRAY_LIMIT)
+            append(key, bitmap, cardinality);
+        else
+            append(key, toArray(bitmap, cardinality), cardinality);
+    }
+
+    private void appendAnd(char key, Object a, int aCount, Object b, int bCount) {
+        if (a instanceof char[] && b instanceof char[]) {
+            char[] x = (char[]) a, y = (char[]) b;
+            char[] out = new char[Math.min(aCount, bCount)];
+            int n = 0;
+            if ((long) aCount * GALLOP_RATIO <= bCount || (long) bCount * GALLOP_RATIO <= aCount) {
+                // look each of the smaller array's IDs up in the bigger one
+                char[] small = aCount <= bCount ? x : y, big = aCount <= bCount ? y : x;
+                int smallCount = Math.min(aCount, bCount), bigCount = Math.max(aCount, bCount);
+                for (int i = 0, j = 0; i < smallCount && j < bigCount; i++) {
+                    j = gallop(big, j, bigCount, small[i]);
+                    if (j < bigCount && big[j] == small[i])
+                        out[n++] = small[i];
+                }
+            } else {
+                for (int i = 0, j = 0; i < aCount && j < bCount; ) {
+                    if (x[i] < y[j]) i++;
+                    else if (x[i] > y[j]) j++;
+                    else { out[n++] = x[i]; i++; j++; }
+                }
+            }
+            append(key, out, n);
+        } else if (a instanceof char[] || b instanceof char[]) {
+            // filter the array through the bitmap
+            char[] array = (char[]) (a instanceof char[] ? a : b);
+            int count = a instanceof char[] ? aCount : bCount;
+            long[] bitmap = (long[]) (a instanceof char[] ? b : a);
+            char[] out = new char[count];
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                char low = array[i];
+                if ((bitmap[low >>> 6] & (1L << low)) != 0)
+                    out[n++] = low;
+            }
+            append(key, out, n);
+        } else {
+            long[] x = (long[]) a, y = (long[]) b;
+            long[] out = new long[BITMAP_WORDS];
+            int n = 0;
+            for (int w = 0; w < BITMAP_WORDS; w++) {
+                out[w] = x[w] & y[w];
+                n += Long.bitCount(out[w]);
+            }
+            appendBitmap(key, out, n);
+        }
+    }
+
+    private void appendOr(char key, Object a, int aCount, Object b, int bCount) {
+        if (a instanceof char[] && b instanceof char[] && aCount + bCount <= ARRAY_LIMIT) {
+            char[] x = (char[]) a, y = (char[]) b;
+            char[] out = new char[aCount + bCount];
+            int n = 0, i = 0, j = 0;
+            while (i < aCount && j < bCount) {
+                if (x[i] < y[j]) out[n++] = x[i++];
+                else if (x[i] > y[j]) out[n++] = y[j++];
+                else { out[n++] = x[i++]; j++; }
+            }
+            while (i < aCount) out[n++] = x[i++];
+            while (j < bCount) out[n++] = y[j++];
+            append(key, out, n);
+            return;
+        }
+
+        long[] out = a instanceof long[] ? ((long[]) a).clone() : toBitmap((char[]) a, aCount);
+        if (b instanceof long[]) {
+            long[] y = (long[]) b;
+            for (int w = 0; w < BITMAP_WORDS; w++)
+                out[w] |= y[w];
+        } else {
+            char[] y = (char[]) b;
+            for (int i = 0; i < bCount; i++)
+                out[y[i] >>> 6] |= 1L << y[i];
+        }
+        appendBitmap(key, out, bitCount(out));
+    }
+
+    private void appendAndNot(char key, Object a, int aCount, Object b, int bCount) {
+        if (a instanceof char[]) {
+            char[] x = (char[]) a;
+            char[] out = new char[aCount];
+            int n = 0;
+            if (b instanceof char[]) {
+                char[] y = (char[]) b;
+                int j = 0;
+                for (int i = 0; i < aCount; i++) {
+                    while (j < bCount && y[j] < x[i])
+                        j++;
+                    if (j == bCount || y[j] != x[i])
+                        out[n++] = x[i];
+                }
+            } else {
+                long[] y = (long[]) b;
+                for (int i = 0; i < aCount; i++) {
+                    if ((y[x[i] >>> 6] & (1L << x[i])) == 0)
+                        out[n++] = x[i];
+                }
+            }
+            append(key, out, n);
+            return;
+        }
+
+        long[] out = ((long[]) a).clone();
+        if (b instanceof long[]) {
+            long[] y = (long[]) b;
+            for (int w = 0; w < BITMAP_WORDS; w++)
+                out[w] &= ~y[w];
+        } else {
+            char[] y = (char[]) b;
+            for (int i = 0; i < bCount; i++)
+                out[y[i] >>> 6] &= ~(1L << y[i]);
+        }
+        appendBitmap(key, out, bitCount(out));
+    }
+
+    private static Object copy(Object container) {
+        return container instanceof long[] ? ((long[]) container).clone() : ((char[]) container).clone();
+    }
+
+    private static long[] toBitmap(char[] array, int cardinality) {
+        long[] bitmap = new long[BITMAP_WORDS];
+        for (int i = 0; i < cardinality; i++)
+            bitmap[array[i] >>> 6] |= 1L << array[i];
+        return bitmap;
+    }
+
+    private static char[] toArray(long[] bitmap, int cardinality) {
+        char[] array = new char[cardinality];
+        int n = 0;
+        for (int w = 0; w < BITMAP_WORDS; w++) {
+            for (long bits = bitmap[w]; bits != 0; bits &= bits - 1)
+                array[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(bits));
+        }
+        return array;
+    }
+
+    private static int bitCount(long[] bitmap) {
+        int n = 0;
+        for (long word : bitmap)
+            n += Long.bitCount(word);
+        return n;
+    }
+
+    /**
+     * Writes the set in the format used by IndexFile: the number of groups, then each
+     * group's key and cardinality followed by its chars or bitmap words.
+     */
+    void write(IndexFile.Output out) throws IOException {
+        out.putInt(groups);
+        for (int g = 0; g < groups; g++) {
+            out.putChar(keys[g]);
+            out.putInt(cardinalities[g]);
+            if (containers[g] instanceof long[]) {
+                for (long word : (long[]) containers[g])
+                    out.putLong(word);
+            } else {
+                char[] array = (char[]) containers[g];
+                for (int i = 0; i < cardinalities[g]; i++)
+                    out.putChar(array[i]);
+            }
+        }
+    }
+
+    /**
+     * Reads a set written by write from the given offset of buffer. Groups with more
+     * than ARRAY_LIMIT IDs are always bitmaps, so the cardinality gives the group's type.
+     */
+    static DocSet read(ByteBuffer buffer, int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        int groups = in.getInt();
+        DocSet set = new DocSet(Math.max(1, groups));
+        for (int g = 0; g < groups; g++) {
+            char key = in.getChar();
+            int cardinality = in.getInt();
+            if (cardinality > ARRAY_LIMIT) {
+                long[] bitmap = new long[BITMAP_WORDS];
+                in.asLongBuffer().get(bitmap);
+                in.position(in.position() + BITMAP_WORDS * 8);
+                set.append(key, bitmap, cardinality);
+            } else {
+                char[] array = new char[cardinality];
+                in.asCharBuffer().get(array);
+                in.position(in.position() + cardinality * 2);
+                set.append(key, array, cardinality);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * Trims the unused end of the group arrays before the set is serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        keys = Arrays.copyOf(keys, groups);
+        containers = Arrays.copyOf(containers, groups);
+        cardinalities = Arrays.copyOf(cardinalities, groups);
+        for (int g = 0; g < groups; g++) {
+            if (containers[g] instanceof char[])
+                containers[g] = Arrays.copyOf((char[]) containers[g], cardinalities[g]);
+        }
+        out.defaultWriteObject();
+    }
+}
@@ -12,11 +12,17 @@ public class Index implements Serializable {
 
     /**
      * Loads an Index from the given file, throwing an exception if there is an error during the
-     * loading process. The actual concrete type of the Index will be automagically determined by
-     * the ObjectStream.
+     * loading process. Files in the IndexFile format are memory mapped as a WebIndex, as are the
+     * segments of an IndexDirectory; anything else is read as a Java serialized index, and the
+     * actual concrete type of the Index will be automagically determined by the ObjectStream.
      * @param filename The file to load the index from.
      */
     public static Index load(String filename) throws IOException, ClassNotFoundException {
+        if (IndexDirectory.isIndexDirectory(filename))
+            return IndexDirectory.open(filename).reader();
+        if (IndexFile.isIndexFile(filename))
+            return new WebIndex(IndexFile.open(filename));
+
         // Uses Java 7's try-with-resources to attempt to open the file, automatically closing it
         // upon completion or failure.
         try(ObjectInputStream oin = new ObjectInputStream(new FileInputStream(filename))) {
@@ -0,0 +1,537 @@
+package assignment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An index kept as a directory of immutable segments, each one an IndexFile of its own. New pages
+ * are added as a new segment instead of rewriting the whole index, so a crawl can write out its
+ * index every so many pages and never hold more than that in memory.
+ *
+ * The list of segments, and the doc IDs deleted from each one since it was written, are kept in
+ * a small "segments" file which is replaced every time they change; nothing else in the directory
+ * is ever changed in place. A reader is a WebIndex over the segments listed when it was made, and
+ * isn't affected by anything done to the directory afterwards.
+ *
+ * Segments are merged in the background, a few at a time, so there are never many of them. Each
+ * segment has a level, the number of times MERGE_FACTOR goes into its page count, and whenever
+ * MERGE_FACTOR segments next to each other have the same level they're merged into one. Merging
+ * goes through the segments' terms in order and writes each term out before reading the next, and
+ * copies the crawl states across without reading them in, so it only keeps a few numbers for each
+ * page and term in memory however big the segments are. It leaves out any deleted pages.
+ */
+public class IndexDirectory implements Closeable {
+    static final int MAGIC = 0x54534547;
+    static final int VERSION = 1;
+    static final String SEGMENTS = "segments";
+    public static final int MERGE_FACTOR = 4;
+
+    private final Path directory;
+
+    // the segment files in doc ID order, and what's been deleted from each
+    private List<String> names = new ArrayList<String>();
+    private List<DocSet> deletions = new ArrayList<DocSet>();
+    // the number of times the segments have changed, and the number in the next segment's name
+    private int generation;
+    private int nextSegment;
+
+    // the segments mapped so far, kept so every reader shares them
+    private final Map<String, IndexFile> open = new HashMap<String, IndexFile>();
+    // segments being merged, which aren't picked for another merge
+    private final List<String> merging = new ArrayList<String>();
+    private ExecutorService merger;
+    private final List<Future<?>> merges = new ArrayList<Future<?>>();
+
+    private IndexDirectory(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns whether path is a directory holding an IndexDirectory.
+     */
+    public static boolean isIndexDirectory(String path) {
+        return Files.isRegularFile(Paths.get(path, SEGMENTS));
+    }
+
+    /**
+     * Opens the IndexDirectory at path.
+     */
+    public static IndexDirectory open(String path) throws IOException {
+        IndexDirectory index = new IndexDirectory(Paths.get(path));
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(index.directory.resolve(SEGMENTS)));
+        if (in.getInt() != MAGIC || in.getInt() != VERSION)
+            throw new IOException("Not an index directory: " + path);
+        index.generation = in.getInt();
+        index.nextSegment = in.getInt();
+        int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[in.getInt()];
+            in.get(name);
+            index.names.add(new String(name, StandardCharsets.UTF_8));
+            DocSet deleted = new DocSet();
+            for (int n = in.getInt(); n > 0; n--)
+                deleted.add(in.getInt());
+            index.deletions.add(deleted);
+        }
+        return index;
+    }
+
+    /**
+     * Creates an empty IndexDirectory at path, replacing whatever index
+     * was there before.
+     */
+    public static IndexDirectory create(String path) throws IOException {
+        Path directory = Paths.get(path);
+        if (Files.isRegularFile(directory))
+            Files.delete(directory);
+        Files.createDirectories(directory);
+        IndexDirectory index = new IndexDirectory(directory);
+        // the old segments are only deleted once the empty list has replaced them
+        List<Path> old = new ArrayList<Path>();
+        try (var files = Files.list(directory)) {
+            files.filter(file -> !file.getFileName().toString().equals(SEGMENTS)).forEach(old::add);
+        }
+        index.commit();
+        for (Path file : old)
+            Files.deleteIfExists(file);
+        return index;
+    }
+
+    /**
+     * Moves the finished index at from to path, replacing whatever index was there. The
+     * old index is moved aside before it's deleted, so path is only ever missing for a moment.
+     */
+    public static void replace(String from, String path) throws IOException {
+        Path target = Paths.get(path);
+        Path old = Paths.get(path + ".old");
+        deleteAll(old);
+        if (Files.exists(target))
+            Files.move(target, old, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(Paths.get(from), target, StandardCopyOption.ATOMIC_MOVE);
+        deleteAll(old);
+    }
+
+    private static void deleteAll(Path path) throws IOException {
+        if (!Files.exists(path))
+            return;
+        try (var files = Files.walk(path)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator)
+                Files.delete(file);
+        }
+    }
+
+    /**
+     * Returns the number of times the segments have changed, which goes up
+     * every time pages are added, deleted or merged.
+     */
+    public synchronized int generation() {
+        return generation;
+    }
+
+    /**
+     * Returns the number of segments.
+     */
+    public synchronized int segmentCount() {
+        return names.size();
+    }
+
+    /**
+     * Returns an index of every page in the directory now, backed by its mapped segments.
+     */
+    public synchronized WebIndex reader() throws IOException {
+        IndexFile[] files = new IndexFile[names.size()];
+        DocSet[] deleted = new DocSet[names.size()];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = segment(names.get(i));
+            // the reader gets its own copy, since more pages can be deleted later
+            deleted[i] = deletions.get(i).or(new DocSet());
+        }
+        return new WebIndex(files, deleted);
+    }
+
+    /**
+     * Adds the pages of an index as a new segment.
+     */
+    public void add(WebIndex segment) throws IOException {
+        update(List.of(), segment);
+    }
+
+    /**
+     * Deletes the given pages from the segments they're in and adds the pages of
+     * segment as a new segment after them, or just deletes the pages if segment is null.
+     * Both happen at once for any reader made afterwards.
+     */
+    public void update(Collection<Page> deleted, WebIndex segment) throws IOException {
+        // the segment is written before the list of segments is touched, so
+        // readers never see it half written
+        String name = null;
+        // a segment without any pages is still written for its crawl state
+        if (segment != null) {
+            synchronized (this) {
+                name = segmentName(nextSegment++);
+            }
+            IndexFile.write(segment, directory.resolve(name).toString());
+        }
+
+        synchronized (this) {
+            if (!deleted.isEmpty()) {
+                Set<String> urls = new HashSet<String>();
+                for (Page page : deleted)
+                    urls.add(page.getURL().toString());
+                // older copies of a page can still be in a segment, already deleted
+                for (int i = 0; i < names.size(); i++) {
+                    IndexFile file = segment(names.get(i));
+                    DocSet fileDeleted = file.deleted().or(deletions.get(i));
+                    for (int doc = 0; doc < file.pageCount(); doc++) {
+                        if (!fileDeleted.contains(doc) && urls.contains(file.url(doc)))
+                            deletions.get(i).add(doc);
+                    }
+                }
+            }
+            if (name != null) {
+                names.add(name);
+                deletions.add(new DocSet());
+            }
+            commit();
+        }
+        mergeLater();
+    }
+
+    /**
+     * Waits for every merge started so far to finish.
+     */
+    public void waitForMerges() throws IOException {
+        while (true) {
+            Future<?> merge;
+            synchronized (this) {
+                if (merges.isEmpty())
+                    return;
+                merge = merges.remove(0);
+            }
+            try {
+                merge.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new java.io.InterruptedIOException("Interrupted while merging!");
+            } catch (java.util.concurrent.ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Waits for the merges to finish and stops the merge thread.
+     */
+    public void close() throws IOException {
+        waitForMerges();
+        synchronized (this) {
+            if (merger != null)
+                merger.shutdown();
+        }
+    }
+
+    private static String segmentName(int n) {
+        return String.format("_%06d.seg", n);
+    }
+
+    private IndexFile segment(String name) throws IOException {
+        IndexFile file = open.get(name);
+        if (file == null) {
+            file = IndexFile.open(directory.resolve(name).toString());
+            open.put(name, file);
+        }
+        return file;
+    }
+
+    /**
+     * Writes the list of segments and their deletions to a temporary file and moves it
+     * over the old one, so readers always see every change or none of it.
+     */
+    private void commit() throws IOException {
+        generation++;
+        int size = 20;
+        byte[][] encoded = new byte[names.size()][];
+        for (int i = 0; i < names.size(); i++) {
+            encoded[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+            size += 8 + encoded[i].length + 4 * deletions.get(i).cardinality();
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        out.putInt(MAGIC).putInt(VERSION).putInt(generation).putInt(nextSegment).putInt(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            out.putInt(encoded[i].length).put(encoded[i]);
+            out.putInt(deletions.get(i).cardinality());
+            deletions.get(i).forEach(out::putInt);
+        }
+
+        Path temp = directory.resolve(SEGMENTS + ".tmp");
+        Files.write(temp, out.array());
+        Files.move(temp, directory.resolve(SEGMENTS), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Starts merging any segments that are ready to be merged on the merge thread.
+     */
+    private void mergeLater() {
+        submitMerge(() -> {
+            while (mergeOnce())
+                ;
+            return null;
+        });
+    }
+
+    /**
+     * Merges every segment into one, once the merges already started have finished,
+     * so queries only have one segment to search. Waits for the merge to finish.
+     */
+    public void mergeAll() throws IOException {
+        submitMerge(() -> {
+            int count;
+            synchronized (this) {
+                count = names.size();
+            }
+            if (count > 1)
+                mergeSegments(0, count);
+            return null;
+        });
+        waitForMerges();
+    }
+
+    private synchronized void submitMerge(Callable<Void> merge) {
+        if (merger == null) {
+            merger = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new Thread(task, "index-merger");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        merges.add(merger.submit(merge));
+    }
+
+    /**
+     * Merges the first run of MERGE_FACTOR segments on the same level, returning
+     * false if there isn't one.
+     */
+    private boolean mergeOnce() throws IOException {
+        int start;
+        synchronized (this) {
+            start = pickMerge();
+        }
+        if (start < 0)
+            return false;
+        mergeSegments(start, MERGE_FACTOR);
+        return true;
+    }
+
+    /**
+     * Merges count segments from start into one. Only called from the merge thread,
+     * so nothing else can move the segments while they're merged.
+     */
+    private void mergeSegments(int start, int count) throws IOException {
+        List<String> picked;
+        IndexFile[] files;
+        DocSet[] deleted;
+        boolean first;
+        String name;
+        synchronized (this) {
+            picked = new ArrayList<String>(names.subList(start, start + count));
+            files = new IndexFile[count];
+            deleted = new DocSet[count];
+            for (int i = 0; i < count; i++) {
+                files[i] = segment(picked.get(i));
+                deleted[i] = deletions.get(start + i).or(new DocSet());
+            }
+            first = start == 0;
+            name = segmentName(nextSegment++);
+            merging.addAll(picked);
+        }
+
+        try {
+            int[][] docMaps = merge(files, deleted, first, directory.resolve(name).toString());
+
+            synchronized (this) {
+                start = names.indexOf(picked.get(0));
+                // pages deleted while the segments were being merged are deleted from the new one
+                DocSet mergedDeletions = new DocSet();
+                for (int i = 0; i < count; i++) {
+                    int[] docMap = docMaps[i];
+                    deletions.get(start + i).andNot(deleted[i]).forEach(doc -> {
+                        if (docMap[doc] >= 0)
+                            mergedDeletions.add(docMap[doc]);
+                    });
+                }
+                names.subList(start, start + count).clear();
+                deletions.subList(start, start + count).clear();
+                names.add(start, name);
+                deletions.add(start, mergedDeletions);
+                commit();
+                for (String old : picked) {
+                    // readers made before now keep their mappings of these
+                    open.remove(old);
+                    Files.deleteIfExists(directory.resolve(old));
+                }
+            }
+        } finally {
+            synchronized (this) {
+                merging.removeAll(picked);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first segment of the first run of MERGE_FACTOR segments
+     * on the same level, none of which are being merged, or -1 if there isn't one.
+     */
+    private int pickMerge() throws IOException {
+        int run = 0;
+        int level = -1;
+        for (int i = 0; i < names.size(); i++) {
+            if (merging.contains(names.get(i))) {
+                run = 0;
+                continue;
+            }
+            int pages = segment(names.get(i)).pageCount() - deletions.get(i).cardinality();
+            int segmentLevel = 0;
+            for (int n = pages; n >= MERGE_FACTOR; n /= MERGE_FACTOR)
+                segmentLevel++;
+            run = segmentLevel == level ? run + 1 : 1;
+            level = segmentLevel;
+            if (run == MERGE_FACTOR)
+                return i - MERGE_FACTOR + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the segments in files, without their deleted pages, as one segment at filename.
+     * Returns the new doc ID of each page of each segment, or -1 for the deleted pages. Pages
+     * the segments mark as gone from earlier segments are only dropped if first is true,
+     * because then there are no earlier segments.
+     */
+    static int[][] merge(IndexFile[] files, DocSet[] deleted, boolean first, String filename)
+            throws IOException {
+        int[][] docMaps = new int[files.length][];
+        try (IndexFile.Writer writer = new IndexFile.Writer(filename)) {
+            int next = 0;
+            for (int i = 0; i < files.length; i++) {
+                docMaps[i] = new int[files[i].pageCount()];
+                for (int doc = 0; doc < files[i].pageCount(); doc++) {
+                    if (deleted[i].contains(doc) || files[i].deleted().contains(doc)) {
+                        docMaps[i][doc] = -1;
+                    } else {
+                        docMaps[i][doc] = next++;
+                        writer.addPage(files[i].urlBytes(doc), files[i].nextPosition(doc), files[i].length(doc));
+                    }
+                }
+            }
+
+            // the files' terms are sorted, so the next term is the smallest next one of any file
+            PriorityQueue<TermCursor> terms = new PriorityQueue<TermCursor>();
+            for (int i = 0; i < files.length; i++) {
+                TermCursor cursor = new TermCursor(files[i], i);
+                if (cursor.next())
+                    terms.add(cursor);
+            }
+            List<TermCursor> same = new ArrayList<TermCursor>();
+            while (!terms.isEmpty()) {
+                same.clear();
+                byte[] term = terms.peek().term;
+                while (!terms.isEmpty() && Arrays.equals(terms.peek().term, term))
+                    same.add(terms.poll());
+                same.sort((a, b) -> a.segment - b.segment);
+
+                PostingList positions = new PostingList();
+                for (TermCursor cursor : same) {
+                    PostingList list = cursor.file.postingList(cursor.ordinal);
+                    int[] docMap = docMaps[cursor.segment];
+                    if (docMap.length > 0 && !hasDeletions(docMap))
+                        positions.append(list, docMap[0]);
+                    else
+                        copyLive(list, docMap, positions);
+                    if (cursor.next())
+                        terms.add(cursor);
+                }
+                if (positions.docCount() == 0)
+                    continue;
+                DocSet docs = new DocSet();
+                PostingList.Cursor cursor = positions.cursor();
+                for (int doc = cursor.next(); doc >= 0; doc = cursor.next())
+                    docs.add(doc);
+                writer.addTerm(term, docs, positions);
+            }
+
+            ByteBuffer[] crawlStates = new ByteBuffer[files.length];
+            for (int i = 0; i < files.length; i++)
+                crawlStates[i] = files[i].crawlStateBuffer();
+            writer.finish(new DocSet(), crawlStates, first);
+        }
+        return docMaps;
+    }
+
+    private static boolean hasDeletions(int[] docMap) {
+        return docMap[docMap.length - 1] - docMap[0] != docMap.length - 1 || docMap[0] < 0;
+    }
+
+    /**
+     * Adds the positions of list's pages that aren't deleted to positions, with their new doc IDs.
+     */
+    private static void copyLive(PostingList list, int[] docMap, PostingList positions) {
+        PostingList.Cursor cursor = list.cursor();
+        for (int doc = cursor.next(); doc >= 0; doc = cursor.next()) {
+            if (docMap[doc] < 0)
+                continue;
+            int count = cursor.readPositions();
+            for (int i = 0; i < count; i++)
+                positions.add(docMap[doc], cursor.positions()[i]);
+        }
+    }
+
+    /**
+     * Steps through the terms of one segment in order.
+     */
+    private static class TermCursor implements Comparable<TermCursor> {
+        final IndexFile file;
+        final int segment;
+        int ordinal = -1;
+        byte[] term;
+
+        TermCursor(IndexFile file, int segment) {
+            this.file = file;
+            this.segment = segment;
+        }
+
+        boolean next() {
+            if (++ordinal >= file.termCount())
+                return false;
+            term = file.termBytes(ordinal);
+            return true;
+        }
+
+        public int compareTo(TermCursor other) {
+            int cmp = Arrays.compareUnsigned(term, other.term);
+            return cmp != 0 ? cmp : segment - other.segment;
+        }
+    }
+}
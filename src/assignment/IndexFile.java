@@ -0,0 +1,457 @@
+package assignment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The on-disk format of a WebIndex. The file is memory mapped when it's opened, and nothing in
+ * it is read until a query needs it, so opening an index takes the same time whatever its size.
+ *
+ * The file starts with a fixed size header:
+ *   int magic ("TSIX"), int version, int page count, int term count,
+ *   long page table offset, long term table offset,
+ *   long deleted pages offset, long crawl state offset, long term dictionary offset,
+ *   long suggester offset
+ * followed by a data section holding every URL, DocSet and PostingList, the DocSet of deleted
+ * doc IDs, the CrawlState, the TermDictionary of every term and the Suggester that completes
+ * them, and then the two tables. The page
+ * table has a fixed size entry per doc ID (long URL offset, int next position, int number of
+ * words), and the term table a fixed size entry per term ordinal in the dictionary (long DocSet
+ * offset, long PostingList offset). Strings are written as an int length followed by their
+ * UTF-8 bytes.
+ */
+public class IndexFile {
+    static final int MAGIC = 0x54534958;
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int PAGE_ENTRY_SIZE = 16;
+    private static final int TERM_ENTRY_SIZE = 16;
+
+    private final MappedByteBuffer buffer;
+    private final int pageCount;
+    private final int termCount;
+    private final int pageTable;
+    private final int termTable;
+    private final int deleted;
+    private final int crawlState;
+    private final TermDictionary dictionary;
+    private final Suggester suggester;
+
+    private IndexFile(MappedByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("Not an index file!");
+        int version = buffer.getInt(4);
+        if (version != VERSION)
+            throw new IOException("Unsupported index file version " + version + "!");
+        pageCount = buffer.getInt(8);
+        termCount = buffer.getInt(12);
+        pageTable = (int) buffer.getLong(16);
+        termTable = (int) buffer.getLong(24);
+        deleted = (int) buffer.getLong(32);
+        crawlState = (int) buffer.getLong(40);
+        dictionary = TermDictionary.read(buffer, (int) buffer.getLong(48));
+        suggester = Suggester.read(buffer, (int) buffer.getLong(56), dictionary);
+    }
+
+    /**
+     * Returns whether the given file starts like an index file, rather than a
+     * Java serialized Index.
+     */
+    public static boolean isIndexFile(String filename) throws IOException {
+        try (InputStream in = Files.newInputStream(Paths.get(filename))) {
+            byte[] magic = new byte[4];
+            return in.read(magic) == 4 && ByteBuffer.wrap(magic).getInt() == MAGIC;
+        }
+    }
+
+    /**
+     * Maps the given index file into memory. The mapping stays valid after the file
+     * is replaced or deleted, so a new index can be saved over one that's being served.
+     */
+    public static IndexFile open(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Index files over 2GB can't be mapped!");
+            return new IndexFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int pageCount() {
+        return pageCount;
+    }
+
+    public int termCount() {
+        return termCount;
+    }
+
+    /**
+     * Reads the page with the given doc ID.
+     */
+    public Page page(int doc) {
+        String url = url(doc);
+        try {
+            return new Page(new URL(url));
+        } catch (java.net.MalformedURLException e) {
+            // only valid URLs are ever written
+            throw new IllegalStateException("Corrupt URL in index file: " + url);
+        }
+    }
+
+    /**
+     * Reads the URL of the page with the given doc ID.
+     */
+    public String url(int doc) {
+        return new String(urlBytes(doc), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the UTF-8 bytes of the URL of the page with the given doc ID.
+     */
+    byte[] urlBytes(int doc) {
+        return readBytes((int) buffer.getLong(pageTable + doc * PAGE_ENTRY_SIZE));
+    }
+
+    /**
+     * Returns the position the next word added to the given page would go at.
+     */
+    public int nextPosition(int doc) {
+        return buffer.getInt(pageTable + doc * PAGE_ENTRY_SIZE + 8);
+    }
+
+    /**
+     * Returns the number of words on the given page.
+     */
+    public int length(int doc) {
+        return buffer.getInt(pageTable + doc * PAGE_ENTRY_SIZE + 12);
+    }
+
+    /**
+     * Returns the ordinal of the given term in the term table, or -1 if it isn't there.
+     */
+    public int findTerm(String term) {
+        return dictionary.find(term);
+    }
+
+    /**
+     * Returns the ordinals of the terms starting with the given prefix, from the
+     * first to one past the last, as an array of two ints.
+     */
+    public int[] prefixRange(String prefix) {
+        return dictionary.prefixRange(prefix);
+    }
+
+    /**
+     * Returns the term with the given ordinal.
+     */
+    public String term(int ordinal) {
+        return new String(termBytes(ordinal), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the term with the given ordinal.
+     */
+    byte[] termBytes(int ordinal) {
+        return dictionary.termBytes(ordinal);
+    }
+
+    /**
+     * Reads the doc IDs of the pages the term with the given ordinal is on.
+     */
+    public DocSet docSet(int ordinal) {
+        return DocSet.read(buffer, (int) buffer.getLong(termTable + ordinal * TERM_ENTRY_SIZE));
+    }
+
+    /**
+     * Reads the positions of the term with the given ordinal.
+     */
+    public PostingList postingList(int ordinal) {
+        return PostingList.read(buffer, (int) buffer.getLong(termTable + ordinal * TERM_ENTRY_SIZE + 8));
+    }
+
+    /**
+     * Returns the suggester that completes the terms of this file.
+     */
+    Suggester suggester() {
+        return suggester;
+    }
+
+    /**
+     * Reads the doc IDs of the pages that have been deleted.
+     */
+    public DocSet deleted() {
+        return DocSet.read(buffer, deleted);
+    }
+
+    /**
+     * Reads what the crawl that built the index saw of each page.
+     */
+    CrawlState crawlState() {
+        return CrawlState.read(buffer, crawlState);
+    }
+
+    /**
+     * Returns the crawl state as it's written in the file.
+     */
+    ByteBuffer crawlStateBuffer() {
+        return buffer.duplicate().position(crawlState);
+    }
+
+    private byte[] readBytes(int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset + 4);
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes the given index to filename. The index is written to a temporary file
+     * first, which is then moved over filename, so readers never see half a file.
+     */
+    static void write(WebIndex index, String filename) throws IOException {
+        // terms are added in the order of their bytes, which the dictionary keeps them in
+        List<byte[]> terms = new ArrayList<byte[]>();
+        for (String term : index.positions.keySet())
+            terms.add(term.getBytes(StandardCharsets.UTF_8));
+        terms.sort(Arrays::compareUnsigned);
+
+        try (Writer writer = new Writer(filename)) {
+            for (int doc = 0; doc < index.size(); doc++)
+                writer.addPage(index.pages.urlBytes(doc), index.nextPosition[doc], index.lengths[doc]);
+            for (byte[] term : terms) {
+                String word = new String(term, StandardCharsets.UTF_8);
+                writer.addTerm(term, index.wordsToPage.get(word), index.positions.get(word));
+            }
+            writer.finish(index.deleted, index.crawlState());
+        }
+    }
+
+    /**
+     * Writes an index file a piece at a time, so an index can be written without ever
+     * being in memory all at once: every page first, in doc ID order, and then every term
+     * in the order of its UTF-8 bytes. Only the offsets of the pages and terms, the front
+     * coded terms and their document frequencies are kept until finish writes the
+     * dictionary, suggester and tables. Like write, it writes to a temporary file which is
+     * moved over filename when it's finished, and deleted if it's closed before then.
+     */
+    static class Writer implements Closeable {
+        private final Path target;
+        private final Path temp;
+        private final Output out;
+        private boolean finished;
+
+        // for each page its URL offset, and its next position and length packed together
+        private long[] urlOffsets = new long[64];
+        private long[] pageInfo = new long[64];
+        private int pages;
+        private long[] termOffsets = new long[2 * 64];
+        private final TermDictionary.Builder dictionary = new TermDictionary.Builder();
+        private int[] docFreqs = new int[64];
+
+        Writer(String filename) throws IOException {
+            target = Paths.get(filename).toAbsolutePath();
+            temp = target.resolveSibling(target.getFileName() + ".tmp");
+            out = new Output(FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+            out.skip(HEADER_SIZE);
+        }
+
+        /**
+         * Adds the page with the next doc ID, given the UTF-8 bytes of its URL.
+         */
+        void addPage(byte[] url, int nextPosition, int length) throws IOException {
+            assert dictionary.size() == 0 : "IndexFile: pages must be added before terms!";
+            if (pages == urlOffsets.length) {
+                urlOffsets = Arrays.copyOf(urlOffsets, pages * 2);
+                pageInfo = Arrays.copyOf(pageInfo, pages * 2);
+            }
+            urlOffsets[pages] = out.position();
+            pageInfo[pages++] = (long) nextPosition << 32 | (length & 0xFFFFFFFFL);
+            out.putString(url);
+        }
+
+        /**
+         * Adds a term, which must come after the last one added.
+         */
+        void addTerm(byte[] term, DocSet docs, PostingList positions) throws IOException {
+            int terms = dictionary.size();
+            dictionary.add(term);
+            if (terms * 2 == termOffsets.length)
+                termOffsets = Arrays.copyOf(termOffsets, termOffsets.length * 2);
+            if (terms == docFreqs.length)
+                docFreqs = Arrays.copyOf(docFreqs, terms * 2);
+            docFreqs[terms] = docs.cardinality();
+            termOffsets[terms * 2] = out.position();
+            docs.write(out);
+            termOffsets[terms * 2 + 1] = out.position();
+            positions.write(out);
+        }
+
+        /**
+         * Writes the deleted pages, crawl state, dictionary, suggester and tables,
+         * and moves the file into place.
+         */
+        void finish(DocSet deleted, CrawlState crawlState) throws IOException {
+            long deletedOffset = out.position();
+            deleted.write(out);
+            long crawlStateOffset = out.position();
+            crawlState.write(out);
+            finish(deletedOffset, crawlStateOffset);
+        }
+
+        /**
+         * Like finish, but copies the crawl states of other files across, put together
+         * as by CrawlState.writeMerged, instead of needing them in memory.
+         */
+        void finish(DocSet deleted, ByteBuffer[] crawlStates, boolean removeGone) throws IOException {
+            long deletedOffset = out.position();
+            deleted.write(out);
+            long crawlStateOffset = out.position();
+            CrawlState.writeMerged(crawlStates, removeGone, out);
+            finish(deletedOffset, crawlStateOffset);
+        }
+
+        private void finish(long deletedOffset, long crawlStateOffset) throws IOException {
+            long dictionaryOffset = out.position();
+            dictionary.write(out);
+            long suggesterOffset = out.position();
+            int terms = dictionary.size();
+            Suggester.build(dictionary.build(), Arrays.copyOf(docFreqs, terms)).write(out);
+            long pageTable = out.position();
+            for (int doc = 0; doc < pages; doc++) {
+                out.putLong(urlOffsets[doc]);
+                out.putInt((int) (pageInfo[doc] >>> 32));
+                out.putInt((int) pageInfo[doc]);
+            }
+            long termTable = out.position();
+            for (int i = 0; i < terms * 2; i++)
+                out.putLong(termOffsets[i]);
+
+            out.seek(0);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(pages);
+            out.putInt(terms);
+            out.putLong(pageTable);
+            out.putLong(termTable);
+            out.putLong(deletedOffset);
+            out.putLong(crawlStateOffset);
+            out.putLong(dictionaryOffset);
+            out.putLong(suggesterOffset);
+            out.close();
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        public void close() throws IOException {
+            if (!finished) {
+                out.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Buffers writes to a FileChannel and keeps track of the position in the file.
+     */
+    static class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private long position;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        long position() {
+            return position;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(8);
+            buffer.putLong(value);
+            position += 8;
+        }
+
+        void putChar(char value) throws IOException {
+            ensure(2);
+            buffer.putChar(value);
+            position += 2;
+        }
+
+        void putBytes(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.capacity()) {
+                flush();
+                ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, length);
+                while (wrapped.hasRemaining())
+                    channel.write(wrapped);
+            } else {
+                ensure(length);
+                buffer.put(bytes, offset, length);
+            }
+            position += length;
+        }
+
+        void putString(byte[] utf8) throws IOException {
+            putInt(utf8.length);
+            putBytes(utf8, 0, utf8.length);
+        }
+
+        /**
+         * Leaves the next n bytes to be filled in later.
+         */
+        void skip(int n) throws IOException {
+            flush();
+            position += n;
+            channel.position(position);
+        }
+
+        void seek(long newPosition) throws IOException {
+            flush();
+            position = newPosition;
+            channel.position(position);
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buffer.remaining() < n)
+                flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+}
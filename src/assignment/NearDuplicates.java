@@ -0,0 +1,185 @@
+package assignment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the pages of a crawl that are near duplicates of a page crawled before them, like the
+ * copies of a mirrored page under different paths. Each page gets a 64 bit SimHash fingerprint of
+ * the pairs of consecutive words on it: every different pair is hashed, each of the fingerprint's
+ * bits is voted up by the pairs with that bit set and down by the rest, and the bit is set if the
+ * ups win. Pages sharing most of their pairs get fingerprints differing in only a few bits, so two
+ * pages are taken as near duplicates if their fingerprints differ in at most MAX_DISTANCE bits.
+ * A pair only votes once however often it's on the page, or a page of ASCII art would get the
+ * fingerprint of its most repeated pair, the same as any other page with that pair the most.
+ *
+ * The fingerprints of the pages kept are split into MAX_DISTANCE + 1 bands of 16 bits, and each
+ * band is a hash table from its bits to the pages with those bits. Fingerprints that differ in
+ * at most MAX_DISTANCE bits have at least one band the same, so a page is only compared with the
+ * pages sharing one of its bands rather than with every page.
+ *
+ * One table can be shared by the handlers of a parallel crawl; which of two copies is kept then
+ * depends on which one is parsed first.
+ */
+public class NearDuplicates {
+    // the most bits the fingerprints of near duplicates differ in
+    public static final int MAX_DISTANCE = 3;
+    static final int BANDS = MAX_DISTANCE + 1;
+    static final int BAND_BITS = Long.SIZE / BANDS;
+
+    // entry -> the fingerprint and URL of a page kept
+    private long[] fingerprints = new long[16];
+    private final List<String> urls = new ArrayList<String>();
+    // band -> band bits -> the last entry with them, plus 1, or 0 if there's none
+    private final int[][] heads = new int[BANDS][1 << BAND_BITS];
+    // band -> entry -> the entry before it with the same band bits, plus 1, or 0
+    private final int[][] chains = new int[BANDS][16];
+    private int duplicates;
+
+    /**
+     * Returns the URL of a page already added whose fingerprint differs from the
+     * given one in at most MAX_DISTANCE bits. If there's none, the page is added,
+     * so the pages after it are compared with it, and null is returned.
+     */
+    public synchronized String find(long fingerprint, String url) {
+        for (int band = 0; band < BANDS; band++) {
+            for (int entry = heads[band][band(fingerprint, band)]; entry != 0; entry = chains[band][entry - 1]) {
+                if (distance(fingerprints[entry - 1], fingerprint) <= MAX_DISTANCE) {
+                    duplicates++;
+                    return urls.get(entry - 1);
+                }
+            }
+        }
+
+        int entry = urls.size();
+        if (entry == fingerprints.length) {
+            fingerprints = Arrays.copyOf(fingerprints, entry * 2);
+            for (int band = 0; band < BANDS; band++)
+                chains[band] = Arrays.copyOf(chains[band], entry * 2);
+        }
+        fingerprints[entry] = fingerprint;
+        urls.add(url);
+        for (int band = 0; band < BANDS; band++) {
+            int bits = band(fingerprint, band);
+            chains[band][entry] = heads[band][bits];
+            heads[band][bits] = entry + 1;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of pages added.
+     */
+    public synchronized int size() {
+        return urls.size();
+    }
+
+    /**
+     * Returns the number of pages find has found a near duplicate of.
+     */
+    public synchronized int duplicates() {
+        return duplicates;
+    }
+
+    /**
+     * Returns the number of bits two fingerprints differ in.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static int band(long fingerprint, int band) {
+        return (int) (fingerprint >>> (band * BAND_BITS)) & ((1 << BAND_BITS) - 1);
+    }
+
+    /**
+     * The SimHash fingerprint of a page, built up from its words as they're parsed.
+     */
+    public static class Fingerprint {
+        // bit -> the pairs with the bit set, less the pairs without it
+        private final int[] votes = new int[Long.SIZE];
+        // the hashes of the pairs that have voted, in an open addressed table with 0 for none
+        private long[] hashes = new long[64];
+        private int pairs;
+
+        /**
+         * Adds a word, and the word before it in the same block of text,
+         * or "" if it starts the block, as a WordTokenizer hands them out.
+         */
+        public void add(String word, String prev) {
+            long hash = hash(word, prev);
+            if (hash == 0)
+                hash = 1;
+            int mask = hashes.length - 1;
+            int slot = (int) hash & mask;
+            for (; hashes[slot] != 0; slot = (slot + 1) & mask) {
+                if (hashes[slot] == hash)
+                    return;
+            }
+            hashes[slot] = hash;
+            for (int bit = 0; bit < Long.SIZE; bit++)
+                votes[bit] += (int) (hash >>> bit & 1) * 2 - 1;
+            // kept at most half full
+            if (++pairs * 2 > hashes.length)
+                grow();
+        }
+
+        private void grow() {
+            long[] old = hashes;
+            hashes = new long[old.length * 2];
+            int mask = hashes.length - 1;
+            for (long hash : old) {
+                if (hash == 0)
+                    continue;
+                int slot = (int) hash & mask;
+                while (hashes[slot] != 0)
+                    slot = (slot + 1) & mask;
+                hashes[slot] = hash;
+            }
+        }
+
+        /**
+         * Returns the fingerprint of the words added since the last reset.
+         */
+        public long value() {
+            long fingerprint = 0;
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+                if (votes[bit] > 0)
+                    fingerprint |= 1L << bit;
+            }
+            return fingerprint;
+        }
+
+        /**
+         * Returns whether no words have been added since the last reset.
+         */
+        public boolean isEmpty() {
+            return pairs == 0;
+        }
+
+        /**
+         * Forgets the words added, to start on the next page.
+         */
+        public void reset() {
+            Arrays.fill(votes, 0);
+            if (pairs > 0)
+                Arrays.fill(hashes, 0);
+            pairs = 0;
+        }
+
+        /**
+         * Returns a 64 bit hash of a pair of words, spread with the finalizer of
+         * MurmurHash3 so every bit depends on both words' hash codes.
+         */
+        static long hash(String word, String prev) {
+            long h = (long) prev.hashCode() << 32 | (word.hashCode() & 0xffffffffL);
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            return h;
+        }
+    }
+}
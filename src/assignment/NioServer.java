@@ -0,0 +1,629 @@
+package assignment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import assignment.WebServer.HttpRequest;
+
+/**
+ * Serves a WebServer without a thread per connection. A fixed number of event loops each watch
+ * their share of the connections with a Selector, reading requests into pooled buffers and
+ * parsing them straight from the bytes. A connection only holds a buffer while part of a request
+ * is waiting in it, and never holds a thread, so tens of thousands of idle kept-alive connections
+ * cost little more than their sockets.
+ *
+ * Requests that ask the engine are answered by a separate pool of query threads, so an event loop
+ * never waits on a query; the homepage and static files are written by the loop itself. Responses
+ * are rendered whole and then written as fast as each socket takes them, files straight from the
+ * disk. Requests pipelined on a connection are answered one at a time, in order.
+ */
+public class NioServer implements Closeable {
+
+    // the most a request's line and headers can take up, which is the size of the pooled buffers
+    static final int MAX_REQUEST = 8192;
+    // the most buffers each event loop keeps for reuse
+    private static final int POOLED_BUFFERS = 64;
+
+    // how long an idle connection is kept open; it holds no thread here, so it's kept a lot
+    // longer than the blocking server keeps one
+    static final int IDLE_TIMEOUT = 60000;
+    // how often each loop looks for idle connections to close
+    private static final int SWEEP_INTERVAL = 1000;
+
+    // the number of queries per query thread that can wait for one, before more are turned away
+    private static final int QUEUED_QUERIES = 64;
+
+    private final WebServer server;
+    private final int port, backlog;
+    private final EventLoop[] loops;
+    private final ThreadPoolExecutor workers;
+    private ServerSocketChannel listener;
+    private volatile boolean closed;
+
+    /**
+     * @param loops   the number of event loop threads handling connections
+     * @param workers the number of threads answering queries
+     */
+    public NioServer(WebServer server, int port, int backlog, int loops, int workers)
+            throws IOException {
+        this.server = server;
+        this.port = port;
+        this.backlog = backlog;
+        this.loops = new EventLoop[loops];
+        for (int i = 0; i < loops; i++)
+            this.loops[i] = new EventLoop(i);
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(workers * QUEUED_QUERIES),
+                task -> new Thread(task, "query-" + threads.getAndIncrement()));
+    }
+
+    /**
+     * Opens the server to incoming connections, and hands each one to the next event loop
+     * until the server is closed.
+     */
+    public void serve() throws IOException {
+        synchronized (this) {
+            if (closed)
+                return;
+            listener = ServerSocketChannel.open();
+            listener.bind(new InetSocketAddress(port), backlog);
+            for (EventLoop loop : loops)
+                loop.thread.start();
+        }
+        System.err.println("Running non-blocking server on port: " + port + " with " +
+                loops.length + " event loop(s) and " + workers.getMaximumPoolSize() + " query thread(s)");
+
+        for (int next = 0; !closed; next = (next + 1) % loops.length) {
+            try {
+                SocketChannel channel = listener.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].add(channel);
+            } catch (ClosedChannelException e) {
+                // closed by close
+            } catch (IOException e) {
+                // most likely out of file descriptors, which closing idle connections frees up
+                System.err.println("Couldn't accept a connection: " + e);
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, closes the ones open and stops every thread.
+     */
+    public synchronized void close() throws IOException {
+        closed = true;
+        if (listener != null)
+            listener.close();
+        for (EventLoop loop : loops) {
+            if (loop.thread.isAlive())
+                loop.selector.wakeup();
+            else
+                loop.selector.close();
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * One thread watching its connections for requests to read and responses to write.
+     * Everything about a connection happens on its loop's thread, apart from rendering the
+     * responses to queries, which are handed back to the loop to be written.
+     */
+    private class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        // work handed to the loop from other threads: new connections and rendered responses
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+        // the time the loop last woke up at
+        long now = System.currentTimeMillis();
+
+        EventLoop(int number) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "event-loop-" + number);
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void add(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    close(channel);
+                }
+            });
+        }
+
+        public void run() {
+            long swept = now;
+            try {
+                while (!closed) {
+                    selector.select(SWEEP_INTERVAL);
+                    now = System.currentTimeMillis();
+                    for (Runnable task = tasks.poll(); task != null; task = tasks.poll())
+                        task.run();
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (key.isValid())
+                            ((Connection) key.attachment()).ready();
+                    }
+                    selector.selectedKeys().clear();
+                    if (now - swept >= SWEEP_INTERVAL) {
+                        closeIdle();
+                        swept = now;
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println(thread.getName() + " stopped: " + e);
+            } finally {
+                for (SelectionKey key : selector.keys())
+                    close(key.channel());
+                close(selector);
+            }
+        }
+
+        /**
+         * Closes the connections that haven't read or written anything for too long, apart
+         * from those waiting on a query.
+         */
+        private void closeIdle() {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (key.isValid() && !connection.answering && now - connection.active > IDLE_TIMEOUT)
+                    connection.close();
+            }
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer buffer = buffers.poll();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect(MAX_REQUEST);
+        }
+
+        void release(ByteBuffer buffer) {
+            buffer.clear();
+            if (buffers.size() < POOLED_BUFFERS)
+                buffers.push(buffer);
+        }
+    }
+
+    /**
+     * A client's connection, with the start of its next request and the rest of the response
+     * being written to it.
+     */
+    private class Connection {
+        final EventLoop loop;
+        final SocketChannel channel;
+        final InetAddress client;
+        SelectionKey key;
+        // what's been read of the next request, ready for more to be read into, or null if
+        // none of it has been
+        ByteBuffer in;
+        // what's left of the response being written, or null
+        ArrayDeque<Segment> out;
+        // whether the connection stays open after the response
+        boolean keepAlive;
+        // whether a query thread is answering a request, when the connection isn't idle
+        // however long it takes
+        boolean answering;
+        // when the connection last read or wrote anything
+        long active;
+
+        Connection(EventLoop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            client = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+            active = loop.now;
+        }
+
+        void ready() {
+            try {
+                if (key.isReadable())
+                    read();
+                else if (key.isWritable())
+                    write();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        private void read() throws IOException {
+            if (in == null)
+                in = loop.acquire();
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            active = loop.now;
+            next();
+        }
+
+        /**
+         * Answers the next request in the buffer if all of it has been read, or waits for
+         * more of it. Reading stops until the response has been written.
+         */
+        private void next() {
+            in.flip();
+            HttpRequest request;
+            try {
+                request = parse(in);
+            } catch (IllegalArgumentException e) {
+                // the blocking server hangs up on requests it doesn't understand too
+                close();
+                return;
+            }
+            boolean full = request == null && in.remaining() == in.capacity();
+            in.compact();
+            if (in.position() == 0) {
+                loop.release(in);
+                in = null;
+            }
+            if (full) {
+                close();
+                return;
+            }
+            if (request == null) {
+                key.interestOps(SelectionKey.OP_READ);
+                return;
+            }
+
+            key.interestOps(0);
+            boolean keepAlive = request.keepAlive();
+            if (!WebServer.isQuery(request.url)) {
+                answer(request, keepAlive);
+                return;
+            }
+            answering = true;
+            try {
+                workers.execute(() -> answer(request, keepAlive));
+            } catch (RejectedExecutionException e) {
+                // turned away rather than left waiting behind more queries than can be answered
+                Response busy = new Response();
+                busy.write(request.version + " 503 Service Unavailable\r\n" +
+                        "Content-Length: 0\r\nConnection: close\r\n\r\n");
+                send(busy, false);
+            }
+        }
+
+        /**
+         * Renders the response to a request, on a query thread or the loop's, and has the
+         * loop write it.
+         */
+        private void answer(HttpRequest request, boolean keepAlive) {
+            Response response = new Response();
+            boolean open;
+            try {
+                open = server.respond(response, request, client, keepAlive);
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace(System.err);
+                onLoop(this::close);
+                return;
+            }
+            onLoop(() -> send(response, open));
+        }
+
+        private void onLoop(Runnable task) {
+            if (Thread.currentThread() == loop.thread)
+                task.run();
+            else
+                loop.execute(task);
+        }
+
+        private void send(Response response, boolean open) {
+            answering = false;
+            // the connection might have been closed while the response was rendered
+            if (!channel.isOpen())
+                return;
+            out = response.segments();
+            keepAlive = open;
+            try {
+                write();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * Writes as much of the response as the socket takes, and once it's all written
+         * goes on to the next request.
+         */
+        private void write() throws IOException {
+            for (Segment segment = out.peek(); segment != null; segment = out.peek()) {
+                if (!segment.write(channel)) {
+                    // carry on when the socket has room
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    active = loop.now;
+                    return;
+                }
+                out.poll();
+            }
+            out = null;
+            active = loop.now;
+            if (!keepAlive)
+                close();
+            else if (in != null)
+                next();
+            else
+                key.interestOps(SelectionKey.OP_READ);
+        }
+
+        void close() {
+            NioServer.close(channel);
+            if (in != null) {
+                loop.release(in);
+                in = null;
+            }
+        }
+    }
+
+    private static void close(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing more to do with it
+        }
+    }
+
+    /**
+     * A response, rendered into memory. Files sent with it aren't read; they're transferred
+     * to the socket when the response is written.
+     */
+    private static class Response extends WebServer.ResponseStream {
+        private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+        private byte[] buffer = new byte[1024];
+        private int count;
+
+        public void write(int b) {
+            if (count == buffer.length)
+                buffer = Arrays.copyOf(buffer, count * 2);
+            buffer[count++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            if (count + len > buffer.length)
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + len));
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        }
+
+        void write(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+            write(bytes, 0, bytes.length);
+        }
+
+        void sendFile(FileChannel file, long size) {
+            seal();
+            segments.add(new Segment(null, file, size));
+        }
+
+        ArrayDeque<Segment> segments() {
+            seal();
+            return segments;
+        }
+
+        private void seal() {
+            if (count == 0)
+                return;
+            segments.add(new Segment(ByteBuffer.wrap(buffer, 0, count), null, 0));
+            buffer = new byte[1024];
+            count = 0;
+        }
+    }
+
+    /**
+     * Part of a response: either bytes, or the first end bytes of a file.
+     */
+    private static class Segment {
+        final ByteBuffer bytes;
+        final FileChannel file;
+        final long end;
+        long position;
+
+        Segment(ByteBuffer bytes, FileChannel file, long end) {
+            this.bytes = bytes;
+            this.file = file;
+            this.end = end;
+        }
+
+        /**
+         * Writes as much of the segment as the socket takes, and returns whether that was all of it.
+         */
+        boolean write(SocketChannel channel) throws IOException {
+            if (file == null) {
+                channel.write(bytes);
+                return !bytes.hasRemaining();
+            }
+            position += file.transferTo(position, end - position, channel);
+            return position == end;
+        }
+    }
+
+    /**
+     * Parses the request at the buffer's position and moves past it, or returns null, leaving
+     * the position where it was, if the buffer doesn't hold all of its headers yet. Requests are
+     * understood just as WebServer.parseRequest understands them, but read straight from the
+     * bytes: only GET and HEAD, with the path percent decoded as ISO-8859-1 and the parameters
+     * as UTF-8. Anything else throws IllegalArgumentException.
+     */
+    static HttpRequest parse(ByteBuffer in) {
+        int start = in.position(), limit = in.limit();
+        int line = indexOf(in, (byte) '\n', start, limit);
+        if (line == limit)
+            return null;
+        // the headers end at the first empty line
+        int end = line + 1;
+        while (true) {
+            int next = indexOf(in, (byte) '\n', end, limit);
+            if (next == limit)
+                return null;
+            boolean empty = trimLine(in, end, next) == end;
+            end = next + 1;
+            if (empty)
+                break;
+        }
+
+        int lineEnd = trimLine(in, start, line);
+        if (lineEnd == start || isSpace(in.get(start)))
+            throw new IllegalArgumentException("Bad request line");
+        int methodEnd = token(in, start, lineEnd);
+        int targetEnd = methodEnd < lineEnd ? token(in, methodEnd + 1, lineEnd) : lineEnd;
+        if (targetEnd == lineEnd || token(in, targetEnd + 1, lineEnd) == targetEnd + 1)
+            throw new IllegalArgumentException("Incomplete request line");
+        String method;
+        if (matches(in, start, methodEnd, "GET"))
+            method = "GET";
+        else if (matches(in, start, methodEnd, "HEAD"))
+            method = "HEAD";
+        else
+            throw new IllegalArgumentException("Unsupported method");
+        String version = matches(in, targetEnd + 1, token(in, targetEnd + 1, lineEnd), "HTTP/1.1")
+                ? "HTTP/1.1" : "HTTP/1.0";
+
+        int query = indexOf(in, (byte) '?', methodEnd + 1, targetEnd);
+        String url = decode(in, methodEnd + 1, query, StandardCharsets.ISO_8859_1);
+        HashMap<String, String> params = new HashMap<String, String>();
+        for (int from = query + 1; from < targetEnd; ) {
+            int to = indexOf(in, (byte) '&', from, targetEnd);
+            int equals = indexOf(in, (byte) '=', from, to);
+            if (equals < to)
+                params.put(decode(in, from, equals, StandardCharsets.UTF_8),
+                        decode(in, equals + 1, to, StandardCharsets.UTF_8));
+            from = to + 1;
+        }
+
+        HashMap<String, String> headers = new HashMap<String, String>();
+        for (int from = line + 1; from < end; ) {
+            int next = indexOf(in, (byte) '\n', from, end);
+            int to = trimLine(in, from, next);
+            int colon = indexOf(in, (byte) ':', from, to);
+            if (colon < to)
+                headers.put(string(in, from, colon).toLowerCase(), string(in, colon + 1, to).trim());
+            from = next + 1;
+        }
+
+        in.position(end);
+        return new HttpRequest(url, method, version, headers, params);
+    }
+
+    /**
+     * Returns the index of the first b in [from, to), or to if there isn't one.
+     */
+    private static int indexOf(ByteBuffer in, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (in.get(i) == b)
+                return i;
+        }
+        return to;
+    }
+
+    /**
+     * Returns the end of the token starting at from: the next whitespace, or to.
+     */
+    private static int token(ByteBuffer in, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (isSpace(in.get(i)))
+                return i;
+        }
+        return to;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    /**
+     * Returns the end of the line ending at the newline at end, without the carriage return
+     * before it.
+     */
+    private static int trimLine(ByteBuffer in, int from, int end) {
+        return end > from && in.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    private static boolean matches(ByteBuffer in, int from, int to, String s) {
+        if (to - from != s.length())
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (in.get(from + i) != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private static String string(ByteBuffer in, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        in.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Decodes a percent encoded part of a URL the way URLDecoder does: each run of escapes
+     * is decoded as bytes in the charset, pluses are spaces, and every other byte is taken
+     * as the ISO-8859-1 character it was read as.
+     */
+    private static String decode(ByteBuffer in, int from, int to, Charset charset) {
+        int escape = from;
+        while (escape < to && in.get(escape) != '%' && in.get(escape) != '+')
+            escape++;
+        if (escape == to)
+            return string(in, from, to);
+
+        StringBuilder decoded = new StringBuilder(to - from);
+        decoded.append(string(in, from, escape));
+        byte[] bytes = null;
+        for (int i = escape; i < to; ) {
+            byte b = in.get(i);
+            if (b != '%') {
+                decoded.append(b == '+' ? ' ' : (char) (b & 0xFF));
+                i++;
+                continue;
+            }
+            if (bytes == null)
+                bytes = new byte[(to - i) / 3];
+            int n = 0;
+            for (; i + 2 < to && in.get(i) == '%'; i += 3)
+                bytes[n++] = (byte) (hex(in.get(i + 1)) << 4 | hex(in.get(i + 2)));
+            if (i < to && in.get(i) == '%')
+                throw new IllegalArgumentException("Incomplete escape");
+            decoded.append(new String(bytes, 0, n, charset));
+        }
+        return decoded.toString();
+    }
+
+    private static int hex(byte b) {
+        int digit = Character.digit((char) b, 16);
+        if (digit < 0)
+            throw new IllegalArgumentException("Bad escape");
+        return digit;
+    }
+}
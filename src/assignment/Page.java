@@ -8,8 +8,11 @@ import java.io.*;
  * want as long as you don't break the getURL method.
  */
 public class Page implements Serializable{
+    // the ID Java computed before one was given, so older indexes still load
+    private static final long serialVersionUID = -4343126016059450751L;
+
     // The URL the page was located at.
-    private URL url;
+    private final URL url;
 
     /**
      * Creates a Page with a given URL.
@@ -35,5 +38,24 @@ public class Page implements Serializable{
     		
     		return url.getFile().equalsIgnoreCase(other.getURL().getFile());
     }
+
+    /**
+     * Hashes the URL's file ignoring case, so pages that are equal hash the same.
+     */
+    @Override
+    public int hashCode() {
+    		return hash(url.getFile());
+    }
+
+    /**
+     * Hashes a String ignoring case the way equalsIgnoreCase compares it,
+     * one char at a time.
+     */
+    static int hash(String file) {
+    		int hash = 0;
+    		for (int i = 0; i < file.length(); i++)
+    			hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(file.charAt(i)));
+    		return hash;
+    }
     
 }
@@ -0,0 +1,225 @@
+package assignment;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The URLs of an index's pages, by doc ID. Each URL is kept once, as its UTF-8 bytes packed one
+ * after another into a single array, so a page costs its URL's bytes and a few ints instead of a
+ * Page, a URL and the half dozen Strings a URL holds. Page objects are only made when they're
+ * asked for, to show a result.
+ *
+ * A page's doc ID is found from its URL with an open addressing hash table of doc IDs, hashed and
+ * compared the way Page's hashCode and equals are, so two URLs for the same page get one ID. The
+ * table holds every doc ID, including deleted ones, and find skips the deleted IDs it's given.
+ * It's built the first time find is called on a table that's been loaded or deserialized.
+ */
+public class PageTable implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // the URLs' bytes, and where each one starts, with one past the last URL at the end
+    private transient byte[] data;
+    private transient int length;
+    private transient int[] offsets;
+    private transient int size;
+    // doc ID -> the hash of its URL, and the table of doc ID + 1 by hash, 0 if free;
+    // both are null until the table is built
+    private transient int[] hashes;
+    private transient int[] slots;
+
+    /**
+     * Creates an empty table, ready to find the pages added to it.
+     */
+    public PageTable() {
+        this(true);
+    }
+
+    /**
+     * Creates an empty table for the URLs of loaded files, whose hash table isn't built
+     * until find is first called.
+     */
+    static PageTable unindexed() {
+        return new PageTable(false);
+    }
+
+    private PageTable(boolean indexed) {
+        data = new byte[1024];
+        offsets = new int[17];
+        if (indexed) {
+            hashes = new int[16];
+            slots = new int[32];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes the URLs take up, along with the offsets and hash table.
+     */
+    public long byteSize() {
+        return length + 4L * size + (slots == null ? 0 : 4L * size + 4L * slots.length);
+    }
+
+    /**
+     * Adds the URL of the page with the next doc ID, which is returned.
+     */
+    public int add(URL url) {
+        int doc = append(url.toString().getBytes(StandardCharsets.UTF_8));
+        if (slots != null)
+            index(doc, Page.hash(url.getFile()));
+        return doc;
+    }
+
+    /**
+     * Adds the UTF-8 bytes of a URL as the page with the next doc ID, which is returned.
+     */
+    int add(byte[] url) {
+        int doc = append(url);
+        if (slots != null)
+            index(doc, Page.hash(file(doc)));
+        return doc;
+    }
+
+    private int append(byte[] url) {
+        if (length + url.length > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + url.length));
+        if (size + 2 > offsets.length)
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        System.arraycopy(url, 0, data, length, url.length);
+        length += url.length;
+        offsets[++size] = length;
+        return size - 1;
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the URL of the page with the given doc ID.
+     */
+    byte[] urlBytes(int doc) {
+        return Arrays.copyOfRange(data, offsets[doc], offsets[doc + 1]);
+    }
+
+    /**
+     * Returns the URL of the page with the given doc ID, as a String.
+     */
+    public String url(int doc) {
+        if (doc < 0 || doc >= size)
+            throw new IndexOutOfBoundsException("No page " + doc + " in a table of " + size + "!");
+        return new String(data, offsets[doc], offsets[doc + 1] - offsets[doc], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a new Page for the doc ID.
+     */
+    public Page page(int doc) {
+        return new Page(toURL(url(doc)));
+    }
+
+    /**
+     * Returns the newest doc ID of the page with the given URL that isn't in deleted,
+     * or -1 if there isn't one.
+     */
+    public int find(URL url, DocSet deleted) {
+        String file = url.getFile();
+        byte[] key = url.toString().getBytes(StandardCharsets.UTF_8);
+        int hash = Page.hash(file);
+        int[] slots = slots();
+        int found = -1;
+        for (int slot = slot(hash, slots.length); slots[slot] != 0; slot = (slot + 1) & (slots.length - 1)) {
+            int doc = slots[slot] - 1;
+            if (doc <= found || hashes[doc] != hash || deleted.contains(doc))
+                continue;
+            // the same URL is the same page, without parsing it again for its file
+            if (Arrays.equals(data, offsets[doc], offsets[doc + 1], key, 0, key.length)
+                    || file(doc).equalsIgnoreCase(file))
+                found = doc;
+        }
+        return found;
+    }
+
+    /**
+     * Returns the hash table, hashing every URL if it hasn't been built yet.
+     */
+    private synchronized int[] slots() {
+        if (slots == null) {
+            hashes = new int[Math.max(16, size)];
+            slots = new int[Math.max(32, Integer.highestOneBit(size) * 4)];
+            for (int doc = 0; doc < size; doc++)
+                index(doc, Page.hash(file(doc)));
+        }
+        return slots;
+    }
+
+    private void index(int doc, int hash) {
+        if (doc == hashes.length)
+            hashes = Arrays.copyOf(hashes, doc * 2);
+        hashes[doc] = hash;
+        // kept at most half full
+        if ((doc + 1) * 2 > slots.length) {
+            int[] old = slots;
+            slots = new int[old.length * 2];
+            for (int entry : old) {
+                if (entry != 0)
+                    insert(entry - 1);
+            }
+        }
+        insert(doc);
+    }
+
+    private void insert(int doc) {
+        int slot = slot(hashes[doc], slots.length);
+        while (slots[slot] != 0)
+            slot = (slot + 1) & (slots.length - 1);
+        slots[slot] = doc + 1;
+    }
+
+    private static int slot(int hash, int capacity) {
+        // spreads hashes differing only in their high bits
+        return (hash * 0x9E3779B9 >>> 16 ^ hash) & (capacity - 1);
+    }
+
+    /**
+     * Returns the file of the URL with the given doc ID, the part Pages are compared on.
+     */
+    private String file(int doc) {
+        return toURL(url(doc)).getFile();
+    }
+
+    private static URL toURL(String url) {
+        try {
+            return new URL(url);
+        } catch (MalformedURLException e) {
+            // only URLs are ever added
+            throw new IllegalStateException("Corrupt URL in page table: " + url);
+        }
+    }
+
+    /**
+     * Writes just the URLs and their offsets; the hash table is built again when it's needed.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(size);
+        for (int doc = 1; doc <= size; doc++)
+            out.writeInt(offsets[doc]);
+        out.write(data, 0, length);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        size = in.readInt();
+        offsets = new int[size + 2];
+        for (int doc = 1; doc <= size; doc++)
+            offsets[doc] = in.readInt();
+        length = offsets[size];
+        data = new byte[Math.max(16, length)];
+        in.readFully(data, 0, length);
+    }
+}
@@ -0,0 +1,441 @@
+package assignment;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The positions one word appears at across every page of a WebIndex, stored as a compact
+ * byte array. Pages are identified by their doc ID in the index.
+ *
+ * For each page the word is on, in increasing doc ID order, the list holds the gap from the
+ * previous doc ID followed by the gaps between the word's positions on the page, all written
+ * as variable length ints. The first position is written as position + 1 so that a 0 can end
+ * each page's positions; the last page's positions simply run to the end of the list.
+ *
+ * Alongside the bytes, every SKIP_INTERVAL'th page has a skip pointer: the doc ID of the page
+ * before it and the offset its gap starts at. A cursor advancing to a doc ID gallops through
+ * the skips to the last page before it, so stepping through a common word's list for the few
+ * pages of a rare one, as phrases and ranking do, costs about the rare word's pages times the
+ * log of the distance between them, rather than every page of the common word. The skips aren't
+ * saved; they're rebuilt in one pass when a list is read.
+ */
+public class PostingList implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // the most doc IDs whose starts are remembered, enough for every shard of an index
+    static final int MAX_STARTS = 64;
+    // the number of pages between skip pointers
+    static final int SKIP_INTERVAL = 64;
+
+    private byte[] data = new byte[8];
+    private int size;
+
+    private int docCount;
+    private int lastDoc = -1;
+    private int lastPosition;
+    // the number of times the word is on the last page, and the most it's on any page
+    private int lastFrequency;
+    private int maxFrequency;
+    // where cursors starting at a doc ID begin, for the last few asked for: each is the
+    // doc ID, the offset of the first page at or after it, and the doc ID of the page before
+    private transient volatile int[][] starts;
+    // the skip pointers, each the doc ID of the page before one and the offset of its gap
+    private transient int[] skips = new int[0];
+    private transient int skipCount;
+
+    public PostingList() {
+    }
+
+    private PostingList(byte[] data, int docCount, int lastDoc, int lastPosition,
+            int lastFrequency, int maxFrequency) {
+        this.data = data;
+        this.size = data.length;
+        this.docCount = docCount;
+        this.lastDoc = lastDoc;
+        this.lastPosition = lastPosition;
+        this.lastFrequency = lastFrequency;
+        this.maxFrequency = maxFrequency;
+        buildSkips();
+    }
+
+    /**
+     * Records that the word appears at the given position on the given page. Pages must be
+     * added in increasing doc ID order, and positions on a page in increasing order.
+     */
+    public void add(int doc, int position) {
+        assert doc >= lastDoc : "PostingList: docs must be added in order!";
+        if (doc != lastDoc) {
+            // end the positions of the last page
+            if (lastDoc >= 0)
+                writeVarint(0);
+            if (docCount > 0 && docCount % SKIP_INTERVAL == 0)
+                addSkip(lastDoc, size);
+            writeVarint(doc - lastDoc);
+            writeVarint(position + 1);
+            lastDoc = doc;
+            docCount++;
+            lastFrequency = 1;
+        } else {
+            assert position > lastPosition : "PostingList: positions must be added in order!";
+            writeVarint(position - lastPosition);
+            lastFrequency++;
+        }
+        lastPosition = position;
+        maxFrequency = Math.max(maxFrequency, lastFrequency);
+    }
+
+    /**
+     * Adds every page of another list to the end of this one, with base added to their
+     * doc IDs, which must all come after the last page of this list. Only the gap to
+     * the other list's first page is written again; the rest of it is copied as is.
+     */
+    public void append(PostingList other, int base) {
+        if (other.docCount == 0)
+            return;
+        assert base + other.lastDoc > lastDoc : "PostingList: docs must be added in order!";
+        Cursor cursor = other.cursor();
+        int first = cursor.next();
+        if (lastDoc >= 0)
+            writeVarint(0);
+        writeVarint(base + first - lastDoc);
+
+        int rest = other.size - cursor.offset;
+        if (size + rest > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + rest));
+        System.arraycopy(other.data, cursor.offset, data, size, rest);
+        // the other list's skips, which all come after its first page, moved along with it
+        for (int i = 0; i < other.skipCount; i++)
+            addSkip(base + other.skips[2 * i], size - cursor.offset + other.skips[2 * i + 1]);
+        size += rest;
+
+        docCount += other.docCount;
+        lastDoc = base + other.lastDoc;
+        lastPosition = other.lastPosition;
+        lastFrequency = other.lastFrequency;
+        maxFrequency = Math.max(maxFrequency, other.maxFrequency);
+    }
+
+    /**
+     * Returns the number of pages the word is on.
+     */
+    public int docCount() {
+        return docCount;
+    }
+
+    /**
+     * Returns the most times the word appears on any one page.
+     */
+    public int maxFrequency() {
+        return maxFrequency;
+    }
+
+    /**
+     * Returns the number of bytes used to store the list.
+     */
+    public int byteSize() {
+        return size;
+    }
+
+    /**
+     * Returns a new cursor positioned before the first page of the list.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Returns a new cursor positioned before the first page with a doc ID of at least from.
+     * Where that page is is found by stepping through the list the first time, and remembered
+     * for the last MAX_STARTS doc IDs, so cursors over the same shard of an index start there
+     * straight away. Pages added later don't move it.
+     */
+    public Cursor cursor(int from) {
+        Cursor cursor = new Cursor();
+        if (from <= 0)
+            return cursor;
+        int[][] known = starts;
+        if (known != null) {
+            for (int[] start : known) {
+                if (start[0] == from) {
+                    cursor.offset = start[1];
+                    cursor.doc = start[2];
+                    return cursor;
+                }
+            }
+        }
+        // only a page that's already there can be remembered
+        if (cursor.seek(from))
+            remember(new int[] {from, cursor.offset, cursor.doc});
+        return cursor;
+    }
+
+    private synchronized void remember(int[] start) {
+        int[][] known = starts == null ? new int[0][] : starts;
+        int drop = known.length == MAX_STARTS ? 1 : 0;
+        int[][] next = new int[known.length - drop + 1][];
+        System.arraycopy(known, drop, next, 0, known.length - drop);
+        next[next.length - 1] = start;
+        starts = next;
+    }
+
+    private void addSkip(int doc, int offset) {
+        if (2 * skipCount + 2 > skips.length)
+            skips = Arrays.copyOf(skips, Math.max(8, skips.length * 2));
+        skips[2 * skipCount] = doc;
+        skips[2 * skipCount + 1] = offset;
+        skipCount++;
+    }
+
+    /**
+     * Finds the skip pointers of a list read without them, stepping through its pages once.
+     */
+    private void buildSkips() {
+        skips = new int[0];
+        skipCount = 0;
+        Cursor cursor = cursor();
+        for (int pages = 0; pages < docCount; pages++) {
+            if (pages > 0 && pages % SKIP_INTERVAL == 0)
+                addSkip(cursor.doc, cursor.offset);
+            cursor.next();
+            cursor.skipPositions();
+        }
+    }
+
+    private void writeVarint(int value) {
+        if (size + 5 > data.length)
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + 5));
+        while ((value & ~0x7F) != 0) {
+            data[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        data[size++] = (byte) value;
+    }
+
+    /**
+     * Writes the list in the format used by IndexFile: its page count, last doc,
+     * position and frequency, its highest frequency, and the length of the encoded
+     * list followed by its bytes.
+     */
+    void write(IndexFile.Output out) throws IOException {
+        out.putInt(docCount);
+        out.putInt(lastDoc);
+        out.putInt(lastPosition);
+        out.putInt(lastFrequency);
+        out.putInt(maxFrequency);
+        out.putInt(size);
+        out.putBytes(data, 0, size);
+    }
+
+    /**
+     * Reads a list written by write from the given offset of buffer.
+     */
+    static PostingList read(ByteBuffer buffer, int offset) {
+        ByteBuffer in = buffer.duplicate();
+        in.position(offset);
+        int docCount = in.getInt();
+        int lastDoc = in.getInt();
+        int lastPosition = in.getInt();
+        int lastFrequency = in.getInt();
+        int maxFrequency = in.getInt();
+        byte[] data = new byte[in.getInt()];
+        in.get(data);
+        return new PostingList(data, docCount, lastDoc, lastPosition, lastFrequency, maxFrequency);
+    }
+
+    /**
+     * Drops the unused end of the buffer before the list is serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        data = Arrays.copyOf(data, size);
+        out.defaultWriteObject();
+    }
+
+    /**
+     * Builds the skip pointers again, which aren't serialized.
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        buildSkips();
+    }
+
+    /**
+     * Walks the pages of a PostingList in doc ID order. The positions of the current page
+     * can be read once; moving on skips over them if they weren't read.
+     */
+    public class Cursor {
+        private int offset;
+        private int doc = -1;
+        private boolean positionsRead = true;
+        private int[] positions = new int[16];
+        // the first skip pointer that might still be ahead of the cursor
+        private int skip;
+
+        /**
+         * Returns the doc ID of the current page, or -1 before the first call to next.
+         */
+        public int doc() {
+            return doc;
+        }
+
+        /**
+         * Moves to the next page, returning its doc ID or -1 if there are none left.
+         */
+        public int next() {
+            if (!positionsRead)
+                skipPositions();
+            if (offset >= size)
+                return doc = -1;
+            doc += readVarint();
+            positionsRead = false;
+            return doc;
+        }
+
+        /**
+         * Moves to the first page with a doc ID of at least target, returning its doc ID
+         * or -1 if there are none left.
+         */
+        public int advance(int target) {
+            int current = doc;
+            if (current >= target)
+                return current;
+            skipTo(target);
+            current = doc;
+            while (current < target) {
+                current = next();
+                if (current < 0)
+                    return -1;
+            }
+            return current;
+        }
+
+        /**
+         * Moves to just before the first page with a doc ID of at least target, so next
+         * returns it. Returns false, leaving the cursor at the end, if there isn't one.
+         */
+        private boolean seek(int target) {
+            skipTo(target);
+            while (true) {
+                if (!positionsRead)
+                    skipPositions();
+                if (offset >= size)
+                    return false;
+                int start = offset;
+                int next = doc + readVarint();
+                if (next >= target) {
+                    offset = start;
+                    return true;
+                }
+                doc = next;
+                positionsRead = false;
+            }
+        }
+
+        /**
+         * Jumps to the last skip pointer before target, if it's ahead of the cursor,
+         * galloping from the first one that might be: doubling the step until one is
+         * at or past target, then searching between the last two.
+         */
+        private void skipTo(int target) {
+            // the count first, since skips is only ever replaced by a longer array
+            int count = skipCount;
+            int[] skips = PostingList.this.skips;
+            // skip pointers the cursor has already passed are no use
+            while (skip < count && skips[2 * skip + 1] <= offset)
+                skip++;
+            if (skip == count || skips[2 * skip] >= target)
+                return;
+            // skips[2 * low] < target, and skips[2 * high] >= target if high < count
+            int low = skip, step = 1;
+            int high = low + step;
+            while (high < count && skips[2 * high] < target) {
+                low = high;
+                step <<= 1;
+                high = low + step;
+            }
+            high = Math.min(high, count);
+            while (high - low > 1) {
+                int middle = (low + high) >>> 1;
+                if (skips[2 * middle] < target)
+                    low = middle;
+                else
+                    high = middle;
+            }
+            doc = skips[2 * low];
+            offset = skips[2 * low + 1];
+            positionsRead = true;
+            skip = low + 1;
+        }
+
+        /**
+         * Reads the positions of the word on the current page into this cursor's
+         * buffer, returning how many there are.
+         */
+        public int readPositions() {
+            assert !positionsRead : "PostingList: positions can only be read once per page!";
+            int n = 0;
+            int position = -1;
+            while (offset < size) {
+                int gap = readVarint();
+                if (gap == 0)
+                    break;
+                position += gap;
+                if (n == positions.length)
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                positions[n++] = position;
+            }
+            positionsRead = true;
+            return n;
+        }
+
+        /**
+         * Returns the number of times the word is on the current page, without
+         * reading its positions. Like readPositions, it can only be called once per page.
+         */
+        public int frequency() {
+            assert !positionsRead : "PostingList: positions can only be read once per page!";
+            // every position ends with the one byte of its varint below 0x80
+            int n = 0;
+            while (offset < size) {
+                byte b = data[offset++];
+                if (b == 0)
+                    break;
+                if (b > 0)
+                    n++;
+            }
+            positionsRead = true;
+            return n;
+        }
+
+        /**
+         * Returns the buffer filled by the last call to readPositions.
+         */
+        public int[] positions() {
+            return positions;
+        }
+
+        private void skipPositions() {
+            // gaps are never 0, so the only zero byte is the one ending the positions
+            while (offset < size) {
+                if (data[offset++] == 0)
+                    break;
+            }
+            positionsRead = true;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package assignment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A query as QueryParser parses it: words, phrases and prefixes, any of them negated, joined
+ * by ANDs and ORs. Its postfix form, with the tokens separated by spaces, is what WebQueryEngine
+ * caches results by, so queries written differently but meaning the same thing, like "a & b"
+ * and "a b", share an entry.
+ */
+public abstract class Query {
+    private String postfix;
+
+    /**
+     * Returns the postfix form of the query, with its tokens separated by spaces.
+     */
+    public String postfix() {
+        if (postfix == null) {
+            List<String> tokens = new ArrayList<String>();
+            postfix(tokens);
+            postfix = String.join(" ", tokens);
+        }
+        return postfix;
+    }
+
+    /**
+     * Adds the tokens of the query's postfix form to out, in order.
+     */
+    public abstract void postfix(Collection<String> out);
+
+    /**
+     * Returns the words, phrases and prefixes of the query, left to right.
+     */
+    public List<Term> terms() {
+        List<Term> terms = new ArrayList<Term>();
+        terms(terms);
+        return terms;
+    }
+
+    abstract void terms(List<Term> out);
+
+    public String toString() {
+        return postfix();
+    }
+
+    /**
+     * A word, a phrase of several words, or a prefix, which matches every word
+     * starting with it.
+     */
+    public static class Term extends Query {
+        private final String text;
+        private final boolean prefix, negated;
+
+        /**
+         * @param text the word, the words of a phrase joined by +, or a prefix
+         *             followed by *
+         */
+        Term(String text, boolean prefix, boolean negated) {
+            this.text = text;
+            this.prefix = prefix;
+            this.negated = negated;
+        }
+
+        /**
+         * Returns the term as it appears in the postfix form, without a ! if it's negated.
+         */
+        public String text() {
+            return text;
+        }
+
+        /**
+         * Returns the term's words, which is just the one for a word or a prefix,
+         * without its *.
+         */
+        public List<String> words() {
+            if (prefix)
+                return List.of(text.substring(0, text.length() - 1));
+            return Arrays.asList(text.split("\\+"));
+        }
+
+        public boolean isPrefix() {
+            return prefix;
+        }
+
+        public boolean isNegated() {
+            return negated;
+        }
+
+        public void postfix(Collection<String> out) {
+            out.add(negated ? "!" + text : text);
+        }
+
+        void terms(List<Term> out) {
+            out.add(this);
+        }
+    }
+
+    /**
+     * The pages matching both of two queries.
+     */
+    public static class And extends Query {
+        private final Query left, right;
+
+        And(Query left, Query right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        public Query left() {
+            return left;
+        }
+
+        public Query right() {
+            return right;
+        }
+
+        public void postfix(Collection<String> out) {
+            left.postfix(out);
+            right.postfix(out);
+            out.add("&");
+        }
+
+        void terms(List<Term> out) {
+            left.terms(out);
+            right.terms(out);
+        }
+    }
+
+    /**
+     * The pages matching either of two queries.
+     */
+    public static class Or extends Query {
+        private final Query left, right;
+
+        Or(Query left, Query right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        public Query left() {
+            return left;
+        }
+
+        public Query right() {
+            return right;
+        }
+
+        public void postfix(Collection<String> out) {
+            left.postfix(out);
+            right.postfix(out);
+            out.add("|");
+        }
+
+        void terms(List<Term> out) {
+            left.terms(out);
+            right.terms(out);
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package assignment;
+
+import java.util.HashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * A bounded cache using W-TinyLFU eviction. New entries go into a small LRU window; entries
+ * pushed out of the window only get into the main cache if they've been asked for more often
+ * than the entry they would push out of it, so a burst of one-off queries can't flush out the
+ * popular ones. How often keys are asked for is estimated with a count-min sketch, which is
+ * halved every so often so that old popularity fades.
+ *
+ * The main cache is a segmented LRU: entries start out on probation and are moved to the
+ * protected segment when they're used again. The size of the cache is measured by a weigher,
+ * which can count entries or bytes. All methods are synchronized.
+ */
+public class QueryCache<K, V> {
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private final HashMap<K, Node<K, V>> nodes = new HashMap<K, Node<K, V>>();
+    private final ToLongFunction<V> weigher;
+    private final long maxWeight;
+    private final long windowMax;
+    private final long protectedMax;
+    private final Segment<K, V>[] segments;
+    private final FrequencySketch sketch;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a cache holding values weighing up to maxWeight in total.
+     *
+     * @param expectedEntries roughly how many entries fit, to size the frequency sketch
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public QueryCache(long maxWeight, int expectedEntries, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        // 1% of the cache is the window, and 80% of the rest is protected
+        windowMax = Math.max(1, maxWeight / 100);
+        protectedMax = (maxWeight - windowMax) * 8 / 10;
+        segments = new Segment[] {new Segment<K, V>(), new Segment<K, V>(), new Segment<K, V>()};
+        sketch = new FrequencySketch(Math.max(64, expectedEntries));
+    }
+
+    /**
+     * Creates a cache holding up to maxEntries entries.
+     */
+    public static <K, V> QueryCache<K, V> ofEntries(int maxEntries) {
+        return new QueryCache<K, V>(maxEntries, maxEntries, value -> 1);
+    }
+
+    /**
+     * Returns the value cached for key, or null if there isn't one.
+     */
+    public synchronized V get(K key) {
+        sketch.increment(key);
+        Node<K, V> node = nodes.get(key);
+        if (node == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        touch(node);
+        return node.value;
+    }
+
+    /**
+     * Caches value for key, replacing any value already there. Values heavier
+     * than the whole cache aren't cached.
+     */
+    public synchronized void put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        Node<K, V> node = nodes.get(key);
+        if (node != null) {
+            segments[node.queue].weight += weight - node.weight;
+            node.value = value;
+            node.weight = weight;
+            touch(node);
+        } else {
+            if (weight > maxWeight)
+                return;
+            sketch.increment(key);
+            node = new Node<K, V>(key, value, weight);
+            nodes.put(key, node);
+            segments[WINDOW].addLast(node, WINDOW);
+        }
+        evict();
+    }
+
+    /**
+     * Removes every entry, keeping the hit and miss counts.
+     */
+    public synchronized void clear() {
+        nodes.clear();
+        for (Segment<K, V> segment : segments)
+            segment.clear();
+    }
+
+    public synchronized int size() {
+        return nodes.size();
+    }
+
+    /**
+     * Returns the total weight of the cached values.
+     */
+    public synchronized long weight() {
+        return segments[WINDOW].weight + segments[PROBATION].weight + segments[PROTECTED].weight;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Moves a node that was just used to the back of its queue, promoting it
+     * to the protected segment if it was on probation.
+     */
+    private void touch(Node<K, V> node) {
+        if (node.queue == PROBATION) {
+            segments[PROBATION].remove(node);
+            segments[PROTECTED].addLast(node, PROTECTED);
+            // demote the least recently used protected entries back to probation
+            while (segments[PROTECTED].weight > protectedMax) {
+                Node<K, V> demoted = segments[PROTECTED].first();
+                segments[PROTECTED].remove(demoted);
+                segments[PROBATION].addLast(demoted, PROBATION);
+            }
+        } else {
+            segments[node.queue].remove(node);
+            segments[node.queue].addLast(node, node.queue);
+        }
+    }
+
+    /**
+     * Moves entries out of the window and onto probation while it's too big, then
+     * evicts until the cache fits, each time keeping the more frequently used of the
+     * newest entry on probation and the one that's been there longest.
+     */
+    private void evict() {
+        while (segments[WINDOW].weight > windowMax) {
+            Node<K, V> candidate = segments[WINDOW].first();
+            segments[WINDOW].remove(candidate);
+            segments[PROBATION].addLast(candidate, PROBATION);
+        }
+
+        while (weight() > maxWeight) {
+            Node<K, V> evicted;
+            if (!segments[PROBATION].isEmpty()) {
+                Node<K, V> victim = segments[PROBATION].first();
+                Node<K, V> candidate = segments[PROBATION].last();
+                if (candidate != victim && sketch.frequency(candidate.key) > sketch.frequency(victim.key))
+                    evicted = victim;
+                else
+                    evicted = candidate;
+            } else if (!segments[PROTECTED].isEmpty()) {
+                evicted = segments[PROTECTED].first();
+            } else {
+                evicted = segments[WINDOW].first();
+            }
+            segments[evicted.queue].remove(evicted);
+            nodes.remove(evicted.key);
+        }
+    }
+
+    private static class Node<K, V> {
+        final K key;
+        V value;
+        long weight;
+        int queue;
+        Node<K, V> prev, next;
+
+        Node(K key, V value, long weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * A doubly linked queue of nodes, least recently used first.
+     */
+    private static class Segment<K, V> {
+        private final Node<K, V> head = new Node<K, V>(null, null, 0);
+        long weight;
+
+        Segment() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        boolean isEmpty() {
+            return head.next == head;
+        }
+
+        Node<K, V> first() {
+            return head.next;
+        }
+
+        Node<K, V> last() {
+            return head.prev;
+        }
+
+        void addLast(Node<K, V> node, int queue) {
+            node.queue = queue;
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = node.next = null;
+            weight -= node.weight;
+        }
+
+        void clear() {
+            head.prev = head;
+            head.next = head;
+            weight = 0;
+        }
+    }
+
+    /**
+     * A count-min sketch of 4 rows of counters that saturate at 15. After 10 increments
+     * per counter in a row, every counter is halved.
+     */
+    private static class FrequencySketch {
+        private static final int[] SEEDS = {0x97CB3127, 0xB0F43F45, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] rows = new byte[4][];
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.min(expectedEntries, 1 << 24) - 1) << 1;
+            for (int i = 0; i < rows.length; i++)
+                rows[i] = new byte[width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        void increment(Object key) {
+            int hash = spread(key.hashCode());
+            for (int i = 0; i < rows.length; i++) {
+                int index = indexOf(hash, i);
+                if (rows[i][index] < 15)
+                    rows[i][index]++;
+            }
+            if (++additions == sampleSize)
+                reset();
+        }
+
+        int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int min = 15;
+            for (int i = 0; i < rows.length; i++)
+                min = Math.min(min, rows[i][indexOf(hash, i)]);
+            return min;
+        }
+
+        private int indexOf(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : rows) {
+                for (int i = 0; i < row.length; i++)
+                    row[i] >>= 1;
+            }
+            additions /= 2;
+        }
+
+        private static int spread(int hash) {
+            hash ^= hash >>> 17;
+            hash *= 0xED5AD4BB;
+            hash ^= hash >>> 11;
+            return hash;
+        }
+    }
+}
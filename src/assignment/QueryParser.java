@@ -0,0 +1,238 @@
+package assignment;
+
+/**
+ * Parses a query into a Query in one pass over its characters, with a lexer handing tokens to
+ * a recursive descent parser:
+ *
+ *   query  := or
+ *   or     := and ('|' and)*
+ *   and    := unary ('&'? unary)*
+ *   unary  := '(' or ')' | '!'? term
+ *   term   := word | prefix | '"' word+ '"'
+ *
+ * A word is letters and apostrophes, and a prefix is a word followed by *. Two operands next to
+ * each other are ANDed, & binds tighter than |, and both group to the left, so the postfix form
+ * of every query comes out just as the old regex and shunting-yard pipeline made it. Queries are
+ * lower cased first. Anything that doesn't parse throws a SyntaxException with its position.
+ */
+public class QueryParser {
+
+    // the deepest parentheses can nest, so a query can't run the parser out of stack
+    public static final int MAX_DEPTH = 256;
+
+    // the kinds of token
+    private static final int END = 0, WORD = 1, PREFIX = 2, PHRASE = 3, NOT = 4, AND = 5, OR = 6,
+            OPEN = 7, CLOSE = 8;
+
+    private final String query;
+    // the position of the next character to lex
+    private int next;
+    // the current token: its kind, where it starts, and the text of a term
+    private int kind, start;
+    private String text;
+    private int depth;
+
+    private QueryParser(String query) {
+        this.query = query.toLowerCase();
+    }
+
+    /**
+     * Parses a query, throwing a SyntaxException if it isn't one.
+     */
+    public static Query parse(String query) {
+        QueryParser parser = new QueryParser(query);
+        parser.advance();
+        if (parser.kind == END)
+            throw new SyntaxException("Empty query!", 0);
+        Query parsed = parser.or();
+        if (parser.kind == CLOSE)
+            throw new SyntaxException("Mismatched parenthesis in query!", parser.start);
+        if (parser.kind != END)
+            throw new SyntaxException("Expected & or |!", parser.start);
+        return parsed;
+    }
+
+    private Query or() {
+        Query left = and();
+        while (kind == OR) {
+            advance();
+            left = new Query.Or(left, and());
+        }
+        return left;
+    }
+
+    private Query and() {
+        Query left = unary();
+        while (true) {
+            if (kind == AND)
+                advance();
+            else if (kind != OPEN && kind != NOT && !isTerm())
+                return left;
+            left = new Query.And(left, unary());
+        }
+    }
+
+    private Query unary() {
+        if (kind == OPEN) {
+            int open = start;
+            if (++depth > MAX_DEPTH)
+                throw new SyntaxException("Parentheses nested too deeply!", open);
+            advance();
+            if (kind == CLOSE)
+                throw new SyntaxException("Empty parentheses!", open);
+            Query inner = or();
+            if (kind != CLOSE)
+                throw new SyntaxException("Number of brackets must be balanced!", open);
+            depth--;
+            advance();
+            return inner;
+        }
+        boolean negated = kind == NOT;
+        if (negated) {
+            advance();
+            if (!isTerm())
+                throw new SyntaxException("Only a word, prefix or phrase can be negated!", start);
+        } else if (!isTerm()) {
+            throw new SyntaxException("Expected a word, prefix, phrase or (!", start);
+        }
+        Query.Term term = new Query.Term(text, kind == PREFIX, negated);
+        advance();
+        return term;
+    }
+
+    private boolean isTerm() {
+        return kind == WORD || kind == PREFIX || kind == PHRASE;
+    }
+
+    /**
+     * Lexes the next token.
+     */
+    private void advance() {
+        while (next < query.length() && isSpace(query.charAt(next)))
+            next++;
+        start = next;
+        text = null;
+        if (next == query.length()) {
+            kind = END;
+            return;
+        }
+        char c = query.charAt(next++);
+        switch (c) {
+            case '(':
+                kind = OPEN;
+                return;
+            case ')':
+                kind = CLOSE;
+                return;
+            case '&':
+                kind = AND;
+                return;
+            case '|':
+                kind = OR;
+                return;
+            case '!':
+                kind = NOT;
+                return;
+            case '"':
+                phrase();
+                return;
+            default:
+                next--;
+                kind = word() ? PREFIX : WORD;
+                text = query.substring(start, next);
+        }
+    }
+
+    /**
+     * Lexes a word or prefix starting at next, and returns whether it's a prefix.
+     */
+    private boolean word() {
+        int from = next;
+        while (next < query.length() && isWordChar(query.charAt(next)))
+            next++;
+        if (next == from)
+            throw unexpected(next);
+        boolean prefix = next < query.length() && query.charAt(next) == '*';
+        if (prefix)
+            next++;
+        // a word ends at a space, an operator or a quote
+        if (next < query.length() && !isSpace(query.charAt(next)) && "()&|\"".indexOf(query.charAt(next)) < 0)
+            throw unexpected(next);
+        return prefix;
+    }
+
+    /**
+     * Lexes the words of a phrase up to its closing quote, joining them with +. A phrase of
+     * one word is just the word, or a prefix.
+     */
+    private void phrase() {
+        String first = null;
+        StringBuilder words = null;
+        boolean prefix = false;
+        while (true) {
+            while (next < query.length() && isSpace(query.charAt(next)))
+                next++;
+            if (next == query.length())
+                throw new SyntaxException("Number of quotes must be balanced!", start);
+            if (query.charAt(next) == '"')
+                break;
+            int from = next;
+            boolean isPrefix = word();
+            if (prefix || isPrefix && first != null)
+                throw new SyntaxException("A prefix can't be part of a phrase!", from);
+            prefix = isPrefix;
+            if (first == null) {
+                first = query.substring(from, next);
+            } else {
+                if (words == null)
+                    words = new StringBuilder(first);
+                words.append('+').append(query, from, next);
+            }
+        }
+        if (first == null)
+            throw new SyntaxException("Cannot parse a null phrase!", start);
+        next++;
+        kind = prefix ? PREFIX : words == null ? WORD : PHRASE;
+        text = words == null ? first : words.toString();
+    }
+
+    private SyntaxException unexpected(int position) {
+        char c = query.charAt(position);
+        if (c == '+')
+            return new SyntaxException("'+' character not allowed in query!", position);
+        return new SyntaxException("'" + c + "' character not allowed here!", position);
+    }
+
+    private static boolean isWordChar(char c) {
+        // characters of all languages plus apostrophe are allowed
+        return Character.isLetter(c) || c == '\'';
+    }
+
+    /**
+     * The whitespace the old pipeline split queries on, \s in a regex.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * A query that doesn't parse, with the position in it where parsing stopped.
+     */
+    public static class SyntaxException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        private final int position;
+
+        SyntaxException(String message, int position) {
+            super(message + " (at " + position + ")");
+            this.position = position;
+        }
+
+        /**
+         * Returns the index of the character the query stopped making sense at.
+         */
+        public int position() {
+            return position;
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package assignment;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A parsed query compiled into a tree of operators, ready to be evaluated against a WebIndex.
+ *
+ * Chains of the same operator are flattened, so a & b & c is one AND of three terms. Every
+ * node estimates how many pages it matches from the sizes of the words' sets of pages, and
+ * an AND evaluates its operands from the rarest up, stopping as soon as nothing is left.
+ * Negated operands of an AND are taken away from the result with a set difference rather
+ * than complemented against every page. A prefix like foo* is an OR of the words starting with
+ * foo, up to WebQueryEngine.MAX_EXPANSIONS of them in the order of their bytes.
+ *
+ * A plan can be limited to a range of doc IDs, so a query can be evaluated over the shards
+ * of an index in parallel, a plan for each. Its estimates are still for the whole index, so
+ * every shard's plan evaluates its operands in the same order.
+ */
+class QueryPlan {
+    private final WebIndex index;
+    private final Node root;
+    // the doc IDs the plan matches pages from, from up to (but not including) to
+    private final int from, to;
+
+    private QueryPlan(WebIndex index, Node root, int from, int to) {
+        this.index = index;
+        this.root = root;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Compiles a parsed query.
+     */
+    static QueryPlan compile(WebIndex index, Query query) {
+        return compile(index, query, 0, index.size());
+    }
+
+    /**
+     * Compiles a parsed query to match only the pages with doc IDs from from
+     * up to (but not including) to.
+     */
+    static QueryPlan compile(WebIndex index, Query query, int from, int to) {
+        QueryPlan plan = new QueryPlan(index, null, from, to);
+        return new QueryPlan(index, plan.node(query).optimize(), from, to);
+    }
+
+    private Node node(Query query) {
+        if (query instanceof Query.And) {
+            Query.And and = (Query.And) query;
+            return new And(node(and.left()), node(and.right()));
+        }
+        if (query instanceof Query.Or) {
+            Query.Or or = (Query.Or) query;
+            return new Or(node(or.left()), node(or.right()));
+        }
+        Query.Term term = (Query.Term) query;
+        Node node = term.isPrefix() ? new Prefix(term.text()) : new Term(term.text());
+        return term.isNegated() ? new Not(node) : node;
+    }
+
+    /**
+     * Returns the doc IDs of the pages matching the query.
+     */
+    DocSet evaluate() {
+        return root.evaluate();
+    }
+
+    /**
+     * Evaluates the query and describes the plan, one operator per line, with
+     * the estimated and actual number of pages each one matched.
+     */
+    String explain() {
+        root.evaluate();
+        StringBuilder out = new StringBuilder();
+        root.explain(out, 0);
+        return out.toString();
+    }
+
+    abstract class Node {
+        // the number of pages this node matched, or -1 if it wasn't evaluated
+        int actual = -1;
+
+        abstract int estimate();
+
+        abstract DocSet compute();
+
+        /**
+         * Returns this node with its operands flattened and ordered.
+         */
+        Node optimize() {
+            return this;
+        }
+
+        abstract String describe();
+
+        List<Node> children() {
+            return List.of();
+        }
+
+        DocSet evaluate() {
+            DocSet found = compute();
+            actual = found.cardinality();
+            return found;
+        }
+
+        void explain(StringBuilder out, int depth) {
+            out.append("  ".repeat(depth)).append(describe())
+                    .append(" [est ").append(estimate()).append(", ")
+                    .append(actual < 0 ? "skipped" : "got " + actual).append("]\n");
+            for (Node child : children())
+                child.explain(out, depth + 1);
+        }
+    }
+
+    /**
+     * A word, or a phrase stored as lorem+ipsum.
+     */
+    class Term extends Node {
+        final String token;
+        private int estimate = -1;
+
+        Term(String token) {
+            this.token = token.toLowerCase();
+        }
+
+        int estimate() {
+            if (estimate < 0) {
+                // a phrase is on at most as many pages as its rarest word
+                estimate = Integer.MAX_VALUE;
+                for (String word : token.split("\\+"))
+                    estimate = Math.min(estimate, index.docs(word).cardinality());
+            }
+            return estimate;
+        }
+
+        DocSet compute() {
+            return index.docs(token, from, to);
+        }
+
+        String describe() {
+            return token.contains("+") ? "phrase \"" + token.replace('+', ' ') + "\"" : "word " + token;
+        }
+    }
+
+    /**
+     * The words starting with a prefix, given as foo*.
+     */
+    class Prefix extends Node {
+        final String prefix;
+        final List<String> words;
+        // whether there were more words than the expansions allowed
+        final boolean truncated;
+        private int estimate = -1;
+
+        Prefix(String token) {
+            prefix = token.substring(0, token.length() - 1).toLowerCase();
+            List<String> found = index.prefixTerms(prefix, WebQueryEngine.MAX_EXPANSIONS + 1);
+            truncated = found.size() > WebQueryEngine.MAX_EXPANSIONS;
+            words = truncated ? found.subList(0, WebQueryEngine.MAX_EXPANSIONS) : found;
+        }
+
+        int estimate() {
+            if (estimate < 0) {
+                long sum = 0;
+                for (String word : words)
+                    sum += index.docs(word).cardinality();
+                estimate = (int) Math.min(sum, index.pageCount());
+            }
+            return estimate;
+        }
+
+        DocSet compute() {
+            DocSet found = new DocSet();
+            for (String word : words)
+                found = found.or(index.docs(word, from, to));
+            return found;
+        }
+
+        String describe() {
+            return "prefix " + prefix + "* (" + (truncated ? "first " : "") + words.size()
+                    + (words.size() == 1 ? " word)" : " words)");
+        }
+    }
+
+    class Not extends Node {
+        final Node child;
+
+        Not(Node child) {
+            this.child = child;
+        }
+
+        int estimate() {
+            return Math.max(0, index.pageCount() - child.estimate());
+        }
+
+        Node optimize() {
+            Node inner = child.optimize();
+            // !!x is just x
+            return inner instanceof Not ? ((Not) inner).child : new Not(inner);
+        }
+
+        DocSet compute() {
+            return index.allDocs(from, to).andNot(child.evaluate());
+        }
+
+        String describe() {
+            return "not";
+        }
+
+        List<Node> children() {
+            return List.of(child);
+        }
+    }
+
+    class And extends Node {
+        // operands in the order they're evaluated, rarest first
+        final List<Node> operands = new ArrayList<Node>();
+        // the insides of the negated operands, which are taken away at the end
+        final List<Node> negated = new ArrayList<Node>();
+
+        And(Node left, Node right) {
+            operands.add(left);
+            operands.add(right);
+        }
+
+        private And() {
+        }
+
+        Node optimize() {
+            And and = new And();
+            for (Node operand : operands)
+                and.collect(operand.optimize());
+            and.operands.sort(Comparator.comparingInt(Node::estimate));
+            and.negated.sort(Comparator.comparingInt(Node::estimate).reversed());
+            return and;
+        }
+
+        private void collect(Node operand) {
+            if (operand instanceof And) {
+                operands.addAll(((And) operand).operands);
+                negated.addAll(((And) operand).negated);
+            } else if (operand instanceof Not) {
+                negated.add(((Not) operand).child);
+            } else {
+                operands.add(operand);
+            }
+        }
+
+        int estimate() {
+            if (!operands.isEmpty())
+                return operands.get(0).estimate();
+            int estimate = index.pageCount();
+            for (Node operand : negated)
+                estimate -= operand.estimate();
+            return Math.max(0, estimate);
+        }
+
+        DocSet compute() {
+            DocSet found = operands.isEmpty() ? index.allDocs(from, to) : operands.get(0).evaluate();
+            for (int i = 1; i < operands.size() && !found.isEmpty(); i++)
+                found = found.and(operands.get(i).evaluate());
+            // subtract the biggest sets first, so later ones are more likely skipped
+            for (int i = 0; i < negated.size() && !found.isEmpty(); i++)
+                found = found.andNot(negated.get(i).evaluate());
+            return found;
+        }
+
+        String describe() {
+            return "and";
+        }
+
+        List<Node> children() {
+            return operands;
+        }
+
+        void explain(StringBuilder out, int depth) {
+            super.explain(out, depth);
+            for (Node operand : negated) {
+                out.append("  ".repeat(depth + 1)).append("minus\n");
+                operand.explain(out, depth + 2);
+            }
+        }
+    }
+
+    class Or extends Node {
+        final List<Node> operands = new ArrayList<Node>();
+
+        Or(Node left, Node right) {
+            operands.add(left);
+            operands.add(right);
+        }
+
+        private Or() {
+        }
+
+        Node optimize() {
+            Or or = new Or();
+            for (Node operand : operands) {
+                Node optimized = operand.optimize();
+                if (optimized instanceof Or)
+                    or.operands.addAll(((Or) optimized).operands);
+                else
+                    or.operands.add(optimized);
+            }
+            // start from the biggest set, so the others are merged into it
+            or.operands.sort(Comparator.comparingInt(Node::estimate).reversed());
+            return or;
+        }
+
+        int estimate() {
+            long estimate = 0;
+            for (Node operand : operands)
+                estimate += operand.estimate();
+            return (int) Math.min(estimate, index.pageCount());
+        }
+
+        DocSet compute() {
+            DocSet found = operands.get(0).evaluate();
+            for (int i = 1; i < operands.size(); i++)
+                found = found.or(operands.get(i).evaluate());
+            return found;
+        }
+
+        String describe() {
+            return "or";
+        }
+
+        List<Node> children() {
+            return operands;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package assignment;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The best pages for a query, in order, along with their scores and the
+ * total number of pages that matched. Results from a distributed index are
+ * partial if some of its partitions didn't answer in time.
+ */
+public class RankedResults {
+    private final int totalHits;
+    private final List<Page> pages;
+    private final double[] scores;
+    private final boolean partial;
+
+    RankedResults(int totalHits, List<Page> pages, double[] scores) {
+        this(totalHits, pages, scores, false);
+    }
+
+    RankedResults(int totalHits, List<Page> pages, double[] scores, boolean partial) {
+        this.totalHits = totalHits;
+        this.pages = Collections.unmodifiableList(pages);
+        this.scores = scores;
+        this.partial = partial;
+    }
+
+    /**
+     * Returns the number of pages matching the query, ranked or not.
+     */
+    public int totalHits() {
+        return totalHits;
+    }
+
+    /**
+     * Returns the best pages, highest score first.
+     */
+    public List<Page> pages() {
+        return pages;
+    }
+
+    /**
+     * Returns the score of the i'th best page.
+     */
+    public double score(int i) {
+        return scores[i];
+    }
+
+    /**
+     * Returns whether some of the index didn't answer, so the pages and
+     * total only count the rest of it.
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /**
+     * Returns whether these results hold the best k pages.
+     */
+    boolean covers(int k) {
+        return pages.size() >= k || pages.size() == totalHits;
+    }
+
+    /**
+     * Returns the best k of these results.
+     */
+    RankedResults head(int k) {
+        if (k >= pages.size())
+            return this;
+        return new RankedResults(totalHits, pages.subList(0, k), Arrays.copyOf(scores, k), partial);
+    }
+}
@@ -0,0 +1,311 @@
+package assignment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Finds the k pages of a query's matches with the highest BM25 score for the query's words.
+ *
+ * Pages are scored a page at a time by stepping through the words' posting lists together,
+ * using MaxScore to skip most of them: each word has an upper bound on the score it can add to
+ * a page, from its highest frequency on any page. Once the heap holds k pages, the words whose
+ * bounds add up to no more than the lowest score in the heap can't get a page into it on their
+ * own, so only pages with one of the other words are looked at, and the rest of the words are
+ * only checked until the page's best possible score drops below the heap.
+ *
+ * Across the shards of an index, each shard's pages are ranked on their own, keeping the best k
+ * of each, and those are merged into the best k of them all. Every shard scores pages with the
+ * page and word counts of the whole index, so the pages and their scores come out the same
+ * however many shards there are. The same goes for the partitions of a distributed index, which
+ * are ranked with the page and word counts of every partition put together, passed in as Stats.
+ */
+class Ranker {
+    static final double K1 = 1.2;
+    static final double B = 0.75;
+
+    // the worst page at the head: the lowest score, then the highest doc
+    private static final Comparator<Scored> WORST_FIRST =
+            Comparator.comparingDouble((Scored s) -> s.score).thenComparing(s -> -s.doc);
+
+    private final WebIndex index;
+    private final double averageLength;
+
+    // the query's words, in increasing order of their upper bounds
+    private final PostingList.Cursor[] cursors;
+    private final double[] idf;
+    private final double[] bounds;
+    // sums[i] = bounds[0] + ... + bounds[i]
+    private final double[] sums;
+    // the score each word adds to the page being scored
+    private final double[] scores;
+
+    /**
+     * Ranks pages from the given doc ID on, by the given words and their lists,
+     * with the given counts.
+     */
+    private Ranker(WebIndex index, List<String> words, List<PostingList> lists, Stats stats, int from) {
+        this.index = index;
+        averageLength = Math.max(1, stats.averageLength());
+
+        int n = lists.size();
+        Integer[] order = new Integer[n];
+        double[] wordIdf = new double[n];
+        double[] wordBounds = new double[n];
+        for (int i = 0; i < n; i++) {
+            PostingList list = lists.get(i);
+            double df = stats.docFreq(words.get(i), list);
+            wordIdf[i] = Math.log(1 + (stats.pages() - df + 0.5) / (df + 0.5));
+            // the score only grows with the frequency and shrinks with the page length
+            int tf = list.maxFrequency();
+            wordBounds[i] = wordIdf[i] * tf * (K1 + 1) / (tf + K1 * (1 - B));
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingDouble(i -> wordBounds[i]));
+
+        cursors = new PostingList.Cursor[n];
+        idf = new double[n];
+        bounds = new double[n];
+        sums = new double[n];
+        scores = new double[n];
+        for (int i = 0; i < n; i++) {
+            cursors[i] = lists.get(order[i]).cursor(from);
+            idf[i] = wordIdf[order[i]];
+            bounds[i] = wordBounds[order[i]];
+            sums[i] = (i > 0 ? sums[i - 1] : 0) + bounds[i];
+        }
+    }
+
+    /**
+     * Returns the k best pages out of matches for the given words. Matching pages
+     * without any of the words come after the scored ones, in doc ID order.
+     */
+    static RankedResults topK(WebIndex index, Collection<String> words, DocSet matches, int k) {
+        return topK(index, words, matches, k, new Shards(index, 1, null));
+    }
+
+    /**
+     * Returns the k best pages out of matches like topK, ranking each of the
+     * index's shards in parallel if the words are on enough pages.
+     */
+    static RankedResults topK(WebIndex index, Collection<String> words, DocSet matches, int k,
+            Shards shards) {
+        return topK(index, words, matches, k, shards, Stats.of(index));
+    }
+
+    /**
+     * Returns the k best pages out of matches like topK, scoring them with the
+     * given counts rather than the index's own.
+     */
+    static RankedResults topK(WebIndex index, Collection<String> words, DocSet matches, int k,
+            Shards shards, Stats stats) {
+        List<String> found = new ArrayList<String>();
+        List<PostingList> lists = new ArrayList<PostingList>();
+        for (String word : words) {
+            PostingList list = index.postings(word);
+            if (list != null) {
+                found.add(word);
+                lists.add(list);
+            }
+        }
+        long postings = 0;
+        for (PostingList list : lists)
+            postings += list.docCount();
+        List<List<Scored>> ranked;
+        if (shards.count() == 1 || postings < Shards.SPLIT_POSTINGS)
+            ranked = List.of(new Ranker(index, found, lists, stats, 0).rank(matches, k, 0, index.size()));
+        else
+            ranked = shards.map(shard -> new Ranker(index, found, lists, stats, shards.from(shard))
+                    .rank(matches, k, shards.from(shard), shards.to(shard)));
+
+        List<Scored> best = new ArrayList<Scored>();
+        for (List<Scored> shard : ranked)
+            best.addAll(shard);
+        best.sort(WORST_FIRST.reversed());
+        if (best.size() > k)
+            best.subList(k, best.size()).clear();
+        return results(index, matches, k, best);
+    }
+
+    /**
+     * Returns the k best scored pages out of matches with doc IDs from from
+     * up to (but not including) to, best first.
+     */
+    private List<Scored> rank(DocSet matches, int k, int from, int to) {
+        PriorityQueue<Scored> heap = new PriorityQueue<Scored>(WORST_FIRST);
+        double threshold = 0;
+        int essential = 0;
+
+        for (PostingList.Cursor cursor : cursors)
+            cursor.advance(from);
+
+        while (true) {
+            // the next page with one of the essential words
+            int doc = Integer.MAX_VALUE;
+            for (int i = essential; i < cursors.length; i++) {
+                if (cursors[i].doc() >= 0)
+                    doc = Math.min(doc, cursors[i].doc());
+            }
+            if (doc >= to)
+                break;
+
+            boolean match = matches.contains(doc);
+            double bound = essential > 0 ? sums[essential - 1] : 0;
+            for (int i = essential; i < cursors.length; i++) {
+                if (cursors[i].doc() == doc) {
+                    if (match) {
+                        scores[i] = score(cursors[i].frequency(), doc, i);
+                        bound += scores[i];
+                    }
+                    cursors[i].next();
+                }
+            }
+            if (!match)
+                continue;
+
+            boolean full = heap.size() == k;
+            for (int i = essential - 1; i >= 0; i--) {
+                if (full && cantBeat(bound, threshold))
+                    break;
+                bound -= bounds[i];
+                if (cursors[i].advance(doc) == doc) {
+                    scores[i] = score(cursors[i].frequency(), doc, i);
+                    bound += scores[i];
+                }
+            }
+
+            if (!full || !cantBeat(bound, threshold)) {
+                // sum the words in the same order every time so scores are reproducible
+                double score = 0;
+                for (int i = 0; i < cursors.length; i++)
+                    score += scores[i];
+                if (!full || score > threshold) {
+                    heap.add(new Scored(doc, score));
+                    if (heap.size() > k)
+                        heap.poll();
+                    if (heap.size() == k) {
+                        threshold = heap.peek().score;
+                        while (essential < cursors.length && cantBeat(sums[essential], threshold))
+                            essential++;
+                    }
+                }
+            }
+            Arrays.fill(scores, 0);
+        }
+
+        List<Scored> best = new ArrayList<Scored>(heap);
+        best.sort(WORST_FIRST.reversed());
+        return best;
+    }
+
+    /**
+     * Returns the ranked results for the best scored pages, filled up to k with
+     * the matches that weren't scored.
+     */
+    private static RankedResults results(WebIndex index, DocSet matches, int k, List<Scored> best) {
+        // fill up with the matches that have none of the words
+        if (best.size() < k) {
+            Set<Integer> scored = new HashSet<Integer>();
+            for (Scored s : best)
+                scored.add(s.doc);
+            PrimitiveIterator.OfInt it = matches.iterator();
+            while (best.size() < k && it.hasNext()) {
+                int doc = it.nextInt();
+                if (!scored.contains(doc))
+                    best.add(new Scored(doc, 0));
+            }
+        }
+
+        List<Page> pages = new ArrayList<Page>(best.size());
+        double[] bestScores = new double[best.size()];
+        for (int i = 0; i < best.size(); i++) {
+            pages.add(index.page(best.get(i).doc));
+            bestScores[i] = best.get(i).score;
+        }
+        return new RankedResults(matches.cardinality(), pages, bestScores);
+    }
+
+    /**
+     * Returns the BM25 score of the i'th word appearing tf times on the given page.
+     */
+    private double score(int tf, int doc, int i) {
+        double norm = K1 * (1 - B + B * index.length(doc) / averageLength);
+        return idf[i] * tf * (K1 + 1) / (tf + norm);
+    }
+
+    /**
+     * Returns whether a page with at most the given score can't get into the heap.
+     * Bounds are summed in a different order than scores, so they get some slack for rounding.
+     */
+    private static boolean cantBeat(double bound, double threshold) {
+        return bound * (1 + 1e-9) <= threshold;
+    }
+
+    private static class Scored {
+        final int doc;
+        final double score;
+
+        Scored(int doc, double score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    /**
+     * The counts pages are scored with: the number of pages, the number of words on
+     * them, and the number of pages each word is on. They're the index's own unless
+     * it's one partition of a bigger index, whose counts its pages are scored with so
+     * they compare with the other partitions' pages.
+     */
+    static class Stats {
+        private final long pages;
+        private final long totalLength;
+        // word -> the number of pages it's on, for the words of the query
+        private final Map<String, Integer> docFreqs;
+
+        Stats(long pages, long totalLength, Map<String, Integer> docFreqs) {
+            this.pages = pages;
+            this.totalLength = totalLength;
+            this.docFreqs = docFreqs;
+        }
+
+        /**
+         * Returns the counts of an index, taking each word's from its posting list.
+         */
+        static Stats of(WebIndex index) {
+            return new Stats(index.pageCount(), index.totalLength(), Map.of());
+        }
+
+        long pages() {
+            return pages;
+        }
+
+        long totalLength() {
+            return totalLength;
+        }
+
+        Map<String, Integer> docFreqs() {
+            return docFreqs;
+        }
+
+        double averageLength() {
+            return pages == 0 ? 0 : (double) totalLength / pages;
+        }
+
+        /**
+         * Returns the number of pages a word is on, counted from its posting
+         * list if it isn't one of docFreqs.
+         */
+        double docFreq(String word, PostingList list) {
+            Integer df = docFreqs.get(word);
+            return df != null ? df : list.docCount();
+        }
+    }
+}
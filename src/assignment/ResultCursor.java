@@ -0,0 +1,85 @@
+package assignment;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Walks the pages matching a query from the best ranked down, only ranking as many
+ * pages as have been asked for. The first batch is ranked when the cursor is made,
+ * and every time the cursor runs past the end of the ranked pages the number ranked
+ * is doubled, so going through n pages costs about as much as ranking the best n.
+ * Over a distributed index, each ranking only has the partitions that answered it.
+ */
+public class ResultCursor implements Iterator<Page> {
+    private final WebQueryEngine engine;
+    private final String query;
+    private RankedResults ranked;
+    private int position;
+    // the position of the page last returned by next(), or -1
+    private int last = -1;
+
+    ResultCursor(WebQueryEngine engine, String query, int batch) {
+        this.engine = engine;
+        this.query = query;
+        this.ranked = engine.rankedQuery(query, batch);
+    }
+
+    /**
+     * Returns the number of pages matching the query.
+     */
+    public int totalHits() {
+        return ranked.totalHits();
+    }
+
+    /**
+     * Returns whether the pages were last ranked without some of the index,
+     * which didn't answer in time.
+     */
+    public boolean isPartial() {
+        return ranked.isPartial();
+    }
+
+    /**
+     * Returns the number of pages already returned or skipped.
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * Skips over the next n pages without returning them, or over every
+     * page left if there are fewer than n.
+     */
+    public void skip(int n) {
+        if (n < 0)
+            throw new IllegalArgumentException("Can't skip backwards!");
+        position = (int) Math.min((long) position + n, totalHits());
+    }
+
+    public boolean hasNext() {
+        return position < totalHits();
+    }
+
+    public Page next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        if (position >= ranked.pages().size()) {
+            int k = (int) Math.min(Math.max(2L * ranked.pages().size(), position + 1L), totalHits());
+            ranked = engine.rankedQuery(query, k);
+            // a partition that answered the last ranking may not have answered this one
+            if (position >= ranked.pages().size())
+                throw new NoSuchElementException();
+        }
+        last = position++;
+        return ranked.pages().get(last);
+    }
+
+    /**
+     * Returns the score of the page last returned by next().
+     */
+    public double score() {
+        if (last < 0)
+            throw new IllegalStateException("next() hasn't been called!");
+        return ranked.score(last);
+    }
+}
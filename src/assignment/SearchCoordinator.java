@@ -0,0 +1,647 @@
+package assignment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A query engine over an index split into partitions, each served by SearchWorkers in other
+ * processes or on other machines. Queries are parsed here and sent to every partition at once,
+ * and their answers merged into what a single engine over the whole index would have answered.
+ *
+ * Ranking takes two round trips. The first asks every partition for its number of pages and
+ * words and how many pages each of the query's words is on, and the second sends their sums
+ * along with the query, so every partition scores its pages with the counts of the whole index
+ * and the scores compare across partitions. The first round trip also gathers the words each
+ * prefix matches on every partition, and the query is sent with each prefix replaced by the
+ * first MAX_EXPANSIONS of them all, which a partition on its own might not have picked. The
+ * best k pages of each partition are then merged by score, and pages with the same score go
+ * in partition order, as their doc IDs would have.
+ *
+ * A partition can have several replicas, workers serving the same pages. Each request goes to
+ * the next replica in turn, and if a replica can't be reached, straight on to the one after.
+ * If a partition hasn't answered after the hedge delay, the request is sent again to another
+ * replica, or over a new connection to the same one, and whichever answer comes first is used.
+ * Partitions that still haven't answered by the timeout are left out, and the results are
+ * marked partial rather than failing the query.
+ *
+ * Nothing is cached here, since the partitions can change without the coordinator knowing;
+ * each worker caches the pages matching its queries.
+ */
+public class SearchCoordinator extends WebQueryEngine {
+    /**
+     * The default time partitions have to answer a request, in milliseconds.
+     */
+    public static final int TIMEOUT = 1000;
+    /**
+     * The default time before a request a partition hasn't answered is sent
+     * again, in milliseconds.
+     */
+    public static final int HEDGE_DELAY = 50;
+
+    private final List<Partition> partitions;
+    private final int timeout, hedgeDelay;
+    // sends requests and waits for their replies, one thread per request in flight
+    private final ExecutorService requests = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "search-coordinator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Makes a coordinator over the given partitions, in the order of their doc IDs,
+     * each a list of the addresses of its replicas.
+     *
+     * @param timeout    how long partitions have to answer, in milliseconds
+     * @param hedgeDelay how long before a request is sent to another replica, in
+     *                   milliseconds, and no sooner than the timeout turns hedging off
+     */
+    public SearchCoordinator(List<List<InetSocketAddress>> partitions, int timeout, int hedgeDelay) {
+        super(new WebIndex(), 0, 1);
+        if (partitions.isEmpty())
+            throw new IllegalArgumentException("There must be at least one partition!");
+        if (timeout < 1 || hedgeDelay < 0)
+            throw new IllegalArgumentException("The timeout must be at least 1ms, and the hedge delay can't be negative!");
+        this.partitions = new ArrayList<Partition>();
+        for (List<InetSocketAddress> replicas : partitions) {
+            if (replicas.isEmpty())
+                throw new IllegalArgumentException("Every partition needs a worker!");
+            this.partitions.add(new Partition(replicas));
+        }
+        this.timeout = timeout;
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    /**
+     * Returns a coordinator over the workers in spec: the partitions separated by
+     * commas, in order, each the host:port of its replicas separated by |, like
+     * "a:1990|b:1990,c:1990".
+     */
+    public static SearchCoordinator fromWorkers(String spec, int timeout, int hedgeDelay) {
+        List<List<InetSocketAddress>> partitions = new ArrayList<List<InetSocketAddress>>();
+        for (String partition : spec.split(",")) {
+            List<InetSocketAddress> replicas = new ArrayList<InetSocketAddress>();
+            for (String worker : partition.split("\\|")) {
+                int colon = worker.lastIndexOf(':');
+                if (colon < 1)
+                    throw new IllegalArgumentException("'" + worker + "' isn't host:port!");
+                replicas.add(new InetSocketAddress(worker.substring(0, colon),
+                        Integer.parseInt(worker.substring(colon + 1))));
+            }
+            partitions.add(replicas);
+        }
+        return new SearchCoordinator(partitions, timeout, hedgeDelay);
+    }
+
+    /**
+     * Returns the number of partitions.
+     */
+    public int partitions() {
+        return partitions.size();
+    }
+
+    /**
+     * Returns every page satisfying the query expression, from the partitions
+     * that answered, in the order they rank. Throws an IllegalArgumentException
+     * if the query is invalid.
+     */
+    @Override
+    public Collection<Page> query(String query) {
+        return rankedQuery(query, Integer.MAX_VALUE).pages();
+    }
+
+    /**
+     * Returns the best k pages satisfying the query expression across the
+     * partitions, as rankedQuery does over a single index, or of the partitions
+     * that answered if some didn't. Throws an IllegalArgumentException if the
+     * query is invalid.
+     */
+    @Override
+    public RankedResults rankedQuery(String query, int k) {
+        if (query == null)
+            throw new NullPointerException("query cannot take null input values!");
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1!");
+        Query parsed = parse(query);
+        int prefixes = (int) parsed.terms().stream().filter(Query.Term::isPrefix).count();
+
+        // the counts of every partition for the query's words, and the words of its prefixes
+        List<Counts> counts = call(request(SearchProtocol.STATS, parsed), null, in -> Counts.read(in, prefixes));
+        long pages = 0, totalLength = 0;
+        Map<String, Integer> docFreqs = new LinkedHashMap<String, Integer>();
+        List<TreeSet<byte[]>> expansions = new ArrayList<TreeSet<byte[]>>();
+        for (int i = 0; i < prefixes; i++)
+            expansions.add(new TreeSet<byte[]>(Arrays::compareUnsigned));
+        boolean[] answered = new boolean[partitions.size()];
+        for (int i = 0; i < counts.size(); i++) {
+            Counts part = counts.get(i);
+            if (part == null)
+                continue;
+            answered[i] = true;
+            pages += part.stats.pages();
+            totalLength += part.stats.totalLength();
+            for (Map.Entry<String, Integer> entry : part.stats.docFreqs().entrySet())
+                docFreqs.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            for (int j = 0; j < prefixes; j++) {
+                for (String word : part.expansions.get(j))
+                    expansions.get(j).add(word.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        // each prefix matches the first words of every partition's, as it would the whole index's
+        List<List<String>> words = new ArrayList<List<String>>();
+        for (TreeSet<byte[]> expansion : expansions) {
+            List<String> first = new ArrayList<String>();
+            for (byte[] word : expansion) {
+                if (first.size() == MAX_EXPANSIONS)
+                    break;
+                first.add(new String(word, StandardCharsets.UTF_8));
+            }
+            words.add(first);
+        }
+        parsed = expand(parsed, words.iterator());
+
+        ByteArrayOutputStream search = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(search);
+            out.writeByte(SearchProtocol.SEARCH);
+            SearchProtocol.writeQuery(out, parsed);
+            out.writeInt(k);
+            SearchProtocol.writeStats(out, new Ranker.Stats(pages, totalLength, docFreqs));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        List<RankedResults> ranked = call(search.toByteArray(), answered, SearchCoordinator::readResults);
+
+        // each partition's pages in order, so a stable sort keeps ties in partition order
+        List<Scored> best = new ArrayList<Scored>();
+        int totalHits = 0;
+        boolean partial = false;
+        for (RankedResults part : ranked) {
+            if (part == null) {
+                partial = true;
+                continue;
+            }
+            totalHits += part.totalHits();
+            for (int i = 0; i < part.pages().size(); i++)
+                best.add(new Scored(part.pages().get(i), part.score(i)));
+        }
+        best.sort((a, b) -> Double.compare(b.score, a.score));
+        if (best.size() > k)
+            best.subList(k, best.size()).clear();
+
+        List<Page> found = new ArrayList<Page>(best.size());
+        double[] scores = new double[best.size()];
+        for (int i = 0; i < best.size(); i++) {
+            found.add(best.get(i).page);
+            scores[i] = best.get(i).score;
+        }
+        return new RankedResults(totalHits, found, scores, partial);
+    }
+
+    /**
+     * Returns the plan each partition evaluates the query with, as explain does
+     * over a single index. Throws an IllegalArgumentException if the query is invalid.
+     */
+    @Override
+    public String explain(String query) {
+        if (query == null)
+            throw new NullPointerException("query cannot take null input values!");
+        List<String> plans = call(request(SearchProtocol.EXPLAIN, parse(query)), null, SearchProtocol::readString);
+        StringBuilder explained = new StringBuilder();
+        for (int i = 0; i < plans.size(); i++) {
+            explained.append("partition ").append(i);
+            if (plans.get(i) == null)
+                explained.append(": didn't answer\n");
+            else
+                explained.append(":\n").append(plans.get(i).indent(2));
+        }
+        return explained.toString();
+    }
+
+    /**
+     * Returns up to k words completing the given prefix across the partitions,
+     * the words on the most pages first. The candidates are the best of each
+     * partition, counted on every partition, as the segments of an IndexDirectory are.
+     */
+    @Override
+    public List<Suggester.Completion> suggest(String prefix, int k) {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(request);
+            out.writeByte(SearchProtocol.SUGGEST);
+            SearchProtocol.writeString(out, prefix);
+            out.writeInt(k);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        Map<String, Integer> docFreqs = new LinkedHashMap<String, Integer>();
+        for (List<Suggester.Completion> completions : call(request.toByteArray(), null, SearchCoordinator::readCompletions)) {
+            if (completions == null)
+                continue;
+            for (Suggester.Completion completion : completions)
+                docFreqs.put(completion.word(), 0);
+        }
+        if (docFreqs.isEmpty())
+            return new ArrayList<Suggester.Completion>();
+
+        // add up every partition's pages for the best words of each
+        List<String> words = new ArrayList<String>(docFreqs.keySet());
+        request.reset();
+        try {
+            DataOutputStream out = new DataOutputStream(request);
+            out.writeByte(SearchProtocol.DOC_FREQS);
+            out.writeInt(words.size());
+            for (String word : words)
+                SearchProtocol.writeString(out, word);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int[] counts : call(request.toByteArray(), null, SearchCoordinator::readCounts)) {
+            for (int i = 0; counts != null && i < Math.min(counts.length, words.size()); i++)
+                docFreqs.merge(words.get(i), counts[i], Integer::sum);
+        }
+        List<Suggester.Completion> found = new ArrayList<Suggester.Completion>();
+        for (Map.Entry<String, Integer> entry : docFreqs.entrySet())
+            found.add(new Suggester.Completion(entry.getKey(), entry.getValue()));
+        found.sort((a, b) -> a.docs() != b.docs() ? Integer.compare(b.docs(), a.docs())
+                : Arrays.compareUnsigned(a.word().getBytes(StandardCharsets.UTF_8), b.word().getBytes(StandardCharsets.UTF_8)));
+        return found.subList(0, Math.min(found.size(), Math.min(k, Suggester.TOP_K)));
+    }
+
+    /**
+     * Closes every idle connection to the workers.
+     */
+    @Override
+    public void close() {
+        super.close();
+        for (Partition partition : partitions) {
+            for (Replica replica : partition.replicas)
+                replica.close();
+        }
+        requests.shutdownNow();
+    }
+
+    /**
+     * Returns the query with each prefix, in order, replaced by an OR of the words
+     * it matches, or an AND of them negated if the prefix is, so every partition
+     * matches the same words. A prefix matching no words is left as it is.
+     */
+    private static Query expand(Query query, Iterator<List<String>> words) {
+        if (query instanceof Query.And) {
+            Query left = expand(((Query.And) query).left(), words);
+            return new Query.And(left, expand(((Query.And) query).right(), words));
+        }
+        if (query instanceof Query.Or) {
+            Query left = expand(((Query.Or) query).left(), words);
+            return new Query.Or(left, expand(((Query.Or) query).right(), words));
+        }
+        Query.Term term = (Query.Term) query;
+        if (!term.isPrefix())
+            return term;
+        Query expanded = null;
+        for (String word : words.next()) {
+            Query next = new Query.Term(word, false, term.isNegated());
+            if (expanded == null)
+                expanded = next;
+            else if (term.isNegated())
+                expanded = new Query.And(expanded, next);
+            else
+                expanded = new Query.Or(expanded, next);
+        }
+        return expanded != null ? expanded : term;
+    }
+
+    /**
+     * Returns a request of the given operation on a query.
+     */
+    private static byte[] request(byte op, Query query) {
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(request);
+            out.writeByte(op);
+            SearchProtocol.writeQuery(out, query);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return request.toByteArray();
+    }
+
+    private static RankedResults readResults(DataInputStream in) throws IOException {
+        int totalHits = in.readInt();
+        int n = in.readInt();
+        List<Page> pages = new ArrayList<Page>();
+        double[] scores = new double[Math.max(n, 0)];
+        for (int i = 0; i < n; i++) {
+            String url = SearchProtocol.readString(in);
+            Page page = WebIndex.getPage(url);
+            if (page == null)
+                throw new IOException("Bad URL " + url + "!");
+            pages.add(page);
+            scores[i] = in.readDouble();
+        }
+        return new RankedResults(totalHits, pages, scores);
+    }
+
+    private static List<Suggester.Completion> readCompletions(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<Suggester.Completion> completions = new ArrayList<Suggester.Completion>();
+        for (int i = 0; i < n; i++) {
+            String word = SearchProtocol.readString(in);
+            completions.add(new Suggester.Completion(word, in.readInt()));
+        }
+        return completions;
+    }
+
+    private static int[] readCounts(DataInputStream in) throws IOException {
+        int[] counts = new int[Math.max(in.readInt(), 0)];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = in.readInt();
+        return counts;
+    }
+
+    /**
+     * Sends a request to every partition where ask is true, or to all of them if
+     * it's null, and returns each one's reply as read by reader, or null for the
+     * partitions that weren't asked or didn't answer in time. Throws an
+     * IllegalArgumentException if a worker couldn't answer the request.
+     */
+    private <T> List<T> call(byte[] request, boolean[] ask, Reader<T> reader) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        List<Call<T>> calls = new ArrayList<Call<T>>();
+        for (int i = 0; i < partitions.size(); i++) {
+            Call<T> call = new Call<T>(partitions.get(i), request, reader);
+            if (ask == null || ask[i])
+                call.send(call.partition.replicas.size() - 1);
+            else
+                call.reply.complete(null);
+            calls.add(call);
+        }
+
+        CompletableFuture<?>[] replies = new CompletableFuture<?>[calls.size()];
+        for (int i = 0; i < calls.size(); i++)
+            replies[i] = calls.get(i).reply;
+        CompletableFuture<Void> all = CompletableFuture.allOf(replies);
+        if (hedgeDelay < timeout && !await(all, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(hedgeDelay))) {
+            for (Call<T> call : calls) {
+                if (!call.reply.isDone())
+                    call.send(0);
+            }
+        }
+        await(all, deadline);
+
+        List<T> found = new ArrayList<T>(calls.size());
+        for (Call<T> call : calls) {
+            T reply = null;
+            if (call.reply.isDone()) {
+                try {
+                    reply = call.reply.join();
+                } catch (RuntimeException e) {
+                    if (e.getCause() instanceof IllegalArgumentException)
+                        throw (IllegalArgumentException) e.getCause();
+                    // the partition's replicas couldn't be reached
+                }
+            }
+            found.add(reply);
+        }
+        return found;
+    }
+
+    /**
+     * Waits until every reply is in or the deadline passes, returning whether they're in.
+     */
+    private static boolean await(CompletableFuture<Void> all, long deadline) {
+        try {
+            all.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            // a partition failed, which its reply says
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * What a partition has of a query's words: its counts, and the words each
+     * of the query's prefixes matches on it.
+     */
+    private static class Counts {
+        final Ranker.Stats stats;
+        final List<List<String>> expansions;
+
+        Counts(Ranker.Stats stats, List<List<String>> expansions) {
+            this.stats = stats;
+            this.expansions = expansions;
+        }
+
+        static Counts read(DataInputStream in, int prefixes) throws IOException {
+            Ranker.Stats stats = SearchProtocol.readStats(in);
+            List<List<String>> expansions = new ArrayList<List<String>>();
+            for (int i = 0; i < prefixes; i++) {
+                int n = in.readInt();
+                List<String> words = new ArrayList<String>();
+                for (int j = 0; j < n; j++)
+                    words.add(SearchProtocol.readString(in));
+                expansions.add(words);
+            }
+            return new Counts(stats, expansions);
+        }
+    }
+
+    /**
+     * Reads the fields of a reply.
+     */
+    private interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    /**
+     * A request to one partition, which can be sent to several of its replicas
+     * at once, and is answered by whichever answers first.
+     */
+    private class Call<T> {
+        final Partition partition;
+        final byte[] request;
+        final Reader<T> reader;
+        final CompletableFuture<T> reply = new CompletableFuture<T>();
+        // the replica the request was first sent to
+        final int first;
+        // the number of times it's been sent, and the sends still waiting for an answer
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        Call(Partition partition, byte[] request, Reader<T> reader) {
+            this.partition = partition;
+            this.request = request;
+            this.reader = reader;
+            first = partition.next.getAndIncrement();
+        }
+
+        /**
+         * Sends the request to the next replica, and if it can't be reached,
+         * on to the next ones after it, up to retries more times.
+         */
+        void send(int retries) {
+            Replica replica = partition.replicas.get(Math.floorMod(first + sent.getAndIncrement(),
+                    partition.replicas.size()));
+            inFlight.incrementAndGet();
+            requests.execute(() -> {
+                try {
+                    reply.complete(replica.call(request, reader, timeout));
+                } catch (IOException e) {
+                    if (retries > 0 && !reply.isDone())
+                        send(retries - 1);
+                    if (inFlight.decrementAndGet() == 0)
+                        reply.completeExceptionally(e);
+                } catch (RuntimeException e) {
+                    reply.completeExceptionally(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * The replicas serving one partition.
+     */
+    private static class Partition {
+        final List<Replica> replicas = new ArrayList<Replica>();
+        // the replica the next request goes to first, taken in turn
+        final AtomicInteger next = new AtomicInteger();
+
+        Partition(List<InetSocketAddress> addresses) {
+            for (InetSocketAddress address : addresses)
+                replicas.add(new Replica(address));
+        }
+    }
+
+    /**
+     * A worker, and the connections to it not carrying a request.
+     */
+    private static class Replica {
+        final InetSocketAddress address;
+        final ConcurrentLinkedDeque<Connection> idle = new ConcurrentLinkedDeque<Connection>();
+
+        Replica(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        /**
+         * Sends a request over an idle connection, or a new one if there are none,
+         * and returns the reply as read by reader. Throws an IllegalArgumentException
+         * if the worker couldn't answer it.
+         */
+        <T> T call(byte[] request, Reader<T> reader, int timeout) throws IOException {
+            Connection connection = idle.pollFirst();
+            if (connection != null) {
+                try {
+                    return connection.call(request, reader, this);
+                } catch (IOException e) {
+                    // the worker may have restarted since the connection was last used
+                    connection.close();
+                    close();
+                }
+            }
+            connection = new Connection(address, timeout);
+            try {
+                return connection.call(request, reader, this);
+            } catch (IOException e) {
+                connection.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            for (Connection connection = idle.pollFirst(); connection != null; connection = idle.pollFirst())
+                connection.close();
+        }
+    }
+
+    /**
+     * A connection to a worker.
+     */
+    private static class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(InetSocketAddress address, int timeout) throws IOException {
+            socket = new Socket();
+            try {
+                socket.connect(address, timeout);
+                // a reply that takes longer than this is no use to anyone
+                socket.setSoTimeout(timeout);
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Sends a request and reads its reply, then hands the connection back to
+         * the replica for the next request.
+         */
+        <T> T call(byte[] request, Reader<T> reader, Replica replica) throws IOException {
+            out.writeInt(request.length);
+            out.write(request);
+            out.flush();
+            DataInputStream reply = SearchProtocol.readFrame(in);
+            if (reply == null)
+                throw new EOFException("The worker closed the connection!");
+            byte status = reply.readByte();
+            if (status == SearchProtocol.ERROR) {
+                replica.idle.addFirst(this);
+                throw new IllegalArgumentException(SearchProtocol.readString(reply));
+            }
+            T found = reader.read(reply);
+            replica.idle.addFirst(this);
+            return found;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // it's being thrown away
+            }
+        }
+    }
+
+    private static class Scored {
+        final Page page;
+        final double score;
+
+        Scored(Page page, double score) {
+            this.page = page;
+            this.score = score;
+        }
+    }
+}
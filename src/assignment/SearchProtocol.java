@@ -0,0 +1,158 @@
+package assignment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The binary protocol a SearchCoordinator and its SearchWorkers talk over TCP. Every message is
+ * a frame: its length as an int, then that many bytes. A request starts with the byte of its
+ * operation and a reply with OK or ERROR, followed by the operation's fields, written with
+ * DataOutput. Strings are an int length and that many UTF-8 bytes.
+ *
+ * A connection carries one request at a time, each answered before the next is sent, so a
+ * coordinator opens a connection for every request it has in flight to the same worker.
+ *
+ * Queries are sent parsed, as a tree in prefix order: a byte for each node, TERM followed by
+ * the term's flags and text, or AND or OR followed by both operands.
+ */
+final class SearchProtocol {
+    // the counts of a query's words, and the words its prefixes match:
+    // query -> pages, total length, [word, docs]*, [[word]*]* for each prefix
+    static final byte STATS = 1;
+    // the best pages of a partition: query, k, pages, total length, [word, docs]* -> hits, [url, score]*
+    static final byte SEARCH = 2;
+    // the plan a partition evaluates a query with: query -> plan
+    static final byte EXPLAIN = 3;
+    // the words completing a prefix: prefix, k -> [word, docs]*
+    static final byte SUGGEST = 4;
+    // the number of pages words are on: [word]* -> [docs]*
+    static final byte DOC_FREQS = 5;
+
+    static final byte OK = 0;
+    // followed by the message of what went wrong
+    static final byte ERROR = 1;
+
+    // the largest frame either end reads, so a bad length can't use up the heap
+    static final int MAX_FRAME = 64 << 20;
+    // the deepest query tree read, so a bad one can't use up the stack
+    static final int MAX_QUERY_DEPTH = 4096;
+
+    private static final byte TERM = 0;
+    private static final byte AND = 1;
+    private static final byte OR = 2;
+    private static final int PREFIX = 1;
+    private static final int NEGATED = 2;
+
+    private SearchProtocol() {
+    }
+
+    /**
+     * Reads the next frame, returning null if the stream ended before one started.
+     */
+    static DataInputStream readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > MAX_FRAME)
+            throw new IOException("Bad frame length " + length + "!");
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    /**
+     * Writes a frame of everything written to body, and flushes it.
+     */
+    static void writeFrame(DataOutputStream out, ByteArrayOutputStream body) throws IOException {
+        out.writeInt(body.size());
+        body.writeTo(out);
+        out.flush();
+    }
+
+    static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME)
+            throw new IOException("Bad string length " + length + "!");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeQuery(DataOutput out, Query query) throws IOException {
+        if (query instanceof Query.Term) {
+            Query.Term term = (Query.Term) query;
+            out.writeByte(TERM);
+            out.writeByte((term.isPrefix() ? PREFIX : 0) | (term.isNegated() ? NEGATED : 0));
+            writeString(out, term.text());
+        } else if (query instanceof Query.And) {
+            out.writeByte(AND);
+            writeQuery(out, ((Query.And) query).left());
+            writeQuery(out, ((Query.And) query).right());
+        } else {
+            out.writeByte(OR);
+            writeQuery(out, ((Query.Or) query).left());
+            writeQuery(out, ((Query.Or) query).right());
+        }
+    }
+
+    static Query readQuery(DataInput in) throws IOException {
+        return readQuery(in, 0);
+    }
+
+    private static Query readQuery(DataInput in, int depth) throws IOException {
+        if (depth > MAX_QUERY_DEPTH)
+            throw new IOException("Query nested more than " + MAX_QUERY_DEPTH + " deep!");
+        byte node = in.readByte();
+        switch (node) {
+        case TERM:
+            int flags = in.readByte();
+            return new Query.Term(readString(in), (flags & PREFIX) != 0, (flags & NEGATED) != 0);
+        case AND:
+            return new Query.And(readQuery(in, depth + 1), readQuery(in, depth + 1));
+        case OR:
+            return new Query.Or(readQuery(in, depth + 1), readQuery(in, depth + 1));
+        default:
+            throw new IOException("Bad query node " + node + "!");
+        }
+    }
+
+    static void writeStats(DataOutput out, Ranker.Stats stats) throws IOException {
+        out.writeLong(stats.pages());
+        out.writeLong(stats.totalLength());
+        out.writeInt(stats.docFreqs().size());
+        for (Map.Entry<String, Integer> entry : stats.docFreqs().entrySet()) {
+            writeString(out, entry.getKey());
+            out.writeInt(entry.getValue());
+        }
+    }
+
+    static Ranker.Stats readStats(DataInput in) throws IOException {
+        long pages = in.readLong();
+        long totalLength = in.readLong();
+        int words = in.readInt();
+        Map<String, Integer> docFreqs = new LinkedHashMap<String, Integer>();
+        for (int i = 0; i < words; i++) {
+            String word = readString(in);
+            docFreqs.put(word, in.readInt());
+        }
+        return new Ranker.Stats(pages, totalLength, docFreqs);
+    }
+}
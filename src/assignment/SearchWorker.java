@@ -0,0 +1,247 @@
+package assignment;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves one partition of an index to a SearchCoordinator, over the binary protocol of
+ * SearchProtocol. A partition is a range of the index's doc IDs, split as WebIndex.shardBounds
+ * splits shards, and its pages are ranked with the counts of the whole index the coordinator
+ * sends along with each query, so they compare with the pages of the other partitions.
+ *
+ * Each connection has a thread of its own, since a coordinator keeps its connections open and
+ * only opens as many as it has requests in flight. Workers don't watch their index; one is
+ * restarted to serve a new index, and the coordinator leaves its partition out until it's back.
+ *
+ * Run this file to serve a partition of the index saved at index.db.
+ */
+public class SearchWorker implements Closeable {
+
+    /**
+     * Serves a partition of the index saved at index.db until the process is killed.
+     *
+     * Usage: SearchWorker [-port n] [-partition i] [-partitions n]
+     *
+     * The index is split into the given number of partitions and partition i,
+     * counting from 0, is served. By default the whole index is.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = 1990;
+        int partition = 0;
+        int partitions = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (i + 1 == args.length)
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            int value = Integer.parseInt(args[++i]);
+            if (value < (args[i - 1].equals("-partition") ? 0 : 1))
+                throw new IllegalArgumentException(args[i - 1] + " is out of range");
+            switch (args[i - 1]) {
+            case "-port":
+                port = value;
+                break;
+            case "-partition":
+                partition = value;
+                break;
+            case "-partitions":
+                partitions = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+            }
+        }
+        if (partition >= partitions)
+            throw new IllegalArgumentException("There's no partition " + partition + " of " + partitions);
+
+        WebIndex index = (WebIndex) Index.load("index.db");
+        if (partitions > 1) {
+            int[] bounds = index.shardBounds(partitions);
+            index = index.partition(bounds[partition], bounds[partition + 1]);
+        }
+        // build the suggester now rather than on the first request, which would time out
+        index.suggest("a", 1);
+        SearchWorker worker = new SearchWorker(index, port);
+        System.err.println("Serving partition " + partition + " of " + partitions + " with "
+                + index.pageCount() + " pages on port " + worker.port());
+        worker.serve();
+    }
+
+    private final WebQueryEngine engine;
+    private final ServerSocket serverSocket;
+    // one thread per open connection
+    private final ExecutorService threads = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "search-worker");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Makes a worker serving the given index on the given port, or on any free
+     * port if it's 0. The port is listened on straight away, and connections
+     * are answered once serve is called.
+     */
+    public SearchWorker(WebIndex index, int port) throws IOException {
+        engine = WebQueryEngine.fromIndex(index);
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(port));
+    }
+
+    /**
+     * Returns the port this worker listens on.
+     */
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Accepts connections and answers their requests until the worker is closed.
+     */
+    public void serve() throws IOException {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                connections.add(socket);
+                // close might have missed it
+                if (closed)
+                    socket.close();
+                else
+                    threads.execute(() -> handleConnection(socket));
+            }
+        } catch (IOException e) {
+            if (!closed)
+                throw e;
+        }
+    }
+
+    /**
+     * Stops listening and drops every open connection, as if the worker's process
+     * had been killed, leaving any requests in flight unanswered.
+     */
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections)
+            socket.close();
+        threads.shutdownNow();
+    }
+
+    /**
+     * Answers requests on a connection until the coordinator closes it.
+     */
+    private void handleConnection(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            for (DataInputStream request = SearchProtocol.readFrame(in); request != null;
+                    request = SearchProtocol.readFrame(in))
+                SearchProtocol.writeFrame(out, answer(request));
+        } catch (IOException e) {
+            // the coordinator went away, or the worker is closing
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Returns the reply to a request, which says what went wrong if it
+     * couldn't be answered.
+     */
+    private ByteArrayOutputStream answer(DataInputStream request) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream reply = new DataOutputStream(body);
+        try {
+            reply.writeByte(SearchProtocol.OK);
+            answer(request.readByte(), request, reply);
+        } catch (IOException | RuntimeException e) {
+            body.reset();
+            try {
+                reply.writeByte(SearchProtocol.ERROR);
+                SearchProtocol.writeString(reply, String.valueOf(e.getMessage()));
+            } catch (IOException impossible) {
+                throw new AssertionError(impossible);
+            }
+        }
+        return body;
+    }
+
+    private void answer(byte op, DataInputStream request, DataOutputStream reply) throws IOException {
+        WebIndex index = engine.index;
+        switch (op) {
+        case SearchProtocol.STATS: {
+            Query query = SearchProtocol.readQuery(request);
+            Map<String, Integer> docFreqs = new LinkedHashMap<String, Integer>();
+            for (String word : engine.rankedWords(query)) {
+                PostingList list = index.postings(word);
+                if (list != null)
+                    docFreqs.put(word, list.docCount());
+            }
+            SearchProtocol.writeStats(reply, new Ranker.Stats(index.pageCount(), index.totalLength(), docFreqs));
+            // the words each prefix matches here, which the coordinator picks the query's from
+            for (Query.Term term : query.terms()) {
+                if (!term.isPrefix())
+                    continue;
+                List<String> words = index.prefixTerms(term.words().get(0), WebQueryEngine.MAX_EXPANSIONS);
+                reply.writeInt(words.size());
+                for (String word : words)
+                    SearchProtocol.writeString(reply, word);
+            }
+            break;
+        }
+        case SearchProtocol.SEARCH: {
+            Query query = SearchProtocol.readQuery(request);
+            int k = request.readInt();
+            if (k < 1)
+                throw new IllegalArgumentException("k must be at least 1!");
+            RankedResults ranked = engine.rankedQuery(query, k, SearchProtocol.readStats(request));
+            reply.writeInt(ranked.totalHits());
+            reply.writeInt(ranked.pages().size());
+            for (int i = 0; i < ranked.pages().size(); i++) {
+                SearchProtocol.writeString(reply, ranked.pages().get(i).getURL().toString());
+                reply.writeDouble(ranked.score(i));
+            }
+            break;
+        }
+        case SearchProtocol.EXPLAIN:
+            SearchProtocol.writeString(reply, QueryPlan.compile(index, SearchProtocol.readQuery(request)).explain());
+            break;
+        case SearchProtocol.SUGGEST: {
+            String prefix = SearchProtocol.readString(request);
+            List<Suggester.Completion> completions = engine.suggest(prefix, request.readInt());
+            reply.writeInt(completions.size());
+            for (Suggester.Completion completion : completions) {
+                SearchProtocol.writeString(reply, completion.word());
+                reply.writeInt(completion.docs());
+            }
+            break;
+        }
+        case SearchProtocol.DOC_FREQS: {
+            int words = request.readInt();
+            reply.writeInt(Math.max(words, 0));
+            for (int i = 0; i < words; i++) {
+                String word = SearchProtocol.readString(request);
+                reply.writeInt(WebIndex.isWord(word) ? index.docs(word).cardinality() : 0);
+            }
+            break;
+        }
+        default:
+            throw new IllegalArgumentException("Unknown operation " + op + "!");
+        }
+    }
+}
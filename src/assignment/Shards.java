@@ -0,0 +1,77 @@
+package assignment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntFunction;
+
+/**
+ * The doc IDs of an index split into shards, ranges of doc IDs one after another with about
+ * the same number of words each, which a query is evaluated over in parallel. Each shard is a
+ * task on a ForkJoinPool, and their partial results are merged once every one is done. The
+ * calling thread evaluates the first shard itself while the pool evaluates the rest, so a
+ * pool of one thread fewer than the shards keeps every shard busy.
+ *
+ * Handing a shard to another thread costs tens of microseconds, so only queries that step
+ * through at least SPLIT_POSTINGS postings are split up; anything less is quicker on one thread.
+ */
+class Shards {
+    // the fewest postings, pages in posting lists, a query has to step through to be split up
+    static final int SPLIT_POSTINGS = 4096;
+
+    // shard i is the doc IDs from bounds[i] up to (but not including) bounds[i + 1]
+    private final int[] bounds;
+    private final ForkJoinPool pool;
+
+    /**
+     * Splits an index into count shards, evaluated on pool, which can be null
+     * if there's only the one shard.
+     */
+    Shards(WebIndex index, int count, ForkJoinPool pool) {
+        bounds = index.shardBounds(count);
+        this.pool = pool;
+    }
+
+    int count() {
+        return bounds.length - 1;
+    }
+
+    /**
+     * Returns the first doc ID of a shard.
+     */
+    int from(int shard) {
+        return bounds[shard];
+    }
+
+    /**
+     * Returns the doc ID after the last one of a shard.
+     */
+    int to(int shard) {
+        return bounds[shard + 1];
+    }
+
+    /**
+     * Evaluates task for every shard in parallel, returning what it returned for
+     * each shard, in order. If it throws for any shard, so does this.
+     */
+    <T> List<T> map(IntFunction<T> task) {
+        List<ForkJoinTask<T>> forked = new ArrayList<ForkJoinTask<T>>();
+        for (int shard = 1; shard < count(); shard++) {
+            int next = shard;
+            forked.add(pool.submit(() -> task.apply(next)));
+        }
+
+        List<T> results = new ArrayList<T>(count());
+        try {
+            results.add(task.apply(0));
+            for (ForkJoinTask<T> result : forked)
+                results.add(result.join());
+        } finally {
+            // stop any shards still waiting to run if one failed
+            for (ForkJoinTask<T> result : forked)
+                result.cancel(false);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,275 @@
+package assignment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Completions of a prefix typed so far, ranked by the number of pages each word is on, for a
+ * search box that suggests words as they're typed. It's built with the index, from the words of
+ * a TermDictionary and their document frequencies, and saved in the IndexFile along with it.
+ *
+ * The words are kept in a trie over their UTF-8 bytes, so any letters isWord accepts can be
+ * completed. Each node of the trie holds the ordinals of the TOP_K words under it with the most
+ * pages, so a completion is a walk down the trie and a copy of the node's list. Only prefixes
+ * with more than TOP_K words under them get a node; the words of any longer prefix are few
+ * enough to be ranked straight from their range of the dictionary.
+ *
+ * Nodes are numbered breadth first, so the children of a node are numbered one after another.
+ * In a buffer the trie is laid out as:
+ *   int node count, int number of top ordinals, int word count,
+ *   int first child of each node and one past the last, the byte leading to each node padded
+ *   to a multiple of 4, int start of each node's top ordinals and one past the last, the top
+ *   ordinals, and the document frequency of every word
+ */
+public class Suggester {
+    static final int TOP_K = 10;
+
+    private final ByteBuffer buffer;
+    private final TermDictionary dictionary;
+    private final int nodeCount;
+    private final int children;
+    private final int labels;
+    private final int topStarts;
+    private final int tops;
+    private final int docFreqs;
+
+    private Suggester(ByteBuffer buffer, int offset, TermDictionary dictionary) {
+        this.buffer = buffer;
+        this.dictionary = dictionary;
+        nodeCount = buffer.getInt(offset);
+        int topCount = buffer.getInt(offset + 4);
+        children = offset + 12;
+        labels = children + (nodeCount + 1) * 4;
+        topStarts = labels + (nodeCount + 3) / 4 * 4;
+        tops = topStarts + (nodeCount + 1) * 4;
+        docFreqs = tops + topCount * 4;
+    }
+
+    /**
+     * Reads a suggester written by write from the given offset of buffer, without
+     * copying it, to complete the words of the given dictionary.
+     */
+    static Suggester read(ByteBuffer buffer, int offset, TermDictionary dictionary) {
+        return new Suggester(buffer, offset, dictionary);
+    }
+
+    /**
+     * Builds the suggester for the words of a dictionary, given the number of pages
+     * each one is on by its ordinal.
+     */
+    public static Suggester build(TermDictionary dictionary, int[] docFreqs) {
+        int size = dictionary.size();
+        byte[][] words = new byte[size][];
+        for (int term = 0; term < size; term++)
+            words[term] = dictionary.termBytes(term);
+
+        // each node's depth and range of ordinals, in the order the nodes are numbered
+        IntList depths = new IntList(), froms = new IntList(), tos = new IntList();
+        IntList firstChild = new IntList(), top = new IntList(), topStart = new IntList();
+        ByteList label = new ByteList();
+        depths.add(0);
+        froms.add(0);
+        tos.add(size);
+        label.add((byte) 0);
+        for (int node = 0; node < depths.size(); node++) {
+            int depth = depths.get(node), from = froms.get(node), to = tos.get(node);
+            topStart.add(top.size());
+            for (int term : best(ordinal -> docFreqs[ordinal], from, to, TOP_K))
+                top.add(term);
+
+            // a child for every next byte with more than TOP_K words after it
+            firstChild.add(depths.size());
+            int start = from;
+            // the word that's the prefix itself comes first, and has no next byte
+            while (start < to && words[start].length == depth)
+                start++;
+            while (start < to) {
+                byte next = words[start][depth];
+                int end = start + 1;
+                while (end < to && words[end][depth] == next)
+                    end++;
+                if (end - start > TOP_K) {
+                    depths.add(depth + 1);
+                    froms.add(start);
+                    tos.add(end);
+                    label.add(next);
+                }
+                start = end;
+            }
+        }
+        int nodes = depths.size();
+        firstChild.add(nodes);
+        topStart.add(top.size());
+
+        ByteBuffer buffer = ByteBuffer.allocate(12 + (nodes + 1) * 4 + (nodes + 3) / 4 * 4
+                + (nodes + 1) * 4 + top.size() * 4 + size * 4);
+        buffer.putInt(nodes).putInt(top.size()).putInt(size);
+        for (int node = 0; node <= nodes; node++)
+            buffer.putInt(firstChild.get(node));
+        buffer.put(label.data, 0, nodes);
+        buffer.position(buffer.position() + (4 - nodes % 4) % 4);
+        for (int node = 0; node <= nodes; node++)
+            buffer.putInt(topStart.get(node));
+        for (int i = 0; i < top.size(); i++)
+            buffer.putInt(top.get(i));
+        for (int freq : docFreqs)
+            buffer.putInt(freq);
+        return new Suggester(buffer, 0, dictionary);
+    }
+
+    /**
+     * Writes the suggester in the layout read reads.
+     */
+    void write(IndexFile.Output out) throws IOException {
+        ByteBuffer in = buffer.duplicate();
+        in.position(children - 12);
+        in.limit(docFreqs + dictionary.size() * 4);
+        byte[] bytes = new byte[in.remaining()];
+        in.get(bytes);
+        out.putBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Returns the number of pages the word with the given ordinal is on.
+     */
+    int docFreq(int ordinal) {
+        return buffer.getInt(docFreqs + ordinal * 4);
+    }
+
+    /**
+     * Returns the ordinals of up to k words starting with prefix, at most TOP_K, the
+     * words on the most pages first and words on as many pages in alphabetical order.
+     */
+    int[] complete(String prefix, int k) {
+        k = Math.min(k, TOP_K);
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int node = 0;
+        for (int depth = 0; depth < key.length && node >= 0; depth++)
+            node = child(node, key[depth]);
+        if (node < 0) {
+            // few enough words to rank them all
+            int[] range = dictionary.prefixRange(prefix);
+            return best(this::docFreq, range[0], range[1], k);
+        }
+        int start = buffer.getInt(topStarts + node * 4);
+        int n = Math.min(k, buffer.getInt(topStarts + (node + 1) * 4) - start);
+        int[] found = new int[n];
+        for (int i = 0; i < n; i++)
+            found[i] = buffer.getInt(tops + (start + i) * 4);
+        return found;
+    }
+
+    /**
+     * Returns the completions of a prefix, as complete does, with their words.
+     */
+    public List<Completion> suggest(String prefix, int k) {
+        List<Completion> found = new ArrayList<Completion>();
+        for (int term : complete(prefix, k))
+            found.add(new Completion(dictionary.term(term), docFreq(term)));
+        return found;
+    }
+
+    /**
+     * Returns the child of a node the given byte leads to, or -1 if there isn't one.
+     */
+    private int child(int node, byte next) {
+        int low = buffer.getInt(children + node * 4);
+        int high = buffer.getInt(children + (node + 1) * 4) - 1;
+        // children are in the order of their bytes, unsigned
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = (buffer.get(labels + mid) & 0xFF) - (next & 0xFF);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the ordinals of the k words between from and to on the most pages,
+     * the most first and ties in ordinal order.
+     */
+    private static int[] best(IntUnaryOperator docFreq, int from, int to, int k) {
+        PriorityQueue<Integer> worst = new PriorityQueue<Integer>(k + 1, (a, b) -> {
+            int cmp = Integer.compare(docFreq.applyAsInt(a), docFreq.applyAsInt(b));
+            return cmp != 0 ? cmp : Integer.compare(b, a);
+        });
+        for (int term = from; term < to && k > 0; term++) {
+            if (worst.size() < k) {
+                worst.add(term);
+            } else if (docFreq.applyAsInt(term) > docFreq.applyAsInt(worst.peek())) {
+                worst.poll();
+                worst.add(term);
+            }
+        }
+        int[] found = new int[worst.size()];
+        for (int i = found.length - 1; i >= 0; i--)
+            found[i] = worst.poll();
+        return found;
+    }
+
+    /**
+     * A word completing a prefix, and the number of pages it's on.
+     */
+    public static class Completion {
+        private final String word;
+        private final int docs;
+
+        public Completion(String word, int docs) {
+            this.word = word;
+            this.docs = docs;
+        }
+
+        public String word() {
+            return word;
+        }
+
+        public int docs() {
+            return docs;
+        }
+
+        public String toString() {
+            return word + " (" + docs + ")";
+        }
+    }
+
+    private static class IntList {
+        int[] data = new int[64];
+        int size;
+
+        void add(int value) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+
+        int get(int i) {
+            return data[i];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+
+    private static class ByteList {
+        byte[] data = new byte[64];
+        int size;
+
+        void add(byte value) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+}
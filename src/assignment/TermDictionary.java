@@ -0,0 +1,306 @@
+package assignment;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An immutable, sorted set of terms, each known by its ordinal in the order of their UTF-8 bytes.
+ * It's what IndexFile looks terms up in, with the ordinal indexing the term table that holds
+ * the term's DocSet and PostingList offsets, and it can list every term starting with a prefix.
+ *
+ * Terms are front coded in blocks of BLOCK_SIZE: the first term of a block is written in full,
+ * and every other term as the number of bytes it shares with the term before it and the bytes
+ * that follow, all lengths as variable length ints. A block index of the offset of each block
+ * is binary searched on the blocks' first terms, so a lookup decodes at most one block.
+ *
+ * In a buffer the dictionary is laid out as:
+ *   int term count, int block count, int length of the blocks,
+ *   int offset of each block from the start of the blocks, the blocks
+ */
+public class TermDictionary {
+    static final int BLOCK_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int size;
+    private final int blockCount;
+    private final int blockIndex;
+    private final int blocks;
+
+    private TermDictionary(ByteBuffer buffer, int offset) {
+        this.buffer = buffer;
+        size = buffer.getInt(offset);
+        blockCount = buffer.getInt(offset + 4);
+        blockIndex = offset + 12;
+        blocks = blockIndex + blockCount * 4;
+    }
+
+    /**
+     * Reads a dictionary written by Builder.write from the given offset of buffer,
+     * without copying it.
+     */
+    static TermDictionary read(ByteBuffer buffer, int offset) {
+        return new TermDictionary(buffer, offset);
+    }
+
+    /**
+     * Returns a dictionary of the given terms, which must be sorted by their UTF-8 bytes
+     * and unique.
+     */
+    public static TermDictionary of(Iterable<String> sortedTerms) {
+        Builder builder = new Builder();
+        for (String term : sortedTerms)
+            builder.add(term.getBytes(StandardCharsets.UTF_8));
+        return builder.build();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes the dictionary takes up.
+     */
+    public long byteSize() {
+        return blocks - blockIndex + 12L + buffer.getInt(blockIndex - 4);
+    }
+
+    /**
+     * Returns the ordinal of the given term, or -1 if it isn't in the dictionary.
+     */
+    public int find(String term) {
+        return find(term.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int find(byte[] key) {
+        int ordinal = ceiling(key);
+        return ordinal >= 0 ? ordinal : -1;
+    }
+
+    /**
+     * Returns the ordinal of the first term at or after key in the order of their
+     * bytes, or size() if every term comes before it. The ordinal is returned as
+     * -(ordinal + 2) if the term isn't key itself, so find doesn't decode it again.
+     */
+    private int ceiling(byte[] key) {
+        // the last block starting at or before key, which is the only one that can hold it
+        int low = 0, high = blockCount - 1, block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareFirst(mid, key);
+            if (cmp == 0)
+                return mid * BLOCK_SIZE;
+            if (cmp < 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0)
+            return -2;
+
+        Reader reader = new Reader(block);
+        for (int i = 0; i < BLOCK_SIZE && reader.ordinal < size; i++) {
+            reader.next();
+            int cmp = Arrays.compareUnsigned(reader.term, 0, reader.length, key, 0, key.length);
+            if (cmp == 0)
+                return reader.ordinal - 1;
+            if (cmp > 0)
+                return -(reader.ordinal - 1) - 2;
+        }
+        return -reader.ordinal - 2;
+    }
+
+    /**
+     * Returns the ordinal of the first term at or after key in the order of their
+     * bytes, or size() if every term comes before it.
+     */
+    int lowerBound(byte[] key) {
+        int ordinal = ceiling(key);
+        return ordinal >= 0 ? ordinal : -ordinal - 2;
+    }
+
+    /**
+     * Returns the ordinals of the terms starting with the given prefix, from the
+     * first to one past the last, as an array of two ints.
+     */
+    public int[] prefixRange(String prefix) {
+        byte[] from = prefix.getBytes(StandardCharsets.UTF_8);
+        // the terms up to the first one starting with a bigger prefix of the same length
+        int end = from.length;
+        while (end > 0 && from[end - 1] == (byte) 0xFF)
+            end--;
+        int to = size;
+        if (end > 0) {
+            byte[] next = Arrays.copyOf(from, end);
+            next[end - 1]++;
+            to = lowerBound(next);
+        }
+        return new int[] {lowerBound(from), to};
+    }
+
+    /**
+     * Returns the term with the given ordinal.
+     */
+    public String term(int ordinal) {
+        return new String(termBytes(ordinal), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the UTF-8 bytes of the term with the given ordinal.
+     */
+    byte[] termBytes(int ordinal) {
+        if (ordinal < 0 || ordinal >= size)
+            throw new IndexOutOfBoundsException("No term " + ordinal + " in a dictionary of " + size + "!");
+        Reader reader = new Reader(ordinal / BLOCK_SIZE);
+        for (int i = ordinal % BLOCK_SIZE; i >= 0; i--)
+            reader.next();
+        return Arrays.copyOf(reader.term, reader.length);
+    }
+
+    /**
+     * Compares the first term of the given block to key, by their bytes.
+     */
+    private int compareFirst(int block, byte[] key) {
+        int offset = blocks + buffer.getInt(blockIndex + block * 4);
+        int length = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get(offset++);
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get(offset + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+
+    /**
+     * Decodes the terms of a block one after another.
+     */
+    private class Reader {
+        byte[] term = new byte[32];
+        int length;
+        // the ordinal of the next term
+        int ordinal;
+        private int offset;
+
+        Reader(int block) {
+            ordinal = block * BLOCK_SIZE;
+            offset = blocks + buffer.getInt(blockIndex + block * 4);
+        }
+
+        void next() {
+            int shared = ordinal % BLOCK_SIZE == 0 ? 0 : readVarint();
+            int suffix = readVarint();
+            if (shared + suffix > term.length)
+                term = Arrays.copyOf(term, Math.max(term.length * 2, shared + suffix));
+            buffer.get(offset, term, shared, suffix);
+            offset += suffix;
+            length = shared + suffix;
+            ordinal++;
+        }
+
+        private int readVarint() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(offset++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            return value;
+        }
+    }
+
+    /**
+     * Builds a dictionary from terms added in order, keeping only their front coded
+     * bytes, so a dictionary can be written without its terms ever being in memory
+     * as Strings.
+     */
+    static class Builder {
+        private byte[] data = new byte[256];
+        private int length;
+        private int[] blockOffsets = new int[16];
+        private int size;
+        private byte[] last;
+
+        /**
+         * Adds a term, which must come after the last one added.
+         */
+        void add(byte[] term) {
+            assert last == null || Arrays.compareUnsigned(last, term) < 0
+                    : "TermDictionary: terms must be added in order!";
+            if (size % BLOCK_SIZE == 0) {
+                int block = size / BLOCK_SIZE;
+                if (block == blockOffsets.length)
+                    blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+                blockOffsets[block] = length;
+                writeVarint(term.length);
+                writeBytes(term, 0, term.length);
+            } else {
+                int shared = Arrays.mismatch(last, term);
+                writeVarint(shared);
+                writeVarint(term.length - shared);
+                writeBytes(term, shared, term.length - shared);
+            }
+            last = term;
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Writes the dictionary in the layout read reads.
+         */
+        void write(IndexFile.Output out) throws IOException {
+            int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            out.putInt(size);
+            out.putInt(blockCount);
+            out.putInt(length);
+            for (int block = 0; block < blockCount; block++)
+                out.putInt(blockOffsets[block]);
+            out.putBytes(data, 0, length);
+        }
+
+        /**
+         * Returns the dictionary of the terms added so far, in a buffer of its own.
+         */
+        TermDictionary build() {
+            int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            ByteBuffer buffer = ByteBuffer.allocate(12 + blockCount * 4 + length);
+            buffer.putInt(size).putInt(blockCount).putInt(length);
+            for (int block = 0; block < blockCount; block++)
+                buffer.putInt(blockOffsets[block]);
+            buffer.put(data, 0, length);
+            return new TermDictionary(buffer, 0);
+        }
+
+        private void writeVarint(int value) {
+            if (length + 5 > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + 5));
+            while ((value & ~0x7F) != 0) {
+                data[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            data[length++] = (byte) value;
+        }
+
+        private void writeBytes(byte[] bytes, int offset, int n) {
+            if (length + n > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + n));
+            System.arraycopy(bytes, offset, data, length, n);
+            length += n;
+        }
+    }
+}
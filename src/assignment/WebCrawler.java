@@ -2,7 +2,14 @@ package assignment;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.attoparser.simple.*;
 import org.attoparser.ParseException;
@@ -13,10 +20,22 @@ import org.attoparser.config.ParseConfiguration;
  * to index.db.
  */
 public class WebCrawler {
+    // the most pages crawled into each segment of index.db
+    static final int FLUSH_PAGES = 1000;
 
     /**
     * The WebCrawler's main method starts crawling a set of pages.  You can change this method as
     * you see fit, as long as it takes URLs as inputs and saves an Index at "index.db".
+    *
+    * index.db is written as an IndexDirectory, with a new segment every FLUSH_PAGES pages, or
+    * sooner if the pages take up more than an eighth of the heap, so the crawl's memory doesn't
+    * grow with the size of the site. Passing "-flush n" changes how many pages, and "-memory n"
+    * how many megabytes. Once every page is crawled the segments are merged into one.
+    * Passing "-threads n" before the URLs crawls with n worker threads instead of one.
+    * Passing "-incremental" updates the existing index.db instead, only parsing the pages
+    * which have changed since it was built; this is always done with one thread.
+    * Passing "-dedupe" leaves out pages that are near duplicates of a page crawled before
+    * them, as NearDuplicates finds them; it has no effect with "-incremental".
     */
     public static void main(String[] args) {
         // Basic usage information
@@ -27,51 +46,96 @@ public class WebCrawler {
 
         // We'll throw all of the args into a queue for processing.
         Queue<URL> remaining = new LinkedList<>();
-        for (String url : args) {
+        int threads = 1;
+        int flush = FLUSH_PAGES;
+        long budget = Runtime.getRuntime().maxMemory() / 8;
+        boolean incremental = false;
+        NearDuplicates duplicates = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-incremental")) {
+                incremental = true;
+                continue;
+            }
+            if (args[i].equals("-dedupe")) {
+                duplicates = new NearDuplicates();
+                continue;
+            }
+            if (args[i].equals("-threads")) {
+                try {
+                    threads = Integer.parseInt(args[++i]);
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    threads = 0;
+                }
+                if (threads < 1) {
+                    System.err.println("Error: -threads must be followed by a positive worker count.");
+                    System.exit(1);
+                }
+                continue;
+            }
+            if (args[i].equals("-memory")) {
+                try {
+                    budget = Long.parseLong(args[++i]) << 20;
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    budget = 0;
+                }
+                if (budget < 1) {
+                    System.err.println("Error: -memory must be followed by a positive number of megabytes.");
+                    System.exit(1);
+                }
+                continue;
+            }
+            if (args[i].equals("-flush")) {
+                try {
+                    flush = Integer.parseInt(args[++i]);
+                } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                    flush = 0;
+                }
+                if (flush < 1) {
+                    System.err.println("Error: -flush must be followed by a positive page count.");
+                    System.exit(1);
+                }
+                continue;
+            }
             try {
-                remaining.add(new URL(new URL("file:"),url));
+                remaining.add(new URL(new URL("file:"), args[i]));
             } catch (MalformedURLException e) {
                 // Throw this one out!
-                System.err.printf("Error: URL '%s' was malformed and will be ignored!%n", url);
+                System.err.printf("Error: URL '%s' was malformed and will be ignored!%n", args[i]);
             }
         }
-        
-        HashSet<String> visited = new HashSet<String>();
-
-        // Create a parser from the attoparser library, and our handler for markup.
-        ISimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
-        CrawlingMarkupHandler handler = new CrawlingMarkupHandler();
 
         // Try to start crawling, adding new URLS as we see them.
         try {
-            while (!remaining.isEmpty()) {
-            		URL current = remaining.poll();
-            		// make sure we haven't visited before
-            		if (visited.contains(current.getPath().toLowerCase()))
-            			continue;
-
-            		handler.updateCurrentURL(current);
-
-                // Parse the next URL's page
-            		try {
-            			parser.parse(new InputStreamReader(current.openStream()), handler);
-            			visited.add(current.getPath().toLowerCase());
-            		} catch (FileNotFoundException e) {
-            			// don't want to add urls with missing files
-            			continue;
-            		} catch (ParseException e) {
-            			// thrown with images, don't want to add those
-            			continue;
-            		} catch (UnknownServiceException e) {
-            			// occasionally thrown with .jpg files
-            			continue;
-            		}
-
-                // Add any new URLs
-            		remaining.addAll(handler.newURLs());
+            WebIndex previous = null;
+            if (incremental && IndexDirectory.isIndexDirectory("index.db")) {
+                try (IndexDirectory directory = IndexDirectory.open("index.db")) {
+                    if (!recrawl(directory, remaining)) {
+                        System.out.println("No pages changed, index is up to date!");
+                        return;
+                    }
+                    System.out.println("Finished re-crawling websites, merging segments...");
+                }
+            } else if (incremental && (previous = loadPrevious("index.db")) != null) {
+                if (!recrawl(previous, remaining)) {
+                    System.out.println("No pages changed, index is up to date!");
+                    return;
+                }
+                System.out.println("Finished re-crawling websites, saving index...");
+                previous.save("index.db");
+            } else {
+                // built to one side, so a server watching index.db keeps the old one until it's done
+                try (IndexDirectory directory = IndexDirectory.create("index.db.tmp")) {
+                    if (threads > 1)
+                        crawlParallel(remaining, threads, directory, flush, budget, duplicates);
+                    else
+                        crawl(remaining, directory, flush, budget, duplicates);
+                    if (duplicates != null)
+                        System.out.printf("Left out %d near duplicate pages.%n", duplicates.duplicates());
+                    System.out.println("Finished crawling websites, merging segments...");
+                    directory.mergeAll();
+                }
+                IndexDirectory.replace("index.db.tmp", "index.db");
             }
-            System.out.println("Finished crawling websites, saving index...");
-            handler.getIndex().save("index.db");
         } catch (IOException e) {
         		// we should never get here, all URL and parse exceptions should be caught
         		System.err.println("Invalid input file!");
@@ -80,4 +144,434 @@ public class WebCrawler {
         System.out.println("Saved!");
         
     }
+
+    /**
+     * Returns the index saved at filename if it can be re-crawled, or null if
+     * there isn't one or it was saved without a crawl state.
+     */
+    private static WebIndex loadPrevious(String filename) {
+        if (!new File(filename).exists())
+            return null;
+        try {
+            Index index = Index.load(filename);
+            if (index instanceof WebIndex && ((WebIndex) index).crawlState().size() > 0)
+                return (WebIndex) index;
+        } catch (IOException | ClassNotFoundException e) {
+            System.err.println("Couldn't load " + filename + ", crawling from scratch.");
+            return null;
+        }
+        System.err.println(filename + " has no crawl state, crawling from scratch.");
+        return null;
+    }
+
+    /**
+     * Crawls every page reachable from the given queue one at a time, using a single
+     * parser and handler, and returns the resulting index.
+     */
+    public static WebIndex crawl(Queue<URL> remaining) throws IOException {
+        return crawl(remaining, (NearDuplicates) null);
+    }
+
+    /**
+     * Crawls like crawl, leaving out the pages that are near duplicates of a page in
+     * duplicates, which every page kept is added to. Does the same as crawl if it's null.
+     */
+    public static WebIndex crawl(Queue<URL> remaining, NearDuplicates duplicates) throws IOException {
+        CrawlingMarkupHandler handler = handler(duplicates);
+        crawl(remaining, handler, null, 0, 0);
+        return (WebIndex) handler.getIndex();
+    }
+
+    /**
+     * Crawls every page reachable from the given queue one at a time like crawl, adding
+     * the pages to directory as a new segment every flush pages instead of keeping them.
+     */
+    public static void crawl(Queue<URL> remaining, IndexDirectory directory, int flush) throws IOException {
+        crawl(remaining, directory, flush, Long.MAX_VALUE);
+    }
+
+    /**
+     * Crawls like crawl, also adding a new segment whenever the pages crawled since
+     * the last one take up more than budget bytes of memory.
+     */
+    public static void crawl(Queue<URL> remaining, IndexDirectory directory, int flush,
+            long budget) throws IOException {
+        crawl(remaining, directory, flush, budget, null);
+    }
+
+    /**
+     * Crawls to directory like crawl, leaving out the pages that are near duplicates
+     * of a page in duplicates, unless it's null.
+     */
+    public static void crawl(Queue<URL> remaining, IndexDirectory directory, int flush,
+            long budget, NearDuplicates duplicates) throws IOException {
+        CrawlingMarkupHandler handler = handler(duplicates);
+        crawl(remaining, handler, directory, flush, budget);
+        flushIfFull(handler, directory, 1, Long.MAX_VALUE);
+    }
+
+    private static void crawl(Queue<URL> remaining, CrawlingMarkupHandler handler,
+            IndexDirectory directory, int flush, long budget) throws IOException {
+        HashSet<String> visited = new HashSet<String>();
+
+        // Create a parser from the attoparser library, and our handler for markup.
+        ISimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
+
+        while (!remaining.isEmpty()) {
+        		URL current = remaining.poll();
+        		// make sure we haven't visited before
+        		if (visited.contains(current.getPath().toLowerCase()))
+        			continue;
+
+        		// Parse the next URL's page, skipping anything that isn't html
+        		if (!parsePage(parser, handler, current))
+        			continue;
+        		visited.add(current.getPath().toLowerCase());
+
+            // Add any new URLs, leaving out pages already crawled so the queue stays short
+        		for (URL found : handler.newURLs()) {
+        			if (!visited.contains(found.getPath().toLowerCase()))
+        				remaining.add(found);
+        		}
+        		flushIfFull(handler, directory, flush, budget);
+        }
+    }
+
+    /**
+     * Returns a new handler, which drops near duplicates of the pages in duplicates
+     * unless it's null.
+     */
+    private static CrawlingMarkupHandler handler(NearDuplicates duplicates) {
+        CrawlingMarkupHandler handler = new CrawlingMarkupHandler();
+        if (duplicates != null)
+            handler.dedupe(duplicates);
+        return handler;
+    }
+
+    /**
+     * Adds the pages a handler has crawled to directory as a new segment, if there is a
+     * directory and the handler has crawled at least flush pages since it was last flushed,
+     * or they take up at least budget bytes.
+     */
+    private static void flushIfFull(CrawlingMarkupHandler handler, IndexDirectory directory,
+            int flush, long budget) throws IOException {
+        if (directory == null)
+            return;
+        WebIndex index = (WebIndex) handler.getIndex();
+        // pages without any words count too, since the segment keeps their crawl state
+        if (index.crawlState().size() >= flush || index.memoryEstimate() >= budget)
+            directory.add(handler.flush());
+    }
+
+    /**
+     * Crawls every page reachable from the given seeds with a pool of worker threads.
+     * The workers share a concurrent frontier and visited set, but each one has its own
+     * parser and handler; their partial indexes are merged once the frontier runs dry.
+     */
+    public static WebIndex crawlParallel(Collection<URL> seeds, int workers) throws IOException {
+        WebIndex index = new WebIndex();
+        for (CrawlingMarkupHandler handler : crawlWorkers(seeds, workers, null, 0, 0, null))
+            index.merge((WebIndex) handler.getIndex());
+        return index;
+    }
+
+    /**
+     * Crawls every page reachable from the given seeds with a pool of worker threads like
+     * crawlParallel, each worker adding its pages to directory as a new segment every flush
+     * pages, or whenever they take up its share of budget bytes.
+     */
+    public static void crawlParallel(Collection<URL> seeds, int workers, IndexDirectory directory,
+            int flush, long budget) throws IOException {
+        crawlParallel(seeds, workers, directory, flush, budget, null);
+    }
+
+    /**
+     * Crawls to directory with a pool of worker threads like crawlParallel, leaving out
+     * the pages that are near duplicates of a page in duplicates, which every worker
+     * shares, unless it's null.
+     */
+    public static void crawlParallel(Collection<URL> seeds, int workers, IndexDirectory directory,
+            int flush, long budget, NearDuplicates duplicates) throws IOException {
+        for (CrawlingMarkupHandler handler : crawlWorkers(seeds, workers, directory, flush,
+                budget / workers, duplicates))
+            flushIfFull(handler, directory, 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * Runs the parallel crawl workers until the frontier runs dry, returning their handlers.
+     */
+    private static List<CrawlingMarkupHandler> crawlWorkers(Collection<URL> seeds, int workers,
+            IndexDirectory directory, int flush, long budget, NearDuplicates duplicates) throws IOException {
+        BlockingQueue<URL> frontier = new LinkedBlockingQueue<URL>(seeds);
+        Set<String> visited = ConcurrentHashMap.newKeySet();
+        // URLs which have been queued but not fully processed yet
+        AtomicInteger pending = new AtomicInteger(frontier.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(workers);
+        List<Future<CrawlingMarkupHandler>> results = new ArrayList<Future<CrawlingMarkupHandler>>();
+        for (int i = 0; i < workers; i++)
+            results.add(pool.submit(() -> crawlWorker(frontier, visited, pending, directory, flush, budget,
+                    duplicates)));
+        pool.shutdown();
+
+        List<CrawlingMarkupHandler> handlers = new ArrayList<CrawlingMarkupHandler>();
+        try {
+            for (Future<CrawlingMarkupHandler> result : results)
+                handlers.add(result.get());
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while crawling!");
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new RuntimeException(e.getCause());
+        }
+        return handlers;
+    }
+
+    /**
+     * The loop run by each parallel crawl worker. Workers keep polling the frontier until
+     * no URL is queued or being processed by any other worker.
+     */
+    private static CrawlingMarkupHandler crawlWorker(BlockingQueue<URL> frontier, Set<String> visited,
+            AtomicInteger pending, IndexDirectory directory, int flush, long budget, NearDuplicates duplicates)
+            throws IOException, InterruptedException {
+        ISimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
+        CrawlingMarkupHandler handler = handler(duplicates);
+
+        while (pending.get() > 0) {
+            URL current = frontier.poll(10, TimeUnit.MILLISECONDS);
+            if (current == null)
+                continue;
+            try {
+                // claim the page so no other worker parses it at the same time
+                String path = current.getPath().toLowerCase();
+                if (!visited.add(path))
+                    continue;
+
+                if (parsePage(parser, handler, current)) {
+                    // count new URLs before this one is finished so pending never hits 0 early
+                    List<URL> found = handler.newURLs();
+                    pending.addAndGet(found.size());
+                    frontier.addAll(found);
+                    flushIfFull(handler, directory, flush, budget);
+                } else {
+                    // like the sequential crawl, only successfully parsed pages are visited
+                    visited.remove(path);
+                }
+            } finally {
+                pending.decrementAndGet();
+            }
+        }
+        return handler;
+    }
+
+    /**
+     * Crawls every page reachable from the given seeds again, updating the index built
+     * by the last crawl instead of building a new one. Pages whose files have the same
+     * modification time and size as last time aren't read at all, and pages whose
+     * contents hash the same aren't parsed; both have their links from last time followed.
+     * Pages that are new or have changed are parsed into a new index, which is merged in
+     * once every page that has changed or can't be reached any more has been deleted.
+     * Returns whether the index changed.
+     */
+    public static boolean recrawl(WebIndex index, Queue<URL> remaining) throws IOException {
+        Changes changes = changes(index, remaining);
+        if (!changes.modified)
+            return false;
+
+        for (Page page : changes.deleted)
+            index.delete(page);
+        index.crawled = changes.unchanged;
+        index.merge(changes.changed);
+        return true;
+    }
+
+    /**
+     * Crawls every page reachable from the given seeds again like recrawl, but adds the new
+     * and changed pages to an IndexDirectory as a new segment, deleting the old copies of
+     * those pages and any that can't be reached any more from the segments they're in.
+     * Returns whether the index changed.
+     */
+    public static boolean recrawl(IndexDirectory directory, Queue<URL> remaining) throws IOException {
+        WebIndex index = directory.reader();
+        Changes changes = changes(index, remaining);
+        if (!changes.modified)
+            return false;
+
+        // the segment's crawl state covers every page whose state has changed
+        CrawlState state = changes.changed.crawlState();
+        state.putAll(changes.touched);
+        for (String url : index.crawlState().urls()) {
+            if (!changes.unchanged.contains(url) && !state.contains(url))
+                state.putGone(url);
+        }
+        directory.update(changes.deleted, changes.changed);
+        return true;
+    }
+
+    /**
+     * What a re-crawl found had changed since the last crawl.
+     */
+    private static class Changes {
+        // every page reached that hasn't changed, along with its links
+        final CrawlState unchanged = new CrawlState();
+        // the pages whose files changed without their contents changing
+        final CrawlState touched = new CrawlState();
+        // the pages that changed or weren't reached
+        final List<Page> deleted = new ArrayList<Page>();
+        // the new and changed pages
+        WebIndex changed;
+        boolean modified;
+    }
+
+    /**
+     * Crawls every page reachable from the given seeds, parsing only the pages which
+     * have changed since index was crawled, and returns what's changed.
+     */
+    private static Changes changes(WebIndex index, Queue<URL> remaining) throws IOException {
+        CrawlState previous = index.crawlState();
+        Changes changes = new Changes();
+        CrawlState unchanged = changes.unchanged;
+        HashSet<String> visited = new HashSet<String>();
+
+        ISimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
+        // builds the index of the new and changed pages
+        CrawlingMarkupHandler handler = new CrawlingMarkupHandler();
+
+        while (!remaining.isEmpty()) {
+            URL current = remaining.poll();
+            if (visited.contains(current.getPath().toLowerCase()))
+                continue;
+
+            CrawlState.Source source = previous.get(current);
+            long[] stat = stat(current);
+            if (source == null || stat == null || stat[0] != source.modified || stat[1] != source.size) {
+                handler.updateCurrentURL(current);
+                byte[] page = fetch(current);
+                if (page == null)
+                    continue;
+                long hash = hash(page);
+                if (source != null && page.length == source.size && hash == source.hash) {
+                    // only the modification time changed, if there is one
+                    long modified = stat == null ? -1 : stat[0];
+                    if (modified != source.modified) {
+                        source = source.touched(modified);
+                        changes.touched.put(current, source);
+                    }
+                } else {
+                    if (!parse(parser, handler, current, page))
+                        continue;
+                    handler.recordSource(stat == null ? -1 : stat[0], page.length, hash);
+                    visited.add(current.getPath().toLowerCase());
+                    remaining.addAll(handler.newURLs());
+                    continue;
+                }
+            }
+
+            visited.add(current.getPath().toLowerCase());
+            unchanged.put(current, source);
+            for (String link : source.links) {
+                try {
+                    remaining.add(new URL(current, link));
+                } catch (MalformedURLException e) {
+                    // links are checked when they're found
+                }
+            }
+        }
+
+        // the pages that changed or weren't reached are deleted
+        List<Page> deleted = changes.deleted;
+        for (int doc = 0; doc < index.size(); doc++) {
+            if (!index.isDeleted(doc) && !unchanged.contains(index.url(doc)))
+                deleted.add(index.page(doc));
+        }
+        WebIndex changed = changes.changed = (WebIndex) handler.getIndex();
+        changes.modified = changes.touched.size() > 0 || !deleted.isEmpty()
+                || changed.crawlState().size() > 0 || unchanged.size() != previous.size();
+        System.out.printf("Re-crawled %d pages: %d unchanged, %d new or changed, %d deleted.%n",
+                unchanged.size() + changed.crawlState().size(), unchanged.size(),
+                changed.crawlState().size(), deleted.size());
+        return changes;
+    }
+
+    /**
+     * Parses the page at the given URL with the given handler. Returns false if the
+     * URL couldn't be parsed as a page, in which case any links found are thrown away.
+     * A page the handler drops as a near duplicate is still crawled, and its links followed.
+     */
+    private static boolean parsePage(ISimpleMarkupParser parser, CrawlingMarkupHandler handler,
+            URL url) throws IOException {
+        handler.updateCurrentURL(url);
+        long[] stat = stat(url);
+        byte[] page = fetch(url);
+        if (page == null || !parse(parser, handler, url, page))
+            return false;
+        handler.recordSource(stat == null ? -1 : stat[0], page.length, hash(page));
+        handler.dropIfDuplicate();
+        return true;
+    }
+
+    /**
+     * Parses the contents of a page with the given handler, which must already be on the
+     * page's URL. Returns false if they can't be parsed, throwing away any links found.
+     */
+    private static boolean parse(ISimpleMarkupParser parser, CrawlingMarkupHandler handler,
+            URL url, byte[] page) {
+        try (Reader reader = new InputStreamReader(new ByteArrayInputStream(page))) {
+            parser.parse(reader, handler);
+            return true;
+        } catch (ParseException e) {
+            // thrown with images, don't want to add those
+        } catch (IOException e) {
+            // can't happen reading from memory
+        }
+        handler.newURLs();
+        return false;
+    }
+
+    /**
+     * Reads the whole page at the given URL, or returns null if it can't be read
+     * as a page.
+     */
+    private static byte[] fetch(URL url) throws IOException {
+        try (InputStream in = url.openStream()) {
+            return in.readAllBytes();
+        } catch (FileNotFoundException e) {
+            // don't want to add urls with missing files
+        } catch (UnknownServiceException e) {
+            // occasionally thrown with .jpg files
+        }
+        return null;
+    }
+
+    /**
+     * Returns the modification time in milliseconds and the size of the file at
+     * the given URL, or null if it isn't a file that can be looked at.
+     */
+    private static long[] stat(URL url) {
+        if (!url.getProtocol().equals("file"))
+            return null;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(Paths.get(url.toURI()),
+                    BasicFileAttributes.class);
+            return new long[] {attributes.lastModifiedTime().toMillis(), attributes.size()};
+        } catch (IOException | URISyntaxException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the first 8 bytes of the SHA-256 hash of a page.
+     */
+    static long hash(byte[] page) {
+        try {
+            return ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(page)).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
 }
@@ -1,20 +1,49 @@
 package assignment;
 
-import java.io.Serializable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PrimitiveIterator;
 import java.util.ArrayList;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A web-index which efficiently stores information about pages. Serialization is done automatically
  * via the superclass "Index" and Java's Serializable interface.
+ *
+ * Every page is given a dense int doc ID when it's first added. The pages a word is on are kept as
+ * a compressed DocSet of doc IDs, so queries can be answered with bitmap operations. The pages'
+ * URLs are kept once each in a PageTable, and Page objects are only made for the final result.
+ *
+ * Indexes are saved in the binary format of IndexFile. A loaded index keeps the file mapped and
+ * only reads a word's pages and positions the first time a query uses it; anything that changes
+ * the index reads the rest of the file in first. An index can also be loaded from the segments of
+ * an IndexDirectory, each an IndexFile of its own. The segments' pages are numbered one segment
+ * after another, and a word's pages and positions in every segment are put together the first
+ * time a query uses it.
+ *
+ * Pages are deleted by marking their doc IDs, without touching the words' sets or positions, and
+ * queries leave the marked pages out. A page that's added again after it's deleted gets a new doc
+ * ID, and so does a page added again after other pages, whose old copy is deleted. Along with the
+ * pages, the index keeps the CrawlState of the crawl that built it, so the next crawl only has to
+ * parse the pages that have changed.
+ *
+ * Indexes serialized by the original WebIndex, which kept a set of Pages and every page's words in
+ * order, are converted as they're read, the same as if their pages had been crawled again.
  */
 public class WebIndex extends Index {
     /**
@@ -22,19 +51,104 @@ public class WebIndex extends Index {
      */
     private static final long serialVersionUID = 1L;
 
+    // what the original WebIndex put between the blocks of text on a page
+    private static final String ORIGINAL_BLOCK_BREAK = "*********";
+
     // public for testing purpose
-    public Set<Page> pages;
-    public HashMap<String, Set<Page>> wordsToPage;
-    public HashMap<Page, ArrayList<String>> links;
+    public HashMap<String, DocSet> wordsToPage;
+
+    // word -> the positions of the word on every page it's on
+    HashMap<String, PostingList> positions;
+    // doc ID -> the page's URL, and URL -> doc ID
+    PageTable pages;
+    // the page words were last added to and its doc ID, so its words don't each look it up
+    private transient Page lastPage;
+    private transient int lastDoc;
+    // doc ID -> the position of the next word added to the page
+    int[] nextPosition;
+    // doc ID -> the number of words on the page, and their sum over every page
+    int[] lengths;
+    long totalLength;
+    // the doc IDs of the pages that have been deleted
+    DocSet deleted;
+    // what the crawl saw of each page, read from file when it's first needed
+    CrawlState crawled;
+    // the number of changes made since this index was created or loaded
+    transient int modifications;
+    // a rough count of the bytes added to this index in memory since it was created
+    transient long memoryEstimate;
+    // the files this index was loaded from, until every word has been read from them
+    transient IndexFile[] files;
+    // the doc ID of the first page of each file
+    transient int[] bases;
+    // the words read from the files so far, which queries on several threads can add to
+    transient ConcurrentHashMap<String, DocSet> fileDocs;
+    transient ConcurrentHashMap<String, PostingList> filePositions;
+    // the words of an index in memory, for prefixes, and the modifications it was built at
+    private transient TermDictionary dictionary;
+    private transient int dictionaryVersion;
+    // the completions of the words of an index in memory, and the modifications they were built at
+    private transient Suggester suggester;
+    private transient int suggesterVersion;
     
     /**
-     * Initializes all three datatypes for linking
+     * Initializes the datatypes for linking
      * word -> webpage.
      */
     public WebIndex() {
-    		pages = new HashSet<Page>();
-    		wordsToPage = new HashMap<String, Set<Page>>();
-    		links = new HashMap<Page, ArrayList<String>>();
+    		init();
+    }
+
+    private void init() {
+    		wordsToPage = new HashMap<String, DocSet>();
+    		positions = new HashMap<String, PostingList>();
+    		pages = new PageTable();
+    		nextPosition = new int[16];
+    		lengths = new int[16];
+    		deleted = new DocSet();
+    		crawled = new CrawlState();
+    }
+
+    /**
+     * Creates an index backed by a mapped index file.
+     */
+    WebIndex(IndexFile file) {
+    		this(new IndexFile[] {file}, new DocSet[] {new DocSet()});
+    }
+
+    /**
+     * Creates an index backed by the mapped segments of an IndexDirectory, in order,
+     * along with the doc IDs deleted from each segment since it was written.
+     */
+    WebIndex(IndexFile[] files, DocSet[] deletions) {
+    		this();
+    		this.files = files;
+    		crawled = null;
+    		fileDocs = new ConcurrentHashMap<String, DocSet>();
+    		filePositions = new ConcurrentHashMap<String, PostingList>();
+
+    		bases = new int[files.length];
+    		int total = 0;
+    		for (int i = 0; i < files.length; i++) {
+    			bases[i] = total;
+    			total += files[i].pageCount();
+    		}
+    		// the URLs are hashed when a page is first looked up by its URL
+    		pages = PageTable.unindexed();
+    		nextPosition = new int[Math.max(16, total)];
+    		lengths = new int[nextPosition.length];
+    		for (int i = 0; i < files.length; i++) {
+    			DocSet fileDeleted = files[i].deleted().or(deletions[i]);
+    			for (int doc = 0; doc < files[i].pageCount(); doc++) {
+    				pages.add(files[i].urlBytes(doc));
+    				nextPosition[bases[i] + doc] = files[i].nextPosition(doc);
+    				lengths[bases[i] + doc] = files[i].length(doc);
+    				if (fileDeleted.contains(doc))
+    					deleted.add(bases[i] + doc);
+    				else
+    					totalLength += lengths[bases[i] + doc];
+    			}
+    		}
     }
     
     /**
@@ -51,211 +165,804 @@ public class WebIndex extends Index {
     		assert keyword != null && url != null : "WebIndex: Add can't take null inputs!";
     		// ignore case
     		keyword = keyword.toLowerCase();
-    		prev = prev.toLowerCase();
+    		loadAll();
     		
-    		// check if page exists
-    		if (pages.contains(url)) {
-    			/* if no previous page is specified, insert gibberish to 
-    			 * separate this word from the last word on the previous block.
-    			 */
-    			if (prev.equals(""))
-    				links.get(url).add("*********");
-    			else
-    				assert links.get(url).get(links.get(url).size()-1).equals(prev) : "Indexing Error: Last saved word not equal to given!";
-            links.get(url).add(keyword);
-    		} else {
-    			// if it doesn't exist, initialize a new linked list
-    			pages.add(url);
-    			links.put(url, new ArrayList<String>(Arrays.asList(keyword)));
+    		int doc = docId(url);
+    		/* if no previous word is specified, skip a position to 
+    		 * separate this word from the last word on the previous block.
+    		 */
+    		int position = nextPosition[doc];
+    		if (prev.isEmpty() && position > 0)
+    			position++;
+    		nextPosition[doc] = position + 1;
+    		lengths[doc]++;
+    		totalLength++;
+    		modifications++;
+
+    		if (!positions.containsKey(keyword)) {
+    			positions.put(keyword, new PostingList());
+    			wordsToPage.put(keyword, new DocSet());
+    			// both map entries, the word, and the empty set and list
+    			memoryEstimate += 250 + 2 * keyword.length();
     		}
-    		
-    		
-    		// check if string exists
-    		if (wordsToPage.containsKey(keyword)) {
-    			wordsToPage.get(keyword).add(url);
-    		} else {
-    			wordsToPage.put(keyword, new HashSet<Page>(Arrays.asList(url)));
+    		// a position is a byte or two, and its doc ID a bit more in the set
+    		memoryEstimate += 3;
+    		positions.get(keyword).add(doc, position);
+    		wordsToPage.get(keyword).add(doc);
+    }
+    
+    /**
+     * Returns the doc ID of the given page, giving the page
+     * the next free ID if it hasn't been seen before.
+     */
+    private int docId(Page page) {
+    		if (page != lastPage) {
+    			int doc = pages.find(page.getURL(), deleted);
+    			// words can only be added to the newest page, so an older copy is replaced
+    			if (doc >= 0 && doc < pages.size() - 1) {
+    				delete(doc);
+    				doc = -1;
+    			}
+    			lastDoc = doc >= 0 ? doc : newDoc(pages.add(page.getURL()));
+    			lastPage = page;
     		}
+    		return lastDoc;
+    }
+
+    /**
+     * Makes room for the page just added to the page table, and returns its doc ID.
+     */
+    private int newDoc(int doc) {
+    		// the URL's bytes, and its offset, hash and slots in the page table
+    		memoryEstimate += 100;
+    		if (pages.size() > nextPosition.length) {
+    			nextPosition = Arrays.copyOf(nextPosition, nextPosition.length * 2);
+    			lengths = Arrays.copyOf(lengths, nextPosition.length);
+    		}
+    		return doc;
     }
     
     /**
-     * Returns the set of URLS associated with a given keyword. This method
-     * takes advantage of Hashing to return the URLS associated with a 
-     * single word in O(n) time.
+     * Adds every page and word association from another index into this one.
+     * Used to combine the partial indexes built by parallel crawl workers.
+     * The other index's pages get doc IDs after all of this index's pages,
+     * and its pages that were deleted stay deleted.
      */
-    public Set<Page> getUrls(String keyword) {
-    		assert keyword != null : "WebIndex: getUrls can't take null input!";
-    		
-    		// ignore case
-    		keyword = keyword.toLowerCase();
+    public void merge(WebIndex other) {
+    		assert other != null : "WebIndex: merge can't take null input!";
+    		loadAll();
+    		other.loadAll();
+    		int offset = pages.size();
+    		// the last page words were added to isn't the newest any more
+    		lastPage = null;
+    		for (int i = 0; i < other.pages.size(); i++) {
+    			assert other.deleted.contains(i) || pages.find(other.pages.page(i).getURL(), deleted) < 0
+    					: "WebIndex: can't merge indexes sharing pages!";
+    			int doc = newDoc(pages.add(other.pages.urlBytes(i)));
+    			if (other.deleted.contains(i))
+    				deleted.add(doc);
+    			nextPosition[doc] = other.nextPosition[i];
+    			lengths[doc] = other.lengths[i];
+    		}
+    		totalLength += other.totalLength;
+    		crawlState().putAll(other.crawlState());
+    		modifications++;
 
-    		// phrases are stored as lorem+ipsum, so redirect those to
-    		// another method
-    		if (keyword.contains("+")) {
-    			// remove the not and pass it in as a boolean flag
-    			if (keyword.startsWith("!")) {
-    				keyword = keyword.substring(1);
-    				return getUrls(keyword.split("\\+"), pages, true);
+    		for (Map.Entry<String, PostingList> entry : other.positions.entrySet()) {
+    			if (!positions.containsKey(entry.getKey())) {
+    				positions.put(entry.getKey(), new PostingList());
+    				wordsToPage.put(entry.getKey(), new DocSet());
+    			}
+    			PostingList list = positions.get(entry.getKey());
+    			DocSet docs = wordsToPage.get(entry.getKey());
+
+    			PostingList.Cursor cursor = entry.getValue().cursor();
+    			for (int doc = cursor.next(); doc >= 0; doc = cursor.next()) {
+    				int count = cursor.readPositions();
+    				for (int i = 0; i < count; i++)
+    					list.add(doc + offset, cursor.positions()[i]);
+    				docs.add(doc + offset);
     			}
-    			return getUrls(keyword.split("\\+"), pages, false);
     		}
+    }
 
-    		boolean not = keyword.startsWith("!");
-    		// remove the ! and set it as a flag 
-    		if (not)
-    			keyword = keyword.substring(1);
+    /**
+     * Returns a new index of the pages with doc IDs from from up to (but not
+     * including) to, like a range of shardBounds, for a SearchWorker to serve as
+     * one partition of this index. The pages keep their order and lengths but
+     * get doc IDs from 0, deleted pages are left out, and so is the crawl state.
+     */
+    public WebIndex partition(int from, int to) {
+    		if (from < 0 || from > to || to > pages.size())
+    			throw new IllegalArgumentException("No pages " + from + " to " + to + " in an index of " + pages.size() + "!");
+    		loadAll();
+    		WebIndex part = new WebIndex();
+    		// doc ID - from -> the page's doc ID in the partition, or -1 if it's deleted
+    		int[] copies = new int[to - from];
+    		for (int doc = from; doc < to; doc++) {
+    			if (deleted.contains(doc)) {
+    				copies[doc - from] = -1;
+    				continue;
+    			}
+    			int copy = part.newDoc(part.pages.add(pages.urlBytes(doc)));
+    			part.nextPosition[copy] = nextPosition[doc];
+    			part.lengths[copy] = lengths[doc];
+    			part.totalLength += lengths[doc];
+    			copies[doc - from] = copy;
+    		}
 
-    		if (wordsToPage.containsKey(keyword)) {
-    			// if notted, return the set of all pages w/o term
-    			if (not) {
-    				Set<Page> allPages = new HashSet<Page>(pages);
-    				allPages.removeAll(wordsToPage.get(keyword));
-    				return allPages;
-    			} else {
-    				// otherwise just return the term
-    				return new HashSet<Page>(wordsToPage.get(keyword));
+    		for (Map.Entry<String, PostingList> entry : positions.entrySet()) {
+    			PostingList list = null;
+    			DocSet docs = null;
+    			PostingList.Cursor cursor = entry.getValue().cursor(from);
+    			for (int doc = cursor.next(); doc >= 0 && doc < to; doc = cursor.next()) {
+    				int copy = copies[doc - from];
+    				if (copy < 0)
+    					continue;
+    				if (list == null) {
+    					list = new PostingList();
+    					docs = new DocSet();
+    					part.positions.put(entry.getKey(), list);
+    					part.wordsToPage.put(entry.getKey(), docs);
+    				}
+    				int count = cursor.readPositions();
+    				for (int i = 0; i < count; i++)
+    					list.add(copy, cursor.positions()[i]);
+    				docs.add(copy);
     			}
     		}
-    		else {
-    			// if notted, return all pages
-    			if (not) {
-    				return new HashSet<Page>(pages);
-    			} // else just return an empty set
-    			return new HashSet<Page>();
+    		part.modifications++;
+    		return part;
+    }
+
+    /**
+     * Deletes a page from the index, so no query finds it any more. Its words
+     * stay in the index file until it's rebuilt, but are never read for it.
+     * Returns false if the page wasn't in the index.
+     */
+    public boolean delete(Page page) {
+    		assert page != null : "WebIndex: delete can't take null input!";
+    		int doc = pages.find(page.getURL(), deleted);
+    		if (doc < 0)
+    			return false;
+    		delete(doc);
+    		return true;
+    }
+
+    private void delete(int doc) {
+    		deleted.add(doc);
+    		lastPage = null;
+    		totalLength -= lengths[doc];
+    		modifications++;
+    }
+
+    /**
+     * Returns whether the page with the given doc ID has been deleted.
+     */
+    public boolean isDeleted(int doc) {
+    		return deleted.contains(doc);
+    }
+
+    /**
+     * Returns what the crawl that built this index saw of each page,
+     * reading it from the index file if it hasn't been yet.
+     */
+    CrawlState crawlState() {
+    		if (crawled == null) {
+    			CrawlState state = new CrawlState();
+    			for (IndexFile file : files)
+    				state.putAll(file.crawlState());
+    			state.removeGone();
+    			crawled = state;
     		}
+    		return crawled;
     }
-    
+
     /**
-     * Returns the set of URLS associated with a given keyword in 
-     * the list of URLS given. 
+     * Returns the doc IDs of the pages matching a single query term: a word,
+     * a phrase stored as lorem+ipsum, or either one negated with a leading !.
+     * The returned set may belong to the index, so it must not be changed.
      */
-    public Set<Page> getUrls(String keyword, Set<Page> urls) {
-    		assert keyword != null && urls != null : "WebIndex: getUrls can't take null inputs!";
+    public DocSet docs(String keyword) {
+    		return docs(keyword, 0, size());
+    }
+
+    /**
+     * Returns the doc IDs from from up to (but not including) to of the pages
+     * matching a single query term, like docs. Only the postings of a phrase's
+     * words in that range are stepped through.
+     */
+    public DocSet docs(String keyword, int from, int to) {
+    		assert keyword != null : "WebIndex: docs can't take null input!";
+
     		// ignore case
     		keyword = keyword.toLowerCase();
-    		boolean not = false;
-    		
-    		// move phrases to another method
+
+    		// remove the ! and set it as a flag 
+    		boolean not = keyword.startsWith("!");
+    		if (not)
+    			keyword = keyword.substring(1);
+
+    		DocSet found;
+    		// phrases are stored as lorem+ipsum
     		if (keyword.contains("+")) {
-    			// remove and pass the ! in as a flag
-    			if (keyword.startsWith("!")) {
-    				keyword = keyword.substring(1);
-    				return getUrls(keyword.split("\\+"), urls, true);
+    			found = phraseDocs(keyword.split("\\+"), from, to);
+    		} else {
+    			found = wordDocs(keyword);
+    			if (from > 0 || to < size())
+    				found = found.and(DocSet.range(from, to));
+    		}
+    		if (!deleted.isEmpty())
+    			found = found.andNot(deleted);
+
+    		// if notted, every other page matches
+    		return not ? allDocs(from, to).andNot(found) : found;
+    }
+
+    /**
+     * Returns the doc IDs of the pages a word is on, reading them from the
+     * index file if they haven't been yet. Returns an empty set for unknown words.
+     */
+    private DocSet wordDocs(String word) {
+    		DocSet found;
+    		if (files == null) {
+    			found = wordsToPage.get(word);
+    		} else {
+    			found = fileDocs.get(word);
+    			if (found == null) {
+    				found = readDocs(word);
+    				if (found != null)
+    					fileDocs.putIfAbsent(word, found);
     			}
-    			return getUrls(keyword.split("\\+"), urls, false);
     		}
-    		
-    		// remove and set the ! as a flag
-    		if (keyword.startsWith("!")) {
-    			not = true;
-    			keyword = keyword.substring(1);
-    			assert keyword.length() > 0 : "WebIndex: can't search for '!' term!";
+    		return found == null ? new DocSet() : found;
+    }
+
+    /**
+     * Reads the doc IDs of the pages a word is on from every file, or returns
+     * null if it isn't in any of them.
+     */
+    private DocSet readDocs(String word) {
+    		DocSet found = null;
+    		for (int i = 0; i < files.length; i++) {
+    			int term = files[i].findTerm(word);
+    			if (term < 0)
+    				continue;
+    			DocSet docs = files[i].docSet(term);
+    			if (files.length == 1)
+    				return docs;
+    			if (found == null)
+    				found = new DocSet();
+    			// the files' doc IDs come one after another, so these are added in order
+    			int base = bases[i];
+    			DocSet into = found;
+    			docs.forEach(doc -> into.add(base + doc));
+    		}
+    		return found;
+    }
+
+    /**
+     * Returns the positions of a word, reading them from the index file
+     * if they haven't been yet. Returns null for unknown words.
+     */
+    private PostingList wordPositions(String word) {
+    		if (files == null)
+    			return positions.get(word);
+    		PostingList list = filePositions.get(word);
+    		if (list == null) {
+    			list = readPositions(word);
+    			if (list != null)
+    				filePositions.putIfAbsent(word, list);
+    		}
+    		return list;
+    }
 
+    /**
+     * Reads the positions of a word from every file, or returns null if it
+     * isn't in any of them.
+     */
+    private PostingList readPositions(String word) {
+    		PostingList found = null;
+    		for (int i = 0; i < files.length; i++) {
+    			int term = files[i].findTerm(word);
+    			if (term < 0)
+    				continue;
+    			PostingList list = files[i].postingList(term);
+    			if (files.length == 1)
+    				return list;
+    			if (found == null)
+    				found = new PostingList();
+    			found.append(list, bases[i]);
     		}
+    		return found;
+    }
 
-    		if (!wordsToPage.containsKey(keyword)) {
-    			// if we're looking for pages without the word, and no page has
-    			// the word, then every page passes
-    			if (not) {
-    				return new HashSet<Page>(urls);
-    			} else {
-    				// no page passes
-    				return new HashSet<Page>();
+    /**
+     * Reads everything left in the index files into memory and detaches
+     * this index from them, so the index can be changed or saved.
+     */
+    private void loadAll() {
+    		if (files == null)
+    			return;
+    		for (IndexFile file : files) {
+    			for (int term = 0; term < file.termCount(); term++) {
+    				String word = file.term(term);
+    				if (!positions.containsKey(word)) {
+    					wordsToPage.put(word, readDocs(word));
+    					positions.put(word, readPositions(word));
+    				}
     			}
     		}
+    		crawlState();
+    		files = null;
+    		bases = null;
+    		fileDocs = null;
+    		filePositions = null;
+    }
 
-    		Set<Page> newUrls = new HashSet<Page>();
-    		if (not) {
-    			// look through all pages without word
-    			HashSet<Page> pagesWithout = new HashSet<Page>(pages);
-    			pagesWithout.removeAll(wordsToPage.get(keyword));
-    			
-    			// set intersection of pages without and within the considered urls
-    			pagesWithout.retainAll(urls);
-    			return pagesWithout;
-    		} else {
-    			// if we're looking for pages with the word
-    			for (Page p : wordsToPage.get(keyword)) {
-    				if (urls.contains(p))
-    					newUrls.add(p);
+    /**
+     * Saves this index in the IndexFile format.
+     */
+    @Override
+    public void save(String filename) throws IOException {
+    		loadAll();
+    		IndexFile.write(this, filename);
+    }
+
+    /**
+     * Reads in the whole index file before a mapped index is serialized.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+    		loadAll();
+    		out.defaultWriteObject();
+    }
+
+    /**
+     * Reads an index serialized by this class, or converts one serialized by the
+     * original WebIndex, which is told apart by its links field.
+     */
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    		ObjectInputStream.GetField fields = in.readFields();
+    		if (fields.getObjectStreamClass().getField("links") != null) {
+    			readOriginal((Set<Page>) fields.get("pages", null),
+    					(Map<Page, List<String>>) fields.get("links", null));
+    			return;
+    		}
+    		wordsToPage = (HashMap<String, DocSet>) fields.get("wordsToPage", null);
+    		positions = (HashMap<String, PostingList>) fields.get("positions", null);
+    		pages = (PageTable) fields.get("pages", null);
+    		nextPosition = (int[]) fields.get("nextPosition", null);
+    		lengths = (int[]) fields.get("lengths", null);
+    		totalLength = fields.get("totalLength", 0L);
+    		deleted = (DocSet) fields.get("deleted", null);
+    		crawled = (CrawlState) fields.get("crawled", null);
+    }
+
+    /**
+     * Builds this index from the pages of the original WebIndex and each one's words in
+     * order, with ORIGINAL_BLOCK_BREAK between its blocks of text. The pages get doc IDs
+     * in the order of their URLs, and their words are added just as a crawl adds them,
+     * which gives each word's pages and positions. There's no crawl state, so the next
+     * incremental crawl parses every page again.
+     */
+    private void readOriginal(Set<Page> original, Map<Page, List<String>> links) {
+    		init();
+    		List<Page> sorted = new ArrayList<Page>(original);
+    		sorted.sort(Comparator.comparing((Page page) -> page.getURL().toString()));
+    		for (Page page : sorted) {
+    			String prev = "";
+    			for (String word : links.get(page)) {
+    				if (word.equals(ORIGINAL_BLOCK_BREAK)) {
+    					prev = "";
+    					continue;
+    				}
+    				add(word, prev, page);
+    				prev = word;
     			}
     		}
+    		modifications = 0;
+    		memoryEstimate = 0;
+    }
 
-    		return newUrls;
+    /**
+     * Returns the doc IDs of every page in this index.
+     */
+    public DocSet allDocs() {
+    		return allDocs(0, pages.size());
+    }
+
+    /**
+     * Returns the doc IDs of the pages in this index from from up to (but not including) to.
+     */
+    public DocSet allDocs(int from, int to) {
+    		DocSet all = DocSet.range(from, Math.min(to, pages.size()));
+    		return deleted.isEmpty() ? all : all.andNot(deleted);
+    }
+
+    /**
+     * Splits the doc IDs of this index into n ranges, one after another, each with about
+     * the same number of words on its pages, so a query evaluated over each range in parallel
+     * takes about as long on every one. Returns the n + 1 bounds of the ranges: range i is
+     * the doc IDs from bounds[i] up to bounds[i + 1], the first starting at 0 and the last
+     * ending at size().
+     */
+    public int[] shardBounds(int n) {
+    		if (n < 1)
+    			throw new IllegalArgumentException("There must be at least one shard!");
+    		int size = pages.size();
+    		long total = 0;
+    		for (int doc = 0; doc < size; doc++)
+    			total += lengths[doc];
+
+    		int[] bounds = new int[n + 1];
+    		bounds[n] = size;
+    		long words = 0;
+    		int doc = 0;
+    		for (int i = 1; i < n; i++) {
+    			// without any words, split the pages evenly instead
+    			if (total == 0) {
+    				bounds[i] = (int) ((long) size * i / n);
+    				continue;
+    			}
+    			long target = total * i / n;
+    			while (doc < size && words + lengths[doc] <= target)
+    				words += lengths[doc++];
+    			bounds[i] = doc;
+    		}
+    		return bounds;
+    }
+
+    /**
+     * Returns the number of doc IDs given out by this index, including
+     * the doc IDs of deleted pages.
+     */
+    public int size() {
+    		return pages.size();
+    }
+
+    /**
+     * Returns the number of pages in this index that haven't been deleted.
+     */
+    public int pageCount() {
+    		return pages.size() - deleted.cardinality();
+    }
+
+    /**
+     * Returns roughly how many bytes of memory the pages and words added to this
+     * index since it was created take up, along with what its crawl saw of them.
+     * Used to decide when a crawl should write what it has out.
+     */
+    public long memoryEstimate() {
+    		return memoryEstimate + (crawled == null ? 0 : crawled.memoryEstimate());
+    }
+
+    /**
+     * Returns the number of changes made to this index, so anything
+     * computed from it can tell when it's out of date.
+     */
+    public int modifications() {
+    		return modifications;
+    }
+
+    /**
+     * Returns the number of words on the page with the given doc ID.
+     */
+    public int length(int doc) {
+    		return lengths[doc];
+    }
+
+    /**
+     * Returns the number of words on every page that hasn't been deleted.
+     */
+    public long totalLength() {
+    		return totalLength;
+    }
+
+    /**
+     * Returns the average number of words on a page.
+     */
+    public double averageLength() {
+    		return pageCount() == 0 ? 0 : (double) totalLength / pageCount();
+    }
+
+    /**
+     * Returns the positions of a word on every page it's on, or null
+     * if it isn't in the index.
+     */
+    public PostingList postings(String word) {
+    		return wordPositions(word.toLowerCase());
+    }
+
+    /**
+     * Returns up to limit of the words in this index starting with the given prefix,
+     * in the order of their UTF-8 bytes. Words only on deleted pages may be among them.
+     */
+    public List<String> prefixTerms(String prefix, int limit) {
+    		prefix = prefix.toLowerCase();
+    		List<String> found = new ArrayList<String>();
+    		if (files == null) {
+    			TermDictionary words = dictionary();
+    			int[] range = words.prefixRange(prefix);
+    			for (int term = range[0]; term < range[1] && found.size() < limit; term++)
+    				found.add(words.term(term));
+    			return found;
+    		}
+
+    		// the first limit words of each file, which the first limit of them all are among
+    		TreeSet<byte[]> words = new TreeSet<byte[]>(Arrays::compareUnsigned);
+    		for (IndexFile file : files) {
+    			int[] range = file.prefixRange(prefix);
+    			for (int term = range[0]; term < range[1] && term - range[0] < limit; term++)
+    				words.add(file.termBytes(term));
+    		}
+    		for (byte[] word : words) {
+    			if (found.size() == limit)
+    				break;
+    			found.add(new String(word, StandardCharsets.UTF_8));
+    		}
+    		return found;
+    }
+
+    /**
+     * Returns a dictionary of the words of an index in memory, building it again
+     * if the index has changed since it was last built.
+     */
+    private synchronized TermDictionary dictionary() {
+    		if (dictionary == null || dictionaryVersion != modifications) {
+    			List<byte[]> words = new ArrayList<byte[]>();
+    			for (String word : positions.keySet())
+    				words.add(word.getBytes(StandardCharsets.UTF_8));
+    			words.sort(Arrays::compareUnsigned);
+    			TermDictionary.Builder builder = new TermDictionary.Builder();
+    			for (byte[] word : words)
+    				builder.add(word);
+    			dictionary = builder.build();
+    			dictionaryVersion = modifications;
+    		}
+    		return dictionary;
+    }
+
+    /**
+     * Returns up to k words completing the given prefix, at most Suggester.TOP_K, the
+     * words on the most pages first. Returns none if the prefix is empty or has anything
+     * but the letters and apostrophes of a word. Across the segments of an IndexDirectory
+     * the candidates are the best of each segment, and pages deleted since a segment was
+     * written still count towards its words until it's merged.
+     */
+    public List<Suggester.Completion> suggest(String prefix, int k) {
+    		prefix = prefix.toLowerCase();
+    		if (prefix.isEmpty() || prefix.startsWith("!") || prefix.contains("+") || !isWord(prefix))
+    			return new ArrayList<Suggester.Completion>();
+    		if (files == null)
+    			return suggester().suggest(prefix, k);
+    		if (files.length == 1)
+    			return files[0].suggester().suggest(prefix, k);
+
+    		// add up each segment's pages for the best words of every segment
+    		Map<String, Integer> docFreqs = new HashMap<String, Integer>();
+    		for (IndexFile file : files) {
+    			for (Suggester.Completion completion : file.suggester().suggest(prefix, k))
+    				docFreqs.put(completion.word(), 0);
+    		}
+    		for (IndexFile file : files) {
+    			for (Map.Entry<String, Integer> entry : docFreqs.entrySet()) {
+    				int term = file.findTerm(entry.getKey());
+    				if (term >= 0)
+    					entry.setValue(entry.getValue() + file.suggester().docFreq(term));
+    			}
+    		}
+    		List<Suggester.Completion> found = new ArrayList<Suggester.Completion>();
+    		for (Map.Entry<String, Integer> entry : docFreqs.entrySet())
+    			found.add(new Suggester.Completion(entry.getKey(), entry.getValue()));
+    		found.sort((a, b) -> a.docs() != b.docs() ? Integer.compare(b.docs(), a.docs())
+    				: Arrays.compareUnsigned(a.word().getBytes(StandardCharsets.UTF_8), b.word().getBytes(StandardCharsets.UTF_8)));
+    		return found.subList(0, Math.min(found.size(), Math.min(k, Suggester.TOP_K)));
+    }
+
+    /**
+     * Returns the suggester for the words of an index in memory, building it again
+     * if the index has changed since it was last built.
+     */
+    private synchronized Suggester suggester() {
+    		TermDictionary words = dictionary();
+    		if (suggester == null || suggesterVersion != modifications) {
+    			int[] docFreqs = new int[words.size()];
+    			for (int term = 0; term < docFreqs.length; term++)
+    				docFreqs[term] = docs(words.term(term)).cardinality();
+    			suggester = Suggester.build(words, docFreqs);
+    			suggesterVersion = modifications;
+    		}
+    		return suggester;
+    }
+
+    /**
+     * Returns a new Page for the given doc ID, made from its URL in the page table.
+     */
+    public Page page(int doc) {
+    		return pages.page(doc);
+    }
+
+    /**
+     * Returns the URL of the page with the given doc ID, without making a Page for it.
+     */
+    public String url(int doc) {
+    		return pages.url(doc);
+    }
+
+    /**
+     * Looks up the Page objects for a set of doc IDs.
+     */
+    public Set<Page> toPages(DocSet found) {
+    		Set<Page> pages = new HashSet<Page>(found.cardinality() * 4 / 3 + 1);
+    		found.forEach(doc -> pages.add(page(doc)));
+    		return pages;
+    }
+
+    /**
+     * Returns a read-only view of the pages for a set of doc IDs. Pages
+     * are only made as the view is iterated.
+     */
+    public Collection<Page> pageView(DocSet found) {
+    		return new PageSet(found);
+    }
+
+    /**
+     * A read-only set of this index's pages, backed by their doc IDs. Pages are only
+     * made as it's iterated, and it's checked for a page by finding its doc ID.
+     */
+    private class PageSet extends AbstractSet<Page> {
+    		final DocSet found;
+    		final int size;
+
+    		PageSet(DocSet found) {
+    			this.found = found;
+    			size = found.cardinality();
+    		}
+
+    		WebIndex index() {
+    			return WebIndex.this;
+    		}
+
+    		public boolean contains(Object o) {
+    			if (!(o instanceof Page))
+    				return false;
+    			int doc = pages.find(((Page) o).getURL(), deleted);
+    			return doc >= 0 && found.contains(doc);
+    		}
+
+    		public Iterator<Page> iterator() {
+    			PrimitiveIterator.OfInt it = found.iterator();
+    			return new Iterator<Page>() {
+    				public boolean hasNext() {
+    					return it.hasNext();
+    				}
+
+    				public Page next() {
+    					return page(it.nextInt());
+    				}
+    			};
+    		}
+
+    		public int size() {
+    			return size;
+    		}
+    }
+
+    /**
+     * Returns the doc IDs of the given pages, skipping any that aren't in this
+     * index. A set of this index's pages already has them.
+     */
+    private DocSet toDocs(Collection<Page> pages) {
+    		if (pages instanceof PageSet && ((PageSet) pages).index() == this)
+    			return ((PageSet) pages).found.andNot(deleted);
+    		DocSet found = new DocSet();
+    		for (Page page : pages) {
+    			int doc = this.pages.find(page.getURL(), deleted);
+    			if (doc >= 0)
+    				found.add(doc);
+    		}
+    		return found;
     }
     
     /**
-     * Returns the set of Urls associated with a given phrase. This method
-     * first finds all the pages with every word in them, then searches those pages linearly
-     * to discover if the word exists.
+     * Returns the set of URLS associated with a given keyword. This method
+     * takes advantage of Hashing to find the pages associated with a 
+     * single word in constant time. The set is a read-only view of their
+     * doc IDs, and can be passed back to getUrls without looking them up.
+     */
+    public Set<Page> getUrls(String keyword) {
+    		assert keyword != null : "WebIndex: getUrls can't take null input!";
+    		// a copy of the word's pages, so the set doesn't change as pages are added
+    		return new PageSet(docs(keyword).and(allDocs()));
+    }
+    
+    /**
+     * Returns the set of URLS associated with a given keyword in 
+     * the list of URLS given. 
+     */
+    public Set<Page> getUrls(String keyword, Set<Page> urls) {
+    		assert keyword != null && urls != null : "WebIndex: getUrls can't take null inputs!";
+    		return new PageSet(docs(keyword).and(toDocs(urls)));
+    }
+    
+    /**
+     * Returns the set of Urls associated with a given phrase, out of
+     * the given domain of urls.
      * @param String[] keyword		an array of the words in the phrase
      * @param urls					the domain of urls
      * @param not					whether or not the phrase is notted
      */
     public Set<Page> getUrls(String[] keyword, Collection<Page> urls, boolean not) {
-    		Set<Page> newUrls = null;
-    		
-    		// first find pages with all words in them
-    		for (String word : keyword) {
-    			// first word
-    			if (newUrls == null) {
-    				if (wordsToPage.containsKey(word)) {
-    					newUrls = new HashSet<Page>();
-    					newUrls.addAll(wordsToPage.get(word));
-    				}
-    				// phrase doesn't exists if first word doesn't exist
-    				else {
-    					if (not)
-    						return new HashSet<Page>(urls);
-    					return new HashSet<Page>();
-    				}
-    			}
-    			// any other word
-    			else if (wordsToPage.containsKey(word)) {
-                newUrls.retainAll(wordsToPage.get(word));
-            }
-    			// phrase doesn't exists if word doesn't exist
-    			else {
-    				if (not)
-    					return new HashSet<Page>(urls);
-    				return new HashSet<Page>();
+    		DocSet found = phraseDocs(keyword, 0, size());
+
+    		// if not, return all pages without
+    		if (not)
+    			found = allDocs().andNot(found);
+    		return new PageSet(found.and(toDocs(urls)));
+    }
+
+    /**
+     * Returns the doc IDs from from up to (but not including) to of the pages a
+     * phrase appears on. The pages with every word of the phrase are found by
+     * stepping through the words' posting lists together; a page has the phrase
+     * if some position p of the first word has the i'th word at p + i for every word.
+     */
+    private DocSet phraseDocs(String[] phrase, int from, int to) {
+    		DocSet found = new DocSet();
+    		PostingList.Cursor[] cursors = new PostingList.Cursor[phrase.length];
+    		for (int i = 0; i < phrase.length; i++) {
+    			PostingList list = wordPositions(phrase[i].toLowerCase());
+    			// phrase doesn't exist if any word doesn't exist
+    			if (list == null)
+    				return found;
+    			cursors[i] = list.cursor(from);
+    		}
+
+    		int doc = cursors[0].advance(from);
+    		while (doc >= 0 && doc < to) {
+    			// move every cursor up to doc, restarting at any page past it
+    			int target = doc;
+    			for (int i = 0; i < cursors.length && target == doc; i++)
+    				target = cursors[i].advance(doc);
+    			if (target < 0 || target >= to)
+    				break;
+    			if (target != doc) {
+    				doc = target;
+    				continue;
     			}
+
+    			if (containsPhrase(cursors))
+    				found.add(doc);
+    			doc = cursors[0].next();
     		}
-    		
-    		// if there are no pages, with all the words, then return prematurely
-    		if (newUrls.isEmpty()) {
-    			if (not)
-    				return new HashSet<Page>(urls);
-    			return new HashSet<Page>();
-    		// else, search linearly for the words
-    		} else {
-    			HashSet<Page> finalUrls = new HashSet<Page>();
-    			for (Page url : newUrls) {
-    				assert links.containsKey(url) : "WebIndex : Links not properly generated!";
-    				ArrayList<String> words = links.get(url);
-    				for (int i = 0; i < words.size(); i++) {
-    					int cur = 0;
-    					// increment through the words starting at i, checking for the phrase
-    					while (cur < keyword.length && words.get(i+cur).equals(keyword[cur])) {
-    						cur++;
-    					}
-    					// if we reached the end of the phrase, that means it exists
-    					if (cur == keyword.length) {
-    						finalUrls.add(url);
-    						break;
-    					}
+    		return found;
+    }
+
+    /**
+     * Returns whether the words of the given cursors, which are all on the same
+     * page, appear next to each other in order. Starting with the positions of
+     * the first word, keeps only the positions which have the i'th word i later.
+     */
+    private static boolean containsPhrase(PostingList.Cursor[] cursors) {
+    		int count = cursors[0].readPositions();
+    		int[] starts = cursors[0].positions();
+    		for (int i = 1; i < cursors.length && count > 0; i++) {
+    			int n = cursors[i].readPositions();
+    			int[] next = cursors[i].positions();
+    			int kept = 0;
+    			for (int a = 0, b = 0; a < count && b < n; ) {
+    				if (next[b] < starts[a] + i) {
+    					b++;
+    				} else {
+    					if (next[b] == starts[a] + i)
+    						starts[kept++] = starts[a];
+    					a++;
     				}
     			}
-    			// if not, return all pages without
-    			if (not) {
-    				HashSet<Page> all = new HashSet<Page>(pages);
-    				all.removeAll(finalUrls);
-    				all.retainAll(urls);
-    				return all;
-    			}
-    			finalUrls.retainAll(urls);
-    			return finalUrls;
+    			count = kept;
     		}
+    		return count > 0;
     }
     
     
@@ -263,7 +970,7 @@ public class WebIndex extends Index {
      * Returns a collection of all the pages in this index.
      */
     public Set<Page> allPages() {
-    		return new HashSet<Page>(pages);
+    		return new PageSet(allDocs());
     }
     
     /**
@@ -304,4 +1011,14 @@ public class WebIndex extends Index {
     		}
     		return true;
     }
+
+    /**
+     * Returns whether a query token is a prefix, a word followed by *, which
+     * can be negated but can't be part of a phrase.
+     */
+    public static boolean isPrefix(String token) {
+    		String word = token.startsWith("!") ? token.substring(1) : token;
+    		return word.length() > 1 && word.endsWith("*") && !word.startsWith("!") && !word.contains("+")
+    				&& isWord(word.substring(0, word.length() - 1));
+    }
 }
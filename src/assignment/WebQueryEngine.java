@@ -1,21 +1,69 @@
 package assignment;
+import java.io.Closeable;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A query engine which holds an underlying web index and can answer textual queries with a
  * collection of relevant pages.
+ *
+ * Queries are parsed by QueryParser, and answers are cached by the postfix form of the parsed
+ * query, so queries written differently but meaning the same thing, like "a & b" and "a b",
+ * share an entry. The cache is cleared whenever the index is changed.
+ *
+ * Besides words, phrases, !, & and |, a query can have prefixes like foo*, which match every
+ * word starting with foo, up to MAX_EXPANSIONS of them.
+ *
+ * An engine can split its index into shards, ranges of doc IDs, and evaluate and rank each query
+ * over them in parallel on a ForkJoinPool of its own, so one expensive query can use several
+ * cores. The answers are the same whatever the number of shards. Closing the engine stops the
+ * pool's threads.
+ *
+ * A SearchCoordinator is an engine whose index is split across SearchWorkers instead, each
+ * answering for its partition with an engine of its own.
  */
-public class WebQueryEngine {
+public class WebQueryEngine implements Closeable {
 	
+	// the default size of the result cache
+	static final long CACHE_BYTES = 64 << 20;
+	// the number of queries whose parse is remembered
+	static final int PARSED_ENTRIES = 10000;
+	/**
+	 * The most words a prefix like foo* matches, the first in the order of their bytes.
+	 */
+	public static final int MAX_EXPANSIONS = 64;
+
 	WebIndex index;
 
+	// query -> the query parsed
+	private final QueryCache<String, Query> parsed;
+	// postfix form -> the pages matching it
+	private final QueryCache<String, CachedQuery> results;
+	// the number of changes to the index when the results were last cleared
+	private volatile int indexVersion;
+
+	// the number of shards queries are evaluated over, and the threads evaluating all but one
+	private final int shardCount;
+	private final ForkJoinPool pool;
+	// the shards of the index, split again when the index changes
+	private volatile Shards shards;
+	private volatile boolean closed;
+
 	/**
 	 * Constructs a WebQueryEngine object with the given 
 	 * index.
 	 */
-	private WebQueryEngine(WebIndex index) {
+	WebQueryEngine(WebIndex index, long cacheBytes, int shards) {
 		this.index = index;
+		parsed = QueryCache.ofEntries(PARSED_ENTRIES);
+		// expect entries of around a kilobyte, which most sets of pages are
+		results = new QueryCache<String, CachedQuery>(cacheBytes,
+				(int) Math.min(cacheBytes >> 10, 1 << 20), CachedQuery::weight);
+		indexVersion = index.modifications();
+		shardCount = shards;
+		// the thread asking evaluates one shard itself
+		pool = shards > 1 ? new ForkJoinPool(shards - 1) : null;
 	}
 
     /**
@@ -25,7 +73,75 @@ public class WebQueryEngine {
      * @return A WebQueryEngine ready to be queried.
      */
     public static WebQueryEngine fromIndex(WebIndex i) {
-        return new WebQueryEngine(i);
+        return new WebQueryEngine(i, CACHE_BYTES, 1);
+    }
+
+    /**
+     * Returns a WebQueryEngine that caches up to cacheBytes of results. A size
+     * of 0 turns off the cache.
+     */
+    public static WebQueryEngine fromIndex(WebIndex i, long cacheBytes) {
+        return fromIndex(i, cacheBytes, 1);
+    }
+
+    /**
+     * Returns a WebQueryEngine that caches up to cacheBytes of results, and splits
+     * the index into the given number of shards, evaluating each query over them
+     * in parallel on that many threads.
+     */
+    public static WebQueryEngine fromIndex(WebIndex i, long cacheBytes, int shards) {
+        if (cacheBytes < 0)
+            throw new IllegalArgumentException("The cache size can't be negative!");
+        if (shards < 1)
+            throw new IllegalArgumentException("There must be at least one shard!");
+        return new WebQueryEngine(i, cacheBytes, shards);
+    }
+
+    /**
+     * Returns the number of shards queries are evaluated over.
+     */
+    public int shards() {
+        return shardCount;
+    }
+
+    /**
+     * Returns the number of queries answered from the result cache.
+     */
+    public long cacheHits() {
+        return results.hits();
+    }
+
+    /**
+     * Returns the number of queries that had to be evaluated.
+     */
+    public long cacheMisses() {
+        return results.misses();
+    }
+
+    /**
+     * Empties the result cache.
+     */
+    public void clearCache() {
+        results.clear();
+    }
+
+    /**
+     * Stops the threads evaluating shards once the queries on them finish, and empties
+     * the caches. Queries evaluated over several shards can't be answered afterwards.
+     */
+    public void close() {
+        closed = true;
+        if (pool != null)
+            pool.shutdown();
+        parsed.clear();
+        results.clear();
+    }
+
+    /**
+     * Returns whether the engine has been closed.
+     */
+    public boolean isClosed() {
+        return closed;
     }
 
     /**
@@ -37,134 +153,206 @@ public class WebQueryEngine {
      * @return A collection of web pages satisfying the query
      */
 
-	@SuppressWarnings("unchecked")
 	public Collection<Page> query(String query) {
 		if (query == null)
 			throw new NullPointerException("query cannot take null input values!");
 
-		// first convert the query to postfix to parse
-    		Queue<String> postfix = getPostFix(query);
-
-    		// parse query by adding terms to stack
-    		Stack<Object> terms = new Stack<Object>();
-    		
-    		for (String token : postfix) {
-    			if (WebIndex.isWord(token)) {
-    				terms.push(token);
-    			}
-    			else {
-    				if (token.equals("&")) {
-    					// input was invalid if postfix failed to properly generate
-    					if (terms.size() < 2)
-    						throw new IllegalArgumentException("Operators must connect two distinct terms!");
-    					
-    					// pop the first two objects off the stack and & them
-    					Object arg1 = terms.pop();
-    					Object arg2 = terms.pop();
-    					
-    					// four cases: Str-str, str-list, list-list, list-str
-    					// compute result, push back onto stack
-    					if (arg1 instanceof String && arg2 instanceof String) {
-    						Set<Page> result = new HashSet<Page>();
-    						result = index.getUrls((String) arg1);
-    						result = index.getUrls((String) arg2, result);
-    						terms.push(result);
-    					} else if (arg1 instanceof Set && arg2 instanceof String) {
-    						arg1 = index.getUrls((String) arg2, (Set<Page>) arg1);
-    						terms.push(arg1);
-    					} else if (arg1 instanceof String && arg2 instanceof Set) {
-    						arg2 = index.getUrls((String) arg1, (Set<Page>) arg2);
-    						terms.push(arg2);
-    					} else if (arg1 instanceof Set && arg2 instanceof Set) {
-    						HashSet<Page> total = new HashSet<Page>();
-    						total.addAll((Set<Page>) arg1);
-    						total.retainAll((Set<Page>) arg2);
-    						terms.push(total);
-    					} else {
-    						// error
-    						System.err.println("WebQueryIndex: Fatal error at &!");
-    						System.exit(1);
-    					}
-    					
-    				} else if (token.equals("|")) {
-    					// input was invalid if postfix failed to properly generate
-    					if (terms.size() < 2)
-    						throw new IllegalArgumentException("Operators must connect two distinct terms!");
-
-    					// pop the first two objects off the stack and & them
-    					Object arg1 = terms.pop();
-    					Object arg2 = terms.pop();
-    					
-    					// four cases: Str-str, str-list, list-list, list-str
-    					// compute result, push back onto stack
-    					if (arg1 instanceof String && arg2 instanceof String) {
-    						Set<Page> result = new HashSet<Page>();
-    						result = index.getUrls((String) arg1);
-    						result.addAll(index.getUrls((String) arg2));
-    						terms.push(result);
-    					} else if (arg1 instanceof Set && arg2 instanceof String) {
-    						Set<Page> arg2Set = index.getUrls((String) arg2);
-    						arg2Set.addAll((Set<Page>) arg1);
-    						terms.push(arg2Set);
-    					} else if (arg1 instanceof String && arg2 instanceof Set) {
-    						Set<Page> arg1Set = index.getUrls((String) arg1);
-    						arg1Set.addAll((Set<Page>) arg2);
-    						terms.push(arg1Set);
-    					} else if (arg1 instanceof Set && arg2 instanceof Set) {
-    						HashSet<Page> total = new HashSet<Page>();
-    						total.addAll((Set<Page>) arg1);
-    						total.addAll((Set<Page>) arg2);
-    						terms.push(total);
-    					} else {
-    						// error
-    						System.err.println("WebQueryIndex: Fatal error at |!");
-    						System.exit(1);
-    					}
-    				}
-    			}
+    		Query parsed = parse(query);
+    		CachedQuery cached = results.get(parsed.postfix());
+    		if (cached == null) {
+    			cached = new CachedQuery(evaluate(parsed), null);
+    			results.put(parsed.postfix(), cached);
     		}
-    		
-    		// if postfix failed to reduce to answer, input was invalid
-    		if (terms.size() != 1)
-    			throw new IllegalArgumentException("Operators must reduce terms to one term!");
+    		return index.pageView(cached.matches);
+	}
 
-    		if (terms.peek() instanceof String) {
-    			return index.getUrls((String) terms.pop());
-    		}
-    		return (Set<Page>) terms.pop();
+    /**
+     * Returns the best k pages satisfying the query expression, ranked by the
+     * BM25 score of the query's words that aren't negated. Only the top k pages
+     * are ever looked up, however many pages match. Throws an IllegalArgumentException
+     * if the query is invalid.
+     *
+     * @param query A query expression.
+     * @param k The number of pages to return.
+     */
+	public RankedResults rankedQuery(String query, int k) {
+		if (query == null)
+			throw new NullPointerException("query cannot take null input values!");
+		if (k < 1)
+			throw new IllegalArgumentException("k must be at least 1!");
+
+    		Query parsed = parse(query);
+    		CachedQuery cached = results.get(parsed.postfix());
+    		// a longer ranking answers any shorter one
+    		if (cached != null && cached.ranked != null && cached.ranked.covers(k))
+    			return cached.ranked.head(k);
+    		DocSet matches = cached != null ? cached.matches : evaluate(parsed);
+    		RankedResults ranked = Ranker.topK(index, rankedWords(parsed), matches, k, split());
+    		results.put(parsed.postfix(), new CachedQuery(matches, ranked));
+    		return ranked;
+	}
+
+    /**
+     * Returns the best k pages satisfying a parsed query, scored with the given
+     * counts, as a SearchWorker ranks its partition. Only the matching pages are
+     * cached, since the counts change along with the other partitions.
+     */
+	RankedResults rankedQuery(Query parsed, int k, Ranker.Stats stats) {
+		return Ranker.topK(index, rankedWords(parsed), matches(parsed), k, split(), stats);
+	}
+
+    /**
+     * Returns the words of a parsed query pages are scored by: every word that
+     * isn't negated, including the words of phrases and up to MAX_EXPANSIONS
+     * words for each prefix.
+     */
+	Set<String> rankedWords(Query parsed) {
+		Set<String> words = new LinkedHashSet<String>();
+		for (Query.Term term : parsed.terms()) {
+			if (term.isNegated())
+				continue;
+			if (term.isPrefix())
+				words.addAll(index.prefixTerms(term.words().get(0), MAX_EXPANSIONS));
+			else
+				words.addAll(term.words());
+		}
+		return words;
+	}
+
+    /**
+     * Returns the doc IDs of the pages satisfying a parsed query, evaluating it
+     * only if they aren't cached.
+     */
+	DocSet matches(Query parsed) {
+		refresh();
+		CachedQuery cached = results.get(parsed.postfix());
+		if (cached != null)
+			return cached.matches;
+		DocSet matches = evaluate(parsed);
+		results.put(parsed.postfix(), new CachedQuery(matches, null));
+		return matches;
+	}
+
+    /**
+     * Returns up to k words completing the given prefix, the words on the most
+     * pages first, as WebIndex.suggest does.
+     */
+	public List<Suggester.Completion> suggest(String prefix, int k) {
+		return index.suggest(prefix, k);
+	}
+
+    /**
+     * Returns a cursor over the pages satisfying the query expression, best ranked
+     * first, which ranks the first batch pages straight away and more only when
+     * they're reached. Throws an IllegalArgumentException if the query is invalid.
+     *
+     * @param query A query expression.
+     * @param batch The number of pages expected to be read.
+     */
+	public ResultCursor cursor(String query, int batch) {
+		return new ResultCursor(this, query, batch);
+	}
+
+    /**
+     * Returns the query parsed, parsing it only if it hasn't been lately. Clears
+     * the results and the shards first if the index has changed.
+     */
+	Query parse(String query) {
+		refresh();
+		Query found = parsed.get(query);
+		if (found == null) {
+			found = QueryParser.parse(query);
+			parsed.put(query, found);
+		}
+		return found;
+	}
+
+    /**
+     * Clears the results and the shards if the index has changed since they were.
+     */
+	private void refresh() {
+		int version = index.modifications();
+		if (version != indexVersion) {
+			results.clear();
+			shards = null;
+			indexVersion = version;
+		}
+	}
+
+    /**
+     * Returns the shards of the index, splitting it if it hasn't been since it changed.
+     */
+	private Shards split() {
+		Shards current = shards;
+		if (current == null)
+			shards = current = new Shards(index, shardCount, pool);
+		return current;
+	}
+
+    /**
+     * Evaluates a parsed query, returning the doc IDs of the pages that satisfy it.
+     * With several shards, each is evaluated with a plan of its own and their pages
+     * put together, if the query's phrases have enough postings to step through;
+     * words alone are combined as sets, which is quicker on one thread.
+     */
+	private DocSet evaluate(Query query) {
+    		if (shardCount == 1 || phrasePostings(query) < Shards.SPLIT_POSTINGS)
+    			return QueryPlan.compile(index, query).evaluate();
+    		Shards shards = split();
+    		DocSet found = new DocSet();
+    		for (DocSet part : shards.map(shard ->
+    				QueryPlan.compile(index, query, shards.from(shard), shards.to(shard)).evaluate()))
+    			found = found.or(part);
+    		return found;
     }
+
+    /**
+     * Returns the number of postings of the words of the query's phrases.
+     */
+	private long phrasePostings(Query query) {
+		long postings = 0;
+		for (Query.Term term : query.terms()) {
+			List<String> words = term.words();
+			if (words.size() < 2)
+				continue;
+			for (String word : words) {
+				PostingList list = index.postings(word);
+				if (list != null)
+					postings += list.docCount();
+			}
+		}
+		return postings;
+	}
+
+    /**
+     * Returns the plan the query is evaluated with, one operator per line with
+     * its operands indented below it, and how many pages each one was estimated
+     * to match and actually matched. Operands that never had to be evaluated
+     * are marked skipped. Throws an IllegalArgumentException if the query is invalid.
+     */
+	public String explain(String query) {
+		if (query == null)
+			throw new NullPointerException("query cannot take null input values!");
+		return QueryPlan.compile(index, parse(query)).explain();
+	}
     
     /**
-     * Does all formatting of Query and returns a
-     * postfix queue of String or null if the query is
-     * invalid.
+     * Parses a query and returns its postfix queue of tokens, with phrases
+     * joined by + marks. Throws a QueryParser.SyntaxException, an
+     * IllegalArgumentException, if the query is invalid.
      */
     public Queue<String> getPostFix(String query) {
-    		query = query.toLowerCase();
-    		
-    		// I use + marks to represent phrases, so some queries with + marks
-    		// might pass when they shouldn't, thus any query with a + is 
-    		// instantly failed
-    		if (query.contains("+"))
-    			throw new IllegalArgumentException("'+' character not allowed in query!");
-    		
-    		// fix spacing such that each token is 1-space separated
-    		query = fixSpacing(query);
-    		
-    		// change phrases from "hello my" to hello+my
-    		query = fixPhrases(query);
-    		
-    		// fix spacing on !, need to do after fixing phrases
-    		query = query.replaceAll("!\\s*", "!");
-
-    		// validate given query, throws appropriate exception
-    		// if not valid
-    		isValidQuery(query);
-
-    		// add explicit and, convert to postfix
-    		return convertToPostfix(addExplicitAND(query.split(" ")));
+    		Queue<String> postfix = new LinkedList<String>();
+    		QueryParser.parse(query).postfix(postfix);
+    		return postfix;
     }
 
+    /*
+     * The helpers below are the steps queries used to be parsed with, one
+     * regex or pass over the tokens at a time. QueryParser does all of them
+     * in one pass, and they're kept for the code that calls them on their own.
+     */
+
     /**
      * Adds spacing to quotes and operators such that
      * each is one-space-separated.
@@ -244,7 +432,7 @@ public class WebQueryEngine {
     		for (String token : query.split(" ")) {
     			if (!token.equals("(") && !token.equals(")")
     					&& !token.equals("&") && !token.equals("|")
-    					&& !WebIndex.isWord(token))
+    					&& !WebIndex.isWord(token) && !WebIndex.isPrefix(token))
     				throw new IllegalArgumentException("'" + token + "' token not allowed in query!");
     		}
 
@@ -296,8 +484,8 @@ public class WebQueryEngine {
     		Stack<String> operators = new Stack<String>();
 
     		for (int i = 0; i < query.length; i++) {
-    			// if word, move to output queue
-    			if (WebIndex.isWord(query[i])) {
+    			// if word or prefix, move to output queue
+    			if (WebIndex.isWord(query[i]) || WebIndex.isPrefix(query[i])) {
     				output.add(query[i]);
     			} else if (query[i].equals("(")) {
     				operators.push(query[i]);
@@ -324,4 +512,25 @@ public class WebQueryEngine {
     		}
     		return output;
     }
+
+    /**
+     * The cached answer to a query: the pages matching it, and the best ranked
+     * pages out of them if it's been asked for ranked results.
+     */
+    private static class CachedQuery {
+        final DocSet matches;
+        final RankedResults ranked;
+
+        CachedQuery(DocSet matches, RankedResults ranked) {
+            this.matches = matches;
+            this.ranked = ranked;
+        }
+
+        long weight() {
+            long weight = 64 + matches.byteSize();
+            if (ranked != null)
+                weight += 16L * ranked.pages().size();
+            return weight;
+        }
+    }
 }
@@ -1,150 +1,636 @@
 package assignment;
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.text.*;
+import java.util.zip.CRC32;
 
 /**
  * A very ugly and basic implementation of an HTTP web server which provides a search bar and
  * responds to simple search queries.
  *
+ * By default connections are handled by a fixed pool of worker threads, which all share the
+ * read-only WebQueryEngine, and HTTP/1.1 connections are kept open between requests. With a
+ * single thread the server goes back to answering one request per connection, in order.
+ *
+ * The engine can be swapped for one over a new index while the server is running, either when
+ * the watched index changes or when /admin/reload is requested from this machine. The new index
+ * is loaded on a separate thread, and each request answers with whichever engine was current
+ * when it started, so requests are never held up by a reload and never see half of one. The
+ * old engine is closed once the last request answering with it is done.
+ *
+ * Static files, like the logo, are opened once when the server starts and served from /static/
+ * straight from the file with FileChannel.transferTo, with an ETag and Cache-Control so browsers
+ * only fetch them once. The homepage never changes, so its whole response is rendered up front
+ * and each request for it is a single write.
+ *
+ * NioServer is the other way of handling connections, with a few threads each watching many
+ * connections through a Selector. It answers requests with respond, just as handleConnection does.
+ *
  * Run this file to run the actual web-server.
  */
 public class WebServer {
 
   /**
    * main method to start a server.
-   * Loads a WebIndex from the default save location.
+   * Loads a WebIndex from the default save location, and reloads it whenever it changes.
+   *
+   * Usage: WebServer [-port n] [-threads n] [-backlog n] [-loops n] [-shards n]
+   *                  [-workers host:port,...] [-timeout ms] [-hedge ms]
+   *
+   * With -loops, connections are handled by a NioServer with that many event
+   * loop threads, and -threads is the number of threads answering queries.
+   * With -shards, each query is evaluated over that many shards of the index
+   * in parallel. With -workers, queries are answered by a SearchCoordinator
+   * over the SearchWorkers given, as SearchCoordinator.fromWorkers reads them,
+   * instead of a local index, waiting -timeout ms for them and sending requests
+   * to another replica after -hedge ms.
    */
   public static void main(String[] args) throws Exception {
-    WebQueryEngine wqe = WebQueryEngine.fromIndex(
-        (WebIndex) Index.load("index.db"));
-    WebServer server = new WebServer(wqe);
+    int port = 1989;
+    int threads = Runtime.getRuntime().availableProcessors() * 2;
+    int backlog = 128;
+    int loops = 0;
+    int shards = 1;
+    String workers = null;
+    int timeout = SearchCoordinator.TIMEOUT;
+    int hedge = SearchCoordinator.HEDGE_DELAY;
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 == args.length)
+        throw new IllegalArgumentException("Missing value for " + args[i]);
+      if (args[i].equals("-workers")) {
+        workers = args[++i];
+        continue;
+      }
+      int value = Integer.parseInt(args[++i]);
+      if (value < 1)
+        throw new IllegalArgumentException(args[i - 1] + " must be at least 1");
+      switch (args[i - 1]) {
+        case "-port":
+          port = value;
+          break;
+        case "-threads":
+          threads = value;
+          break;
+        case "-backlog":
+          backlog = value;
+          break;
+        case "-loops":
+          loops = value;
+          break;
+        case "-shards":
+          shards = value;
+          break;
+        case "-timeout":
+          timeout = value;
+          break;
+        case "-hedge":
+          hedge = value;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown option " + args[i - 1]);
+      }
+    }
 
-    server.serve();
+    WebServer server;
+    if (workers != null) {
+      // the workers load their own partitions of the index
+      server = new WebServer(SearchCoordinator.fromWorkers(workers, timeout, hedge),
+          port, threads, backlog);
+    } else {
+      WebQueryEngine wqe = WebQueryEngine.fromIndex(
+          (WebIndex) Index.load("index.db"), WebQueryEngine.CACHE_BYTES, shards);
+      server = new WebServer(wqe, port, threads, backlog);
+      // pick up the index written by the next crawl without a restart
+      server.watch("index.db");
+    }
+
+    if (loops > 0)
+      new NioServer(server, port, backlog, loops, threads).serve();
+    else
+      server.serve();
   }
 
-  private WebQueryEngine engine;
+  // the number of ranked results shown on each page of a search, by default and at most
+  private static final int PAGE_SIZE = 20;
+  private static final int MAX_PAGE_SIZE = 200;
+
+  // the number of completions /suggest answers with
+  private static final int SUGGESTIONS = 10;
+
+  // how long an idle kept-alive connection holds on to a worker thread
+  private static final int KEEP_ALIVE_TIMEOUT = 5000;
+
+  // the whole response to a connection turned away because every thread is busy
+  private static final byte[] BUSY = ("HTTP/1.1 503 Service Unavailable\r\n" +
+      "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+  // the files in the working directory served from /static/, and how long browsers keep them
+  private static final String[] STATIC_FILES = {"tsoogle.png"};
+  private static final String CACHE_CONTROL = "Cache-Control: public, max-age=86400";
+
+  // how long to wait after the watched index changes before loading it, so a
+  // crawl writing several segments in a row only causes one reload
+  private static final int RELOAD_DELAY = 1000;
+
+  // the engine requests are answered with, replaced whole when the index is reloaded
+  private final AtomicReference<EngineLease> engine;
+  private final int port, threads, backlog;
+
+  // loads new indexes one at a time, away from the threads answering requests
+  private final ExecutorService reloader = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "index-reloader");
+    thread.setDaemon(true);
+    return thread;
+  });
+  // the index /admin/reload loads
+  private volatile String indexFile = "index.db";
+
+  // /static/ name -> the file, opened when the server's created
+  private final Map<String, StaticAsset> assets = new HashMap<String, StaticAsset>();
+  // the logo's HTML, and the whole homepage response by HTTP version and keep-alive
+  private final String logo;
+  private final byte[][] homepage = new byte[4][];
+  private int homepageBody;
 
   public WebServer(WebQueryEngine wqe) {
-    engine = wqe;
+    this(wqe, 1989, Runtime.getRuntime().availableProcessors() * 2, 128);
+  }
+
+  /**
+   * @param threads the number of connections handled at once
+   * @param backlog the number of connections the OS queues up while
+   *                every thread is busy
+   */
+  public WebServer(WebQueryEngine wqe, int port, int threads, int backlog) {
+    engine = new AtomicReference<EngineLease>(new EngineLease(wqe));
+    this.port = port;
+    this.threads = threads;
+    this.backlog = backlog;
+
+    for (String name : STATIC_FILES) {
+      try {
+        assets.put(name, StaticAsset.open(Paths.get(name)));
+      } catch (IOException e) {
+        // served as missing
+      }
+    }
+    logo = layoutLogo();
+    renderHomepage();
+  }
+
+  /**
+   * Returns the engine new requests are answered with. Once it's been replaced
+   * by a reload, it's closed as soon as no request is answering with it.
+   */
+  public WebQueryEngine engine() {
+    return engine.get().engine;
+  }
+
+  /**
+   * Returns the current engine, held open until the lease is released.
+   */
+  private EngineLease acquireEngine() {
+    while (true) {
+      EngineLease lease = engine.get();
+      // a lease that's already been let go of has been replaced, so try the new one
+      if (lease.acquire())
+        return lease;
+    }
+  }
+
+  /**
+   * Loads the index saved at filename on the reload thread, and answers
+   * requests with it from then on. Requests already being answered finish
+   * with the old index, which is closed once they have, and the new one is
+   * split into as many shards as the old one was. If the index can't be loaded, the future fails and the old
+   * index is kept. A SearchCoordinator has no index of its own to reload, so
+   * the future fails straight away.
+   */
+  public Future<WebQueryEngine> reload(String filename) {
+    return reloader.submit(() -> {
+      if (engine() instanceof SearchCoordinator)
+        throw new IllegalStateException("The workers load their own indexes");
+      WebIndex index = (WebIndex) Index.load(filename);
+      WebQueryEngine next = WebQueryEngine.fromIndex(index, WebQueryEngine.CACHE_BYTES,
+          engine().shards());
+      engine.getAndSet(new EngineLease(next)).release();
+      System.err.println("Reloaded " + filename + " with " + index.pageCount() + " pages");
+      return next;
+    });
+  }
+
+  /**
+   * Reloads the index saved at filename whenever it changes, from a thread of
+   * its own. Both an IndexFile and the segments file of an IndexDirectory are
+   * replaced by moving a finished file over them, so the watcher never sees one
+   * half written.
+   */
+  public void watch(String filename) throws IOException {
+    indexFile = filename;
+    Path path = Paths.get(filename).toAbsolutePath();
+    WatchService watcher = path.getFileSystem().newWatchService();
+    // the parent sees the index replaced, or turned from a file into a directory
+    path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    if (Files.isDirectory(path))
+      path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+          StandardWatchEventKinds.ENTRY_MODIFY);
+
+    Thread thread = new Thread(() -> watchIndex(watcher, path), "index-watcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * The loop run by the watch thread, which waits for the index to change and
+   * then reloads it.
+   */
+  private void watchIndex(WatchService watcher, Path path) {
+    try {
+      while (true) {
+        if (!changed(watcher.take(), path))
+          continue;
+        // let the rest of the change land, and drop the events it causes
+        Thread.sleep(RELOAD_DELAY);
+        for (WatchKey key = watcher.poll(); key != null; key = watcher.poll())
+          changed(key, path);
+        if (Files.isDirectory(path))
+          path.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+              StandardWatchEventKinds.ENTRY_MODIFY);
+        try {
+          reload(path.toString()).get();
+        } catch (ExecutionException e) {
+          System.err.println("Couldn't reload " + path + ": " + e.getCause());
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // the server is shutting down
+    } catch (IOException e) {
+      System.err.println("Stopped watching " + path + ": " + e);
+    }
+  }
+
+  /**
+   * Returns whether any of a key's events are the index at path, or the
+   * segments file inside it, being replaced.
+   */
+  private static boolean changed(WatchKey key, Path path) {
+    boolean changed = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        changed = true;
+        continue;
+      }
+      Path name = (Path) event.context();
+      if (key.watchable().equals(path))
+        changed |= name.toString().equals(IndexDirectory.SEGMENTS);
+      else
+        changed |= name.equals(path.getFileName());
+    }
+    key.reset();
+    return changed;
   }
 
   /**
    * Open the server to incoming connections, loop and respond.
    */
   public void serve() throws IOException {
-    int port = 1989;
-    ServerSocket serverSocket = new ServerSocket(port);
-    System.err.println("Running server on port: " + port);
+    // opened as a channel, so each connection has a SocketChannel files can be transferred to
+    ServerSocket serverSocket = ServerSocketChannel.open().socket();
+    serverSocket.bind(new InetSocketAddress(port), backlog);
+    System.err.println("Running server on port: " + port + " with " +
+        threads + " thread(s)");
+
+    if (threads == 1) {
+      // repeatedly wait for connections, and process
+      while (true) {
+        handleConnection(serverSocket.accept(), false);
+      }
+    }
 
-    // repeatedly wait for connections, and process
+    /* Only a few connections wait in the pool's queue. Once it's full the
+     * rest are turned away with a 503, like NioServer turns away queries,
+     * without the accepting thread ever waiting on the client.
+     */
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+        0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads));
     while (true) {
       Socket clientSocket = serverSocket.accept();
+      try {
+        pool.execute(() -> handleConnection(clientSocket, true));
+      } catch (RejectedExecutionException e) {
+        turnAway(clientSocket);
+      }
+    }
+  }
 
-      BufferedReader in = new BufferedReader(
-          new InputStreamReader(clientSocket.getInputStream()));
-      BufferedWriter out = new BufferedWriter(
-          new OutputStreamWriter(clientSocket.getOutputStream()));
+  /**
+   * Answers a connection there's no thread for with a 503 and closes it. The
+   * socket is made non-blocking first, so a client that doesn't read or write
+   * can't hold up the accepting thread; the response fits in the send buffer
+   * of any new connection.
+   */
+  private static void turnAway(Socket clientSocket) {
+    try (SocketChannel channel = clientSocket.getChannel()) {
+      channel.configureBlocking(false);
+      // read what's arrived of the request, or closing could reset the connection
+      ByteBuffer ignored = ByteBuffer.allocate(4096);
+      while (channel.read(ignored) > 0)
+        ignored.clear();
+      channel.write(ByteBuffer.wrap(BUSY));
+    } catch (IOException e) {
+      // the client just sees the connection closed
+    }
+  }
 
-      String s;
-      HttpRequest request = parseRequest(in);
+  /**
+   * Answers requests on a connection until the client closes it, asks
+   * for it to be closed, or leaves it idle for too long.
+   */
+  private void handleConnection(Socket clientSocket, boolean keepAlive) {
+    try (Socket socket = clientSocket) {
+      socket.setSoTimeout(KEEP_ALIVE_TIMEOUT);
+      socket.setTcpNoDelay(true);
+      BufferedReader in = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+      SocketResponse out = new SocketResponse(socket);
 
-      // The most basic of routing tables
-      switch (request.url) {
-        case "/search":
-          renderSearchResults(out, request.params);
+      boolean open = true;
+      while (open) {
+        HttpRequest request = parseRequest(in);
+        if (request == null)
           break;
-        case "/":
-        default:
-          renderHomepage(out);
+        open = respond(out, request, socket.getInetAddress(), keepAlive && request.keepAlive());
+        out.flush();
       }
-      out.close();
-      in.close();
-      clientSocket.close();
+    } catch (SocketTimeoutException e) {
+      // idle connection, just close it
+    } catch (IOException e) {
+      // An error with this connection might not need to bring down the server
+      e.printStackTrace(System.err);
     }
   }
 
   /**
-   * This is going to serve the page that shows results of querying the WebIndex.
+   * Answers one request, for handleConnection or NioServer. Returns whether the connection
+   * can be kept open afterwards, which it can't be after a response whose
+   * end is only marked by closing it.
+   */
+  boolean respond(ResponseStream out, HttpRequest request, InetAddress client,
+      boolean keepAlive) throws IOException {
+    // The most basic of routing tables
+    switch (request.url) {
+      case "/search":
+        // streamed, since its length isn't known up front
+        if (!request.version.equals("HTTP/1.1"))
+          keepAlive = false;
+        renderStreamed(out, request, keepAlive);
+        break;
+      case "/suggest":
+        renderSuggestions(out, request, keepAlive);
+        break;
+      case "/admin/reload":
+        renderReload(out, request, client, keepAlive);
+        break;
+      case "/":
+      default:
+        if (request.url.startsWith("/static/"))
+          renderStatic(out, request, keepAlive);
+        else
+          writeHomepage(out, request, keepAlive);
+    }
+    return keepAlive;
+  }
+
+  /**
+   * Returns whether answering a request for url asks the engine or the disk,
+   * rather than just writing out what the server already has.
+   */
+  static boolean isQuery(String url) {
+    return url.equals("/search") || url.equals("/suggest") || url.equals("/admin/reload");
+  }
+
+  /**
+   * This is going to serve the page that shows results of querying the WebIndex,
+   * writing each result out as it's read from the engine's cursor. Only the
+   * results up to the end of the requested page are ever ranked.
    */
-  private void renderSearchResults(BufferedWriter out,
-      HashMap<String, String> params) {
-    String content = "<TITLE>Results</TITLE>" +
+  private void renderSearchResults(Writer out, HashMap<String, String> params,
+      WebQueryEngine engine) throws IOException {
+    out.write("<TITLE>Results</TITLE>" +
       "<body> <div style='width:800px; margin:0 auto;'>" +
-      "<a href='/'>" + layoutLogo() + "</a>";
+      "<a href='/'>" + logo + "</a>");
 
     // Probably add a disclaimer about file links
-    Collection<Page> results = null;
+    String query = params.getOrDefault("query", "");
+    int page, size;
+    ResultCursor results;
     try {
-    		results = engine.query(params.get("query"));
+      page = intParam(params, "page", 1);
+      size = Math.min(intParam(params, "size", PAGE_SIZE), MAX_PAGE_SIZE);
+      // don't rank past the last result, however far in the page is
+      results = engine.cursor(query, (int) Math.min((long) page * size, Integer.MAX_VALUE));
+      results.skip((int) Math.min((long) (page - 1) * size, Integer.MAX_VALUE));
+      // add explain=1 to a search to see how it was evaluated
+      if (params.containsKey("explain"))
+        out.write("<pre>" + engine.explain(query) + "</pre>");
     } catch (IllegalArgumentException e) {
-    		content += "<p>Invalid query!<br>" + e.getMessage() + "</p>";
+      out.write("<p>Invalid query!<br>" + e.getMessage() + "</p>");
+      return;
+    }
+
+    if (results.totalHits() == 0) {
+      out.write("<p>Your query returned no results.</p>");
+    } else if (!results.hasNext()) {
+      out.write("<p>There are only " + results.totalHits() + " results of your query.</p>");
+    } else {
+      int first = results.position() + 1;
+      int last = (int) Math.min((long) results.position() + size, results.totalHits());
+      out.write("<p>Here are results " + first + " to " + last + " of the " +
+        results.totalHits() + " results of your query.<br> " +
+        "Some browsers don't follow file:// links " +
+        "for security reasons so you'll have to paste the link " +
+        "into the URL bar instead of clicking it.</p>");
+    }
+    if (results.isPartial())
+      out.write("<p>Some of the index didn't answer in time, so some results may be missing.</p>");
+
+    out.write("<ul>\n");
+    for (int i = 0; i < size && results.hasNext(); i++) {
+      out.write("<li>" + layoutPageContent(results.next()) + "</li>\n");
+    }
+    out.write("</ul>\n");
+
+    String link = "<a href='/search?query=" + URLEncoder.encode(query, "UTF-8") +
+      "&size=" + size + "&page=";
+    if (page > 1)
+      out.write(link + (page - 1) + "'>Previous</a> ");
+    if (results.hasNext())
+      out.write(link + (page + 1) + "'>Next</a>");
+    out.write("</div> </body>");
+  }
+
+  /**
+   * Answers /suggest?prefix= with the words completing the prefix, the
+   * words on the most pages first, as JSON:
+   *   {"prefix": "sh", "suggestions": [{"word": "she", "docs": 120}, ...]}
+   */
+  private void renderSuggestions(OutputStream out, HttpRequest request,
+      boolean keepAlive) throws IOException {
+    String prefix = request.params.getOrDefault("prefix", "");
+    StringBuilder json = new StringBuilder("{\"prefix\": ");
+    appendJsonString(json, prefix);
+    json.append(", \"suggestions\": [");
+    List<Suggester.Completion> completions;
+    EngineLease lease = acquireEngine();
+    try {
+      completions = lease.engine.suggest(prefix, SUGGESTIONS);
+    } finally {
+      lease.release();
     }
-   
-    if (results != null) {
-    		if (results.size() > 0) {
-    		  content += "<p>Here are the results of your query.<br> " +
-    		    "Some browsers don't follow file:// links " +
-    		    "for security reasons so you'll have to paste the link " +
-    		    "into the URL bar instead of clicking it.</p>";
-    		} else {
-    		  content += "<p>Your query returned no results.</p>";
-    		}
+    for (int i = 0; i < completions.size(); i++) {
+      json.append(i == 0 ? "{\"word\": " : ", {\"word\": ");
+      appendJsonString(json, completions.get(i).word());
+      json.append(", \"docs\": ").append(completions.get(i).docs()).append('}');
+    }
+    json.append("]}");
+    renderResponse(out, request, "200 OK", "application/json", json.toString(), keepAlive);
+  }
 
-    		content += "<ul>\n";
-    		for (Page p : results) {
-    		  content += "<li>" + layoutPageContent(p) + "</li>\n";
-    		}
-    		content += "</ul>\n" + "</div> </body>";
+  private static void appendJsonString(StringBuilder json, String value) {
+    json.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\')
+        json.append('\\').append(c);
+      else if (c < 0x20)
+        json.append(String.format("\\u%04x", (int) c));
+      else
+        json.append(c);
     }
+    json.append('"');
+  }
 
-    renderResponse(out, content);
+  /**
+   * Reloads the index and says how it went, once it's loaded. Only clients
+   * on this machine are allowed to ask.
+   */
+  private void renderReload(OutputStream out, HttpRequest request,
+      InetAddress client, boolean keepAlive) throws IOException {
+    if (!client.isLoopbackAddress()) {
+      renderResponse(out, request, "403 Forbidden",
+          "<p>Reloads can only be requested from the server itself.</p>", keepAlive);
+      return;
+    }
+    String message;
+    try {
+      reload(indexFile).get();
+      message = "Reloaded " + indexFile + ".";
+    } catch (ExecutionException e) {
+      message = "Couldn't reload " + indexFile + ": " + e.getCause();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      message = "Interrupted while reloading " + indexFile + ".";
+    }
+    renderResponse(out, request, "<p>" + message + "</p>", keepAlive);
+  }
+
+  /**
+   * Returns the value of a positive integer parameter, or the default if
+   * it's missing.
+   */
+  private static int intParam(HashMap<String, String> params, String name, int fallback) {
+    String value = params.get(name);
+    if (value == null || value.isEmpty())
+      return fallback;
+    try {
+      int n = Integer.parseInt(value);
+      if (n >= 1)
+        return n;
+    } catch (NumberFormatException e) {
+      // reported below
+    }
+    throw new IllegalArgumentException(name + " must be a positive number!");
   }
 
   /**
-   * This will render our snazzy homepage.
+   * This will render our snazzy homepage, with its headers, for every HTTP
+   * version and for connections that are and aren't kept alive.
    */
-  private void renderHomepage(BufferedWriter out) {
+  private void renderHomepage() {
     String content = "<TITLE>Home</TITLE>" +
-      "<body> <div style='width:800px; margin:0 auto;'>" + layoutLogo() +
+      "<body> <div style='width:800px; margin:0 auto;'>" + logo +
       "<form id='form' method='get' action='search' style='width: 50%; margin:0 auto;'>" +
       "<input name='query' class='element text medium' style='width: 100%;' type='text' maxlength='255' value=''/>" +
       "</form> <br>" +
       "<button type='submit' form='form' value='Submit' style='display: block; margin:0 auto;'>Search</button>" +
       "</div> </body>";
 
-    renderResponse(out, content);
+    homepageBody = content.getBytes(StandardCharsets.UTF_8).length;
+    for (int i = 0; i < homepage.length; i++) {
+      HttpRequest request = new HttpRequest("/", "GET", i < 2 ? "HTTP/1.0" : "HTTP/1.1",
+          new HashMap<String, String>(), new HashMap<String, String>());
+      ByteArrayOutputStream response = new ByteArrayOutputStream();
+      try {
+        renderResponse(response, request, content, i % 2 == 1);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      homepage[i] = response.toByteArray();
+    }
   }
 
   /**
-   * This method is going to try and create the logo on the page by loading
-   * an image file. It tries to open the image on each request instead of
-   * holding onto it, which isn't ideal.
+   * Sends the homepage rendered by renderHomepage, without its body for a HEAD.
    */
-  private String layoutLogo() {
-    try {
-      byte[] byteArray = new byte[5000];
-      FileInputStream fis = new FileInputStream(new File("tsoogle.png"));
-      Base64.Encoder enc = Base64.getEncoder();
-
-      // We're assuming that it manages to read all at once
-      int actual_length = fis.read(byteArray);
-
-      byte[] exactByteArray = new byte[actual_length];
-      for (int i = 0; i < actual_length; i++) {
-        exactByteArray[i] = byteArray[i];
-      }
-
-      String base64String = enc.encodeToString(exactByteArray);
+  private void writeHomepage(OutputStream out, HttpRequest request,
+      boolean keepAlive) throws IOException {
+    byte[] response = homepage[(request.version.equals("HTTP/1.1") ? 2 : 0) + (keepAlive ? 1 : 0)];
+    out.write(response, 0, response.length - (request.method.equals("HEAD") ? homepageBody : 0));
+  }
 
-      return "<img src='data:image/png;base64," + base64String +
-        "' style='display: block; margin:0 auto;'>";
-    } catch (IOException e) {
+  /**
+   * Returns the HTML showing the logo, from /static/ if its file could be
+   * opened, or just its name if it couldn't.
+   */
+  private String layoutLogo() {
+    if (!assets.containsKey("tsoogle.png")) {
       // Guess we can't show the image
       return "<h1>TSoogle</h1>";
     }
+    return "<img src='/static/tsoogle.png' style='display: block; margin:0 auto;'>";
+  }
+
+  /**
+   * Sends a file from /static/, transferring it from the file straight to the
+   * connection's channel. A client that already has the file, going by its
+   * ETag, just gets told it hasn't changed.
+   */
+  private void renderStatic(ResponseStream out, HttpRequest request,
+      boolean keepAlive) throws IOException {
+    StaticAsset asset = assets.get(request.url.substring("/static/".length()));
+    if (asset == null) {
+      renderResponse(out, request, "404 Not Found", "<p>Not found.</p>", keepAlive);
+      return;
+    }
+    String caching = "ETag: " + asset.etag + "\r\n" + CACHE_CONTROL;
+    if (asset.etag.equals(request.headers.get("if-none-match"))) {
+      renderHeaders(out, request, "304 Not Modified", asset.contentType, caching, keepAlive);
+      return;
+    }
+    renderHeaders(out, request, "200 OK", asset.contentType,
+        "Content-Length: " + asset.size + "\r\n" + caching, keepAlive);
+    if (!request.method.equals("HEAD"))
+      out.sendFile(asset.file, asset.size);
   }
 
   /**
@@ -157,48 +643,271 @@ public class WebServer {
 
   /**
    * This method pretends to be a real webserver by sending valid HTTP headers
-   * in front of the content that we're responding with.
+   * in front of the content that we're responding with. The Content-Length
+   * has to count bytes exactly, since a kept-alive client relies on it to
+   * find the end of the response.
    */
-  private void renderResponse(BufferedWriter out, String content) {
-    try {
-      out.write("HTTP/1.0 200 OK\r\n" +
-          "Date: Fri, 31 Dec 1999 23:59:59 GMT\r\n" +
-          "Server: 314H/0.1\r\n" +
-          "Content-Type: text/html\r\n" +
-          "Content-Length: " + content.length() + "\r\n" +
-          "Expires: Sat, 01 Jan 2000 00:59:59 GMT\r\n" +
-          "Last-modified: Fri, 09 Aug 1996 14:21:40 GMT\r\n" +
-          "\r\n" +
-          content);
-    } catch (IOException e) {
-      // An error with this request might not need to bring down the server
-      e.printStackTrace(System.err);
+  private void renderResponse(OutputStream out, HttpRequest request,
+      String content, boolean keepAlive) throws IOException {
+    renderResponse(out, request, "200 OK", content, keepAlive);
+  }
+
+  private void renderResponse(OutputStream out, HttpRequest request, String status,
+      String content, boolean keepAlive) throws IOException {
+    renderResponse(out, request, status, "text/html", content, keepAlive);
+  }
+
+  private void renderResponse(OutputStream out, HttpRequest request, String status,
+      String contentType, String content, boolean keepAlive) throws IOException {
+    byte[] body = content.getBytes(StandardCharsets.UTF_8);
+    renderHeaders(out, request, status, contentType + "; charset=utf-8",
+        "Content-Length: " + body.length, keepAlive);
+    if (!request.method.equals("HEAD"))
+      out.write(body);
+  }
+
+  /**
+   * Sends the search results page as it's rendered. HTTP/1.1 clients get it
+   * in chunks, so the connection can be kept open; HTTP/1.0 clients can only
+   * find the end of it when the connection closes.
+   */
+  private void renderStreamed(OutputStream out, HttpRequest request,
+      boolean keepAlive) throws IOException {
+    boolean chunked = request.version.equals("HTTP/1.1");
+    renderHeaders(out, request, "200 OK", "text/html; charset=utf-8",
+        chunked ? "Transfer-Encoding: chunked" : null, keepAlive);
+    if (request.method.equals("HEAD"))
+      return;
+
+    OutputStream body = chunked ? new ChunkedOutputStream(out) : new FilterOutputStream(out) {
+      // leave the connection for handleConnection to close
+      public void close() throws IOException {
+        flush();
+      }
+    };
+    // the whole page is answered from this engine, even if it's swapped midway
+    EngineLease lease = acquireEngine();
+    try (Writer writer = new OutputStreamWriter(body, StandardCharsets.UTF_8)) {
+      renderSearchResults(writer, request.params, lease.engine);
+    } finally {
+      lease.release();
+    }
+  }
+
+  private void renderHeaders(OutputStream out, HttpRequest request, String status,
+      String contentType, String framing, boolean keepAlive) throws IOException {
+    String headers = request.version + " " + status + "\r\n" +
+        "Date: Fri, 31 Dec 1999 23:59:59 GMT\r\n" +
+        "Server: 314H/0.1\r\n" +
+        "Content-Type: " + contentType + "\r\n" +
+        (framing == null ? "" : framing + "\r\n") +
+        "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
+        "Expires: Sat, 01 Jan 2000 00:59:59 GMT\r\n" +
+        "Last-modified: Fri, 09 Aug 1996 14:21:40 GMT\r\n" +
+        "\r\n";
+    out.write(headers.getBytes(StandardCharsets.ISO_8859_1));
+  }
+
+  /**
+   * An engine and the number of requests answering with it, plus one while
+   * it's the server's current engine. Whoever lets go of it last closes it.
+   */
+  private static class EngineLease {
+    final WebQueryEngine engine;
+    private final AtomicInteger holders = new AtomicInteger(1);
+
+    EngineLease(WebQueryEngine engine) {
+      this.engine = engine;
+    }
+
+    /**
+     * Takes hold of the engine, unless it's been let go of for good.
+     */
+    boolean acquire() {
+      while (true) {
+        int n = holders.get();
+        if (n == 0)
+          return false;
+        if (holders.compareAndSet(n, n + 1))
+          return true;
+      }
+    }
+
+    void release() {
+      if (holders.decrementAndGet() == 0)
+        engine.close();
+    }
+  }
+
+  /**
+   * Writes what's written to it as HTTP/1.1 chunks, one per buffer full
+   * or flush, and ends the body when it's closed without closing the
+   * stream underneath.
+   */
+  private static class ChunkedOutputStream extends OutputStream {
+    private final OutputStream out;
+    private final byte[] buffer = new byte[8192];
+    private int count;
+
+    ChunkedOutputStream(OutputStream out) {
+      this.out = out;
+    }
+
+    public void write(int b) throws IOException {
+      if (count == buffer.length)
+        writeChunk();
+      buffer[count++] = (byte) b;
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        if (count == buffer.length)
+          writeChunk();
+        int n = Math.min(len, buffer.length - count);
+        System.arraycopy(b, off, buffer, count, n);
+        count += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    public void flush() throws IOException {
+      writeChunk();
+      out.flush();
+    }
+
+    public void close() throws IOException {
+      writeChunk();
+      out.write("0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+      out.flush();
+    }
+
+    private void writeChunk() throws IOException {
+      // an empty chunk would end the body
+      if (count == 0)
+        return;
+      out.write((Integer.toHexString(count) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      out.write(buffer, 0, count);
+      out.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+      count = 0;
+    }
+  }
+
+  /**
+   * Where a response is written. Besides taking bytes, it can send a file
+   * after them without copying the file through the stream.
+   */
+  abstract static class ResponseStream extends OutputStream {
+    /**
+     * Sends the first size bytes of file, after everything written so far.
+     */
+    abstract void sendFile(FileChannel file, long size) throws IOException;
+  }
+
+  /**
+   * The blocking connections' responses, buffered and written to the socket,
+   * which files are transferred to straight from the disk.
+   */
+  private static class SocketResponse extends ResponseStream {
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+
+    SocketResponse(Socket socket) throws IOException {
+      out = new BufferedOutputStream(socket.getOutputStream());
+      channel = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(out);
+    }
+
+    public void write(int b) throws IOException {
+      out.write(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    void sendFile(FileChannel file, long size) throws IOException {
+      // what's buffered has to go out first, since the file skips the buffer
+      out.flush();
+      for (long sent = 0; sent < size; )
+        sent += file.transferTo(sent, size - sent, channel);
+    }
+  }
+
+  /**
+   * A file served from /static/. It's read once when it's opened, to tag it
+   * with its checksum, and then sent from the open channel on every request.
+   */
+  private static class StaticAsset {
+    final FileChannel file;
+    final long size;
+    final String contentType, etag;
+
+    private StaticAsset(FileChannel file, long size, String contentType, String etag) {
+      this.file = file;
+      this.size = size;
+      this.contentType = contentType;
+      this.etag = etag;
+    }
+
+    static StaticAsset open(Path path) throws IOException {
+      CRC32 crc = new CRC32();
+      crc.update(Files.readAllBytes(path));
+      FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+      return new StaticAsset(file, file.size(), contentType(path.toString()),
+          "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(file.size()) + "\"");
+    }
+
+    private static String contentType(String name) {
+      if (name.endsWith(".png"))
+        return "image/png";
+      if (name.endsWith(".css"))
+        return "text/css; charset=utf-8";
+      if (name.endsWith(".js"))
+        return "application/javascript; charset=utf-8";
+      return "application/octet-stream";
     }
   }
 
   /**
    * This holds the parts of a request we might care about.
    */
-  private class HttpRequest {
-    public final String method, url;
+  static class HttpRequest {
+    public final String method, url, version;
     public final HashMap<String, String> headers, params;
 
-    HttpRequest(String u, String m,
+    HttpRequest(String u, String m, String v,
         HashMap<String, String> h,
         HashMap<String, String> p) {
       url = u;
       method = m;
+      version = v;
       headers = h;
       params = p;
     }
+
+    /**
+     * HTTP/1.1 connections stay open unless the client says otherwise,
+     * while HTTP/1.0 clients have to ask for it.
+     */
+    boolean keepAlive() {
+      String connection = headers.getOrDefault("connection", "").toLowerCase();
+      if (version.equals("HTTP/1.1"))
+        return !connection.equals("close");
+      return connection.equals("keep-alive");
+    }
   }
 
   /**
    * Returns a HttpRequest object containing the information from the next
    * section of the input stream, or null if we can't understand it.
+   * NioServer.parse reads requests the same way, straight from its buffers.
    */
   private HttpRequest parseRequest(BufferedReader reader) throws IOException {
-    String method = "", url = "";
+    String method = "", url = "", version = "";
     HashMap<String, String> headers = new HashMap<>(), params = new HashMap<>();
 
     String initial = reader.readLine();
@@ -213,6 +922,7 @@ public class WebServer {
         return null;
       } else {
         method = cmd[0];
+        version = cmd[2].equals("HTTP/1.1") ? "HTTP/1.1" : "HTTP/1.0";
 
         // If we have a page request
         if (cmd[0].equals("GET") || cmd[0].equals("HEAD")) {
@@ -222,24 +932,25 @@ public class WebServer {
             url = URLDecoder.decode(cmd[1], "ISO-8859-1");
           } else {
             url = URLDecoder.decode(cmd[1].substring(0, idx), "ISO-8859-1");
+            // parameters are percent encoded UTF-8, as browsers send them from our UTF-8 pages
             String[] prms = cmd[1].substring(idx+1).split("&");
 
             // Store the params in the map
             for (String param: prms) {
               String[] temp = param.split("=");
               if (temp.length == 2) {
-                params.put(URLDecoder.decode(temp[0], "ISO-8859-1"),
-                    URLDecoder.decode(temp[1], "ISO-8859-1"));
+                params.put(URLDecoder.decode(temp[0], "UTF-8"),
+                    URLDecoder.decode(temp[1], "UTF-8"));
               } else if (temp.length == 1 && param.indexOf('=') == param.length()-1) {
                 // Empty string is handled separatedly
-                params.put(URLDecoder.decode(temp[0], "ISO-8859-1"), "");
+                params.put(URLDecoder.decode(temp[0], "UTF-8"), "");
               }
             }
           }
 
           // Read the headers into the map
           String line = reader.readLine();
-          while (!line.equals("")) {
+          while (line != null && !line.equals("")) {
             idx = line.indexOf(':');
             if (idx >= 0) {
               headers.put(line.substring(0, idx).toLowerCase(),
@@ -256,6 +967,6 @@ public class WebServer {
       }
     }
 
-    return new HttpRequest(url, method, headers, params);
+    return new HttpRequest(url, method, version, headers, params);
   }
 }
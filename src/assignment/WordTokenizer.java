@@ -0,0 +1,143 @@
+package assignment;
+
+import java.util.Arrays;
+
+/**
+ * Splits the text handed to a markup handler into lowercase words. Words are runs of letters
+ * and apostrophes; everything else separates them. The tokenizer scans the parser's buffer in
+ * place, so the only String created per word is the word itself.
+ *
+ * Text can be given in several chunks, and a word split across two chunks is put back together.
+ * A block of text only ends when endText is called, which also resets the previous word.
+ */
+public class WordTokenizer {
+
+    /**
+     * Receives every word found by a WordTokenizer.
+     */
+    public interface WordHandler {
+        /**
+         * @param word  the lowercase word
+         * @param prev  the word before it in the same block, or "" if it starts the block
+         */
+        void handleWord(String word, String prev);
+    }
+
+    private final WordHandler handler;
+
+    // the start of a word which ran up to the end of the last chunk
+    private char[] partial = new char[64];
+    private int partialLength;
+
+    // reused to build the lowercase form of each word
+    private char[] scratch = new char[64];
+
+    private String prev = "";
+
+    public WordTokenizer(WordHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Tokenizes the next chunk of text in the current block.
+     * @param ch      buffer containing characters; it isn't modified
+     * @param start   location of 1st character in ch
+     * @param length  number of characters in ch
+     */
+    public void text(char[] ch, int start, int length) {
+        int end = start + length;
+        int i = start;
+
+        // finish off a word carried over from the last chunk
+        if (partialLength > 0) {
+            while (i < end && isWordChar(ch[i]))
+                i++;
+            partial = append(partial, partialLength, ch, start, i);
+            partialLength += i - start;
+            if (i == end)
+                return;
+            emit(partial, 0, partialLength);
+            partialLength = 0;
+        }
+
+        while (i < end) {
+            while (i < end && !isWordChar(ch[i]))
+                i++;
+            int wordStart = i;
+            while (i < end && isWordChar(ch[i]))
+                i++;
+            if (wordStart == i)
+                break;
+
+            // a word touching the end of the chunk may continue in the next one
+            if (i == end) {
+                partial = append(partial, 0, ch, wordStart, i);
+                partialLength = i - wordStart;
+            } else {
+                emit(ch, wordStart, i);
+            }
+        }
+    }
+
+    /**
+     * Ends the current block of text, emitting any unfinished word. The next word found
+     * will start a new block.
+     */
+    public void endText() {
+        if (partialLength > 0) {
+            emit(partial, 0, partialLength);
+            partialLength = 0;
+        }
+        prev = "";
+    }
+
+    /**
+     * Only letters of any language and apostrophes make up words.
+     */
+    public static boolean isWordChar(char c) {
+        return Character.isLetter(c) || c == '\'';
+    }
+
+    /**
+     * Lowercases the word in src[from, to), drops any "nbsp" left over from html
+     * entities, and hands it to the handler if anything is left.
+     */
+    private void emit(char[] src, int from, int to) {
+        if (scratch.length < to - from)
+            scratch = new char[Math.max(to - from, scratch.length * 2)];
+
+        int n = 0;
+        boolean ascii = true;
+        for (int i = from; i < to; i++) {
+            char c = src[i];
+            if (c == 'n' && i + 3 < to && src[i+1] == 'b' && src[i+2] == 's' && src[i+3] == 'p') {
+                i += 3;
+                continue;
+            }
+            if (c >= 'A' && c <= 'Z')
+                c += 'a' - 'A';
+            else if (c >= 128)
+                ascii = false;
+            scratch[n++] = c;
+        }
+        if (n == 0)
+            return;
+
+        // only non-ascii words need the full (context sensitive) lowercasing rules
+        String word = new String(scratch, 0, n);
+        if (!ascii)
+            word = word.toLowerCase();
+        handler.handleWord(word, prev);
+        prev = word;
+    }
+
+    /**
+     * Copies src[from, to) to the end of the first length chars of dest, growing it if needed.
+     */
+    private static char[] append(char[] dest, int length, char[] src, int from, int to) {
+        if (dest.length < length + to - from)
+            dest = Arrays.copyOf(dest, Math.max(length + to - from, dest.length * 2));
+        System.arraycopy(src, from, dest, length, to - from);
+        return dest;
+    }
+}
@@ -0,0 +1,112 @@
+package bench;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.attoparser.simple.AbstractSimpleMarkupHandler;
+import org.attoparser.simple.SimpleMarkupParser;
+import org.attoparser.config.ParseConfiguration;
+
+import assignment.Page;
+import assignment.WebCrawler;
+import assignment.WebIndex;
+import assignment.WordTokenizer;
+
+/**
+ * Loads sample input for the benchmarks from the mirrors bundled with the project, and builds
+ * indexes from them. The benchmarks should be run from the project root so 'rhf' and
+ * 'superspoof' are in the path.
+ */
+public class Corpus {
+
+    /**
+     * Returns up to limit html files under the given mirror, in a stable order.
+     */
+    public static List<Path> htmlFiles(String mirror, int limit) throws IOException {
+        try (Stream<Path> walk = Files.walk(Paths.get(mirror))) {
+            return walk.filter(p -> p.toString().endsWith(".html")).sorted()
+                    .limit(limit).collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Parses the given files and returns a copy of every chunk of text the parser
+     * hands to its handler.
+     */
+    public static List<char[]> textChunks(List<Path> files) throws IOException {
+        List<char[]> chunks = new ArrayList<char[]>();
+        SimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
+        for (Path file : files) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+                parser.parse(reader, new AbstractSimpleMarkupHandler() {
+                    @Override
+                    public void handleText(char[] ch, int start, int length, int line, int col) {
+                        char[] chunk = new char[length];
+                        System.arraycopy(ch, start, chunk, 0, length);
+                        chunks.add(chunk);
+                    }
+                });
+            } catch (Exception e) {
+                // skip anything the parser can't handle, like the crawler does
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * Crawls the given mirror from its index.html, the same way WebCrawler does.
+     */
+    public static WebIndex crawl(String mirror) throws IOException {
+        LinkedList<URL> seeds = new LinkedList<URL>();
+        seeds.add(Paths.get(mirror, "index.html").toAbsolutePath().toUri().toURL());
+        return WebCrawler.crawl(seeds);
+    }
+
+    /**
+     * Tokenizes the given files into the calls the crawler makes to WebIndex.add:
+     * one Page per file, and the words of each file with the word before them.
+     */
+    public static List<PageWords> pageWords(List<Path> files) throws IOException {
+        List<PageWords> pages = new ArrayList<PageWords>();
+        for (Path file : files) {
+            List<String> words = new ArrayList<String>();
+            List<String> prevs = new ArrayList<String>();
+            WordTokenizer tokenizer = new WordTokenizer((word, prev) -> {
+                words.add(word);
+                prevs.add(prev);
+            });
+            for (char[] chunk : textChunks(List.of(file))) {
+                tokenizer.text(chunk, 0, chunk.length);
+                tokenizer.endText();
+            }
+            pages.add(new PageWords(new Page(file.toAbsolutePath().toUri().toURL()),
+                    words.toArray(new String[0]), prevs.toArray(new String[0])));
+        }
+        return pages;
+    }
+
+    /**
+     * The words of one page, each with the word before it.
+     */
+    public static class PageWords {
+        public final Page page;
+        public final String[] words;
+        public final String[] prevs;
+
+        PageWords(Page page, String[] words, String[] prevs) {
+            this.page = page;
+            this.words = words;
+            this.prevs = prevs;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package bench;
+
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import assignment.WebCrawler;
+import assignment.WebIndex;
+
+/**
+ * Times a whole crawl of one of the bundled mirrors, from reading and parsing the pages
+ * to building the index, with the sequential crawler or a number of worker threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CrawlBenchmark {
+
+    @Param({"superspoof", "rhf"})
+    public String mirror;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    URL seed;
+
+    @Setup
+    public void setup() throws Exception {
+        seed = Paths.get(mirror, "index.html").toAbsolutePath().toUri().toURL();
+    }
+
+    @Benchmark
+    public WebIndex crawl() throws Exception {
+        if (threads > 1)
+            return WebCrawler.crawlParallel(List.of(seed), threads);
+        LinkedList<URL> remaining = new LinkedList<URL>();
+        remaining.add(seed);
+        return WebCrawler.crawl(remaining);
+    }
+}
@@ -0,0 +1,54 @@
+package bench;
+
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import assignment.CrawlingMarkupHandler;
+import assignment.Index;
+
+/**
+ * Measures CrawlingMarkupHandler.handleText, which tokenizes the text of a page and adds
+ * every word to the handler's index. Each invocation feeds the text of the sampled rhf
+ * pages, page by page, into a new handler, so it includes the cost of WebIndex.add.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandlerBenchmark {
+
+    @Param({"500"})
+    public int pages;
+
+    List<URL> urls = new ArrayList<URL>();
+    List<List<char[]>> text = new ArrayList<List<char[]>>();
+
+    @Setup
+    public void setup() throws Exception {
+        for (Path file : Corpus.htmlFiles("rhf", pages)) {
+            urls.add(file.toAbsolutePath().toUri().toURL());
+            text.add(Corpus.textChunks(List.of(file)));
+        }
+    }
+
+    @Benchmark
+    public Index handleText() {
+        CrawlingMarkupHandler handler = new CrawlingMarkupHandler();
+        for (int i = 0; i < urls.size(); i++) {
+            handler.updateCurrentURL(urls.get(i));
+            for (char[] chunk : text.get(i)) {
+                handler.handleText(chunk, 0, chunk.length, 0, 0);
+                // text is only split into blocks by the elements between it
+                handler.handleCloseElement("p", 0, 0);
+            }
+        }
+        return handler.getIndex();
+    }
+}
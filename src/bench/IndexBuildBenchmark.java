@@ -0,0 +1,46 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import assignment.WebIndex;
+
+/**
+ * Measures WebIndex.add on its own: each invocation adds the already tokenized words
+ * of the sampled rhf pages to a new index. The number of words is printed during setup,
+ * so the time per invocation can be turned into an insert rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexBuildBenchmark {
+
+    @Param({"500"})
+    public int pages;
+
+    List<Corpus.PageWords> words;
+
+    @Setup
+    public void setup() throws Exception {
+        words = Corpus.pageWords(Corpus.htmlFiles("rhf", pages));
+        long total = 0;
+        for (Corpus.PageWords page : words)
+            total += page.words.length;
+        System.out.println(total + " words per invocation");
+    }
+
+    @Benchmark
+    public WebIndex add() {
+        WebIndex index = new WebIndex();
+        for (Corpus.PageWords page : words) {
+            for (int i = 0; i < page.words.length; i++)
+                index.add(page.words[i], page.prevs[i], page.page);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,65 @@
+package bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import assignment.Index;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Measures Index.load for an index of a crawled mirror, in the mapped IndexFile format
+ * and as a Java serialized index, the format older versions saved. Since the mapped index
+ * reads words lazily, loading and answering one query is measured as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IndexLoadBenchmark {
+
+    @Param({"rhf"})
+    public String mirror;
+
+    File mapped;
+    File serialized;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        WebIndex index = Corpus.crawl(mirror);
+        mapped = File.createTempFile("bench", ".db");
+        serialized = File.createTempFile("bench", ".ser");
+        index.save(mapped.getPath());
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(serialized))) {
+            out.writeObject(index);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mapped.delete();
+        serialized.delete();
+    }
+
+    @Benchmark
+    public Index loadMapped() throws Exception {
+        return Index.load(mapped.getPath());
+    }
+
+    @Benchmark
+    public int loadMappedAndQuery() throws Exception {
+        WebIndex index = (WebIndex) Index.load(mapped.getPath());
+        return WebQueryEngine.fromIndex(index, 0).query("\"of the\"").size();
+    }
+
+    @Benchmark
+    public Index loadSerialized() throws Exception {
+        return Index.load(serialized.getPath());
+    }
+}
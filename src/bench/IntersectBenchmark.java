@@ -0,0 +1,125 @@
+package bench;
+
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import assignment.DocSet;
+import assignment.PostingList;
+
+/**
+ * Measures AND between a rare word's pages and a common word's, over skewed pairs of sizes:
+ * DocSet.and, which gallops through the bigger array of a group, and two posting list cursors
+ * leapfrogging with advance, which jumps along the skip pointers, as phrases and ranking step
+ * through them. Each is measured next to a plain merge of the same doc IDs, which touches every
+ * one of both lists. The universe is the number of doc IDs the pages are spread over: a small
+ * one makes the common word's groups bitmaps, a big one keeps every group an array.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int small;
+
+    @Param({"100000"})
+    public int large;
+
+    @Param({"200000", "16777216"})
+    public int universe;
+
+    DocSet smallSet, largeSet;
+    int[] smallDocs, largeDocs;
+    PostingList smallList, largeList;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(1989);
+        TreeSet<Integer> big = new TreeSet<Integer>();
+        while (big.size() < large)
+            big.add(random.nextInt(universe));
+        // about half of the rare word's pages have the common word too
+        Integer[] common = big.toArray(new Integer[0]);
+        TreeSet<Integer> rare = new TreeSet<Integer>();
+        while (rare.size() < small)
+            rare.add(random.nextBoolean() ? common[random.nextInt(common.length)] : random.nextInt(universe));
+
+        smallDocs = toArray(rare);
+        largeDocs = toArray(big);
+        smallSet = toDocSet(smallDocs);
+        largeSet = toDocSet(largeDocs);
+        smallList = toList(smallDocs);
+        largeList = toList(largeDocs);
+    }
+
+    @Benchmark
+    public DocSet docSetAnd() {
+        return smallSet.and(largeSet);
+    }
+
+    @Benchmark
+    public int sortedMerge() {
+        int found = 0;
+        for (int i = 0, j = 0; i < smallDocs.length && j < largeDocs.length; ) {
+            if (smallDocs[i] < largeDocs[j]) i++;
+            else if (smallDocs[i] > largeDocs[j]) j++;
+            else { found++; i++; j++; }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int cursorAnd() {
+        PostingList.Cursor a = smallList.cursor(), b = largeList.cursor();
+        int found = 0;
+        for (int doc = a.next(); doc >= 0; doc = a.next()) {
+            int other = b.advance(doc);
+            if (other < 0)
+                break;
+            if (other == doc)
+                found++;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int cursorScan() {
+        PostingList.Cursor a = smallList.cursor(), b = largeList.cursor();
+        int found = 0;
+        int x = a.next(), y = b.next();
+        while (x >= 0 && y >= 0) {
+            if (x < y) x = a.next();
+            else if (x > y) y = b.next();
+            else { found++; x = a.next(); y = b.next(); }
+        }
+        return found;
+    }
+
+    private static int[] toArray(TreeSet<Integer> docs) {
+        int[] array = new int[docs.size()];
+        int i = 0;
+        for (int doc : docs)
+            array[i++] = doc;
+        return array;
+    }
+
+    private static DocSet toDocSet(int[] docs) {
+        DocSet set = new DocSet();
+        for (int doc : docs)
+            set.add(doc);
+        return set;
+    }
+
+    private static PostingList toList(int[] docs) {
+        PostingList list = new PostingList();
+        for (int doc : docs)
+            list.add(doc, 0);
+        return list;
+    }
+}
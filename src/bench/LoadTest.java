@@ -0,0 +1,260 @@
+package bench;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A load generator for WebServer. Each client thread sends /search requests back to back over
+ * its own connection, reusing it while the server keeps it alive and reconnecting when it
+ * doesn't, and reports throughput and latency percentiles once the run is over.
+ *
+ * Usage: LoadTest [-host h] [-port n] [-clients n] [-seconds n] [-warmup n] [-queries file]
+ *                 [-idle n]
+ *
+ * Start the server first, e.g. "WebServer -threads 1" for the old one-connection-at-a-time
+ * loop, "WebServer" for the thread pool and "WebServer -loops 1" for the NioServer, and run
+ * the same load against each. With -idle, that many more connections are opened first, each
+ * asking for the homepage and then left open, the way browsers leave them, for the whole run.
+ */
+public class LoadTest {
+    private static final String[] DEFAULT_QUERIES = {
+        "the", "\"of the\"", "cat & dog", "love | hate", "!the", "\"new york\"",
+        "(sherlock | holmes) & watson", "\"it was a dark and stormy night\"", "a & !the", "zebra"
+    };
+
+    // how long a client waits for a response before counting it as an error and reconnecting
+    private static final int TIMEOUT = 5000;
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int port = 1989, clients = 16, seconds = 10, warmup = 2, idle = 0;
+        List<String> queries = Arrays.asList(DEFAULT_QUERIES);
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "-host": host = args[i + 1]; break;
+                case "-port": port = Integer.parseInt(args[i + 1]); break;
+                case "-clients": clients = Integer.parseInt(args[i + 1]); break;
+                case "-seconds": seconds = Integer.parseInt(args[i + 1]); break;
+                case "-warmup": warmup = Integer.parseInt(args[i + 1]); break;
+                case "-queries": queries = Files.readAllLines(Paths.get(args[i + 1])); break;
+                case "-idle": idle = Integer.parseInt(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        List<String> paths = new ArrayList<String>();
+        for (String query : queries)
+            paths.add("/search?query=" + URLEncoder.encode(query, "ISO-8859-1"));
+
+        List<Socket> idleSockets = new ArrayList<Socket>();
+        try {
+            while (idleSockets.size() < idle) {
+                Socket socket = new Socket();
+                idleSockets.add(socket);
+                socket.connect(new InetSocketAddress(host, port), TIMEOUT);
+                // the response is never read; it fits in the socket's buffer
+                socket.getOutputStream().write(("GET / HTTP/1.1\r\nHost: " + host + "\r\n\r\n")
+                        .getBytes(StandardCharsets.ISO_8859_1));
+            }
+        } catch (IOException e) {
+            // the server has stopped accepting them, which is worth knowing
+            idleSockets.remove(idleSockets.size() - 1).close();
+            System.out.println("Only " + idleSockets.size() + " idle connections opened: " + e);
+        }
+
+        long start = System.nanoTime() + warmup * 1_000_000_000L;
+        long end = start + seconds * 1_000_000_000L;
+        AtomicLong errors = new AtomicLong();
+        Client[] workers = new Client[clients];
+        for (int i = 0; i < clients; i++) {
+            workers[i] = new Client(host, port, paths, i, start, end, errors);
+            workers[i].start();
+        }
+
+        long[] latencies = new long[0];
+        int connections = 0;
+        for (Client worker : workers) {
+            worker.join();
+            int n = latencies.length;
+            latencies = Arrays.copyOf(latencies, n + worker.count);
+            System.arraycopy(worker.latencies, 0, latencies, n, worker.count);
+            connections += worker.connections;
+        }
+        Arrays.sort(latencies);
+        int opened = idleSockets.size();
+        for (Socket socket : idleSockets)
+            socket.close();
+
+        System.out.printf("%d clients, %d idle, %d s: %d requests over %d connections, %d errors%n",
+                clients, opened, seconds, latencies.length, connections, errors.get());
+        System.out.printf("throughput %.1f req/s%n", latencies.length / (double) seconds);
+        if (latencies.length > 0) {
+            System.out.printf("latency ms: p50 %.2f  p90 %.2f  p99 %.2f  max %.2f%n",
+                    percentile(latencies, 50), percentile(latencies, 90),
+                    percentile(latencies, 99), latencies[latencies.length - 1] / 1e6);
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int i = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, i)] / 1e6;
+    }
+
+    /**
+     * One client connection sending requests until the end of the run. Latencies are only
+     * recorded once the warmup is over.
+     */
+    private static class Client extends Thread {
+        private final String host;
+        private final int port;
+        private final List<String> paths;
+        private final int first;
+        private final long start, end;
+        private final AtomicLong errors;
+
+        long[] latencies = new long[1024];
+        int count;
+        int connections;
+
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+
+        Client(String host, int port, List<String> paths, int first, long start, long end,
+                AtomicLong errors) {
+            this.host = host;
+            this.port = port;
+            this.paths = paths;
+            this.first = first;
+            this.start = start;
+            this.end = end;
+            this.errors = errors;
+        }
+
+        @Override
+        public void run() {
+            for (int i = first; System.nanoTime() < end; i++) {
+                String path = paths.get(i % paths.size());
+                long before = System.nanoTime();
+                try {
+                    if (socket == null)
+                        connect();
+                    boolean open = request(path);
+                    if (!open)
+                        close();
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                    close();
+                    continue;
+                }
+                if (before >= start) {
+                    if (count == latencies.length)
+                        latencies = Arrays.copyOf(latencies, count * 2);
+                    latencies[count++] = System.nanoTime() - before;
+                }
+            }
+            close();
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(TIMEOUT);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            connections++;
+        }
+
+        private void close() {
+            try {
+                if (socket != null)
+                    socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+            socket = null;
+        }
+
+        /**
+         * Sends one request and reads the whole response, returning whether
+         * the server kept the connection open.
+         */
+        private boolean request(String path) throws IOException {
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            String status = readLine();
+            if (!status.contains(" 200 "))
+                throw new IOException("Unexpected response: " + status);
+            int length = -1;
+            boolean chunked = false;
+            boolean open = status.startsWith("HTTP/1.1");
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                String header = line.toLowerCase();
+                if (header.startsWith("content-length:"))
+                    length = Integer.parseInt(header.substring(15).trim());
+                else if (header.startsWith("transfer-encoding:"))
+                    chunked = header.contains("chunked");
+                else if (header.startsWith("connection:"))
+                    open = header.substring(11).trim().equals("keep-alive");
+            }
+
+            if (chunked) {
+                // each chunk is its size in hex, the bytes and a line break
+                for (int size; (size = Integer.parseInt(readLine().trim(), 16)) > 0; ) {
+                    skip(size);
+                    readLine();
+                }
+                // no trailers are sent
+                readLine();
+                return open;
+            }
+            if (length < 0) {
+                // read to the end of the connection
+                while (in.read() >= 0)
+                    ;
+                return false;
+            }
+            skip(length);
+            return open;
+        }
+
+        private void skip(long length) throws IOException {
+            for (long skipped = 0; skipped < length; ) {
+                long n = in.skip(length - skipped);
+                if (n <= 0) {
+                    if (in.read() < 0)
+                        throw new EOFException("Response ended early");
+                    n = 1;
+                }
+                skipped += n;
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c < 0)
+                    throw new EOFException("Connection closed");
+                if (c != '\r')
+                    line.append((char) c);
+            }
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package bench;
+
+import java.lang.ref.Reference;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.*;
+
+import assignment.DocSet;
+import assignment.Page;
+import assignment.PageTable;
+import assignment.WebIndex;
+
+/**
+ * Compares PageTable with the list of Pages and map of Page to doc ID that WebIndex used to
+ * keep, on the pages of the rhf mirror: finding the doc IDs of a batch of pages, and getUrls
+ * narrowing the pages of one word to those with another. The heap each one takes up is
+ * printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageTableBenchmark {
+
+    static final int LOOKUPS = 1000;
+
+    WebIndex index;
+    HashMap<Page, Integer> map;
+    PageTable table;
+    DocSet deleted = new DocSet();
+    Page[] lookups;
+    Set<Page> narrowed;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        index = Corpus.crawl("rhf");
+        List<URL> urls = new ArrayList<URL>();
+        for (int doc = 0; doc < index.size(); doc++)
+            urls.add(new URL(index.url(doc)));
+        // the crawl leaves objects that take a few collections to go
+        settle();
+
+        long tableBytes = retainedBytes(() -> {
+            PageTable built = new PageTable();
+            for (URL url : urls)
+                built.add(url);
+            return built;
+        });
+
+        long mapBytes = retainedBytes(() -> {
+            List<Page> pages = new ArrayList<Page>();
+            HashMap<Page, Integer> docIds = new HashMap<Page, Integer>();
+            for (int doc = 0; doc < urls.size(); doc++) {
+                // a Page with a URL of its own, as the crawler makes them
+                Page page = index.page(doc);
+                docIds.put(page, pages.size());
+                pages.add(page);
+            }
+            return new Object[] {pages, docIds};
+        });
+        map = new HashMap<Page, Integer>();
+        table = new PageTable();
+        for (URL url : urls) {
+            map.put(new Page(url), map.size());
+            table.add(url);
+        }
+        System.out.printf("%n%d pages: list and HashMap %d bytes, PageTable %d bytes (%d encoded)%n",
+                urls.size(), mapBytes, tableBytes, table.byteSize());
+
+        Random random = new Random(314);
+        lookups = new Page[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++)
+            lookups[i] = new Page(urls.get(random.nextInt(urls.size())));
+        narrowed = index.getUrls("and");
+    }
+
+    @Benchmark
+    public int hashMapFind() {
+        int found = 0;
+        for (Page page : lookups)
+            found += map.get(page);
+        return found;
+    }
+
+    @Benchmark
+    public int tableFind() {
+        int found = 0;
+        for (Page page : lookups)
+            found += table.find(page.getURL(), deleted);
+        return found;
+    }
+
+    @Benchmark
+    public Set<Page> getUrlsNarrowed() {
+        return index.getUrls("the", narrowed);
+    }
+
+    /**
+     * Returns roughly how much more of the heap is in use once the supplied
+     * object has been built and everything else collected.
+     */
+    private static long retainedBytes(Supplier<Object> builder) throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        settle();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        Object built = builder.get();
+        settle();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        Reference.reachabilityFence(built);
+        return after - before;
+    }
+
+    private static void settle() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package bench;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import assignment.Page;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Measures queries on an index of the rhf mirror: a single word, boolean operators,
+ * negation and a phrase. query iterates over every matching page, rankedQuery returns the
+ * best 50, and both run without the result cache; cachedQuery runs with it, so it measures
+ * a cache hit. getPostFix measures parsing alone, and regexPipeline runs a copy of getPostFix
+ * as it used to be, a regex or a pass over the tokens at a time, to compare it with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryBenchmark {
+
+    @Param({"the", "(sherlock | holmes) & watson", "a & !the", "\"of the\""})
+    public String query;
+
+    WebQueryEngine engine;
+    WebQueryEngine cached;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        WebIndex index = Corpus.crawl("rhf");
+        engine = WebQueryEngine.fromIndex(index, 0);
+        cached = WebQueryEngine.fromIndex(index);
+    }
+
+    @Benchmark
+    public void query(Blackhole bh) {
+        for (Page page : engine.query(query))
+            bh.consume(page);
+    }
+
+    @Benchmark
+    public Object rankedQuery() {
+        return engine.rankedQuery(query, 50);
+    }
+
+    @Benchmark
+    public Object cachedQuery() {
+        return cached.rankedQuery(query, 50);
+    }
+
+    @Benchmark
+    public Object getPostFix() {
+        return engine.getPostFix(query);
+    }
+
+    @Benchmark
+    public Object regexPipeline() {
+        return regexPostFix(engine, query);
+    }
+
+    /**
+     * getPostFix as it was before QueryParser, word for word.
+     */
+    private static Queue<String> regexPostFix(WebQueryEngine engine, String query) {
+        query = query.toLowerCase();
+
+        // I use + marks to represent phrases, so some queries with + marks
+        // might pass when they shouldn't, thus any query with a + is
+        // instantly failed
+        if (query.contains("+"))
+            throw new IllegalArgumentException("'+' character not allowed in query!");
+
+        // fix spacing such that each token is 1-space separated
+        query = engine.fixSpacing(query);
+
+        // change phrases from "hello my" to hello+my
+        query = engine.fixPhrases(query);
+
+        // fix spacing on !, need to do after fixing phrases
+        query = query.replaceAll("!\\s*", "!");
+
+        // validate given query, throws appropriate exception
+        // if not valid
+        engine.isValidQuery(query);
+
+        // add explicit and, convert to postfix
+        return engine.convertToPostfix(engine.addExplicitAND(query.split(" ")));
+    }
+}
@@ -0,0 +1,50 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import assignment.Page;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Measures how the latency of a single query on an index of the rhf mirror scales with the
+ * number of shards it's evaluated over in parallel, one thread per shard. The queries are the
+ * expensive kinds: phrases, which step through every position of their words, a negated phrase,
+ * and a ranked OR of common words. Runs without the result cache, so every query is evaluated.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShardBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    @Param({"\"of the\"", "!\"it was\"", "the | a | of | and"})
+    public String query;
+
+    WebQueryEngine engine;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        WebIndex index = Corpus.crawl("rhf");
+        engine = WebQueryEngine.fromIndex(index, 0, shards);
+    }
+
+    @Benchmark
+    public void query(Blackhole bh) {
+        for (Page page : engine.query(query))
+            bh.consume(page);
+    }
+
+    @Benchmark
+    public Object rankedQuery() {
+        return engine.rankedQuery(query, 50);
+    }
+}
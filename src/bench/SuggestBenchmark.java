@@ -0,0 +1,78 @@
+package bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import assignment.DocSet;
+import assignment.Index;
+import assignment.Suggester;
+import assignment.WebIndex;
+
+/**
+ * Measures completing a prefix of one, two and three letters on an index of the rhf mirror,
+ * the way /suggest does: from the suggester saved in a mapped index file, from the one an index
+ * in memory builds, and by scanning every word in wordsToPage for the ones with the most pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SuggestBenchmark {
+
+    @Param({"s", "sh", "she"})
+    public String prefix;
+
+    WebIndex memory;
+    WebIndex mapped;
+    File file;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        memory = Corpus.crawl("rhf");
+        file = File.createTempFile("bench", ".db");
+        memory.save(file.getPath());
+        mapped = (WebIndex) Index.load(file.getPath());
+        // build the in-memory suggester ahead of the measurements
+        memory.suggest(prefix, 10);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public List<Suggester.Completion> suggestMapped() {
+        return mapped.suggest(prefix, 10);
+    }
+
+    @Benchmark
+    public List<Suggester.Completion> suggestMemory() {
+        return memory.suggest(prefix, 10);
+    }
+
+    @Benchmark
+    public List<String> scanWordsToPage() {
+        PriorityQueue<Map.Entry<String, DocSet>> best = new PriorityQueue<Map.Entry<String, DocSet>>(
+                (a, b) -> Integer.compare(a.getValue().cardinality(), b.getValue().cardinality()));
+        for (Map.Entry<String, DocSet> entry : memory.wordsToPage.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                best.add(entry);
+                if (best.size() > 10)
+                    best.poll();
+            }
+        }
+        List<String> found = new ArrayList<String>();
+        while (!best.isEmpty())
+            found.add(0, best.poll().getKey());
+        return found;
+    }
+}
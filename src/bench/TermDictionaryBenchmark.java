@@ -0,0 +1,141 @@
+package bench;
+
+import java.lang.ref.Reference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.openjdk.jmh.annotations.*;
+
+import assignment.TermDictionary;
+import assignment.WebIndex;
+
+/**
+ * Compares TermDictionary with the HashMap of terms WebIndex keeps in memory, on the words
+ * of the rhf mirror: looking up a batch of words, half of them in the index and half not,
+ * and listing the words starting with a batch of two letter prefixes, which the HashMap can
+ * only do by scanning every key. The heap each one takes up is printed at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermDictionaryBenchmark {
+
+    static final int LOOKUPS = 1000;
+    static final int PREFIXES = 10;
+
+    HashMap<String, Integer> map;
+    TermDictionary dictionary;
+    String[] lookups;
+    String[] prefixes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        WebIndex index = Corpus.crawl("rhf");
+        List<byte[]> sorted = new ArrayList<byte[]>();
+        for (String word : index.wordsToPage.keySet())
+            sorted.add(word.getBytes(StandardCharsets.UTF_8));
+        sorted.sort(Arrays::compareUnsigned);
+        List<String> words = new ArrayList<String>();
+        for (byte[] word : sorted)
+            words.add(new String(word, StandardCharsets.UTF_8));
+
+        long mapBytes = retainedBytes(() -> {
+            HashMap<String, Integer> built = new HashMap<String, Integer>();
+            for (int i = 0; i < sorted.size(); i++)
+                built.put(new String(sorted.get(i), StandardCharsets.UTF_8), i);
+            return built;
+        });
+        long dictionaryBytes = retainedBytes(() -> TermDictionary.of(words));
+        System.out.printf("%n%d terms: HashMap %d bytes, TermDictionary %d bytes (%d encoded)%n",
+                words.size(), mapBytes, dictionaryBytes, TermDictionary.of(words).byteSize());
+
+        map = new HashMap<String, Integer>();
+        for (int i = 0; i < words.size(); i++)
+            map.put(words.get(i), i);
+        dictionary = TermDictionary.of(words);
+
+        Random random = new Random(314);
+        lookups = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            String word = words.get(random.nextInt(words.size()));
+            lookups[i] = i % 2 == 0 ? word : word + "q";
+        }
+        prefixes = new String[PREFIXES];
+        for (int i = 0; i < PREFIXES; i++) {
+            String word = words.get(random.nextInt(words.size()));
+            prefixes[i] = word.substring(0, Math.min(2, word.length()));
+        }
+    }
+
+    @Benchmark
+    public int hashMapLookup() {
+        int found = 0;
+        for (String word : lookups) {
+            Integer ordinal = map.get(word);
+            if (ordinal != null)
+                found += ordinal;
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int dictionaryLookup() {
+        int found = 0;
+        for (String word : lookups)
+            found += dictionary.find(word);
+        return found;
+    }
+
+    @Benchmark
+    public int hashMapPrefix() {
+        int found = 0;
+        for (String prefix : prefixes) {
+            for (String word : map.keySet()) {
+                if (word.startsWith(prefix))
+                    found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int dictionaryPrefix() {
+        int found = 0;
+        for (String prefix : prefixes) {
+            int[] range = dictionary.prefixRange(prefix);
+            found += range[1] - range[0];
+        }
+        return found;
+    }
+
+    /**
+     * Returns roughly how much more of the heap is in use once the supplied
+     * object has been built and everything else collected.
+     */
+    private static long retainedBytes(Supplier<Object> builder) throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        settle();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        Object built = builder.get();
+        settle();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        Reference.reachabilityFence(built);
+        return after - before;
+    }
+
+    private static void settle() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import assignment.WordTokenizer;
+
+/**
+ * Compares the streaming WordTokenizer against the String concatenation and regex
+ * tokenizing CrawlingMarkupHandler.handleText used to do, over the text of rhf pages.
+ * Each invocation tokenizes every chunk of text from the sampled pages.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param({"500"})
+    public int pages;
+
+    List<char[]> chunks;
+
+    @Setup
+    public void setup() throws Exception {
+        chunks = Corpus.textChunks(Corpus.htmlFiles("rhf", pages));
+    }
+
+    @Benchmark
+    public void streaming(Blackhole bh) {
+        WordTokenizer tokenizer = new WordTokenizer((word, prev) -> bh.consume(word));
+        for (char[] chunk : chunks) {
+            tokenizer.text(chunk, 0, chunk.length);
+            tokenizer.endText();
+        }
+    }
+
+    @Benchmark
+    public void legacy(Blackhole bh) {
+        for (char[] chunk : chunks)
+            legacyTokens(chunk, 0, chunk.length, bh);
+    }
+
+    /**
+     * The text tokenizing CrawlingMarkupHandler.handleText used to do.
+     */
+    static void legacyTokens(char[] ch, int start, int length, Blackhole bh) {
+        String words = "";
+        for (int i = start; i < start + length; i++) {
+            if (Character.isLetter(ch[i]) || ch[i] == '\'')
+                words += ch[i];
+            else
+                words += " ";
+        }
+        words = words.replaceAll("nbsp", "");
+        words = words.replaceAll("\\s+", " ").trim().toLowerCase();
+
+        if (!words.isEmpty() && !words.equals(" ")) {
+            for (String word : words.split(" "))
+                bh.consume(word);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.IndexDirectory;
+import assignment.WebCrawler;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Tests that crawling writes its index out as it goes, so a crawl far bigger than
+ * the heap still fits in it. The sites are written into a zip file and crawled
+ * through jar: URLs, which is much quicker than a file per page.
+ */
+public class BoundedMemoryTests {
+
+	static final int PAGES = 100000;
+
+	Path directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("bounded");
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		try (Stream<Path> files = Files.walk(directory)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	/**
+	 * A crawl with a memory budget much smaller than its pages writes a segment
+	 * each time it's used up.
+	 */
+	@Test
+	public void budgetTest() throws Exception {
+		Path site = writeSite(2000);
+		try (IndexDirectory index = IndexDirectory.create(directory.resolve("index.db").toString())) {
+			WebCrawler.crawl(seeds(site), index, Integer.MAX_VALUE, 1 << 20);
+			index.waitForMerges();
+			assertTrue(index.segmentCount() > 1);
+			index.mergeAll();
+			assertEquals(1, index.segmentCount());
+
+			WebIndex expected = WebCrawler.crawl(seeds(site));
+			WebIndex actual = index.reader();
+			assertEquals(expected.pageCount(), actual.pageCount());
+			for (String query : new String[] {"wb", "wc & wd", "\"see also\"", "!wb"})
+				assertEquals(query, WebQueryEngine.fromIndex(expected, 0).query(query).size(),
+						WebQueryEngine.fromIndex(actual, 0).query(query).size());
+		}
+	}
+
+	/**
+	 * 100,000 pages crawl in a 48 MB heap. Keeping the whole index in memory until
+	 * the end, the same crawl ran out of memory with 96 MB.
+	 */
+	@Test
+	public void smallHeapTest() throws Exception {
+		Path site = writeSite(PAGES);
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Process crawler = new ProcessBuilder(java, "-Xmx48m", "-cp", System.getProperty("java.class.path"),
+				"assignment.WebCrawler", seeds(site).get(0).toString())
+				.directory(directory.toFile()).redirectErrorStream(true)
+				.redirectOutput(directory.resolve("crawl.log").toFile()).start();
+		int exit = crawler.waitFor();
+		assertEquals(Files.readString(directory.resolve("crawl.log")), 0, exit);
+
+		WebIndex index = (WebIndex) Index.load(directory.resolve("index.db").toString());
+		assertEquals(PAGES, index.pageCount());
+		assertEquals(PAGES, WebQueryEngine.fromIndex(index, 0).query("next | !next").size());
+	}
+
+	/**
+	 * Writes a site of the given number of pages to a zip file. Each page has 60 words
+	 * from a 50,000 word vocabulary, most of them common, and links to two pages that
+	 * between them reach every page, and to one other at random.
+	 */
+	private Path writeSite(int pages) throws IOException {
+		Path site = directory.resolve("site.zip");
+		Random random = new Random(314);
+		try (OutputStream file = new BufferedOutputStream(Files.newOutputStream(site));
+				ZipOutputStream zip = new ZipOutputStream(file)) {
+			zip.setLevel(1);
+			for (int i = 0; i < pages; i++) {
+				StringBuilder page = new StringBuilder("<html><body><p>");
+				for (int w = 0; w < 60; w++)
+					page.append(word((int) Math.pow(50000, random.nextDouble()))).append(' ');
+				page.append("</p>");
+				for (int child = 2 * i + 1; child <= 2 * i + 2 && child < pages; child++)
+					page.append("<a href='p").append(child).append(".html'>next</a>");
+				page.append("<a href='p").append(random.nextInt(pages)).append(".html'>see also</a>");
+				page.append("</body></html>");
+
+				zip.putNextEntry(new ZipEntry("p" + i + ".html"));
+				zip.write(page.toString().getBytes(StandardCharsets.UTF_8));
+				zip.closeEntry();
+			}
+		}
+		return site;
+	}
+
+	/**
+	 * Returns the word for a number, written in base 26 with the letters a to z.
+	 */
+	private static String word(int n) {
+		StringBuilder word = new StringBuilder("w");
+		do {
+			word.append((char) ('a' + n % 26));
+			n /= 26;
+		} while (n > 0);
+		return word.toString();
+	}
+
+	private static LinkedList<URL> seeds(Path site) throws IOException {
+		LinkedList<URL> seeds = new LinkedList<URL>();
+		seeds.add(new URL("jar:" + site.toUri() + "!/p0.html"));
+		return seeds;
+	}
+}
@@ -0,0 +1,151 @@
+package test;
+
+import static org.junit.Assert.*;
+import static test.TestSite.pages;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.IndexDirectory;
+import assignment.NearDuplicates;
+import assignment.WebCrawler;
+import assignment.WebIndex;
+
+/**
+ * Tests that a crawl with NearDuplicates leaves out the copies of a page, and only
+ * them, on a small site written to a temporary directory.
+ */
+public class DedupeTests {
+
+	TestSite site;
+	String story = story(1), other = story(2);
+
+	@Before
+	public void writeSite() throws IOException {
+		site = new TestSite("dedupe");
+		site.write("index.html", "<p>home page</p> <a href='story.html'>story</a> <a href='other.html'>other</a>"
+				+ " <a href='moved.html'>old</a> <a href='empty.html'>empty</a>");
+		// the copy is only linked from the story, so it's always crawled after it
+		site.write("story.html", "<p>" + story + " ending</p> <a href='copy.html'>again</a>");
+		site.write("copy.html", "<p>" + story + " finale</p> <a href='only.html'>more</a>");
+		site.write("other.html", "<p>" + other + "</p>");
+		site.write("only.html", "<p>only linked from the copy</p>");
+		site.write("moved.html", "<p>page has moved</p> <a href='moved2.html'>click here</a>");
+		site.write("moved2.html", "<p>page has moved</p> <a href='empty2.html'>click here</a>");
+		site.write("empty.html", "");
+		site.write("empty2.html", "");
+	}
+
+	@After
+	public void deleteSite() throws IOException {
+		site.delete();
+	}
+
+	/**
+	 * The later of two near duplicates is left out, but its links are still followed,
+	 * and pages without words are never taken for duplicates.
+	 */
+	@Test
+	public void crawlTest() throws Exception {
+		WebIndex plain = WebCrawler.crawl(site.seeds());
+		// pages without words aren't in the index at all
+		assertEquals(7, plain.pageCount());
+		assertEquals(Set.of("story.html", "copy.html"), pages(plain, "ending | finale"));
+
+		NearDuplicates duplicates = new NearDuplicates();
+		WebIndex index = WebCrawler.crawl(site.seeds(), duplicates);
+		assertEquals(2, duplicates.duplicates());
+		assertEquals(5, index.pageCount());
+		assertEquals(Set.of("story.html"), pages(index, "ending | finale"));
+		assertEquals(Set.of(), pages(index, "finale"));
+		assertEquals(Set.of("only.html"), pages(index, "only"));
+		assertEquals(Set.of("moved.html"), pages(index, "moved"));
+		assertEquals(Set.of("index.html", "story.html", "other.html", "only.html", "moved.html"),
+				pages(index, "zebra | !zebra"));
+
+		// the copies are in the crawl state, so a re-crawl doesn't take them for new pages
+		assertFalse(WebCrawler.recrawl(index, site.seeds()));
+	}
+
+	/**
+	 * The copies are left out of the segments of index.db once they're merged.
+	 */
+	@Test
+	public void segmentTest() throws Exception {
+		WebIndex expected = WebCrawler.crawl(site.seeds(), new NearDuplicates());
+		String path = site.resolve("index.db").toString();
+		try (IndexDirectory directory = IndexDirectory.create(path)) {
+			WebCrawler.crawl(site.seeds(), directory, 1, Long.MAX_VALUE, new NearDuplicates());
+			directory.mergeAll();
+		}
+		WebIndex index = (WebIndex) Index.load(path);
+		assertEquals(5, index.size());
+		for (String query : new String[] {"ending | finale", "only", "moved", "home | !home"})
+			assertEquals(query, pages(expected, query), pages(index, query));
+	}
+
+	/**
+	 * Pages sharing most of their pairs of words get fingerprints within MAX_DISTANCE
+	 * bits, however often a pair is repeated, and the table finds every fingerprint
+	 * within MAX_DISTANCE bits of one added before.
+	 */
+	@Test
+	public void fingerprintTest() {
+		String art = " v v v".repeat(200);
+		long a = fingerprint(story, 1), b = fingerprint(story + " finale", 1);
+		assertTrue(NearDuplicates.distance(a, b) <= NearDuplicates.MAX_DISTANCE);
+		assertEquals(a, fingerprint(story, 3));
+		assertTrue(NearDuplicates.distance(fingerprint(story + art, 1), fingerprint(other + art, 1))
+				> NearDuplicates.MAX_DISTANCE);
+		assertTrue(NearDuplicates.distance(fingerprint(story + art, 1), a) <= NearDuplicates.MAX_DISTANCE);
+
+		NearDuplicates duplicates = new NearDuplicates();
+		long fingerprint = new Random(314).nextLong();
+		assertNull(duplicates.find(fingerprint, "first"));
+		assertEquals("first", duplicates.find(fingerprint, "again"));
+		// three bits in one band, or one bit in each of three
+		assertEquals("first", duplicates.find(fingerprint ^ 0b111, "near"));
+		assertEquals("first", duplicates.find(fingerprint ^ (1L | 1L << 20 | 1L << 40), "near"));
+		// a bit in every band
+		assertNull(duplicates.find(fingerprint ^ (1L | 1L << 20 | 1L << 40 | 1L << 60), "far"));
+		assertEquals("far", duplicates.find(fingerprint ^ (1L | 1L << 10 | 1L << 20 | 1L << 40 | 1L << 60), "nearer"));
+		assertEquals(2, duplicates.size());
+		assertEquals(4, duplicates.duplicates());
+	}
+
+	/**
+	 * Returns 200 random words, the same for the same seed.
+	 */
+	private static String story(long seed) {
+		Random random = new Random(seed);
+		StringBuilder story = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			if (i > 0)
+				story.append(' ');
+			for (int length = 3 + random.nextInt(6); length > 0; length--)
+				story.append((char) ('a' + random.nextInt(26)));
+		}
+		return story.toString();
+	}
+
+	/**
+	 * Returns the fingerprint of a block of words separated by single spaces,
+	 * with each pair of words added the given number of times.
+	 */
+	private static long fingerprint(String text, int times) {
+		NearDuplicates.Fingerprint fingerprint = new NearDuplicates.Fingerprint();
+		String prev = "";
+		for (String word : text.trim().split(" ")) {
+			for (int i = 0; i < times; i++)
+				fingerprint.add(word, prev);
+			prev = word;
+		}
+		return fingerprint.value();
+	}
+}
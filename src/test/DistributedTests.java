@@ -0,0 +1,253 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.Page;
+import assignment.RankedResults;
+import assignment.SearchCoordinator;
+import assignment.SearchWorker;
+import assignment.Suggester;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Checks that a SearchCoordinator over SearchWorkers serving the partitions of an index, all
+ * in this JVM, answers as an engine over the whole index does, and carries on with the rest
+ * of the partitions when one stops answering. Needs 'index.db' in the path.
+ */
+public class DistributedTests {
+
+	static final int PARTITIONS = 3;
+
+	static WebIndex index;
+	static WebQueryEngine whole;
+	// the worker serving each partition
+	static List<SearchWorker> workers = new ArrayList<SearchWorker>();
+	static List<WebIndex> parts = new ArrayList<WebIndex>();
+
+	static String[] queries = {"the", "\"of the\"", "!\"of the\"", "love | hate", "cat & dog", "a & !the",
+			"(sherlock | holmes) & watson", "zebra | quagga", "sher* | !wat*", "!\"the end\" & !finis"};
+
+	@BeforeClass
+	public static void startWorkers() throws Exception {
+		index = (WebIndex) Index.load("index.db");
+		whole = WebQueryEngine.fromIndex(index, 0);
+		int[] bounds = index.shardBounds(PARTITIONS);
+		for (int i = 0; i < PARTITIONS; i++) {
+			parts.add(index.partition(bounds[i], bounds[i + 1]));
+			workers.add(start(parts.get(i)));
+		}
+	}
+
+	@AfterClass
+	public static void stopWorkers() throws IOException {
+		for (SearchWorker worker : workers)
+			worker.close();
+	}
+
+	/**
+	 * Starts a worker serving an index on a free port.
+	 */
+	static SearchWorker start(WebIndex index) throws IOException {
+		SearchWorker worker = new SearchWorker(index, 0);
+		Thread thread = new Thread(() -> {
+			try {
+				worker.serve();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return worker;
+	}
+
+	static InetSocketAddress address(SearchWorker worker) {
+		return new InetSocketAddress("localhost", worker.port());
+	}
+
+	/**
+	 * Returns the address of each partition's worker.
+	 */
+	static List<List<InetSocketAddress>> partitions() {
+		List<List<InetSocketAddress>> partitions = new ArrayList<List<InetSocketAddress>>();
+		for (SearchWorker worker : workers)
+			partitions.add(List.of(address(worker)));
+		return partitions;
+	}
+
+	/**
+	 * The coordinator finds the same pages, ranks them the same with the
+	 * same scores, and counts the same hits as the whole index.
+	 */
+	@Test
+	public void sameResultsTest() {
+		int pages = 0;
+		for (WebIndex part : parts)
+			pages += part.pageCount();
+		assertEquals(index.pageCount(), pages);
+
+		try (SearchCoordinator coordinator = new SearchCoordinator(partitions(), 5000, 1000)) {
+			assertEquals(PARTITIONS, coordinator.partitions());
+			for (String query : queries) {
+				HashSet<Page> expected = new HashSet<Page>(whole.query(query));
+				assertEquals(query, expected, new HashSet<Page>(coordinator.query(query)));
+				for (int k : new int[] {1, 10, Math.max(1, expected.size())}) {
+					RankedResults a = whole.rankedQuery(query, k);
+					RankedResults b = coordinator.rankedQuery(query, k);
+					assertFalse(query, b.isPartial());
+					assertEquals(query, a.totalHits(), b.totalHits());
+					assertEquals(query, a.pages(), b.pages());
+					for (int i = 0; i < a.pages().size(); i++)
+						assertEquals(query, a.score(i), b.score(i), 0);
+				}
+			}
+
+			assertTrue(coordinator.explain("cat & dog").startsWith("partition 0:\n"));
+			for (String prefix : new String[] {"th", "sher", "qqq"}) {
+				List<Suggester.Completion> a = index.suggest(prefix, 5);
+				List<Suggester.Completion> b = coordinator.suggest(prefix, 5);
+				assertEquals(prefix, a.size(), b.size());
+				for (int i = 0; i < a.size(); i++) {
+					assertEquals(prefix, a.get(i).word(), b.get(i).word());
+					assertEquals(prefix, a.get(i).docs(), b.get(i).docs());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Invalid queries are rejected before anything is sent, and a worker
+	 * rejecting a request is reported rather than taken as a lost partition.
+	 */
+	@Test
+	public void errorTest() {
+		try (SearchCoordinator coordinator = new SearchCoordinator(partitions(), 5000, 1000)) {
+			try {
+				coordinator.rankedQuery("a &", 10);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+			// more than a worker reads, though the parser takes it
+			StringBuilder deep = new StringBuilder("a");
+			for (int i = 0; i < 5000; i++)
+				deep.append(" a");
+			try {
+				coordinator.rankedQuery(deep.toString(), 10);
+				fail();
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * A partition whose worker has been killed is left out, and the results
+	 * of the rest are marked partial; with a replica it isn't missed at all.
+	 */
+	@Test
+	public void killedWorkerTest() throws Exception {
+		SearchWorker doomed = start(parts.get(1));
+		SearchWorker replica = start(parts.get(1));
+		List<List<InetSocketAddress>> alone = partitions();
+		alone.set(1, List.of(address(doomed)));
+		List<List<InetSocketAddress>> replicated = partitions();
+		replicated.set(1, List.of(address(doomed), address(replica)));
+
+		try (SearchCoordinator coordinator = new SearchCoordinator(alone, 2000, 1000);
+				SearchCoordinator backedUp = new SearchCoordinator(replicated, 2000, 1000)) {
+			// open connections to the worker, which then go dead
+			assertFalse(coordinator.rankedQuery("the", 10).isPartial());
+			assertFalse(backedUp.rankedQuery("the", 10).isPartial());
+			doomed.close();
+
+			for (String query : queries) {
+				RankedResults expected = whole.rankedQuery(query, 10);
+				long start = System.nanoTime();
+				RankedResults found = coordinator.rankedQuery(query, 10);
+				// a refused connection is known straight away
+				assertTrue(query, System.nanoTime() - start < 1_000_000_000L);
+				assertTrue(query, found.isPartial());
+				int hits = WebQueryEngine.fromIndex(parts.get(0), 0).rankedQuery(query, 1).totalHits()
+						+ WebQueryEngine.fromIndex(parts.get(2), 0).rankedQuery(query, 1).totalHits();
+				assertEquals(query, hits, found.totalHits());
+				HashSet<Page> missing = new HashSet<Page>(WebQueryEngine.fromIndex(parts.get(1), 0).query(query));
+				for (Page page : found.pages())
+					assertFalse(query, missing.contains(page));
+
+				found = backedUp.rankedQuery(query, 10);
+				assertFalse(query, found.isPartial());
+				assertEquals(query, expected.pages(), found.pages());
+			}
+		} finally {
+			replica.close();
+		}
+	}
+
+	/**
+	 * A request to a worker that never answers is sent to a replica after the
+	 * hedge delay, and a partition with no other replica is given up on at the
+	 * timeout.
+	 */
+	@Test
+	public void hedgeTest() throws Exception {
+		// accepts connections and never answers them
+		List<Socket> held = new CopyOnWriteArrayList<Socket>();
+		try (ServerSocket stuck = new ServerSocket(0)) {
+			Thread thread = new Thread(() -> {
+				try {
+					while (true)
+						held.add(stuck.accept());
+				} catch (IOException e) {
+					// closed
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+			InetSocketAddress hung = new InetSocketAddress("localhost", stuck.getLocalPort());
+
+			List<List<InetSocketAddress>> hedged = partitions();
+			hedged.set(2, List.of(hung, address(workers.get(2))));
+			List<List<InetSocketAddress>> alone = partitions();
+			alone.set(2, List.of(hung));
+
+			try (SearchCoordinator coordinator = new SearchCoordinator(hedged, 2000, 50);
+					SearchCoordinator stranded = new SearchCoordinator(alone, 500, 50)) {
+				for (int i = 0; i < 4; i++) {
+					long start = System.nanoTime();
+					RankedResults found = coordinator.rankedQuery("love | hate", 10);
+					assertTrue(System.nanoTime() - start < 1_500_000_000L);
+					assertFalse(found.isPartial());
+					assertEquals(whole.rankedQuery("love | hate", 10).pages(), found.pages());
+				}
+
+				long start = System.nanoTime();
+				RankedResults found = stranded.rankedQuery("love | hate", 10);
+				long elapsed = System.nanoTime() - start;
+				assertTrue(found.isPartial());
+				assertTrue(elapsed >= 500_000_000L);
+				assertEquals(whole.rankedQuery("love | hate", 10).totalHits()
+						- WebQueryEngine.fromIndex(parts.get(2), 0).rankedQuery("love | hate", 1).totalHits(),
+						found.totalHits());
+			}
+		} finally {
+			for (Socket socket : held)
+				socket.close();
+		}
+	}
+}
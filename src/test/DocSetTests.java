@@ -0,0 +1,154 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+import assignment.DocSet;
+
+/**
+ * Checks the set operations of DocSet against TreeSets, with sets
+ * dense and sparse enough to use both kinds of groups.
+ */
+public class DocSetTests {
+
+	/**
+	 * Adding in any order, with repeats, keeps the set sorted and unique.
+	 */
+	@Test
+	public void addTest() {
+		Random random = new Random(314);
+		DocSet set = new DocSet();
+		TreeSet<Integer> expected = new TreeSet<Integer>();
+		for (int i = 0; i < 20000; i++) {
+			int doc = random.nextInt(200000);
+			set.add(doc);
+			expected.add(doc);
+		}
+		assertEquals(expected.size(), set.cardinality());
+		assertArrayEquals(toArray(expected), set.toArray());
+		for (int doc = 0; doc < 200000; doc += 7)
+			assertEquals(expected.contains(doc), set.contains(doc));
+	}
+
+	/**
+	 * Tests and, or and andNot over every mix of sparse and dense sets.
+	 */
+	@Test
+	public void operationsTest() {
+		Random random = new Random(1989);
+		int[] sizes = {0, 10, 3000, 5000, 60000};
+		for (int a : sizes) {
+			for (int b : sizes) {
+				TreeSet<Integer> x = randomSet(random, a, 140000);
+				TreeSet<Integer> y = randomSet(random, b, 140000);
+				DocSet dx = toDocSet(x);
+				DocSet dy = toDocSet(y);
+
+				TreeSet<Integer> and = new TreeSet<Integer>(x);
+				and.retainAll(y);
+				TreeSet<Integer> or = new TreeSet<Integer>(x);
+				or.addAll(y);
+				TreeSet<Integer> andNot = new TreeSet<Integer>(x);
+				andNot.removeAll(y);
+
+				assertArrayEquals(toArray(and), dx.and(dy).toArray());
+				assertArrayEquals(toArray(or), dx.or(dy).toArray());
+				assertArrayEquals(toArray(andNot), dx.andNot(dy).toArray());
+
+				// the operations can't change their inputs
+				assertArrayEquals(toArray(x), dx.toArray());
+				assertArrayEquals(toArray(y), dy.toArray());
+			}
+		}
+	}
+
+	/**
+	 * Tests the set of every doc below n, which negations are taken against.
+	 */
+	@Test
+	public void rangeTest() {
+		int[] sizes = {0, 1, 63, 64, 4096, 4097, 65536, 70000};
+		for (int n : sizes) {
+			DocSet all = DocSet.range(n);
+			assertEquals(n, all.cardinality());
+			int[] docs = all.toArray();
+			for (int i = 0; i < n; i++)
+				assertEquals(i, docs[i]);
+			assertTrue(all.andNot(all).isEmpty());
+		}
+	}
+
+	/**
+	 * Tests the set of every doc between two bounds, which shards are cut from,
+	 * with ranges inside a group, ending on a group and crossing several.
+	 */
+	@Test
+	public void rangeBetweenTest() {
+		int[][] ranges = {{0, 0}, {5, 5}, {9, 3}, {3, 67}, {100, 5000}, {65530, 65540},
+				{65536, 131072}, {1000, 140000}, {64, 128}, {70000, 140001}};
+		for (int[] range : ranges) {
+			int n = Math.max(0, range[1] - range[0]);
+			int[] docs = DocSet.range(range[0], range[1]).toArray();
+			assertEquals(n, docs.length);
+			for (int i = 0; i < n; i++)
+				assertEquals(range[0] + i, docs[i]);
+		}
+	}
+
+	/**
+	 * Tests and between sets of very different sizes, which gallops through the
+	 * bigger one's groups and arrays, including IDs at either end of a group.
+	 */
+	@Test
+	public void skewedAndTest() {
+		Random random = new Random(2718);
+		int[] small = {1, 5, 50, 200};
+		int[] big = {4000, 20000, 300000};
+		for (int a : small) {
+			for (int b : big) {
+				// sparse enough that every group is an array
+				TreeSet<Integer> x = randomSet(random, a, 20000000);
+				TreeSet<Integer> y = randomSet(random, b, 20000000);
+				for (int doc : new int[] {0, 65535, 65536, 19999999}) {
+					x.add(doc);
+					y.add(doc);
+				}
+				// and some of the big set's IDs, so there's something to find
+				for (int doc : y) {
+					if (random.nextInt(b / a + 1) == 0)
+						x.add(doc);
+				}
+				TreeSet<Integer> and = new TreeSet<Integer>(x);
+				and.retainAll(y);
+				assertArrayEquals(toArray(and), toDocSet(x).and(toDocSet(y)).toArray());
+				assertArrayEquals(toArray(and), toDocSet(y).and(toDocSet(x)).toArray());
+			}
+		}
+	}
+
+	private static TreeSet<Integer> randomSet(Random random, int size, int max) {
+		TreeSet<Integer> set = new TreeSet<Integer>();
+		while (set.size() < size)
+			set.add(random.nextInt(max));
+		return set;
+	}
+
+	private static DocSet toDocSet(TreeSet<Integer> docs) {
+		DocSet set = new DocSet();
+		for (int doc : docs)
+			set.add(doc);
+		return set;
+	}
+
+	private static int[] toArray(TreeSet<Integer> docs) {
+		int[] array = new int[docs.size()];
+		int i = 0;
+		for (int doc : docs)
+			array[i++] = doc;
+		return array;
+	}
+}
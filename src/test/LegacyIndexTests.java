@@ -0,0 +1,76 @@
+package test;
+
+import static org.junit.Assert.*;
+import static test.TestSite.pages;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.IndexFile;
+import assignment.WebCrawler;
+import assignment.WebIndex;
+
+/**
+ * Tests that an index.db serialized by the original WebIndex, before indexes had doc IDs, loads
+ * with the same answers as crawling its pages again. The fixture, src/test/legacy-index.db, was
+ * written by the original crawler from the site below. Needs to be run from the project root.
+ */
+public class LegacyIndexTests {
+
+	static final String FIXTURE = "src/test/legacy-index.db";
+	static final String[] QUERIES = {"the", "end", "york", "\"the end\"", "\"new york\"", "\"was it\"",
+			"\"it was the end\"", "story & !end", "home | empty", "!the", "o*", "ne* & !old"};
+
+	TestSite site;
+
+	@Before
+	public void writeSite() throws IOException {
+		site = new TestSite("legacy");
+		site.write("index.html", "<p>home page of the old index</p> <a href='story.html'>the story</a>"
+				+ " <a href='other.html'>other</a>");
+		site.write("story.html", "<p>it was the</p> <p>end of it, or was it?</p> <a href='index.html'>home</a>");
+		site.write("other.html", "<p>The End of the story.</p> <p>New York, New York</p>"
+				+ " <a href='empty.html'>empty</a>");
+		site.write("empty.html", "");
+	}
+
+	@After
+	public void deleteSite() throws IOException {
+		site.delete();
+	}
+
+	/**
+	 * The original index has the same pages, words and phrases as a new crawl, and phrases
+	 * still don't span the blocks of a page.
+	 */
+	@Test
+	public void loadTest() throws Exception {
+		assertFalse(IndexFile.isIndexFile(FIXTURE));
+		WebIndex legacy = (WebIndex) Index.load(FIXTURE);
+		WebIndex crawled = WebCrawler.crawl(site.seeds());
+		assertEquals(3, legacy.pageCount());
+		assertEquals(crawled.totalLength(), legacy.totalLength());
+		assertEquals(Set.of("other.html"), pages(legacy, "\"the end\""));
+		for (String query : QUERIES)
+			assertEquals(query, pages(crawled, query), pages(legacy, query));
+	}
+
+	/**
+	 * Saving the original index again writes it as an index file, with the same answers.
+	 */
+	@Test
+	public void saveTest() throws Exception {
+		WebIndex legacy = (WebIndex) Index.load(FIXTURE);
+		String path = site.resolve("index.db").toString();
+		legacy.save(path);
+		assertTrue(IndexFile.isIndexFile(path));
+		WebIndex saved = (WebIndex) Index.load(path);
+		for (String query : QUERIES)
+			assertEquals(query, pages(legacy, query), pages(saved, query));
+	}
+}
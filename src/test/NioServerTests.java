@@ -0,0 +1,230 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.NioServer;
+import assignment.Page;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+import assignment.WebServer;
+
+/**
+ * Checks that NioServer answers requests like the blocking server does, over kept-alive,
+ * pipelined and idle connections, and hangs up on requests it can't answer. Run from the
+ * project root, where tsoogle.png is.
+ */
+public class NioServerTests {
+
+	int port;
+	NioServer server;
+
+	@Before
+	public void startServer() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		WebIndex index = new WebIndex();
+		index.add("cats", "", new Page(new URL("http://example.com/cats.html")));
+		index.add("café", "cats", new Page(new URL("http://example.com/cats.html")));
+		index.add("cats", "", new Page(new URL("http://example.com/more.html")));
+		// a backlog big enough for idleTest's connections, which are opened faster than they're accepted
+		server = new NioServer(new WebServer(WebQueryEngine.fromIndex(index), port, 1, 16), port, 4096, 2, 2);
+		Thread serving = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		serving.setDaemon(true);
+		serving.start();
+	}
+
+	@After
+	public void stopServer() throws IOException {
+		server.close();
+	}
+
+	/**
+	 * Requests sent together, and a request sent a few bytes at a time, are each
+	 * answered in order on one connection, with percent decoded parameters.
+	 */
+	@Test
+	public void pipeliningTest() throws Exception {
+		try (Socket socket = connect()) {
+			OutputStream out = socket.getOutputStream();
+			InputStream in = socket.getInputStream();
+			out.write(("GET /suggest?prefix=caf%C3%A9 HTTP/1.1\r\nHost: localhost\r\n\r\n" +
+					"HEAD / HTTP/1.1\r\n\r\n" +
+					"GET /search?query=cats HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+			out.flush();
+			Response suggest = Response.read(in, false);
+			assertEquals("HTTP/1.1 200 OK", suggest.status);
+			assertTrue(suggest.body, suggest.body.startsWith("{\"prefix\": \"café\", \"suggestions\": [{\"word\": \"café\""));
+			Response head = Response.read(in, true);
+			assertEquals("HTTP/1.1 200 OK", head.status);
+			assertEquals("", head.body);
+			Response search = Response.read(in, false);
+			assertEquals("chunked", search.header("Transfer-Encoding"));
+			assertTrue(search.body.contains("http://example.com/cats.html"));
+			assertTrue(search.body.contains("http://example.com/more.html"));
+
+			byte[] request = "GET /suggest?prefix=ca HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+			for (int i = 0; i < request.length; i += 5) {
+				out.write(request, i, Math.min(5, request.length - i));
+				out.flush();
+				Thread.sleep(2);
+			}
+			Response last = Response.read(in, false);
+			assertEquals("close", last.header("Connection"));
+			assertTrue(last.body.contains("\"cats\""));
+			assertEquals(-1, in.read());
+		}
+	}
+
+	/**
+	 * The logo is sent from its file, whole, and an HTTP/1.0 search ends by
+	 * closing the connection, as it does on the blocking server.
+	 */
+	@Test
+	public void staticAndCloseTest() throws Exception {
+		try (Socket socket = connect()) {
+			socket.getOutputStream().write("GET /static/tsoogle.png HTTP/1.1\r\n\r\nGET /search?query=cats HTTP/1.0\r\n\r\n"
+					.getBytes(StandardCharsets.ISO_8859_1));
+			InputStream in = socket.getInputStream();
+			Response logo = Response.read(in, false);
+			assertEquals("image/png", logo.header("Content-Type"));
+			assertArrayEquals(Files.readAllBytes(Paths.get("tsoogle.png")), logo.bytes);
+			Response search = Response.read(in, false);
+			assertEquals("HTTP/1.0 200 OK", search.status);
+			assertTrue(search.body.contains("http://example.com/cats.html"));
+		}
+	}
+
+	/**
+	 * Thousands of idle connections, more than there are threads by far, stay
+	 * open and are still answered.
+	 */
+	@Test
+	public void idleTest() throws Exception {
+		List<Socket> idle = new ArrayList<Socket>();
+		try {
+			for (int i = 0; i < 2000; i++)
+				idle.add(connect());
+			for (int i = 0; i < idle.size(); i += 499) {
+				Socket socket = idle.get(i);
+				socket.getOutputStream().write("GET /suggest?prefix=c HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+				assertEquals("HTTP/1.1 200 OK", Response.read(socket.getInputStream(), false).status);
+			}
+		} finally {
+			for (Socket socket : idle)
+				socket.close();
+		}
+	}
+
+	/**
+	 * Methods other than GET and HEAD, malformed escapes and requests too big
+	 * to buffer are hung up on.
+	 */
+	@Test
+	public void badRequestTest() throws Exception {
+		StringBuilder huge = new StringBuilder("GET / HTTP/1.1\r\n");
+		while (huge.length() < 10000)
+			huge.append("X-Filler: ").append(huge.length()).append("\r\n");
+		for (String request : new String[] {"POST / HTTP/1.1\r\n\r\n", "GET /search?query=%E HTTP/1.1\r\n\r\n",
+				" GET / HTTP/1.1\r\n\r\n", "GET /\r\n\r\n", huge.toString()}) {
+			try (Socket socket = connect()) {
+				socket.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+				assertEquals(request, -1, socket.getInputStream().read());
+			}
+		}
+	}
+
+	/**
+	 * Connects to the server, retrying while it starts listening.
+	 */
+	private Socket connect() throws Exception {
+		for (int attempt = 0; ; attempt++) {
+			try {
+				Socket socket = new Socket("localhost", port);
+				socket.setSoTimeout(10000);
+				return socket;
+			} catch (IOException e) {
+				// not listening yet
+				assertTrue(attempt < 100);
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	/**
+	 * A response read off a connection, with its body taken from Content-Length, chunks, or
+	 * everything up to the end of the connection.
+	 */
+	static class Response {
+		String status, headers, body;
+		byte[] bytes;
+
+		String header(String name) {
+			for (String line : headers.split("\r\n")) {
+				if (line.regionMatches(true, 0, name + ":", 0, name.length() + 1))
+					return line.substring(name.length() + 1).trim();
+			}
+			return null;
+		}
+
+		static Response read(InputStream in, boolean head) throws IOException {
+			Response response = new Response();
+			response.status = readLine(in);
+			String line;
+			StringBuilder headers = new StringBuilder();
+			while (!(line = readLine(in)).isEmpty())
+				headers.append(line).append("\r\n");
+			response.headers = headers.toString();
+
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			if (head) {
+				// no body, whatever the headers say
+			} else if (response.header("Content-Length") != null) {
+				body.write(in.readNBytes(Integer.parseInt(response.header("Content-Length"))));
+			} else if ("chunked".equals(response.header("Transfer-Encoding"))) {
+				for (int size; (size = Integer.parseInt(readLine(in), 16)) > 0; readLine(in))
+					body.write(in.readNBytes(size));
+				readLine(in);
+			} else {
+				body.write(in.readAllBytes());
+			}
+			response.bytes = body.toByteArray();
+			response.body = new String(response.bytes, StandardCharsets.UTF_8);
+			return response;
+		}
+
+		private static String readLine(InputStream in) throws IOException {
+			StringBuilder line = new StringBuilder();
+			for (int c = in.read(); c != '\n'; c = in.read()) {
+				if (c < 0)
+					throw new IOException("Connection closed mid response");
+				if (c != '\r')
+					line.append((char) c);
+			}
+			return line.toString();
+		}
+	}
+}
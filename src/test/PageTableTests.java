@@ -0,0 +1,135 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.DocSet;
+import assignment.Index;
+import assignment.Page;
+import assignment.PageTable;
+import assignment.WebIndex;
+
+/**
+ * Checks that pages hash the way they're compared, and that PageTable and WebIndex give
+ * every URL for the same page one doc ID, in memory, serialized and loaded from a file.
+ */
+public class PageTableTests {
+
+	Path directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = Files.createTempDirectory("pages");
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		Files.deleteIfExists(directory.resolve("index.db"));
+		Files.delete(directory);
+	}
+
+	/**
+	 * Pages for the same file, in any case, are equal and hash the same, so
+	 * a HashSet keeps one of them.
+	 */
+	@Test
+	public void hashTest() throws Exception {
+		Page page = new Page(new URL("http://example.com/Cats.html"));
+		Page same = new Page(new URL("http://example.com/cats.HTML"));
+		Page other = new Page(new URL("http://example.com/dogs.html"));
+		assertEquals(page, same);
+		assertEquals(page.hashCode(), same.hashCode());
+		assertFalse(page.equals(other));
+
+		Set<Page> pages = new HashSet<Page>();
+		pages.add(page);
+		pages.add(same);
+		pages.add(other);
+		assertEquals(2, pages.size());
+	}
+
+	/**
+	 * Every page gets the next doc ID, and is found by any URL for it, skipping
+	 * deleted IDs, however big the table grows.
+	 */
+	@Test
+	public void findTest() throws Exception {
+		PageTable table = new PageTable();
+		DocSet deleted = new DocSet();
+		for (int i = 0; i < 5000; i++)
+			assertEquals(i, table.add(new URL("http://example.com/" + i + ".html")));
+		assertEquals(5000, table.size());
+		assertEquals("http://example.com/1234.html", table.url(1234));
+		assertEquals(new Page(new URL("http://example.com/1234.html")), table.page(1234));
+		for (int i = 0; i < 5000; i += 7)
+			assertEquals(i, table.find(new URL("http://example.com/" + i + ".HTML"), deleted));
+		assertEquals(-1, table.find(new URL("http://example.com/5000.html"), deleted));
+
+		// a deleted page is found again once it's been added again
+		deleted.add(42);
+		assertEquals(-1, table.find(new URL("http://example.com/42.html"), deleted));
+		assertEquals(5000, table.add(new URL("http://example.com/42.html")));
+		assertEquals(5000, table.find(new URL("http://example.com/42.html"), deleted));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(table);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			PageTable read = (PageTable) in.readObject();
+			assertEquals(5001, read.size());
+			assertEquals("http://example.com/4999.html", read.url(4999));
+			assertEquals(5000, read.find(new URL("http://example.com/42.html"), deleted));
+			assertEquals(4999, read.find(new URL("http://example.com/4999.html"), deleted));
+		}
+	}
+
+	/**
+	 * Adding words for a page with another Page object gives it the same doc ID, or replaces
+	 * it if other pages were added since, and getUrls and delete find the page from Pages
+	 * made again from its URL.
+	 */
+	@Test
+	public void indexTest() throws Exception {
+		WebIndex index = new WebIndex();
+		index.add("cats", "", new Page(new URL("http://example.com/cats.html")));
+		index.add("birds", "", new Page(new URL("http://example.com/dogs.html")));
+		index.add("dogs", "birds", new Page(new URL("http://example.com/DOGS.html")));
+		assertEquals(2, index.size());
+		index.add("cats", "", new Page(new URL("http://example.com/CATS.html")));
+		index.add("dogs", "cats", new Page(new URL("http://example.com/cats.html")));
+		assertEquals(3, index.size());
+		assertEquals(2, index.pageCount());
+		assertEquals(Set.of(new Page(new URL("http://example.com/cats.html"))), index.getUrls("cats"));
+		assertEquals(Set.of(new Page(new URL("http://example.com/dogs.html"))), index.getUrls("birds"));
+
+		String path = directory.resolve("index.db").toString();
+		index.save(path);
+		for (WebIndex loaded : new WebIndex[] {index, (WebIndex) Index.load(path)}) {
+			Set<Page> urls = new HashSet<Page>();
+			urls.add(new Page(new URL("http://example.com/cats.html")));
+			urls.add(new Page(new URL("http://example.com/birds.html")));
+			assertEquals(urls.size() - 1, loaded.getUrls("dogs", urls).size());
+			assertEquals(2, loaded.getUrls("dogs", loaded.allPages()).size());
+			assertEquals(1, loaded.getUrls(new String[] {"cats", "dogs"}, loaded.pageView(loaded.allDocs()), false).size());
+
+			assertTrue(loaded.delete(new Page(new URL("http://example.com/Dogs.html"))));
+			assertFalse(loaded.delete(new Page(new URL("http://example.com/dogs.html"))));
+			assertEquals(Set.of(new Page(new URL("http://example.com/cats.html"))), loaded.getUrls("dogs"));
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.Page;
+import assignment.PostingList;
+import assignment.WebIndex;
+
+/**
+ * Checks the positions kept in each word's PostingList, and the phrase queries
+ * answered from them, including after merging, saving and loading an index.
+ */
+public class PhraseTests {
+
+	/**
+	 * A cursor steps through the pages in doc ID order with each page's positions,
+	 * skipping the positions it isn't asked for, and appending moves a list's pages
+	 * along after another's.
+	 */
+	@Test
+	public void positionsTest() {
+		PostingList list = new PostingList();
+		list.add(0, 3);
+		list.add(0, 200);
+		list.add(0, 100000);
+		list.add(5, 0);
+		list.add(130, 7);
+		list.add(130, 8);
+		assertEquals(3, list.docCount());
+		assertEquals(3, list.maxFrequency());
+
+		PostingList.Cursor cursor = list.cursor();
+		assertEquals(-1, cursor.doc());
+		assertEquals(0, cursor.next());
+		assertEquals(3, cursor.readPositions());
+		assertEquals(3, cursor.positions()[0]);
+		assertEquals(200, cursor.positions()[1]);
+		assertEquals(100000, cursor.positions()[2]);
+		// the positions of page 5 are skipped over
+		assertEquals(5, cursor.next());
+		assertEquals(130, cursor.next());
+		assertEquals(2, cursor.frequency());
+		assertEquals(-1, cursor.next());
+
+		PostingList other = new PostingList();
+		other.add(2, 1);
+		other.add(9, 4);
+		other.add(9, 6);
+		list.append(other, 200);
+		assertEquals(5, list.docCount());
+		cursor = list.cursor();
+		int[] docs = {0, 5, 130, 202, 209};
+		for (int doc : docs)
+			assertEquals(doc, cursor.next());
+		assertEquals(2, cursor.readPositions());
+		assertEquals(4, cursor.positions()[0]);
+		assertEquals(6, cursor.positions()[1]);
+		assertEquals(-1, cursor.next());
+	}
+
+	/**
+	 * A page has a phrase only if its words are next to each other, in order,
+	 * in the same block of text.
+	 */
+	@Test
+	public void phraseTest() {
+		WebIndex index = new WebIndex();
+		addText(index, "a.html", "the end of the story", "the end");
+		addText(index, "b.html", "end the story", "the");
+		// the phrase only spans two blocks
+		addText(index, "c.html", "this is the", "end of it");
+		addText(index, "d.html", "the the end", "");
+
+		assertEquals(Set.of("a.html", "d.html"), phrase(index, false, "the", "end"));
+		assertEquals(Set.of("b.html", "c.html"), phrase(index, true, "the", "end"));
+		assertEquals(Set.of("a.html"), phrase(index, false, "end", "of", "the"));
+		assertEquals(Set.of("b.html"), phrase(index, false, "end", "the"));
+		assertEquals(Set.of("d.html"), phrase(index, false, "the", "the", "end"));
+		assertEquals(Set.of("a.html", "d.html"), phrase(index, false, "The", "END"));
+		assertEquals(Set.of(), phrase(index, false, "the", "missing"));
+		assertEquals(Set.of(), phrase(index, false, "is", "end"));
+	}
+
+	/**
+	 * Phrases are found the same way in indexes merged from parallel workers,
+	 * and in indexes saved and loaded again.
+	 */
+	@Test
+	public void mergeAndSaveTest() throws Exception {
+		WebIndex index = new WebIndex();
+		addText(index, "a.html", "new york city", "york new");
+		WebIndex other = new WebIndex();
+		addText(other, "b.html", "old new york", "");
+		addText(other, "c.html", "new", "york");
+		index.merge(other);
+
+		assertEquals(Set.of("a.html", "b.html"), phrase(index, false, "new", "york"));
+		assertEquals(Set.of("a.html"), phrase(index, false, "york", "new"));
+
+		File file = File.createTempFile("phrases", ".db");
+		try {
+			index.save(file.getPath());
+			WebIndex loaded = (WebIndex) Index.load(file.getPath());
+			for (String[] words : new String[][] {{"new", "york"}, {"york", "new"}, {"old", "new", "york"}})
+				assertEquals(phrase(index, false, words), phrase(loaded, false, words));
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Adds the words of each block of text to the given page, as the crawler does.
+	 */
+	private static void addText(WebIndex index, String name, String... blocks) {
+		Page page = WebIndex.getPage("file:/" + name);
+		for (String block : blocks) {
+			String prev = "";
+			for (String word : block.split(" ")) {
+				if (word.isEmpty())
+					continue;
+				index.add(word, prev, page);
+				prev = word;
+			}
+		}
+	}
+
+	/**
+	 * Returns the file names of the pages with, or without, the given phrase.
+	 */
+	private static Set<String> phrase(WebIndex index, boolean not, String... words) {
+		Set<String> names = new HashSet<String>();
+		for (Page page : index.getUrls(words, index.allPages(), not)) {
+			String file = page.getURL().getPath();
+			names.add(file.substring(file.lastIndexOf('/') + 1));
+		}
+		return names;
+	}
+}
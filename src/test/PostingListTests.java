@@ -0,0 +1,138 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.PostingList;
+import assignment.WebIndex;
+
+/**
+ * Checks that advancing a PostingList cursor with its skip pointers lands on the same pages
+ * as stepping through every page, for lists built page by page, appended to each other,
+ * serialized, and read back from an index file.
+ */
+public class PostingListTests {
+
+	/**
+	 * Advancing by small and large steps finds the first page at or after each
+	 * target, with its positions, and stops at the end of the list.
+	 */
+	@Test
+	public void advanceTest() {
+		Random random = new Random(42);
+		List<Integer> docs = new ArrayList<Integer>();
+		List<Integer> counts = new ArrayList<Integer>();
+		PostingList list = randomList(random, 5000, docs, counts);
+		checkAdvance(random, list, docs, counts);
+
+		// appending keeps the other list's skips, moved along with its pages
+		List<Integer> more = new ArrayList<Integer>();
+		PostingList other = randomList(random, 3000, more, counts);
+		int base = docs.get(docs.size() - 1) + 1;
+		list.append(other, base);
+		for (int doc : more)
+			docs.add(doc + base);
+		checkAdvance(random, list, docs, counts);
+	}
+
+	/**
+	 * Lists read back, which weren't saved with their skips, find them again.
+	 */
+	@Test
+	public void readBackTest() throws Exception {
+		Random random = new Random(7);
+		List<Integer> docs = new ArrayList<Integer>();
+		List<Integer> counts = new ArrayList<Integer>();
+		PostingList list = randomList(random, 2000, docs, counts);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(list);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			checkAdvance(random, (PostingList) in.readObject(), docs, counts);
+		}
+
+		WebIndex index = new WebIndex();
+		docs.clear();
+		counts.clear();
+		for (int i = 0; i < 1000; i++) {
+			String other = "page" + (char) ('a' + i % 26) + (char) ('a' + i / 26 % 26) + (char) ('a' + i / 676);
+			if (random.nextInt(3) == 0) {
+				index.add("common", "word", WebIndex.getPage("file:/" + other + ".html"));
+				docs.add(index.size() - 1);
+				counts.add(1);
+			} else {
+				index.add("other", "word", WebIndex.getPage("file:/" + other + ".html"));
+			}
+		}
+		File file = File.createTempFile("postings", ".db");
+		try {
+			index.save(file.getPath());
+			WebIndex loaded = (WebIndex) Index.load(file.getPath());
+			checkAdvance(random, loaded.postings("common"), docs, counts);
+		} finally {
+			file.delete();
+		}
+	}
+
+	/**
+	 * Returns a list of count pages with gaps of up to 50 doc IDs and up to 5
+	 * positions 10 apart, adding each page's doc ID to docs and its number of
+	 * positions to counts.
+	 */
+	private static PostingList randomList(Random random, int count, List<Integer> docs, List<Integer> counts) {
+		PostingList list = new PostingList();
+		int doc = 0;
+		for (int i = 0; i < count; i++) {
+			doc += 1 + random.nextInt(50);
+			int positions = 1 + random.nextInt(5);
+			for (int p = 0; p < positions; p++)
+				list.add(doc, 10 * p);
+			docs.add(doc);
+			counts.add(positions);
+		}
+		return list;
+	}
+
+	private static void checkAdvance(Random random, PostingList list, List<Integer> docs, List<Integer> counts) {
+		assertEquals(docs.size(), list.docCount());
+		int last = docs.get(docs.size() - 1);
+		for (int step : new int[] {1, 7, 100, 3000, 50000}) {
+			PostingList.Cursor cursor = list.cursor();
+			int i = 0;
+			// the last page whose positions were looked at, which can't be read again
+			int read = -1;
+			for (int target = random.nextInt(step + 1); ; target += 1 + random.nextInt(step)) {
+				while (i < docs.size() && docs.get(i) < target)
+					i++;
+				int found = cursor.advance(target);
+				if (i == docs.size()) {
+					assertEquals(-1, found);
+					break;
+				}
+				assertEquals(docs.get(i).intValue(), found);
+				// positions still line up after a skip
+				if (found != read && random.nextBoolean()) {
+					read = found;
+					int n = counts.get(i);
+					assertEquals(n, cursor.readPositions());
+					assertEquals(10 * (n - 1) + cursor.positions()[0], cursor.positions()[n - 1]);
+				}
+				// advancing to the page the cursor is on stays there
+				assertEquals(found, cursor.advance(target));
+			}
+			assertEquals(-1, list.cursor().advance(last + 1));
+		}
+	}
+}
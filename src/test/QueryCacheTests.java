@@ -0,0 +1,120 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import assignment.Page;
+import assignment.QueryCache;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Tests the W-TinyLFU QueryCache, and the result cache of WebQueryEngine built on it.
+ */
+public class QueryCacheTests {
+
+	/**
+	 * Values come back until they're evicted, and every lookup
+	 * counts as a hit or a miss.
+	 */
+	@Test
+	public void getPutTest() {
+		QueryCache<String, Integer> cache = QueryCache.ofEntries(100);
+		assertNull(cache.get("a"));
+		cache.put("a", 1);
+		cache.put("b", 2);
+		assertEquals(Integer.valueOf(1), cache.get("a"));
+		assertEquals(Integer.valueOf(2), cache.get("b"));
+		cache.put("a", 3);
+		assertEquals(Integer.valueOf(3), cache.get("a"));
+		assertEquals(3, cache.hits());
+		assertEquals(1, cache.misses());
+
+		cache.clear();
+		assertNull(cache.get("a"));
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * The cache never holds more than its limit, by count or by weight.
+	 */
+	@Test
+	public void boundTest() {
+		QueryCache<Integer, Integer> cache = QueryCache.ofEntries(50);
+		for (int i = 0; i < 1000; i++) {
+			cache.put(i, i);
+			cache.get(i % 70);
+			assertTrue(cache.size() <= 50);
+		}
+
+		QueryCache<Integer, String> bytes = new QueryCache<Integer, String>(1000, 100, s -> s.length());
+		for (int i = 0; i < 1000; i++) {
+			bytes.put(i, "x".repeat(1 + i % 37));
+			assertTrue(bytes.weight() <= 1000);
+		}
+		// too big to ever fit
+		bytes.put(-1, "x".repeat(1001));
+		assertNull(bytes.get(-1));
+	}
+
+	/**
+	 * A scan of keys that are only asked for once doesn't push
+	 * out the keys that are asked for all the time.
+	 */
+	@Test
+	public void scanResistanceTest() {
+		QueryCache<String, Integer> cache = QueryCache.ofEntries(100);
+		for (int round = 0; round < 20; round++) {
+			for (int i = 0; i < 50; i++) {
+				if (cache.get("popular" + i) == null)
+					cache.put("popular" + i, i);
+			}
+		}
+		for (int i = 0; i < 10000; i++) {
+			if (cache.get("once" + i) == null)
+				cache.put("once" + i, i);
+		}
+
+		int kept = 0;
+		for (int i = 0; i < 50; i++) {
+			if (cache.get("popular" + i) != null)
+				kept++;
+		}
+		assertTrue("only " + kept + " popular keys kept", kept >= 45);
+	}
+
+	/**
+	 * Queries with the same postfix form share an entry, and changing
+	 * the index clears the cached results.
+	 */
+	@Test
+	public void engineTest() {
+		WebIndex index = new WebIndex();
+		Page first = WebIndex.getPage("file:/first.html");
+		Page second = WebIndex.getPage("file:/second.html");
+		index.add("cats", "", first);
+		index.add("dogs", "cats", first);
+		index.add("cats", "", second);
+
+		WebQueryEngine engine = WebQueryEngine.fromIndex(index);
+		assertEquals(1, engine.query("cats & dogs").size());
+		assertEquals(0, engine.cacheHits());
+		assertEquals(1, engine.query("cats dogs").size());
+		assertEquals(1, engine.query("(cats)&(dogs)").size());
+		assertEquals(2, engine.cacheHits());
+
+		// ranked queries use the same entries
+		assertEquals(1, engine.rankedQuery("cats dogs", 10).totalHits());
+		assertEquals(3, engine.cacheHits());
+
+		index.add("dogs", "", second);
+		assertEquals(2, engine.query("cats & dogs").size());
+		assertEquals(3, engine.cacheHits());
+
+		WebQueryEngine uncached = WebQueryEngine.fromIndex(index, 0);
+		uncached.query("cats");
+		uncached.query("cats");
+		assertEquals(0, uncached.cacheHits());
+	}
+}
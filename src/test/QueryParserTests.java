@@ -0,0 +1,98 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import assignment.Query;
+import assignment.QueryParser;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Checks that QueryParser gives queries the postfix forms the old regex pipeline gave them,
+ * builds the tree they describe, and says where a query stops making sense.
+ */
+public class QueryParserTests {
+
+	/**
+	 * Words next to each other are ANDed, & binds tighter than |, phrases
+	 * are joined with + and ! sticks to the term after it.
+	 */
+	@Test
+	public void postfixTest() {
+		String[][] cases = {
+			{"hello", "hello"},
+			{"  Hello\tWorld ", "hello world &"},
+			{"a | b & c", "a b c & |"},
+			{"a & b | c", "a b & c |"},
+			{"a | b | c", "a b | c |"},
+			{"(a | b)(c)", "a b | c &"},
+			{"! a !\"b c\"", "!a !b+c &"},
+			{"\"bob dylan\" ( big boy | toy ) & \"named troy\"", "bob+dylan big boy & toy | & named+troy &"},
+			{"shar* & !\"wat*\"", "shar* !wat* &"},
+			{"\"hello\"don't", "hello don't &"},
+			{"(((a)))", "a"},
+		};
+		WebQueryEngine engine = WebQueryEngine.fromIndex(new WebIndex());
+		for (String[] c : cases) {
+			assertEquals(c[0], c[1], QueryParser.parse(c[0]).postfix());
+			assertEquals(c[0], c[1], String.join(" ", engine.getPostFix(c[0])));
+		}
+	}
+
+	/**
+	 * The tree has the operators and terms the query was written with.
+	 */
+	@Test
+	public void treeTest() {
+		Query query = QueryParser.parse("cat | !\"big dog\" & fish*");
+		assertTrue(query instanceof Query.Or);
+		Query.Or or = (Query.Or) query;
+		assertEquals("cat", ((Query.Term) or.left()).text());
+		Query.And and = (Query.And) or.right();
+		Query.Term phrase = (Query.Term) and.left();
+		assertTrue(phrase.isNegated());
+		assertEquals(Arrays.asList("big", "dog"), phrase.words());
+		Query.Term prefix = (Query.Term) and.right();
+		assertTrue(prefix.isPrefix());
+		assertEquals(List.of("fish"), prefix.words());
+		assertEquals(3, query.terms().size());
+	}
+
+	/**
+	 * Invalid queries throw with the position they went wrong at, including
+	 * quoted operators, which the old pipeline used to treat as operators.
+	 */
+	@Test
+	public void errorTest() {
+		Object[][] cases = {
+			{"", 0}, {"   ", 0}, {"a &", 3}, {"| a", 0}, {"a & & b", 4}, {"(a | b", 0}, {"a | b)", 5},
+			{"()", 0}, {"a9", 1}, {"a+b", 1}, {"a!b", 1}, {"!!a", 1}, {"!(a)", 1}, {"a \"b", 2},
+			{"\"\"", 0}, {"\"a b*\"", 3}, {"\"!a\"", 1}, {"\"&\"", 1}, {"\"(\" a", 1}, {"ab**", 3},
+			{"(".repeat(QueryParser.MAX_DEPTH + 1) + "a" + ")".repeat(QueryParser.MAX_DEPTH + 1), QueryParser.MAX_DEPTH},
+		};
+		for (Object[] c : cases) {
+			try {
+				QueryParser.parse((String) c[0]);
+				fail("parsed " + c[0]);
+			} catch (QueryParser.SyntaxException e) {
+				assertEquals(c[0] + ": " + e.getMessage(), c[1], e.position());
+			}
+		}
+	}
+
+	/**
+	 * Every term the parser accepts is one WebIndex takes as a word or a prefix.
+	 */
+	@Test
+	public void termTest() {
+		for (String query : new String[] {"café", "l'été", "naïve*", "\"über alles\"", "'"}) {
+			for (String token : QueryParser.parse(query).postfix().split(" "))
+				assertTrue(token, WebIndex.isWord(token) || WebIndex.isPrefix(token));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Stack;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import assignment.DocSet;
+import assignment.Index;
+import assignment.Page;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Checks that compiled query plans, with their operands reordered and negations
+ * turned into set differences, match the same pages as evaluating the postfix
+ * form left to right. Needs 'index.db' in the path.
+ */
+public class QueryPlanTests {
+
+	static WebIndex index;
+	static WebQueryEngine engine;
+
+	static String[] words = {"the", "a", "of", "sherlock", "watson", "zebra", "cat", "dog",
+			"love", "\"of the\"", "\"new york\"", "!the", "!a", "!cat", "!\"of the\""};
+
+	@BeforeClass
+	public static void loadIndex() throws Exception {
+		index = (WebIndex) Index.load("index.db");
+		engine = WebQueryEngine.fromIndex(index, 0);
+	}
+
+	/**
+	 * Random queries of up to six terms joined by & and | match the same pages.
+	 */
+	@Test
+	public void equivalenceTest() {
+		Random random = new Random(314);
+		for (int i = 0; i < 300; i++) {
+			StringBuilder query = new StringBuilder(words[random.nextInt(words.length)]);
+			int terms = 1 + random.nextInt(6);
+			for (int j = 1; j < terms; j++) {
+				query.append(random.nextBoolean() ? " & " : " | ");
+				query.append(words[random.nextInt(words.length)]);
+			}
+			String q = query.toString();
+			assertEquals(q, toPages(leftToRight(engine.getPostFix(q))), new HashSet<Page>(engine.query(q)));
+		}
+	}
+
+	/**
+	 * An AND starts from its rarest operand and subtracts its negated ones.
+	 */
+	@Test
+	public void explainTest() {
+		String plan = engine.explain("the & watson & sherlock & !zebra");
+		String[] lines = plan.split("\n");
+		assertTrue(plan, lines[0].startsWith("and"));
+		assertTrue(plan, lines[1].trim().startsWith("word sherlock"));
+		assertTrue(plan, lines[2].trim().startsWith("word watson"));
+		assertTrue(plan, lines[3].trim().startsWith("word the"));
+		assertEquals(plan, "minus", lines[4].trim());
+		assertTrue(plan, lines[5].trim().startsWith("word zebra"));
+
+		// nothing is left after the first operand, so the phrase is never evaluated
+		plan = engine.explain("\"of the\" & zebra");
+		assertTrue(plan, plan.contains("skipped"));
+	}
+
+	/**
+	 * The postfix evaluation WebQueryEngine.query used before plans.
+	 */
+	private static DocSet leftToRight(Queue<String> postfix) {
+		Stack<DocSet> terms = new Stack<DocSet>();
+		for (String token : postfix) {
+			if (WebIndex.isWord(token)) {
+				terms.push(index.docs(token));
+			} else {
+				DocSet arg1 = terms.pop();
+				DocSet arg2 = terms.pop();
+				terms.push(token.equals("&") ? arg2.and(arg1) : arg2.or(arg1));
+			}
+		}
+		return terms.pop();
+	}
+
+	private static HashSet<Page> toPages(DocSet docs) {
+		return new HashSet<Page>(index.pageView(docs));
+	}
+}
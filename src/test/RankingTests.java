@@ -0,0 +1,127 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.Page;
+import assignment.RankedResults;
+import assignment.ResultCursor;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Checks that ranked queries return the same top pages as scoring every match,
+ * so skipping postings never changes the results. Needs 'index.db' in the path.
+ */
+public class RankingTests {
+
+	static WebQueryEngine engine;
+
+	static String[] queries = {"the", "\"of the\"", "love | hate", "cat & dog", "a & !the",
+			"(sherlock | holmes) & watson", "the | a | of | and", "!the", "zebra | quagga",
+			"\"it was a dark and stormy night\" | night"};
+
+	@BeforeClass
+	public static void loadIndex() throws Exception {
+		// without a cache, so every ranking is computed
+		engine = WebQueryEngine.fromIndex((WebIndex) Index.load("index.db"), 0);
+	}
+
+	/**
+	 * The top k for small k are the first k pages when every match is ranked.
+	 */
+	@Test
+	public void pruningTest() {
+		for (String query : queries) {
+			int total = engine.query(query).size();
+			if (total == 0)
+				continue;
+			RankedResults all = engine.rankedQuery(query, total);
+			assertEquals(total, all.totalHits());
+			assertEquals(new HashSet<Page>(engine.query(query)), new HashSet<Page>(all.pages()));
+			for (int i = 1; i < total; i++)
+				assertTrue(all.score(i - 1) >= all.score(i));
+
+			for (int k : new int[] {1, 10, 50}) {
+				RankedResults top = engine.rankedQuery(query, k);
+				assertEquals(total, top.totalHits());
+				assertEquals(Math.min(k, total), top.pages().size());
+				assertEquals(all.pages().subList(0, top.pages().size()), top.pages());
+				for (int i = 0; i < top.pages().size(); i++)
+					assertEquals(all.score(i), top.score(i), 0);
+			}
+		}
+	}
+
+	/**
+	 * Pages with the query's words more often, and fewer other words, come first.
+	 */
+	@Test
+	public void orderTest() {
+		WebIndex index = new WebIndex();
+		Page often = WebIndex.getPage("file:/often.html");
+		Page once = WebIndex.getPage("file:/once.html");
+		Page longer = WebIndex.getPage("file:/longer.html");
+		Page none = WebIndex.getPage("file:/none.html");
+		addText(index, often, "cats cats cats and dogs");
+		addText(index, once, "cats and dogs and birds");
+		addText(index, longer, "cats and dogs and birds and fish and more birds");
+		addText(index, none, "birds and fish");
+
+		WebQueryEngine small = WebQueryEngine.fromIndex(index, 0);
+		List<Page> pages = small.rankedQuery("cats", 10).pages();
+		assertEquals(List.of(often, once, longer), pages);
+
+		// matches without a scored word come last
+		pages = small.rankedQuery("cats | !dogs", 10).pages();
+		assertEquals(List.of(often, once, longer, none), pages);
+	}
+
+	/**
+	 * A cursor that starts with a small batch goes through every match in the
+	 * same order as ranking them all at once, and skipping lands on the same page.
+	 */
+	@Test
+	public void cursorTest() {
+		for (String query : queries) {
+			int total = engine.query(query).size();
+			if (total == 0)
+				continue;
+			List<Page> all = engine.rankedQuery(query, total).pages();
+
+			ResultCursor cursor = engine.cursor(query, 3);
+			assertEquals(total, cursor.totalHits());
+			for (int i = 0; i < total; i++) {
+				assertTrue(cursor.hasNext());
+				assertEquals(all.get(i), cursor.next());
+			}
+			assertFalse(cursor.hasNext());
+
+			cursor = engine.cursor(query, 1);
+			cursor.skip(total / 2);
+			assertEquals(all.get(total / 2), cursor.next());
+			cursor.skip(total);
+			assertEquals(total, cursor.position());
+			assertFalse(cursor.hasNext());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badKTest() {
+		engine.rankedQuery("the", 0);
+	}
+
+	private static void addText(WebIndex index, Page page, String text) {
+		String prev = "";
+		for (String word : text.split(" ")) {
+			index.add(word, prev, page);
+			prev = word;
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package test;
+
+import static org.junit.Assert.*;
+import static test.TestSite.pages;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.WebCrawler;
+import assignment.WebIndex;
+
+/**
+ * Tests that re-crawling a site updates its index to what crawling it from
+ * scratch would give, on a small site written to a temporary directory.
+ */
+public class RecrawlTests {
+
+	TestSite site;
+
+	@Before
+	public void writeSite() throws IOException {
+		site = new TestSite("recrawl");
+		site.write("index.html", "<p>home page</p> <a href='cats.html'>cats</a> <a href='dogs.html'>dogs</a>");
+		site.write("cats.html", "<p>cats purr</p> <a href='index.html'>home</a>");
+		site.write("dogs.html", "<p>dogs bark</p> <a href='empty.html'>more</a>");
+		site.write("empty.html", "<a href='birds.html'>birds</a>");
+		site.write("birds.html", "<p>birds sing</p>");
+	}
+
+	@After
+	public void deleteSite() throws IOException {
+		site.delete();
+	}
+
+	/**
+	 * Nothing changes, and nothing is parsed, if the site hasn't changed.
+	 */
+	@Test
+	public void unchangedTest() throws Exception {
+		WebIndex index = WebCrawler.crawl(site.seeds());
+		assertFalse(WebCrawler.recrawl(index, site.seeds()));
+
+		// a file that's only been touched is read but not parsed
+		Files.setLastModifiedTime(site.resolve("cats.html"), FileTime.fromMillis(0));
+		assertTrue(WebCrawler.recrawl(index, site.seeds()));
+		assertFalse(WebCrawler.recrawl(index, site.seeds()));
+		assertEquals(Set.of("cats.html"), pages(index, "purr"));
+	}
+
+	/**
+	 * Changed, new and deleted pages, including pages only reached through
+	 * a page without any words, give the same answers as a new crawl.
+	 */
+	@Test
+	public void changedTest() throws Exception {
+		WebIndex index = WebCrawler.crawl(site.seeds());
+		int modifications = index.modifications();
+
+		site.write("cats.html", "<p>cats meow</p> <a href='fish.html'>fish</a>");
+		site.write("fish.html", "<p>fish swim</p>");
+		Files.delete(site.resolve("dogs.html"));
+		// far enough in the future that the old time can't match
+		Files.setLastModifiedTime(site.resolve("cats.html"), FileTime.fromMillis(System.currentTimeMillis() + 60000));
+
+		assertTrue(WebCrawler.recrawl(index, site.seeds()));
+		assertTrue(index.modifications() > modifications);
+		WebIndex fresh = WebCrawler.crawl(site.seeds());
+		for (String word : new String[] {"cats", "purr", "meow", "fish", "dogs", "birds", "home", "!cats"})
+			assertEquals(word, pages(fresh, word), pages(index, word));
+		assertEquals(fresh.pageCount(), index.pageCount());
+		assertEquals(Set.of("cats.html", "fish.html", "index.html"), pages(index, "!home | home"));
+
+		// deletions and the crawl state survive saving
+		Path saved = site.resolve("index.db");
+		index.save(saved.toString());
+		WebIndex loaded = (WebIndex) Index.load(saved.toString());
+		assertEquals(pages(index, "cats | !cats"), pages(loaded, "cats | !cats"));
+		assertFalse(WebCrawler.recrawl(loaded, site.seeds()));
+	}
+}
@@ -0,0 +1,122 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.IndexDirectory;
+import assignment.ResultCursor;
+import assignment.WebCrawler;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+import assignment.WebServer;
+
+/**
+ * Tests that a running WebServer swaps in a new index when asked to or when
+ * the index it's watching changes, without disturbing queries already running.
+ */
+public class ReloadTests {
+
+	TestSite site;
+
+	@Before
+	public void writeSite() throws IOException {
+		site = new TestSite("reload");
+		site.write("index.html", "<p>home page</p> <a href='cats.html'>cats</a>");
+		site.write("cats.html", "<p>cats purr</p>");
+	}
+
+	@After
+	public void deleteSite() throws IOException {
+		site.delete();
+	}
+
+	/**
+	 * A reload swaps the engine and closes the old one, while a cursor from the
+	 * old engine keeps its results, and a failed reload keeps the old engine.
+	 */
+	@Test
+	public void reloadTest() throws Exception {
+		String path = site.resolve("index.db").toString();
+		WebQueryEngine old = WebQueryEngine.fromIndex(WebCrawler.crawl(site.seeds()));
+		WebServer server = new WebServer(old);
+		ResultCursor running = old.cursor("cats", 1);
+
+		site.write("dogs.html", "<p>dogs bark at cats</p>");
+		site.write("index.html", "<p>home page</p> <a href='cats.html'>cats</a> <a href='dogs.html'>dogs</a>");
+		WebCrawler.crawl(site.seeds()).save(path);
+		WebQueryEngine next = server.reload(path).get();
+		assertNotSame(old, next);
+		assertSame(next, server.engine());
+		assertEquals(3, server.engine().query("cats").size());
+		assertTrue(old.isClosed());
+		assertFalse(next.isClosed());
+
+		assertEquals(2, running.totalHits());
+		int count = 0;
+		while (running.hasNext()) {
+			running.next();
+			count++;
+		}
+		assertEquals(2, count);
+
+		try {
+			server.reload(site.resolve("missing.db").toString()).get();
+			fail("Loaded an index that doesn't exist");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertSame(next, server.engine());
+		assertFalse(next.isClosed());
+	}
+
+	/**
+	 * Saving over a watched index file, or adding a segment to a watched
+	 * IndexDirectory, gets the new index loaded.
+	 */
+	@Test
+	public void watchTest() throws Exception {
+		String path = site.resolve("index.db").toString();
+		WebCrawler.crawl(site.seeds()).save(path);
+		WebServer server = new WebServer(WebQueryEngine.fromIndex(WebCrawler.crawl(site.seeds())));
+		server.watch(path);
+
+		site.write("dogs.html", "<p>dogs bark</p>");
+		site.write("index.html", "<p>home page</p> <a href='cats.html'>cats</a> <a href='dogs.html'>dogs</a>");
+		WebCrawler.crawl(site.seeds()).save(path);
+		awaitResults(server, "bark", 1);
+
+		// the file is replaced by a directory of segments, which is then added to
+		site.write("cats.html", "<p>cats meow</p>");
+		try (IndexDirectory directory = IndexDirectory.create(path)) {
+			WebCrawler.crawl(site.seeds(), directory, 10);
+			awaitResults(server, "meow", 1);
+
+			site.write("birds.html", "<p>birds sing</p>");
+			LinkedList<URL> birds = new LinkedList<URL>();
+			birds.add(site.resolve("birds.html").toUri().toURL());
+			WebIndex segment = WebCrawler.crawl(birds);
+			directory.add(segment);
+			awaitResults(server, "birds", 1);
+		}
+	}
+
+	/**
+	 * Waits for the server's engine to find the given number of results for
+	 * a query, failing if it doesn't within a few seconds.
+	 */
+	private static void awaitResults(WebServer server, String query, int results) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (server.engine().query(query).size() != results) {
+			assertTrue("Index wasn't reloaded for " + query, System.currentTimeMillis() < deadline);
+			Thread.sleep(50);
+		}
+	}
+}
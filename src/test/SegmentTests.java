@@ -0,0 +1,133 @@
+package test;
+
+import static org.junit.Assert.*;
+import static test.TestSite.pages;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.IndexDirectory;
+import assignment.Page;
+import assignment.WebCrawler;
+import assignment.WebIndex;
+
+/**
+ * Tests that an index crawled into the segments of an IndexDirectory, merged and
+ * updated, gives the same answers as one crawled into memory.
+ */
+public class SegmentTests {
+
+	static final String[] QUERIES = {"cats", "purr", "meow", "fish", "dogs", "birds", "home",
+			"!cats", "cats | dogs", "\"cats purr\"", "home & !cats"};
+
+	TestSite site;
+	String path;
+
+	@Before
+	public void writeSite() throws IOException {
+		site = new TestSite("segments");
+		path = site.resolve("index.db").toString();
+		site.write("index.html", "<p>home page</p> <a href='cats.html'>cats</a> <a href='dogs.html'>dogs</a>");
+		site.write("cats.html", "<p>cats purr</p> <a href='index.html'>home</a>");
+		site.write("dogs.html", "<p>dogs bark at cats</p> <a href='empty.html'>more</a>");
+		site.write("empty.html", "<a href='birds.html'>birds</a>");
+		site.write("birds.html", "<p>birds sing at home</p> <a href='more.html'>more</a>");
+		site.write("more.html", "<p>more cats purr</p>");
+	}
+
+	@After
+	public void deleteSite() throws IOException {
+		site.delete();
+	}
+
+	/**
+	 * Segments written a page at a time, and merged, give the same answers as the crawl
+	 * did in memory, both while they're being written and once they're reopened.
+	 */
+	@Test
+	public void crawlTest() throws Exception {
+		WebIndex expected = WebCrawler.crawl(site.seeds());
+		try (IndexDirectory directory = IndexDirectory.create(path)) {
+			WebCrawler.crawl(site.seeds(), directory, 1);
+			directory.waitForMerges();
+			// four of the six segments are merged into one
+			assertEquals(3, directory.segmentCount());
+			assertSameResults(expected, directory.reader());
+		}
+		assertTrue(IndexDirectory.isIndexDirectory(path));
+		assertSameResults(expected, (WebIndex) Index.load(path));
+	}
+
+	/**
+	 * A reader keeps seeing the segments it was made from while pages are added and
+	 * deleted, and later readers see the changes.
+	 */
+	@Test
+	public void updateTest() throws Exception {
+		try (IndexDirectory directory = IndexDirectory.create(path)) {
+			WebCrawler.crawl(site.seeds(), directory, 2);
+			directory.waitForMerges();
+			WebIndex before = directory.reader();
+			int generation = directory.generation();
+
+			Page cats = null;
+			for (Page page : before.allPages()) {
+				if (page.getURL().getPath().endsWith("/cats.html"))
+					cats = page;
+			}
+			directory.update(List.of(cats), null);
+			WebIndex after = directory.reader();
+
+			assertTrue(directory.generation() > generation);
+			assertEquals(Set.of("index.html", "cats.html", "dogs.html", "more.html"), pages(before, "cats"));
+			assertEquals(Set.of("index.html", "dogs.html", "more.html"), pages(after, "cats"));
+			assertEquals(before.pageCount() - 1, after.pageCount());
+		}
+		assertEquals(Set.of("more.html"), pages((WebIndex) Index.load(path), "purr"));
+	}
+
+	/**
+	 * Re-crawling into a new segment gives the same answers as crawling the changed
+	 * site from scratch, before and after the segments are merged.
+	 */
+	@Test
+	public void recrawlTest() throws Exception {
+		try (IndexDirectory directory = IndexDirectory.create(path)) {
+			WebCrawler.crawl(site.seeds(), directory, 1);
+			directory.waitForMerges();
+			assertFalse(WebCrawler.recrawl(directory, site.seeds()));
+
+			site.write("cats.html", "<p>cats meow</p> <a href='fish.html'>fish</a>");
+			site.write("fish.html", "<p>fish swim</p>");
+			Files.delete(site.resolve("dogs.html"));
+			Files.setLastModifiedTime(site.resolve("cats.html"), FileTime.fromMillis(System.currentTimeMillis() + 60000));
+			assertTrue(WebCrawler.recrawl(directory, site.seeds()));
+			WebIndex fresh = WebCrawler.crawl(site.seeds());
+			assertSameResults(fresh, directory.reader());
+
+			// enough re-crawls to merge the new segments, with the pages they replaced left out
+			for (int i = 0; i < IndexDirectory.MERGE_FACTOR; i++) {
+				site.write("fish.html", "<p>fish swim " + "far ".repeat(i) + "</p>");
+				assertTrue(WebCrawler.recrawl(directory, site.seeds()));
+			}
+			directory.waitForMerges();
+			assertSameResults(WebCrawler.crawl(site.seeds()), directory.reader());
+			assertFalse(WebCrawler.recrawl(directory, site.seeds()));
+		}
+		assertFalse(WebCrawler.recrawl(IndexDirectory.open(path), site.seeds()));
+	}
+
+	private void assertSameResults(WebIndex expected, WebIndex actual) {
+		for (String query : QUERIES)
+			assertEquals(query, pages(expected, query), pages(actual, query));
+		assertEquals(expected.pageCount(), actual.pageCount());
+	}
+}
@@ -0,0 +1,153 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.Page;
+import assignment.PostingList;
+import assignment.RankedResults;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Checks that evaluating queries over the shards of an index in parallel gives the same
+ * pages and rankings as evaluating them over the whole index. Needs 'index.db' in the path.
+ */
+public class ShardTests {
+
+	static WebIndex index;
+	static WebQueryEngine whole;
+
+	static String[] queries = {"the", "\"of the\"", "!\"of the\"", "love | hate", "cat & dog", "a & !the",
+			"(sherlock | holmes) & watson", "!the", "zebra | quagga", "sher* | !wat*",
+			"\"it was a dark and stormy night\" | night", "!\"the end\" & !finis"};
+
+	@BeforeClass
+	public static void loadIndex() throws Exception {
+		index = (WebIndex) Index.load("index.db");
+		// without a cache, so every query is evaluated
+		whole = WebQueryEngine.fromIndex(index, 0);
+	}
+
+	/**
+	 * Every number of shards finds the same pages, and ranks them the same with
+	 * the same scores.
+	 */
+	@Test
+	public void sameResultsTest() {
+		for (int shards : new int[] {2, 3, 8}) {
+			WebQueryEngine sharded = WebQueryEngine.fromIndex(index, 0, shards);
+			assertEquals(shards, sharded.shards());
+			for (String query : queries) {
+				HashSet<Page> expected = new HashSet<Page>(whole.query(query));
+				assertEquals(query, expected, new HashSet<Page>(sharded.query(query)));
+				for (int k : new int[] {1, 10, Math.max(1, expected.size())}) {
+					RankedResults a = whole.rankedQuery(query, k);
+					RankedResults b = sharded.rankedQuery(query, k);
+					assertEquals(query, a.totalHits(), b.totalHits());
+					assertEquals(query, a.pages(), b.pages());
+					for (int i = 0; i < a.pages().size(); i++)
+						assertEquals(query, a.score(i), b.score(i), 0);
+				}
+			}
+		}
+	}
+
+	/**
+	 * The shards cover every doc ID once, in order, with about the same number
+	 * of words on each, and more shards than pages leaves some empty.
+	 */
+	@Test
+	public void boundsTest() {
+		int[] bounds = index.shardBounds(4);
+		assertEquals(5, bounds.length);
+		assertEquals(0, bounds[0]);
+		assertEquals(index.size(), bounds[4]);
+		long total = 0;
+		int longest = 0;
+		for (int doc = 0; doc < index.size(); doc++) {
+			total += index.length(doc);
+			longest = Math.max(longest, index.length(doc));
+		}
+		for (int i = 0; i < 4; i++) {
+			assertTrue(bounds[i] <= bounds[i + 1]);
+			long words = 0;
+			for (int doc = bounds[i]; doc < bounds[i + 1]; doc++)
+				words += index.length(doc);
+			// each end is cut within a page of where it should be
+			assertTrue(Math.abs(words - total / 4) <= 2 * longest + 1);
+		}
+
+		WebIndex small = new WebIndex();
+		small.add("cats", "", WebIndex.getPage("file:/a.html"));
+		small.add("dogs", "", WebIndex.getPage("file:/b.html"));
+		bounds = small.shardBounds(5);
+		assertEquals(0, bounds[0]);
+		assertEquals(2, bounds[5]);
+		WebQueryEngine sharded = WebQueryEngine.fromIndex(small, 0, 5);
+		assertEquals(1, sharded.query("cats").size());
+		assertEquals(2, sharded.query("cats | dogs").size());
+	}
+
+	/**
+	 * Pages added or deleted after the index was split are found or left out,
+	 * since the engine splits it again.
+	 */
+	@Test
+	public void changedIndexTest() {
+		WebIndex small = new WebIndex();
+		Page a = WebIndex.getPage("file:/a.html");
+		Page b = WebIndex.getPage("file:/b.html");
+		small.add("cats", "", a);
+		small.add("cats", "", b);
+		WebQueryEngine sharded = WebQueryEngine.fromIndex(small, 0, 3);
+		assertEquals(2, sharded.query("cats").size());
+
+		Page c = WebIndex.getPage("file:/c.html");
+		small.add("cats", "", c);
+		small.add("dogs", "cats", c);
+		small.delete(a);
+		assertEquals(new HashSet<Page>(List.of(b, c)), new HashSet<Page>(sharded.query("cats")));
+		assertEquals(List.of(c), sharded.rankedQuery("\"cats dogs\"", 10).pages());
+		assertEquals(List.of(b), List.copyOf(sharded.query("!dogs")));
+	}
+
+	/**
+	 * A cursor starting from a doc ID begins at the first page at or after it,
+	 * wherever it was found before, even once more pages have been added.
+	 */
+	@Test
+	public void cursorFromTest() {
+		PostingList list = new PostingList();
+		list.add(0, 1);
+		list.add(5, 2);
+		list.add(5, 7);
+		list.add(9, 3);
+		for (int i = 0; i < 2; i++) {
+			PostingList.Cursor cursor = list.cursor(6);
+			assertEquals(9, cursor.next());
+			assertEquals(1, cursor.readPositions());
+			assertEquals(3, cursor.positions()[0]);
+			assertEquals(5, list.cursor(5).next());
+		}
+		assertEquals(-1, list.cursor(13).next());
+
+		list.add(15, 4);
+		PostingList.Cursor cursor = list.cursor(6);
+		assertEquals(9, cursor.next());
+		assertEquals(15, cursor.next());
+		assertEquals(15, list.cursor(13).next());
+		assertEquals(15, list.cursor(10).advance(10));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void badShardsTest() {
+		WebQueryEngine.fromIndex(index, 0, 0);
+	}
+}
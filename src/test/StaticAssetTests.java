@@ -0,0 +1,118 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+import assignment.WebServer;
+
+/**
+ * Checks that WebServer serves the logo from /static/ with caching headers, and the
+ * homepage it renders up front. Run from the project root, where tsoogle.png is.
+ */
+public class StaticAssetTests {
+
+	int port;
+
+	@Before
+	public void startServer() throws Exception {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		// with one thread the server answers on the thread serving, so nothing's left running after the test
+		WebServer server = new WebServer(WebQueryEngine.fromIndex(new WebIndex()), port, 1, 16);
+		Thread serving = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		serving.setDaemon(true);
+		serving.start();
+	}
+
+	/**
+	 * The homepage links to the logo instead of inlining it, and a HEAD
+	 * request gets its headers without the body.
+	 */
+	@Test
+	public void homepageTest() throws Exception {
+		HttpURLConnection connection = connect("/", "GET");
+		assertEquals(200, connection.getResponseCode());
+		String body;
+		try (InputStream in = connection.getInputStream()) {
+			body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		assertTrue(body.contains("<img src='/static/tsoogle.png'"));
+		assertEquals(body.getBytes(StandardCharsets.UTF_8).length, connection.getContentLength());
+
+		HttpURLConnection head = connect("/", "HEAD");
+		assertEquals(200, head.getResponseCode());
+		assertEquals(connection.getContentLength(), head.getContentLength());
+		try (InputStream in = head.getInputStream()) {
+			assertEquals(0, in.readAllBytes().length);
+		}
+	}
+
+	/**
+	 * The logo comes back byte for byte with an ETag, which gets a 304 when
+	 * it's sent back, and files that aren't served get a 404.
+	 */
+	@Test
+	public void staticTest() throws Exception {
+		HttpURLConnection connection = connect("/static/tsoogle.png", "GET");
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("image/png", connection.getContentType());
+		assertEquals("public, max-age=86400", connection.getHeaderField("Cache-Control"));
+		String etag = connection.getHeaderField("ETag");
+		assertNotNull(etag);
+		try (InputStream in = connection.getInputStream()) {
+			assertArrayEquals(Files.readAllBytes(Paths.get("tsoogle.png")), in.readAllBytes());
+		}
+
+		HttpURLConnection cached = connect("/static/tsoogle.png", "GET", etag);
+		assertEquals(304, cached.getResponseCode());
+		assertEquals(etag, cached.getHeaderField("ETag"));
+
+		assertEquals(404, connect("/static/missing.png", "GET").getResponseCode());
+		assertEquals(404, connect("/static/../index.db", "GET").getResponseCode());
+	}
+
+	private HttpURLConnection connect(String path, String method) throws Exception {
+		return connect(path, method, null);
+	}
+
+	/**
+	 * Opens a connection to the server, sending the ETag in If-None-Match if there
+	 * is one, and retrying while the server starts listening.
+	 */
+	private HttpURLConnection connect(String path, String method, String etag) throws Exception {
+		for (int attempt = 0; ; attempt++) {
+			HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + path).openConnection();
+			connection.setRequestMethod(method);
+			if (etag != null)
+				connection.setRequestProperty("If-None-Match", etag);
+			try {
+				connection.connect();
+				return connection;
+			} catch (IOException e) {
+				// not listening yet
+				assertTrue(attempt < 100);
+				Thread.sleep(50);
+			}
+		}
+	}
+}
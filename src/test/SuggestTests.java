@@ -0,0 +1,177 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.IndexDirectory;
+import assignment.Page;
+import assignment.Suggester;
+import assignment.TermDictionary;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+import assignment.WebServer;
+
+/**
+ * Checks the completions of Suggester against ranking every word with the prefix, and that
+ * an index gives the same ones in memory, from its file, from segments and over HTTP.
+ */
+public class SuggestTests {
+
+	// the words of each page, added straight to an index so they don't depend on the default charset
+	static final String[] PAGES = {"café cafés über c", "café cake über", "café cake cakes", "cab über über"};
+
+	// only somewhere to save indexes; the pages are added straight to them
+	TestSite directory;
+
+	@Before
+	public void createDirectory() throws IOException {
+		directory = new TestSite("suggest");
+	}
+
+	@After
+	public void deleteDirectory() throws IOException {
+		directory.delete();
+	}
+
+	/**
+	 * Completions of random prefixes of random words are the words with the most
+	 * pages, with ties in byte order, however many words there are under the prefix.
+	 */
+	@Test
+	public void rankingTest() {
+		Random random = new Random(314);
+		String letters = "abcéжö";
+		TreeSet<String> words = new TreeSet<String>(SuggestTests::compareBytes);
+		while (words.size() < 3000) {
+			StringBuilder word = new StringBuilder();
+			for (int i = 1 + random.nextInt(6); i > 0; i--)
+				word.append(letters.charAt(random.nextInt(letters.length())));
+			words.add(word.toString());
+		}
+		List<String> sorted = new ArrayList<String>(words);
+		int[] docFreqs = new int[sorted.size()];
+		for (int i = 0; i < docFreqs.length; i++)
+			docFreqs[i] = 1 + random.nextInt(50);
+		Suggester suggester = Suggester.build(TermDictionary.of(sorted), docFreqs);
+
+		for (int i = 0; i < 500; i++) {
+			String word = sorted.get(random.nextInt(sorted.size()));
+			String prefix = word.substring(0, 1 + random.nextInt(word.length()));
+			List<Integer> expected = new ArrayList<Integer>();
+			for (int term = 0; term < sorted.size(); term++) {
+				if (sorted.get(term).startsWith(prefix))
+					expected.add(term);
+			}
+			expected.sort((a, b) -> docFreqs[a] != docFreqs[b] ? docFreqs[b] - docFreqs[a] : a - b);
+
+			int k = 1 + random.nextInt(10);
+			List<Suggester.Completion> found = suggester.suggest(prefix, k);
+			assertEquals(prefix, Math.min(k, expected.size()), found.size());
+			for (int j = 0; j < found.size(); j++) {
+				assertEquals(prefix, sorted.get(expected.get(j)), found.get(j).word());
+				assertEquals(prefix, docFreqs[expected.get(j)], found.get(j).docs());
+			}
+		}
+	}
+
+	/**
+	 * An index in memory, saved and split into segments completes words with
+	 * letters outside ASCII in the same way, and nothing that isn't a word.
+	 */
+	@Test
+	public void indexTest() throws Exception {
+		WebIndex memory = index(0, PAGES.length);
+		String path = directory.resolve("index.db").toString();
+		memory.save(path);
+		try (IndexDirectory segments = IndexDirectory.create(directory.resolve("segments.db").toString())) {
+			segments.add(index(0, 2));
+			segments.add(index(2, PAGES.length));
+			for (WebIndex index : new WebIndex[] {memory, (WebIndex) Index.load(path), segments.reader()}) {
+				assertEquals("[café (3), cake (2), c (1), cab (1), cafés (1), cakes (1)]",
+						index.suggest("c", 10).toString());
+				assertEquals("[café (3), cafés (1)]", index.suggest("caf", 10).toString());
+				assertEquals("[café (3)]", index.suggest("CAFÉ", 1).toString());
+				assertEquals("[über (3)]", index.suggest("ü", 10).toString());
+				for (String invalid : new String[] {"", "ca*", "!ca", "c+a", "c1", "zebra"})
+					assertEquals(invalid, List.of(), index.suggest(invalid, 10));
+			}
+		}
+	}
+
+	/**
+	 * /suggest answers with JSON, taking the prefix as percent encoded UTF-8.
+	 */
+	@Test
+	public void serverTest() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		// with one thread the server answers on the thread serving, so nothing's left running after the test
+		WebServer server = new WebServer(WebQueryEngine.fromIndex(index(0, PAGES.length)), port, 1, 16);
+		Thread serving = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		serving.setDaemon(true);
+		serving.start();
+
+		HttpURLConnection connection = null;
+		for (int attempt = 0; connection == null; attempt++) {
+			try {
+				connection = (HttpURLConnection) new URL("http://localhost:" + port + "/suggest?prefix=caf%C3%A9").openConnection();
+				connection.connect();
+			} catch (IOException e) {
+				// not listening yet
+				assertTrue(attempt < 100);
+				connection = null;
+				Thread.sleep(50);
+			}
+		}
+		assertEquals(200, connection.getResponseCode());
+		assertEquals("application/json; charset=utf-8", connection.getContentType());
+		try (InputStream in = connection.getInputStream()) {
+			assertEquals("{\"prefix\": \"café\", \"suggestions\": [{\"word\": \"café\", \"docs\": 3}, "
+					+ "{\"word\": \"cafés\", \"docs\": 1}]}", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	private static int compareBytes(String a, String b) {
+		return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Returns an index of the pages from from up to to.
+	 */
+	private static WebIndex index(int from, int to) throws IOException {
+		WebIndex index = new WebIndex();
+		for (int i = from; i < to; i++) {
+			Page page = new Page(new URL("http://example.com/" + i + ".html"));
+			String prev = "";
+			for (String word : PAGES[i].split(" ")) {
+				index.add(word, prev, page);
+				prev = word;
+			}
+		}
+		return index;
+	}
+}
@@ -0,0 +1,168 @@
+package test;
+
+import static org.junit.Assert.*;
+import static test.TestSite.pages;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import assignment.Index;
+import assignment.IndexDirectory;
+import assignment.Page;
+import assignment.TermDictionary;
+import assignment.WebCrawler;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * Checks the front coded TermDictionary against a TreeSet, and that prefix queries
+ * like cat* match the same pages from memory, an index file and segments.
+ */
+public class TermDictionaryTests {
+
+	// letters of a few alphabets, so terms have UTF-8 sequences of one to three bytes
+	static final String LETTERS = "abcdeéñßжщλω中文";
+
+	TestSite site;
+
+	@Before
+	public void writeSite() throws IOException {
+		site = new TestSite("prefix");
+		site.write("index.html", "<p>cats catch mice</p> <a href='cave.html'>cave</a> <a href='dogs.html'>dogs</a>");
+		site.write("cave.html", "<p>a dark cave</p> <a href='caterpillar.html'>more</a>");
+		site.write("caterpillar.html", "<p>the caterpillar eats leaves</p>");
+		site.write("dogs.html", "<p>dogs chase cats</p>");
+	}
+
+	@After
+	public void deleteSite() throws IOException {
+		site.delete();
+	}
+
+	/**
+	 * Every term is found at its ordinal, terms that aren't there aren't found, and
+	 * every prefix of up to two letters gives the range of the terms starting with it.
+	 */
+	@Test
+	public void dictionaryTest() {
+		Random random = new Random(314);
+		TreeSet<String> terms = new TreeSet<String>(TermDictionaryTests::compareBytes);
+		while (terms.size() < 5000)
+			terms.add(randomWord(random));
+		TermDictionary dictionary = TermDictionary.of(terms);
+		List<String> expected = new ArrayList<String>(terms);
+
+		assertEquals(expected.size(), dictionary.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i), dictionary.term(i));
+			assertEquals(i, dictionary.find(expected.get(i)));
+		}
+		for (int i = 0; i < 1000; i++) {
+			String word = randomWord(random);
+			assertEquals(word, terms.contains(word) ? expected.indexOf(word) : -1, dictionary.find(word));
+		}
+		assertEquals(-1, dictionary.find(""));
+
+		List<String> prefixes = new ArrayList<String>();
+		for (char a : LETTERS.toCharArray()) {
+			prefixes.add("" + a);
+			for (char b : LETTERS.toCharArray())
+				prefixes.add("" + a + b);
+		}
+		prefixes.add("");
+		for (String prefix : prefixes) {
+			int[] range = dictionary.prefixRange(prefix);
+			List<String> matching = new ArrayList<String>();
+			for (String term : expected) {
+				if (term.startsWith(prefix))
+					matching.add(term);
+			}
+			assertEquals(prefix, matching.size(), range[1] - range[0]);
+			if (!matching.isEmpty())
+				assertEquals(prefix, expected.indexOf(matching.get(0)), range[0]);
+		}
+		assertTrue(dictionary.byteSize() < 8 * terms.size());
+	}
+
+	/**
+	 * A prefix matches the pages of every word starting with it, negated or not,
+	 * whether the index is in memory, saved to a file or split into segments.
+	 */
+	@Test
+	public void prefixQueryTest() throws Exception {
+		WebIndex memory = WebCrawler.crawl(site.seeds());
+		String path = site.resolve("index.db").toString();
+		memory.save(path);
+		WebIndex file = (WebIndex) Index.load(path);
+		String segments = site.resolve("segments.db").toString();
+		try (IndexDirectory directory = IndexDirectory.create(segments)) {
+			WebCrawler.crawl(site.seeds(), directory, 1);
+			directory.waitForMerges();
+			for (WebIndex index : new WebIndex[] {memory, file, directory.reader()}) {
+				assertEquals(List.of("catch", "caterpillar", "cats"), index.prefixTerms("cat", 10));
+				assertEquals(List.of("catch", "caterpillar"), index.prefixTerms("CAT", 2));
+				assertEquals(List.of(), index.prefixTerms("zebra", 10));
+
+				assertEquals(pages(index, "cats | catch | caterpillar"), pages(index, "cat*"));
+				assertEquals(pages(index, "cave | cats | catch | caterpillar"), pages(index, "ca*"));
+				assertEquals(pages(index, "!cats & !caterpillar"), pages(index, "!cat*"));
+				assertEquals(pages(index, "dogs & cats"), pages(index, "do* & cats"));
+				assertEquals(Set.of(), pages(index, "zebra*"));
+			}
+		}
+
+		WebQueryEngine engine = WebQueryEngine.fromIndex(file);
+		assertEquals("caterpillar.html", engine.rankedQuery("caterp*", 5).pages().get(0).getURL().getPath()
+				.replaceAll(".*/", ""));
+		for (String invalid : new String[] {"*", "!*", "cat**", "\"cat* dark\"", "!!cat*", "c*t"}) {
+			try {
+				engine.query(invalid);
+				fail("Accepted " + invalid);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	/**
+	 * A prefix with more words than MAX_EXPANSIONS only matches the first of them.
+	 */
+	@Test
+	public void expansionLimitTest() throws Exception {
+		WebIndex index = new WebIndex();
+		int words = WebQueryEngine.MAX_EXPANSIONS + 10;
+		for (int i = 0; i < words; i++)
+			index.add("w" + (char) ('a' + i / 26) + (char) ('a' + i % 26), "", new Page(new URL("http://example.com/" + i)));
+		WebQueryEngine engine = WebQueryEngine.fromIndex(index, 0);
+		assertEquals(WebQueryEngine.MAX_EXPANSIONS, engine.query("w*").size());
+		assertEquals(words, engine.query("w* | wcv").size() + 9);
+		assertTrue(engine.explain("w*"), engine.explain("w*").startsWith("prefix w* (first " + WebQueryEngine.MAX_EXPANSIONS + " words)"));
+
+		// the expansions follow words added since the last prefix query
+		index.add("waaa", "", new Page(new URL("http://example.com/new")));
+		assertEquals(2, engine.query("waa*").size());
+	}
+
+	private static String randomWord(Random random) {
+		StringBuilder word = new StringBuilder();
+		int length = 1 + random.nextInt(8);
+		for (int i = 0; i < length; i++)
+			word.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+		return word.toString();
+	}
+
+	private static int compareBytes(String a, String b) {
+		return Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,75 @@
+package test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import assignment.Page;
+import assignment.WebIndex;
+import assignment.WebQueryEngine;
+
+/**
+ * A small site written to a temporary directory for the tests that crawl one,
+ * which is crawled from its index.html. Call delete once the test is done.
+ */
+class TestSite {
+
+	private final Path root;
+
+	/**
+	 * Makes a new empty site in a temporary directory whose name starts with prefix.
+	 */
+	TestSite(String prefix) throws IOException {
+		root = Files.createTempDirectory(prefix);
+	}
+
+	/**
+	 * Returns the path of a file in the site's directory.
+	 */
+	Path resolve(String name) {
+		return root.resolve(name);
+	}
+
+	/**
+	 * Writes a page with the given body, replacing it if it's already there.
+	 */
+	void write(String name, String body) throws IOException {
+		Files.writeString(root.resolve(name), "<html><body>" + body + "</body></html>");
+	}
+
+	/**
+	 * Returns a new queue holding the URL of the site's index.html.
+	 */
+	LinkedList<URL> seeds() throws IOException {
+		LinkedList<URL> seeds = new LinkedList<URL>();
+		seeds.add(root.resolve("index.html").toUri().toURL());
+		return seeds;
+	}
+
+	/**
+	 * Deletes the site's directory and everything in it.
+	 */
+	void delete() throws IOException {
+		try (Stream<Path> files = Files.walk(root)) {
+			files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+		}
+	}
+
+	/**
+	 * Returns the file names of the pages matching a query.
+	 */
+	static Set<String> pages(WebIndex index, String query) {
+		Set<String> names = new HashSet<String>();
+		for (Page page : WebQueryEngine.fromIndex(index, 0).query(query)) {
+			String file = page.getURL().getPath();
+			names.add(file.substring(file.lastIndexOf('/') + 1));
+		}
+		return names;
+	}
+}
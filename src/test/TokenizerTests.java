@@ -0,0 +1,151 @@
+package test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.attoparser.simple.AbstractSimpleMarkupHandler;
+import org.attoparser.simple.SimpleMarkupParser;
+import org.attoparser.config.ParseConfiguration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import assignment.WordTokenizer;
+
+/**
+ * Checks that the streaming WordTokenizer used by CrawlingMarkupHandler gives exactly
+ * the same words as the old String based tokenizing did. Needs the 'rhf' mirror in the path.
+ */
+public class TokenizerTests {
+
+	static List<char[]> chunks;
+
+	@BeforeClass
+	public static void loadChunks() throws Exception {
+		chunks = loadTextChunks(Paths.get("rhf"), 300);
+		assertFalse(chunks.isEmpty());
+	}
+
+	/**
+	 * Every chunk of text in the sample of rhf pages gives the same
+	 * words, with the same previous words, as the old tokenizer.
+	 */
+	@Test
+	public void rhfEquivalenceTest() {
+		List<String> expected = new ArrayList<String>();
+		List<String> actual = new ArrayList<String>();
+		WordTokenizer tokenizer = new WordTokenizer((word, prev) -> actual.add(prev + " " + word));
+
+		for (char[] chunk : chunks) {
+			expected.addAll(legacyTokens(chunk, 0, chunk.length));
+			tokenizer.text(chunk, 0, chunk.length);
+			tokenizer.endText();
+		}
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Tests the corner cases of the old tokenizer: punctuation, leftover
+	 * nbsp's from entities, apostrophes and non-english letters.
+	 */
+	@Test
+	public void edgeCaseTest() {
+		String[] tests = {"hello.", "(hello!)", "hel-lo", "hel\rlo\n\n", "(hello')", "&nbsp;Hi&nbsp;there",
+				"xnbspy", "NBSP nbsp", "nbnbspsp", "   ", "", "'", "Ζ Θ ΟΔΟΣ", "İstanbul", "漢語 ンサートは"};
+		for (String test : tests) {
+			List<String> actual = new ArrayList<String>();
+			WordTokenizer tokenizer = new WordTokenizer((word, prev) -> actual.add(prev + " " + word));
+			tokenizer.text(test.toCharArray(), 0, test.length());
+			tokenizer.endText();
+			assertEquals(legacyTokens(test.toCharArray(), 0, test.length()), actual);
+		}
+	}
+
+	/**
+	 * Splitting a block of text at any point gives the same words as
+	 * handing it over in one piece.
+	 */
+	@Test
+	public void splitChunkTest() {
+		char[] text = "The quick brown fox's den&nbsp;is   over-there.".toCharArray();
+		List<String> whole = new ArrayList<String>();
+		WordTokenizer tokenizer = new WordTokenizer((word, prev) -> whole.add(prev + " " + word));
+		tokenizer.text(text, 0, text.length);
+		tokenizer.endText();
+
+		for (int split = 0; split <= text.length; split++) {
+			List<String> parts = new ArrayList<String>();
+			tokenizer = new WordTokenizer((word, prev) -> parts.add(prev + " " + word));
+			tokenizer.text(text, 0, split);
+			tokenizer.text(text, split, text.length - split);
+			tokenizer.endText();
+			assertEquals(whole, parts);
+		}
+	}
+
+	/**
+	 * The text tokenizing CrawlingMarkupHandler.handleText used to do, kept
+	 * here as the reference. Returns each word as "prev word".
+	 */
+	public static List<String> legacyTokens(char[] ch, int start, int length) {
+		List<String> tokens = new ArrayList<String>();
+		String words = "";
+		for (int i = start; i < start + length; i++) {
+			if (Character.isLetter(ch[i]) || ch[i] == '\'')
+				words += ch[i];
+			else
+				words += " ";
+		}
+		words = words.replaceAll("nbsp", "");
+		words = words.replaceAll("\\s+", " ").trim().toLowerCase();
+
+		String prev = "";
+		if (!words.isEmpty() && !words.equals(" ")) {
+			for (String word : words.split(" ")) {
+				tokens.add(prev + " " + word);
+				prev = word;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Parses up to limit html files under root and returns a copy of every
+	 * chunk of text the parser hands to its handler. The files and chunks are
+	 * the ones bench.Corpus gives TokenizerBenchmark, without needing JMH.
+	 */
+	private static List<char[]> loadTextChunks(Path root, int limit) throws IOException {
+		List<Path> files;
+		try (Stream<Path> walk = Files.walk(root)) {
+			files = walk.filter(p -> p.toString().endsWith(".html")).sorted()
+					.limit(limit).collect(Collectors.toList());
+		}
+
+		List<char[]> chunks = new ArrayList<char[]>();
+		SimpleMarkupParser parser = new SimpleMarkupParser(ParseConfiguration.htmlConfiguration());
+		for (Path file : files) {
+			try (Reader reader = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+				parser.parse(reader, new AbstractSimpleMarkupHandler() {
+					@Override
+					public void handleText(char[] ch, int start, int length, int line, int col) {
+						char[] chunk = new char[length];
+						System.arraycopy(ch, start, chunk, 0, length);
+						chunks.add(chunk);
+					}
+				});
+			} catch (Exception e) {
+				// skip anything the parser can't handle, like the crawler does
+			}
+		}
+		return chunks;
+	}
+}